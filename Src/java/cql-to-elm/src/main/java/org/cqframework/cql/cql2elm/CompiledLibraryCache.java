@@ -0,0 +1,36 @@
+package org.cqframework.cql.cql2elm;
+
+import org.hl7.elm.r1.VersionedIdentifier;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A persistent store of compiled libraries, used by a {@link LibraryManager} to avoid translating included libraries
+ * whose source has not changed since they were last translated.
+ *
+ * The store holds at most one entry for each library, identified by the system and id of the library identifier; the
+ * version may be absent when a library is included without a version. The content of an entry is opaque to the
+ * store. The library manager records in each entry everything the compiled library depends on (the source, the
+ * translator options and version, and the entries of the libraries it includes), and removes or replaces entries
+ * that no longer match.
+ *
+ * Implementations must be safe for use by multiple threads, and should ensure that a partially written entry is never
+ * read.
+ */
+public interface CompiledLibraryCache {
+    /**
+     * @return The content of the entry for the given library, or null if there is no entry
+     */
+    InputStream getLibrary(VersionedIdentifier libraryIdentifier) throws IOException;
+
+    /**
+     * Stores the content of the entry for the given library, replacing any existing entry.
+     */
+    void putLibrary(VersionedIdentifier libraryIdentifier, byte[] content) throws IOException;
+
+    /**
+     * Removes the entry for the given library, if there is one.
+     */
+    void removeLibrary(VersionedIdentifier libraryIdentifier) throws IOException;
+}
@@ -0,0 +1,521 @@
+package org.cqframework.cql.cql2elm;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.cqframework.cql.elm.tracking.TrackBack;
+import org.cqframework.cql.gen.cqlParser;
+import org.hl7.cql.model.*;
+import org.hl7.elm.r1.*;
+import org.hl7.elm_modelinfo.r1.ModelInfo;
+
+import javax.xml.bind.JAXBException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.CodeSource;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * An entry in a {@link CompiledLibraryCache}: the ELM of a translated library, the result types of its definitions
+ * (which are not part of the ELM), and the inputs the translation depended on.
+ *
+ * The fingerprint of an entry is a hash of the source, the translator options and build, the model information of
+ * the models the library uses, and the fingerprints of the included libraries, so an entry is only valid while none
+ * of the libraries or models it depends on, directly or indirectly, have changed.
+ *
+ * An entry also records the warnings and messages of the translation, which are reported again when the entry is
+ * loaded, as they would be if the library were translated.
+ *
+ * The result types are recorded in the order given by {@link #getTypedElements(Library)}, with named types given by
+ * their qualified name (e.g. FHIR.Patient), and other types as objects with a single property naming the category
+ * (list, interval, tuple or choice).
+ */
+class CompiledLibraryEntry {
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    static class IncludeEntry {
+        IncludeEntry(String path, String version, String fingerprint) {
+            this.path = path;
+            this.version = version;
+            this.fingerprint = fingerprint;
+        }
+
+        final String path;
+        final String version;
+        final String fingerprint;
+    }
+
+    static class ModelEntry {
+        ModelEntry(String name, String version, String hash) {
+            this.name = name;
+            this.version = version;
+            this.hash = hash;
+        }
+
+        final String name;
+        final String version;
+        final String hash;
+    }
+
+    private String fingerprint;
+    private String sourceHash;
+    private String optionsKey;
+    private String translatorVersion;
+    private final List<ModelEntry> models = new ArrayList<>();
+    private final List<IncludeEntry> includes = new ArrayList<>();
+    private final List<JsonNode> exceptions = new ArrayList<>();
+    private final List<JsonNode> resultTypes = new ArrayList<>();
+    private String elm;
+
+    private CompiledLibraryEntry() {
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public List<ModelEntry> getModels() {
+        return models;
+    }
+
+    public List<IncludeEntry> getIncludes() {
+        return includes;
+    }
+
+    /**
+     * @return Whether the entry was translated from the given source with the given options by this translator
+     */
+    public boolean matches(String sourceHash, CqlTranslatorOptions options) {
+        return sourceHash.equals(this.sourceHash) && getOptionsKey(options).equals(this.optionsKey)
+                && this.translatorVersion.equals(getTranslatorVersion());
+    }
+
+    // The build is identified once, on first use, as it cannot change while the translator is running
+    private static class TranslatorVersionHolder {
+        static final String version = identifyTranslatorVersion();
+    }
+
+    /**
+     * @return The version of the translator, identifying the build of the code the translation depends on, or null
+     * if the build cannot be identified, in which case entries cannot be told apart from those of other builds, and
+     * the cache is not used
+     */
+    static String getTranslatorVersion() {
+        return TranslatorVersionHolder.version;
+    }
+
+    private static String identifyTranslatorVersion() {
+        // The implementation version is not enough on its own, as it is absent outside of a jar, and the same for
+        // every snapshot build, so the code of the translator, the parser, the model and ELM is hashed as well
+        Set<URL> locations = new LinkedHashSet<>();
+        for (Class<?> c : new Class<?>[] { LibraryBuilder.class, cqlParser.class, DataType.class, Library.class }) {
+            CodeSource codeSource = c.getProtectionDomain().getCodeSource();
+            if (codeSource == null || codeSource.getLocation() == null) {
+                return null;
+            }
+            locations.add(codeSource.getLocation());
+        }
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (URL location : locations) {
+                Path path = Paths.get(location.toURI());
+                List<Path> files;
+                if (Files.isDirectory(path)) {
+                    try (Stream<Path> walk = Files.walk(path)) {
+                        files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+                    }
+                }
+                else {
+                    files = new ArrayList<>();
+                    files.add(path);
+                }
+
+                for (Path file : files) {
+                    digest.update(path.relativize(file).toString().getBytes(StandardCharsets.UTF_8));
+                    try (InputStream input = new DigestInputStream(Files.newInputStream(file), digest)) {
+                        byte[] buffer = new byte[8192];
+                        while (input.read(buffer) != -1) {
+                            // The content is digested as it is read
+                        }
+                    }
+                }
+            }
+
+            String version = LibraryBuilder.class.getPackage().getImplementationVersion();
+            return String.format("%s|%s", version != null ? version : "", toHex(digest.digest()));
+        }
+        catch (IOException | URISyntaxException | NoSuchAlgorithmException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    static String getOptionsKey(CqlTranslatorOptions options) {
+        if (options == null) {
+            return "";
+        }
+
+        // Every option the translation of a library reads, the error level included, as it determines the errors
+        // recorded in the ELM
+        return String.format("%s|%s|%s|%s|%s", options, options.getCompatibilityLevel(), options.getSignatureLevel(),
+                options.getErrorLevel(), options.getValidateUnits());
+    }
+
+    static String hash(byte[] content) {
+        try {
+            return toHex(MessageDigest.getInstance("SHA-256").digest(content));
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] digest) {
+        StringBuilder builder = new StringBuilder();
+        for (byte b : digest) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return A hash of the content of the model information, so that a change to the model information of a model
+     * is detected even if its name and version are unchanged
+     */
+    static String hash(ModelInfo modelInfo) {
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            ElmJaxb.getModelInfoMarshaller().marshal(new org.hl7.elm_modelinfo.r1.ObjectFactory().createModelInfo(modelInfo), output);
+            return hash(output.toByteArray());
+        }
+        catch (JAXBException e) {
+            throw new IllegalArgumentException(String.format("Could not convert model information %s to XML.",
+                    modelInfo.getName()), e);
+        }
+    }
+
+    private static String getFingerprint(String sourceHash, String optionsKey, String translatorVersion, List<ModelEntry> models,
+                                         List<IncludeEntry> includes) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(sourceHash).append('\n').append(optionsKey).append('\n').append(translatorVersion);
+        for (ModelEntry model : models) {
+            builder.append('\n').append(model.name).append('|').append(model.version).append('|').append(model.hash);
+        }
+        for (IncludeEntry include : includes) {
+            builder.append('\n').append(include.path).append('|').append(include.version).append('|').append(include.fingerprint);
+        }
+        return hash(builder.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return The elements of the library whose result types are recorded in an entry: the parameter, terminology
+     * and expression definitions, each followed by its operands if it is a function
+     */
+    static List<Element> getTypedElements(Library library) {
+        List<Element> elements = new ArrayList<>();
+        if (library.getParameters() != null) {
+            elements.addAll(library.getParameters().getDef());
+        }
+        if (library.getCodeSystems() != null) {
+            elements.addAll(library.getCodeSystems().getDef());
+        }
+        if (library.getValueSets() != null) {
+            elements.addAll(library.getValueSets().getDef());
+        }
+        if (library.getCodes() != null) {
+            elements.addAll(library.getCodes().getDef());
+        }
+        if (library.getConcepts() != null) {
+            elements.addAll(library.getConcepts().getDef());
+        }
+        if (library.getStatements() != null) {
+            for (ExpressionDef def : library.getStatements().getDef()) {
+                elements.add(def);
+                if (def instanceof FunctionDef) {
+                    elements.addAll(((FunctionDef)def).getOperand());
+                }
+            }
+        }
+        return elements;
+    }
+
+    /**
+     * Creates an entry for a translated library. The models give the hashes of the model information of each model
+     * the library depends on, and the includes give the fingerprints of the entries of each library the library
+     * includes.
+     *
+     * @param exceptions The warnings and messages of the translation
+     * @return The entry, or null if the result type of any definition cannot be recorded
+     */
+    static CompiledLibraryEntry create(Library library, String sourceHash, CqlTranslatorOptions options, List<ModelEntry> models,
+                                       List<IncludeEntry> includes, List<CqlTranslatorException> exceptions) {
+        CompiledLibraryEntry entry = new CompiledLibraryEntry();
+        entry.sourceHash = sourceHash;
+        entry.optionsKey = getOptionsKey(options);
+        entry.translatorVersion = getTranslatorVersion();
+        entry.models.addAll(models);
+        entry.includes.addAll(includes);
+        entry.fingerprint = getFingerprint(entry.sourceHash, entry.optionsKey, entry.translatorVersion, models, includes);
+        for (CqlTranslatorException exception : exceptions) {
+            entry.exceptions.add(encodeException(exception));
+        }
+
+        for (Element element : getTypedElements(library)) {
+            JsonNode type = encodeType(element.getResultType());
+            if (type == null) {
+                return null;
+            }
+            entry.resultTypes.add(type);
+        }
+
+        try {
+            entry.elm = CqlTranslator.convertToXml(library);
+        }
+        catch (JAXBException e) {
+            throw new IllegalArgumentException(String.format("Could not convert library %s to XML.",
+                    library.getIdentifier().getId()), e);
+        }
+
+        return entry;
+    }
+
+    private static JsonNode encodeType(DataType type) {
+        JsonNodeFactory factory = JsonNodeFactory.instance;
+        if (type instanceof NamedType) {
+            return factory.textNode(((NamedType)type).getName());
+        }
+        else if (type instanceof ListType) {
+            JsonNode elementType = encodeType(((ListType)type).getElementType());
+            return elementType != null ? factory.objectNode().set("list", elementType) : null;
+        }
+        else if (type instanceof IntervalType) {
+            JsonNode pointType = encodeType(((IntervalType)type).getPointType());
+            return pointType != null ? factory.objectNode().set("interval", pointType) : null;
+        }
+        else if (type instanceof TupleType) {
+            ArrayNode elements = factory.arrayNode();
+            for (TupleTypeElement element : ((TupleType)type).getElements()) {
+                JsonNode elementType = encodeType(element.getType());
+                if (elementType == null) {
+                    return null;
+                }
+                elements.add(factory.objectNode().put("name", element.getName()).set("type", elementType));
+            }
+            return factory.objectNode().set("tuple", elements);
+        }
+        else if (type instanceof ChoiceType) {
+            ArrayNode choices = factory.arrayNode();
+            for (DataType choice : ((ChoiceType)type).getTypes()) {
+                JsonNode choiceType = encodeType(choice);
+                if (choiceType == null) {
+                    return null;
+                }
+                choices.add(choiceType);
+            }
+            return factory.objectNode().set("choice", choices);
+        }
+
+        // Type parameters, and missing types, are not recorded
+        return null;
+    }
+
+    private static DataType decodeType(JsonNode node, Function<String, DataType> namedTypeResolver) {
+        if (node.isTextual()) {
+            return namedTypeResolver.apply(node.textValue());
+        }
+        else if (node.has("list")) {
+            return ListType.of(decodeType(node.get("list"), namedTypeResolver));
+        }
+        else if (node.has("interval")) {
+            return IntervalType.of(decodeType(node.get("interval"), namedTypeResolver));
+        }
+        else if (node.has("tuple")) {
+            List<TupleTypeElement> elements = new ArrayList<>();
+            for (JsonNode element : node.get("tuple")) {
+                elements.add(new TupleTypeElement(element.get("name").textValue(), decodeType(element.get("type"), namedTypeResolver)));
+            }
+            return TupleType.of(elements);
+        }
+        else if (node.has("choice")) {
+            List<DataType> choices = new ArrayList<>();
+            for (JsonNode choice : node.get("choice")) {
+                choices.add(decodeType(choice, namedTypeResolver));
+            }
+            return ChoiceType.of(choices);
+        }
+
+        throw new IllegalArgumentException(String.format("Unknown type %s in compiled library entry.", node));
+    }
+
+    private static JsonNode encodeException(CqlTranslatorException exception) {
+        ObjectNode node = JsonNodeFactory.instance.objectNode();
+        node.put("type", exception instanceof CqlSyntaxException ? "syntax"
+                : exception instanceof CqlSemanticException ? "semantic"
+                : exception instanceof CqlInternalException ? "internal" : "translator");
+        node.put("message", exception.getMessage());
+        node.put("severity", exception.getSeverity().name());
+        TrackBack locator = exception.getLocator();
+        if (locator != null) {
+            ObjectNode locatorNode = node.putObject("locator");
+            if (locator.getLibrary() != null) {
+                locatorNode.put("system", locator.getLibrary().getSystem()).put("id", locator.getLibrary().getId())
+                        .put("version", locator.getLibrary().getVersion());
+            }
+            locatorNode.put("startLine", locator.getStartLine()).put("startChar", locator.getStartChar())
+                    .put("endLine", locator.getEndLine()).put("endChar", locator.getEndChar());
+        }
+        // The include that could not be resolved is recorded in the ELM, other causes are not
+        if (exception.getCause() instanceof CqlTranslatorIncludeException) {
+            CqlTranslatorIncludeException include = (CqlTranslatorIncludeException)exception.getCause();
+            node.putObject("include").put("message", include.getMessage()).put("system", include.getLibrarySystem())
+                    .put("id", include.getLibraryId()).put("version", include.getVersionId());
+        }
+        return node;
+    }
+
+    private static CqlTranslatorException decodeException(JsonNode node) {
+        String message = node.path("message").asText(null);
+        CqlTranslatorException.ErrorSeverity severity = CqlTranslatorException.ErrorSeverity.valueOf(node.path("severity").asText());
+        TrackBack locator = null;
+        JsonNode locatorNode = node.get("locator");
+        if (locatorNode != null) {
+            VersionedIdentifier library = null;
+            if (locatorNode.has("id")) {
+                library = new VersionedIdentifier().withSystem(locatorNode.path("system").asText(null))
+                        .withId(locatorNode.path("id").asText(null)).withVersion(locatorNode.path("version").asText(null));
+            }
+            locator = new TrackBack(library, locatorNode.path("startLine").asInt(), locatorNode.path("startChar").asInt(),
+                    locatorNode.path("endLine").asInt(), locatorNode.path("endChar").asInt());
+        }
+        Throwable cause = null;
+        JsonNode includeNode = node.get("include");
+        if (includeNode != null) {
+            cause = new CqlTranslatorIncludeException(includeNode.path("message").asText(null), includeNode.path("system").asText(null),
+                    includeNode.path("id").asText(null), includeNode.path("version").asText(null));
+        }
+
+        switch (node.path("type").asText()) {
+            case "syntax": return new CqlSyntaxException(message, severity, locator, cause);
+            case "semantic": return new CqlSemanticException(message, severity, locator, cause);
+            case "internal": return new CqlInternalException(message, locator, cause);
+            default: return new CqlTranslatorException(message, severity, locator, cause);
+        }
+    }
+
+    /**
+     * @return The warnings and messages of the translation of the library, to be reported again when it is loaded
+     */
+    public List<CqlTranslatorException> getExceptions() {
+        List<CqlTranslatorException> result = new ArrayList<>();
+        for (JsonNode node : exceptions) {
+            result.add(decodeException(node));
+        }
+        return result;
+    }
+
+    /**
+     * Reads the ELM of the entry. The definitions have no result types until they are set by
+     * {@link #setResultTypes(Library, Function)}.
+     */
+    public Library readLibrary() throws IOException {
+        try {
+            return ElmXmlLibraryReader.read(new StringReader(elm));
+        }
+        catch (JAXBException e) {
+            throw new IOException("Could not read the ELM of a compiled library entry.", e);
+        }
+    }
+
+    /**
+     * Sets the result types of the definitions of a library read from the entry.
+     *
+     * @param namedTypeResolver Resolves a qualified type name to a type in the models used by the library
+     */
+    public void setResultTypes(Library library, Function<String, DataType> namedTypeResolver) throws IOException {
+        List<Element> elements = getTypedElements(library);
+        if (elements.size() != resultTypes.size()) {
+            throw new IOException("The result types of a compiled library entry do not match its definitions.");
+        }
+
+        // Named types are resolved once each, as most are shared by many definitions
+        Map<String, DataType> namedTypes = new HashMap<>();
+        Function<String, DataType> resolver = name -> namedTypes.computeIfAbsent(name, namedTypeResolver);
+        for (int i = 0; i < elements.size(); i++) {
+            elements.get(i).setResultType(decodeType(resultTypes.get(i), resolver));
+        }
+    }
+
+    public byte[] toBytes() throws IOException {
+        ObjectNode root = mapper.createObjectNode();
+        root.put("fingerprint", fingerprint);
+        root.put("sourceHash", sourceHash);
+        root.put("options", optionsKey);
+        root.put("translatorVersion", translatorVersion);
+        ArrayNode modelNodes = root.putArray("models");
+        for (ModelEntry model : models) {
+            modelNodes.addObject().put("name", model.name).put("version", model.version).put("hash", model.hash);
+        }
+        ArrayNode includeNodes = root.putArray("includes");
+        for (IncludeEntry include : includes) {
+            includeNodes.addObject().put("path", include.path).put("version", include.version).put("fingerprint", include.fingerprint);
+        }
+        root.putArray("exceptions").addAll(exceptions);
+        root.putArray("resultTypes").addAll(resultTypes);
+        root.put("elm", elm);
+        return mapper.writeValueAsBytes(root);
+    }
+
+    public static CompiledLibraryEntry read(InputStream input) throws IOException {
+        JsonNode root = mapper.readTree(input);
+        if (root == null || !root.isObject()) {
+            throw new IOException("A compiled library entry must be an object.");
+        }
+
+        CompiledLibraryEntry entry = new CompiledLibraryEntry();
+        entry.fingerprint = root.path("fingerprint").asText();
+        entry.sourceHash = root.path("sourceHash").asText();
+        entry.optionsKey = root.path("options").asText();
+        entry.translatorVersion = root.path("translatorVersion").asText();
+        for (JsonNode model : root.path("models")) {
+            entry.models.add(new ModelEntry(model.path("name").asText(), model.path("version").asText(null),
+                    model.path("hash").asText()));
+        }
+        for (JsonNode include : root.path("includes")) {
+            entry.includes.add(new IncludeEntry(include.path("path").asText(), include.path("version").asText(null),
+                    include.path("fingerprint").asText()));
+        }
+        for (JsonNode exception : root.path("exceptions")) {
+            entry.exceptions.add(exception);
+        }
+        for (JsonNode type : root.path("resultTypes")) {
+            entry.resultTypes.add(type);
+        }
+        entry.elm = root.path("elm").asText(null);
+        if (entry.elm == null) {
+            throw new IOException("A compiled library entry must contain ELM.");
+        }
+
+        return entry;
+    }
+}
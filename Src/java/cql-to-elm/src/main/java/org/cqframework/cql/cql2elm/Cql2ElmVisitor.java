@@ -67,6 +67,8 @@ public class Cql2ElmVisitor extends cqlBaseVisitor {
     private final List<Retrieve> retrieves = new ArrayList<>();
     private final List<Expression> expressions = new ArrayList<>();
     private final Map<String, Element> contextDefinitions = new HashMap<>();
+    private Map<ParseTree, ExpressionDef> reusableDefinitions = new HashMap<>();
+    private final Map<ParseTree, ExpressionDef> translatedDefinitions = new HashMap<>();
 
     public Cql2ElmVisitor(LibraryBuilder libraryBuilder) {
         super();
@@ -192,6 +194,28 @@ public class Cql2ElmVisitor extends cqlBaseVisitor {
         return nextLocalId++;
     }
 
+    public void setNextLocalId(int value) {
+        nextLocalId = value;
+    }
+
+    /**
+     * Sets the definitions carried over from a previous translation of the library, by the parse tree of each
+     * expression or function definition. These are added to the library as they are, rather than translated again.
+     */
+    public void setReusableDefinitions(Map<ParseTree, ExpressionDef> value) {
+        if (value == null) {
+            throw new IllegalArgumentException("value is null");
+        }
+        reusableDefinitions = value;
+    }
+
+    /**
+     * @return The expression and function definitions added to the library, by their parse tree
+     */
+    public Map<ParseTree, ExpressionDef> getTranslatedDefinitions() {
+        return translatedDefinitions;
+    }
+
     public boolean isAnnotationEnabled(){
         return annotate;
     }
@@ -835,15 +859,15 @@ public class Cql2ElmVisitor extends cqlBaseVisitor {
 
     @Override
     public Object visitTupleTypeSpecifier(cqlParser.TupleTypeSpecifierContext ctx) {
-        TupleType resultType = new TupleType();
+        List<TupleTypeElement> elements = new ArrayList<>();
         TupleTypeSpecifier typeSpecifier = of.createTupleTypeSpecifier();
         for (cqlParser.TupleElementDefinitionContext definitionContext : ctx.tupleElementDefinition()) {
             TupleElementDefinition element = (TupleElementDefinition)visit(definitionContext);
-            resultType.addElement(new TupleTypeElement(element.getName(), element.getElementType().getResultType()));
+            elements.add(new TupleTypeElement(element.getName(), element.getElementType().getResultType()));
             typeSpecifier.getElement().add(element);
         }
 
-        typeSpecifier.setResultType(resultType);
+        typeSpecifier.setResultType(TupleType.of(elements));
 
         return typeSpecifier;
     }
@@ -861,7 +885,7 @@ public class Cql2ElmVisitor extends cqlBaseVisitor {
         if (includeDeprecatedElements) {
             result.getType().addAll(typeSpecifiers);
         }
-        ChoiceType choiceType = new ChoiceType(types);
+        ChoiceType choiceType = ChoiceType.of(types);
         result.setResultType(choiceType);
         return result;
     }
@@ -869,7 +893,7 @@ public class Cql2ElmVisitor extends cqlBaseVisitor {
     @Override
     public IntervalTypeSpecifier visitIntervalTypeSpecifier(cqlParser.IntervalTypeSpecifierContext ctx) {
         IntervalTypeSpecifier result = of.createIntervalTypeSpecifier().withPointType(parseTypeSpecifier(ctx.typeSpecifier()));
-        IntervalType intervalType = new IntervalType(result.getPointType().getResultType());
+        IntervalType intervalType = IntervalType.of(result.getPointType().getResultType());
         result.setResultType(intervalType);
         return result;
     }
@@ -877,7 +901,7 @@ public class Cql2ElmVisitor extends cqlBaseVisitor {
     @Override
     public ListTypeSpecifier visitListTypeSpecifier(cqlParser.ListTypeSpecifierContext ctx) {
         ListTypeSpecifier result = of.createListTypeSpecifier().withElementType(parseTypeSpecifier(ctx.typeSpecifier()));
-        ListType listType = new ListType(result.getElementType().getResultType());
+        ListType listType = ListType.of(result.getElementType().getResultType());
         result.setResultType(listType);
         return result;
     }
@@ -903,7 +927,7 @@ public class Cql2ElmVisitor extends cqlBaseVisitor {
             cs.setResultType(libraryBuilder.resolveTypeName("System", "CodeSystem"));
         }
         else {
-            cs.setResultType(new ListType(libraryBuilder.resolveTypeName("System", "Code")));
+            cs.setResultType(ListType.of(libraryBuilder.resolveTypeName("System", "Code")));
         }
 
         libraryBuilder.addCodeSystem(cs);
@@ -975,7 +999,7 @@ public class Cql2ElmVisitor extends cqlBaseVisitor {
             vs.setResultType(libraryBuilder.resolveTypeName("System", "ValueSet"));
         }
         else {
-            vs.setResultType(new ListType(libraryBuilder.resolveTypeName("System", "Code")));
+            vs.setResultType(ListType.of(libraryBuilder.resolveTypeName("System", "Code")));
         }
         libraryBuilder.addValueSet(vs);
 
@@ -1057,7 +1081,7 @@ public class Cql2ElmVisitor extends cqlBaseVisitor {
                     else {
                         Retrieve contextRetrieve = of.createRetrieve().withDataType(libraryBuilder.dataTypeToQName(contextType));
                         track(contextRetrieve, ctx);
-                        contextRetrieve.setResultType(new ListType(contextType));
+                        contextRetrieve.setResultType(ListType.of(contextType));
                         String contextClassIdentifier = ((ClassType) contextType).getIdentifier();
                         if (contextClassIdentifier != null) {
                             contextRetrieve.setTemplateId(contextClassIdentifier);
@@ -1125,6 +1149,13 @@ public class Cql2ElmVisitor extends cqlBaseVisitor {
                 removeImplicitContextExpressionDef(def);
                 def = null;
             }
+            ExpressionDef reusable = reusableDefinitions.get(ctx);
+            if (reusable != null) {
+                def = reusable;
+                libraryBuilder.addExpression(def);
+                translatedDefinitions.put(ctx, def);
+                return def;
+            }
             libraryBuilder.pushExpressionContext(currentContext);
             try {
                 libraryBuilder.pushExpressionDefinition(identifier);
@@ -1138,6 +1169,7 @@ public class Cql2ElmVisitor extends cqlBaseVisitor {
                         def.setResultType(def.getExpression().getResultType());
                     }
                     libraryBuilder.addExpression(def);
+                    translatedDefinitions.put(ctx, def);
                 } finally {
                     libraryBuilder.popExpressionDefinition();
                 }
@@ -1198,13 +1230,13 @@ public class Cql2ElmVisitor extends cqlBaseVisitor {
     @Override
     public Object visitTupleSelector(cqlParser.TupleSelectorContext ctx) {
         Tuple tuple = of.createTuple();
-        TupleType tupleType = new TupleType();
+        List<TupleTypeElement> elements = new ArrayList<>();
         for (cqlParser.TupleElementSelectorContext elementContext : ctx.tupleElementSelector()) {
             TupleElement element = (TupleElement)visit(elementContext);
-            tupleType.addElement(new TupleTypeElement(element.getName(), element.getResultType()));
+            elements.add(new TupleTypeElement(element.getName(), element.getResultType()));
             tuple.getElement().add(element);
         }
-        tuple.setResultType(tupleType);
+        tuple.setResultType(TupleType.of(elements));
         return tuple;
     }
 
@@ -1275,7 +1307,7 @@ public class Cql2ElmVisitor extends cqlBaseVisitor {
         if (elementTypeSpecifier != null) {
             ListTypeSpecifier listTypeSpecifier = of.createListTypeSpecifier().withElementType(elementTypeSpecifier);
             track(listTypeSpecifier, ctx.typeSpecifier());
-            listType = new ListType(elementTypeSpecifier.getResultType());
+            listType = ListType.of(elementTypeSpecifier.getResultType());
             listTypeSpecifier.setResultType(listType);
         }
 
@@ -1327,7 +1359,7 @@ public class Cql2ElmVisitor extends cqlBaseVisitor {
         }
 
         if (listType == null) {
-            listType = new ListType(elementType);
+            listType = ListType.of(elementType);
         }
 
         list.setResultType(listType);
@@ -3487,7 +3519,7 @@ DATETIME
 
         retrieves.add(retrieve);
 
-        retrieve.setResultType(new ListType((DataType) namedType));
+        retrieve.setResultType(ListType.of((DataType) namedType));
 
         return retrieve;
     }
@@ -3563,7 +3595,7 @@ DATETIME
                             .withDistinct(true);
 
                     Tuple returnExpression = of.createTuple();
-                    TupleType returnType = new TupleType();
+                    List<TupleTypeElement> returnElements = new ArrayList<>();
                     for (AliasedQuerySource aqs : sources) {
                         TupleElement element =
                                 of.createTupleElement()
@@ -3572,11 +3604,12 @@ DATETIME
                         DataType sourceType = aqs.getResultType() instanceof ListType ? ((ListType)aqs.getResultType()).getElementType() : aqs.getResultType();
                         element.getValue().setResultType(sourceType); // Doesn't use the fluent API to avoid casting
                         element.setResultType(element.getValue().getResultType());
-                        returnType.addElement(new TupleTypeElement(element.getName(), element.getResultType()));
+                        returnElements.add(new TupleTypeElement(element.getName(), element.getResultType()));
                         returnExpression.getElement().add(element);
                     }
 
-                    returnExpression.setResultType(queryContext.isSingular() ? returnType : new ListType(returnType));
+                    TupleType returnType = TupleType.of(returnElements);
+                    returnExpression.setResultType(queryContext.isSingular() ? returnType : ListType.of(returnType));
                     ret.setExpression(returnExpression);
                     ret.setResultType(returnExpression.getResultType());
                 }
@@ -3846,7 +3879,7 @@ DATETIME
     private boolean isRHSEligibleForDateRangeOptimization(Expression rhs) {
         return
             rhs.getResultType().isSubTypeOf(libraryBuilder.resolveTypeName("System", "DateTime"))
-                || rhs.getResultType().isSubTypeOf(new IntervalType(libraryBuilder.resolveTypeName("System", "DateTime")));
+                || rhs.getResultType().isSubTypeOf(IntervalType.of(libraryBuilder.resolveTypeName("System", "DateTime")));
 
         // BTR: The only requirement for the optimization is that the expression be of type DateTime or Interval<DateTime>
         // Whether or not the expression can be statically evaluated (literal, in the loose sense of the word) is really
@@ -3976,7 +4009,7 @@ DATETIME
         returnClause.setExpression(parseExpression(ctx.expression()));
         returnClause.setResultType(libraryBuilder.peekQueryContext().isSingular()
                 ? returnClause.getExpression().getResultType()
-                : new ListType(returnClause.getExpression().getResultType()));
+                : ListType.of(returnClause.getExpression().getResultType()));
 
         return returnClause;
     }
@@ -4346,6 +4379,15 @@ DATETIME
     }
 
     public Object internalVisitFunctionDefinition(cqlParser.FunctionDefinitionContext ctx) {
+        FunctionDef reusable = (FunctionDef)reusableDefinitions.get(ctx);
+        if (reusable != null) {
+            if (!libraryBuilder.getTranslatedLibrary().contains(reusable)) {
+                libraryBuilder.addExpression(reusable);
+                translatedDefinitions.put(ctx, reusable);
+            }
+            return reusable;
+        }
+
         FunctionDef fun = of.createFunctionDef()
                 .withAccessLevel(parseAccessModifier(ctx.accessModifier()))
                 .withName(parseString(ctx.identifierOrFunctionIdentifier()));
@@ -4413,6 +4455,7 @@ DATETIME
             fun.setContext(currentContext);
             if (fun.getResultType() != null) {
                 libraryBuilder.addExpression(fun);
+                translatedDefinitions.put(ctx, fun);
             }
         }
 
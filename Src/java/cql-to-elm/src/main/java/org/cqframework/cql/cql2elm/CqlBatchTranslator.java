@@ -0,0 +1,343 @@
+package org.cqframework.cql.cql2elm;
+
+import org.fhir.ucum.UcumService;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Translates a batch of CQL files on a pool of worker threads.
+ *
+ * Files in the same directory share a library manager, so a library included by several files in the batch is
+ * translated once, and all files share a model cache. The include graph of the batch is built from a scan of the
+ * library headers, and each file is scheduled once the files it includes have been translated, so that their
+ * translations are available to it from the library cache. Output for each file is written as soon as it is
+ * translated.
+ */
+public class CqlBatchTranslator {
+    private static final Pattern LIBRARY_PATTERN = Pattern.compile("^\\s*library\\s+(\"[^\"]+\"|[A-Za-z_][\\w.]*)");
+    private static final Pattern INCLUDE_PATTERN = Pattern.compile("^\\s*include\\s+(\"[^\"]+\"|[A-Za-z_][\\w.]*)");
+    private static final Pattern BODY_PATTERN = Pattern.compile("^\\s*(define|context)\\b");
+
+    private final CqlTranslatorOptions options;
+    private final CqlTranslator.Format format;
+    private final int threads;
+
+    public CqlBatchTranslator(CqlTranslatorOptions options, CqlTranslator.Format format, int threads) {
+        if (options == null) {
+            throw new IllegalArgumentException("options is null");
+        }
+
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+
+        this.options = options;
+        this.format = format;
+        this.threads = threads;
+    }
+
+    /**
+     * The library name and included library names declared in the header of a CQL file.
+     */
+    static class LibraryHeader {
+        String name;
+        final List<String> includes = new ArrayList<>();
+    }
+
+    /**
+     * The result of translating one file of the batch.
+     */
+    public static class FileResult {
+        FileResult(Path input, Path output) {
+            this.input = input;
+            this.output = output;
+        }
+
+        private final Path input;
+        public Path getInput() {
+            return input;
+        }
+
+        private final Path output;
+        public Path getOutput() {
+            return output;
+        }
+
+        private boolean success;
+        public boolean isSuccess() {
+            return success;
+        }
+
+        private long elapsedTime;
+        /**
+         * @return The time taken to translate and write the file, in nanoseconds
+         */
+        public long getElapsedTime() {
+            return elapsedTime;
+        }
+    }
+
+    private static class TranslationUnit {
+        TranslationUnit(Path input, Path output, LibraryHeader header, DirectoryContext context) {
+            this.result = new FileResult(input, output);
+            this.header = header;
+            this.context = context;
+        }
+
+        final FileResult result;
+        final LibraryHeader header;
+        final DirectoryContext context;
+        final List<TranslationUnit> dependents = new ArrayList<>();
+        final AtomicInteger remainingDependencies = new AtomicInteger();
+        boolean cacheable;
+    }
+
+    private static class DirectoryContext {
+        ModelManager modelManager;
+        LibraryManager libraryManager;
+    }
+
+    private static String getUnqualifiedName(String name) {
+        if (name.startsWith("\"")) {
+            return name.substring(1, name.length() - 1);
+        }
+
+        int index = name.lastIndexOf('.');
+        return index >= 0 ? name.substring(index + 1) : name;
+    }
+
+    /**
+     * Reads the library and include declarations of a CQL file, stopping at the first definition. The scan is
+     * line-based and only used for scheduling, so a missed or spurious include affects ordering, not correctness.
+     */
+    static LibraryHeader scanHeader(Path input) throws IOException {
+        LibraryHeader header = new LibraryHeader();
+        try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (BODY_PATTERN.matcher(line).find()) {
+                    break;
+                }
+
+                Matcher matcher = LIBRARY_PATTERN.matcher(line);
+                if (matcher.find()) {
+                    header.name = getUnqualifiedName(matcher.group(1));
+                    continue;
+                }
+
+                matcher = INCLUDE_PATTERN.matcher(line);
+                if (matcher.find()) {
+                    header.includes.add(getUnqualifiedName(matcher.group(1)));
+                }
+            }
+        }
+
+        return header;
+    }
+
+    /**
+     * Translates each input file of the map to its output file, and reports per-file and total timings.
+     *
+     * @param inOutMap The input files, mapped to the output file for each
+     * @return The result for each file, in the order the translations completed
+     */
+    public List<FileResult> translate(Map<Path, Path> inOutMap) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        List<TranslationUnit> units = buildUnits(inOutMap);
+        List<FileResult> results = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch completed = new CountDownLatch(units.size());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        UcumService ucumService = CqlTranslator.createUcumService(options);
+        try {
+            // Collect the units with no dependencies before submitting any, since completing units release others
+            List<TranslationUnit> roots = new ArrayList<>();
+            for (TranslationUnit unit : units) {
+                if (unit.remainingDependencies.get() == 0) {
+                    roots.add(unit);
+                }
+            }
+            for (TranslationUnit unit : roots) {
+                submit(executor, unit, ucumService, results, completed);
+            }
+            completed.await();
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        long wallTime = System.nanoTime() - start;
+        long translationTime = 0;
+        int failures = 0;
+        for (FileResult result : results) {
+            translationTime += result.getElapsedTime();
+            if (!result.isSuccess()) {
+                failures++;
+            }
+        }
+
+        System.err.println("================================================================================");
+        System.err.printf("Translated %d files (%d failed) on %d threads in %d ms; total translation time %d ms, speedup %.2fx%n",
+                results.size(), failures, threads, wallTime / 1000000, translationTime / 1000000,
+                wallTime > 0 ? (double)translationTime / wallTime : 1.0);
+        return results;
+    }
+
+    private List<TranslationUnit> buildUnits(Map<Path, Path> inOutMap) throws IOException {
+        ModelCache modelCache = new ModelCache();
+        boolean enableDefaultModelInfoLoading = !options.getOptions().contains(CqlTranslator.Options.DisableDefaultModelInfoLoad);
+        Map<Path, DirectoryContext> contexts = new HashMap<>();
+        Map<DirectoryContext, Map<String, List<TranslationUnit>>> unitsByName = new HashMap<>();
+        List<TranslationUnit> units = new ArrayList<>();
+        for (Map.Entry<Path, Path> inOut : inOutMap.entrySet()) {
+            Path directory = inOut.getKey().getParent();
+            DirectoryContext context = contexts.get(directory);
+            if (context == null) {
+                context = new DirectoryContext();
+                context.modelManager = new ModelManager(enableDefaultModelInfoLoading, modelCache);
+                context.modelManager.getModelInfoLoader().registerModelInfoProvider(new DefaultModelInfoProvider(directory), true);
+                context.libraryManager = new LibraryManager(context.modelManager);
+                context.libraryManager.getLibrarySourceLoader().registerProvider(new DefaultLibrarySourceProvider(directory));
+                context.libraryManager.getLibrarySourceLoader().registerProvider(new FhirLibrarySourceProvider());
+                contexts.put(directory, context);
+                unitsByName.put(context, new HashMap<>());
+            }
+
+            TranslationUnit unit = new TranslationUnit(inOut.getKey(), inOut.getValue(), scanHeader(inOut.getKey()), context);
+            units.add(unit);
+            if (unit.header.name != null) {
+                unitsByName.get(context).computeIfAbsent(unit.header.name, k -> new ArrayList<>()).add(unit);
+            }
+        }
+
+        // Includes resolve to files in the same directory. A library declared by more than one file (e.g. several
+        // versions) is neither cached nor used for ordering, so each include resolves it from source as before.
+        Map<TranslationUnit, List<TranslationUnit>> dependencies = new LinkedHashMap<>();
+        for (TranslationUnit unit : units) {
+            Map<String, List<TranslationUnit>> names = unitsByName.get(unit.context);
+            unit.cacheable = unit.header.name != null && names.get(unit.header.name).size() == 1;
+            List<TranslationUnit> unitDependencies = new ArrayList<>();
+            for (String include : unit.header.includes) {
+                List<TranslationUnit> included = names.get(include);
+                if (included != null && included.size() == 1 && included.get(0) != unit && !unitDependencies.contains(included.get(0))) {
+                    unitDependencies.add(included.get(0));
+                }
+            }
+            dependencies.put(unit, unitDependencies);
+        }
+
+        // Order the include graph; units in (or depending on) a cycle are scheduled without ordering constraints
+        // and the translator reports the circular reference
+        Map<TranslationUnit, Integer> inDegree = new HashMap<>();
+        for (TranslationUnit unit : units) {
+            inDegree.put(unit, dependencies.get(unit).size());
+            for (TranslationUnit dependency : dependencies.get(unit)) {
+                dependency.dependents.add(unit);
+            }
+        }
+
+        Deque<TranslationUnit> ready = new ArrayDeque<>();
+        for (TranslationUnit unit : units) {
+            if (inDegree.get(unit) == 0) {
+                ready.add(unit);
+            }
+        }
+
+        List<TranslationUnit> ordered = new ArrayList<>();
+        while (!ready.isEmpty()) {
+            TranslationUnit unit = ready.remove();
+            ordered.add(unit);
+            for (TranslationUnit dependent : unit.dependents) {
+                if (inDegree.merge(dependent, -1, Integer::sum) == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+
+        Set<TranslationUnit> sorted = new HashSet<>(ordered);
+        for (TranslationUnit unit : units) {
+            if (sorted.contains(unit)) {
+                unit.remainingDependencies.set(dependencies.get(unit).size());
+            }
+            else {
+                // Anything depending on an unsorted unit is itself unsorted
+                unit.dependents.clear();
+                for (TranslationUnit dependency : dependencies.get(unit)) {
+                    dependency.dependents.remove(unit);
+                }
+                ordered.add(unit);
+            }
+        }
+
+        return ordered;
+    }
+
+    private void submit(ExecutorService executor, TranslationUnit unit, UcumService ucumService,
+            List<FileResult> results, CountDownLatch completed) {
+        executor.submit(() -> {
+            try {
+                translate(unit, ucumService);
+            }
+            finally {
+                results.add(unit.result);
+                completed.countDown();
+                for (TranslationUnit dependent : unit.dependents) {
+                    if (dependent.remainingDependencies.decrementAndGet() == 0) {
+                        submit(executor, dependent, ucumService, results, completed);
+                    }
+                }
+            }
+        });
+    }
+
+    private void translate(TranslationUnit unit, UcumService ucumService) {
+        ByteArrayOutputStream messages = new ByteArrayOutputStream();
+        PrintStream err = new PrintStream(messages, true);
+        FileResult result = unit.result;
+        err.println("================================================================================");
+        err.printf("TRANSLATE %s%n", result.getInput());
+
+        long start = System.nanoTime();
+        try {
+            CqlTranslator translator = CqlTranslator.fromFile(result.getInput().toFile(), unit.context.modelManager,
+                    unit.context.libraryManager, ucumService, options);
+            CqlTranslator.writeOutput(err, translator, result.getOutput(), format, options);
+            result.success = translator.getErrors().size() == 0;
+            if (result.success && unit.cacheable) {
+                // Make the library available to files in the batch that include it
+                unit.context.libraryManager.cacheLibrary(translator.getTranslatedLibrary());
+            }
+        }
+        catch (Exception e) {
+            err.printf("Translation failed: %s%n", e.getMessage());
+        }
+        result.elapsedTime = System.nanoTime() - start;
+
+        err.printf("Elapsed time: %d ms%n", result.elapsedTime / 1000000);
+        err.println();
+        synchronized (System.err) {
+            System.err.print(new String(messages.toByteArray(), StandardCharsets.UTF_8));
+        }
+    }
+}
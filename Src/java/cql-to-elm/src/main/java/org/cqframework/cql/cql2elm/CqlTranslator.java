@@ -10,6 +10,7 @@ import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
 import org.antlr.v4.runtime.*;
 import org.antlr.v4.runtime.tree.ParseTree;
+import org.cqframework.cql.CqlParserUtil;
 import org.cqframework.cql.cql2elm.model.TranslatedLibrary;
 import org.cqframework.cql.cql2elm.model.serialization.LibraryWrapper;
 import org.cqframework.cql.cql2elm.preprocessor.CqlPreprocessorVisitor;
@@ -19,7 +20,6 @@ import org.cqframework.cql.gen.cqlParser;
 import org.fhir.ucum.UcumEssenceService;
 import org.fhir.ucum.UcumException;
 import org.fhir.ucum.UcumService;
-import org.hl7.cql_annotations.r1.Annotation;
 import org.hl7.elm.r1.Library;
 import org.hl7.elm.r1.ObjectFactory;
 import org.hl7.elm.r1.Retrieve;
@@ -27,7 +27,9 @@ import org.hl7.elm.r1.VersionedIdentifier;
 import org.hl7.elm_modelinfo.r1.ModelInfo;
 
 import javax.xml.bind.*;
+import javax.xml.transform.stream.StreamSource;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
@@ -48,16 +50,17 @@ public class CqlTranslator {
         EnableIntervalPromotion,
         DisableMethodInvocation,
         RequireFromKeyword,
-        DisableDefaultModelInfoLoad
+        DisableDefaultModelInfoLoad,
+        EnableCommonSubexpressionElimination
     }
     public static enum Format { XML, JSON, JXSON, COFFEE }
-    private static JAXBContext jaxbContext;
     private static ObjectMapper jxsonMapper;
 
     private Library library = null;
     private TranslatedLibrary translatedLibrary = null;
     private Object visitResult = null;
     private List<Retrieve> retrieves = null;
+    private int collapsedRetrieveCount = 0;
     private List<CqlTranslatorException> exceptions = null;
     private List<CqlTranslatorException> errors = null;
     private List<CqlTranslatorException> warnings = null;
@@ -414,6 +417,33 @@ public class CqlTranslator {
         return toXml(library);
     }
 
+    private void toXml(Library library, Writer writer) {
+        try {
+            convertToXml(library, writer);
+        }
+        catch (JAXBException e) {
+            throw new IllegalArgumentException("Could not convert library to XML.", e);
+        }
+    }
+
+    /**
+     * Writes the ELM XML for the translated library to the given writer, without building the document in memory.
+     * The writer is not closed.
+     */
+    public void toXml(Writer writer) {
+        toXml(library, writer);
+    }
+
+    /**
+     * Writes the ELM XML for the translated library to the given stream as UTF-8, without building the document in
+     * memory. The stream is not closed.
+     */
+    public void toXml(OutputStream outputStream) throws IOException {
+        Writer writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8);
+        toXml(library, writer);
+        writer.flush();
+    }
+
     private String toJson(Library library) {
         try {
             return convertToJson(library);
@@ -456,6 +486,14 @@ public class CqlTranslator {
         return retrieves;
     }
 
+    /**
+     * @return The number of retrieves removed from the library by sharing identical retrieves, when common
+     * subexpression elimination is enabled
+     */
+    public int getCollapsedRetrieveCount() {
+        return collapsedRetrieveCount;
+    }
+
     public Map<String, TranslatedLibrary> getTranslatedLibraries() {
         return libraryManager.getTranslatedLibraries();
     }
@@ -501,18 +539,10 @@ public class CqlTranslator {
     public List<CqlTranslatorException> getMessages() { return messages; }
 
     public static JAXBContext getJaxbContext() {
-        if (jaxbContext == null) {
-            try {
-                jaxbContext = JAXBContext.newInstance(Library.class, Annotation.class);
-            } catch (JAXBException e) {
-                e.printStackTrace();
-                throw new RuntimeException("Error creating JAXBContext - " + e.getMessage());
-            }
-        }
-        return jaxbContext;
+        return ElmJaxb.getElmContext();
     }
 
-    public static ObjectMapper getJxsonMapper() {
+    public static synchronized ObjectMapper getJxsonMapper() {
         if (jxsonMapper == null) {
             ObjectMapper mapper = new ObjectMapper();
             mapper.setDefaultPropertyInclusion(JsonInclude.Include.NON_DEFAULT);
@@ -527,14 +557,16 @@ public class CqlTranslator {
         return jxsonMapper;
     }
 
-    private class CqlErrorListener extends BaseErrorListener {
+    static class CqlErrorListener extends BaseErrorListener {
 
         private LibraryBuilder builder;
         private boolean detailedErrors;
+        private VersionedIdentifier sourceInfo;
 
-        public CqlErrorListener(LibraryBuilder builder, boolean detailedErrors) {
+        public CqlErrorListener(LibraryBuilder builder, boolean detailedErrors, VersionedIdentifier sourceInfo) {
             this.builder = builder;
             this.detailedErrors = detailedErrors;
+            this.sourceInfo = sourceInfo;
         }
 
         private VersionedIdentifier extractLibraryIdentifier(cqlParser parser) {
@@ -593,7 +625,7 @@ public class CqlTranslator {
         builder.setVisitor(visitor);
         visitor.setTranslatorOptions(options);
 
-        CqlTranslator.CqlErrorListener errorListener = new CqlTranslator.CqlErrorListener(builder, visitor.isDetailedErrorsEnabled());
+        CqlTranslator.CqlErrorListener errorListener = new CqlTranslator.CqlErrorListener(builder, visitor.isDetailedErrorsEnabled(), sourceInfo);
 
         cqlLexer lexer = new cqlLexer(is);
         lexer.removeErrorListeners();
@@ -604,7 +636,7 @@ public class CqlTranslator {
 
         parser.removeErrorListeners(); // Clear the default console listener
         parser.addErrorListener(errorListener);
-        ParseTree tree = parser.library();
+        ParseTree tree = CqlParserUtil.parseLibrary(parser);
 
         CqlPreprocessorVisitor preprocessor = new CqlPreprocessorVisitor();
         preprocessor.setTokenStream(tokens);
@@ -617,6 +649,12 @@ public class CqlTranslator {
         library = builder.getLibrary();
         translatedLibrary = builder.getTranslatedLibrary();
         retrieves = visitor.getRetrieves();
+        if (options.getOptions().contains(Options.EnableCommonSubexpressionElimination)) {
+            ElmCommonSubexpressionEliminator eliminator = new ElmCommonSubexpressionEliminator(builder);
+            eliminator.eliminate();
+            retrieves.removeIf(eliminator.getCollapsedRetrieves()::contains);
+            collapsedRetrieveCount = eliminator.getCollapsedRetrieves().size();
+        }
         exceptions.addAll(builder.getExceptions());
         errors.addAll(builder.getErrors());
         warnings.addAll(builder.getWarnings());
@@ -624,17 +662,20 @@ public class CqlTranslator {
     }
 
     public static String convertToXml(Library library) throws JAXBException {
-        Marshaller marshaller = getJaxbContext().createMarshaller();
-        marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-
         StringWriter writer = new StringWriter();
-        marshaller.marshal(new ObjectFactory().createLibrary(library), writer);
+        convertToXml(library, writer);
+        return writer.toString();
+    }
+
+    public static void convertToXml(Library library, Writer writer) throws JAXBException {
+        Marshaller marshaller = ElmJaxb.getElmXmlMarshaller();
+
         // The marshaller is not encoding the form feed character (presumably because it's not valid in XML 1.0 at all (even encoded)).
         // Tried to get it to write 1.1 XML, but JAXB can't apparently? ()
-        // So hacking it after the fact...
+        // So escaping it as it is written...
         // NOTE: Even after doing this and getting a valid XML 1.1 document with the form feed as a character reference, the JAXB unmarshaller still complains
         // So... basically, form feeds are not supported in ELM XML
-        return writer.getBuffer().toString().replace("<xml version=\"1.0\"", "<xml version=\"1.1\"").replace("\f", "&#xc;");
+        marshaller.marshal(new ObjectFactory().createLibrary(library), new FormFeedEscapingWriter(writer));
 
         /*
         marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
@@ -652,10 +693,63 @@ public class CqlTranslator {
         */
     }
 
+    /**
+     * Escapes form feed characters as character references as they are written to the underlying writer.
+     */
+    private static class FormFeedEscapingWriter extends FilterWriter {
+        private static final String ESCAPED_FORM_FEED = "&#xc;";
+
+        FormFeedEscapingWriter(Writer out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            if (c == '\f') {
+                out.write(ESCAPED_FORM_FEED);
+            }
+            else {
+                out.write(c);
+            }
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            int start = off;
+            int end = off + len;
+            for (int i = off; i < end; i++) {
+                if (cbuf[i] == '\f') {
+                    out.write(cbuf, start, i - start);
+                    out.write(ESCAPED_FORM_FEED);
+                    start = i + 1;
+                }
+            }
+            out.write(cbuf, start, end - start);
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            int start = off;
+            int end = off + len;
+            for (int i = off; i < end; i++) {
+                if (str.charAt(i) == '\f') {
+                    out.write(str, start, i - start);
+                    out.write(ESCAPED_FORM_FEED);
+                    start = i + 1;
+                }
+            }
+            out.write(str, start, end - start);
+        }
+
+        @Override
+        public void close() throws IOException {
+            // The underlying writer belongs to the caller
+            flush();
+        }
+    }
+
     public static String convertToJson(Library library) throws JAXBException {
-        Marshaller marshaller = getJaxbContext().createMarshaller();
-        marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-        marshaller.setProperty("eclipselink.media-type", "application/json");
+        Marshaller marshaller = ElmJaxb.getElmJsonMarshaller();
 
         StringWriter writer = new StringWriter();
         marshaller.marshal(new ObjectFactory().createLibrary(library), writer);
@@ -669,22 +763,35 @@ public class CqlTranslator {
     }
 
     public static void loadModelInfo(File modelInfoXML) {
-        final ModelInfo modelInfo = JAXB.unmarshal(modelInfoXML, ModelInfo.class);
+        final ModelInfo modelInfo = ElmJaxb.readModelInfo(new StreamSource(modelInfoXML));
         final VersionedIdentifier modelId = new VersionedIdentifier().withId(modelInfo.getName()).withVersion(modelInfo.getVersion());
         final ModelInfoProvider modelProvider = (VersionedIdentifier modelIdentifier) -> modelInfo;
         final ModelInfoLoader modelInfoLoader = new ModelInfoLoader();
         modelInfoLoader.registerModelInfoProvider(modelProvider);
     }
 
-    private static void outputExceptions(Iterable<CqlTranslatorException> exceptions) {
+    static void outputExceptions(PrintStream err, Iterable<CqlTranslatorException> exceptions) {
         for (CqlTranslatorException error : exceptions) {
             TrackBack tb = error.getLocator();
             String lines = tb == null ? "[n/a]" : String.format("[%d:%d, %d:%d]",
                     tb.getStartLine(), tb.getStartChar(), tb.getEndLine(), tb.getEndChar());
-            System.err.printf("%s:%s %s%n", error.getSeverity(), lines, error.getMessage());
+            err.printf("%s:%s %s%n", error.getSeverity(), lines, error.getMessage());
         }
     }
 
+    static UcumService createUcumService(CqlTranslatorOptions options) {
+        if (options.getValidateUnits()) {
+            try {
+                return new UcumEssenceService(UcumEssenceService.class.getResourceAsStream("/ucum-essence.xml"));
+            } catch (UcumException e) {
+                System.err.println("Could not create UCUM validation service:");
+                e.printStackTrace();
+            }
+        }
+
+        return null;
+    }
+
     private static void writeELM(Path inPath, Path outPath, CqlTranslator.Format format, CqlTranslatorOptions options) throws IOException {
 
         System.err.println("================================================================================");
@@ -698,31 +805,29 @@ public class CqlTranslator {
         }
 
         LibraryManager libraryManager = new LibraryManager(modelManager);
-        UcumService ucumService = null;
-        if (options.getValidateUnits()) {
-            try {
-                ucumService = new UcumEssenceService(UcumEssenceService.class.getResourceAsStream("/ucum-essence.xml"));
-            } catch (UcumException e) {
-                System.err.println("Could not create UCUM validation service:");
-                e.printStackTrace();
-            }
-        }
+        UcumService ucumService = createUcumService(options);
         modelManager.getModelInfoLoader().registerModelInfoProvider(new DefaultModelInfoProvider(inPath.getParent()), true);
         libraryManager.getLibrarySourceLoader().registerProvider(new DefaultLibrarySourceProvider(inPath.getParent()));
         libraryManager.getLibrarySourceLoader().registerProvider(new FhirLibrarySourceProvider());
         CqlTranslator translator = fromFile(inPath.toFile(), modelManager, libraryManager, ucumService, options);
         libraryManager.getLibrarySourceLoader().clearProviders();
 
+        writeOutput(System.err, translator, outPath, format, options);
+
+        System.err.println();
+    }
+
+    static void writeOutput(PrintStream err, CqlTranslator translator, Path outPath, CqlTranslator.Format format, CqlTranslatorOptions options) throws IOException {
         if (translator.getErrors().size() > 0) {
-            System.err.println("Translation failed due to errors:");
-            outputExceptions(translator.getExceptions());
+            err.println("Translation failed due to errors:");
+            outputExceptions(err, translator.getExceptions());
         } else if (!options.getVerifyOnly()) {
             if (translator.getExceptions().size() == 0) {
-                System.err.println("Translation completed successfully.");
+                err.println("Translation completed successfully.");
             }
             else {
-                System.err.println("Translation completed with messages:");
-                outputExceptions(translator.getExceptions());
+                err.println("Translation completed with messages:");
+                outputExceptions(err, translator.getExceptions());
             }
             try (PrintWriter pw = new PrintWriter(outPath.toFile(), "UTF-8")) {
                 switch (format) {
@@ -738,14 +843,13 @@ public class CqlTranslator {
                         break;
                     case XML:
                     default:
-                        pw.println(translator.toXml());
+                        translator.toXml(pw);
+                        pw.println();
                 }
                 pw.println();
             }
-            System.err.println(String.format("ELM output written to: %s", outPath.toString()));
+            err.println(String.format("ELM output written to: %s", outPath.toString()));
         }
-
-        System.err.println();
     }
 
     @SuppressWarnings({ "unchecked", "rawtypes"})
@@ -775,6 +879,7 @@ public class CqlTranslator {
         OptionSpec validateUnits = parser.accepts("validate-units");
         OptionSpec<LibraryBuilder.SignatureLevel> signatures = parser.accepts("signatures").withRequiredArg().ofType(LibraryBuilder.SignatureLevel.class).defaultsTo(LibraryBuilder.SignatureLevel.None).describedAs("Indicates whether signatures should be included for invocations in the output ELM. Differing will include invocation signatures that differ from the declared signature. Overloads will include declaration signatures when the operator or function has more than one overload with the same number of arguments as the invocation");
         OptionSpec<String> compatibilityLevel = parser.accepts("compatibility-level").withRequiredArg().ofType(String.class).describedAs("Compatibility level for the translator, valid values are 1.3, 1.4, and 1.5");
+        OptionSpec<Integer> threads = parser.accepts("threads").withRequiredArg().ofType(Integer.class).describedAs("Translate the input in batch mode using the given number of threads. Libraries are translated in include order, and translated libraries and models are shared across the batch");
 
         OptionSet options = parser.parse(args);
 
@@ -809,6 +914,35 @@ public class CqlTranslator {
             inOutMap.put(source, destination);
         }
 
+        if (options.has(model)) {
+            final File modelFile = options.valueOf(model);
+            if (! modelFile.exists() || modelFile.isDirectory()) {
+                throw new IllegalArgumentException("model must be a valid file!");
+            }
+            loadModelInfo(modelFile);
+        }
+
+        CqlTranslatorOptions translatorOptions = new CqlTranslatorOptions(outputFormat, options.has(optimization),
+                options.has(debug) || options.has(annotations),
+                options.has(debug) || options.has(locators),
+                options.has(debug) || options.has(resultTypes),
+                options.has(verify),
+                options.has(detailedErrors), // Didn't include in debug, maybe should...
+                options.has(errorLevel)
+                        ? (CqlTranslatorException.ErrorSeverity)options.valueOf(errorLevel)
+                        : CqlTranslatorException.ErrorSeverity.Info,
+                options.has(strict) || options.has(disableListTraversal),
+                options.has(strict) || options.has(disableListDemotion),
+                options.has(strict) || options.has(disableListPromotion),
+                options.has(enableIntervalDemotion),
+                options.has(enableIntervalPromotion),
+                options.has(strict) || options.has(disableMethodInvocation),
+                options.has(requireFromKeyword),
+                options.has(validateUnits), options.has(disableDefaultModelInfoLoad),
+                signatureLevel,
+                options.has(compatibilityLevel) ? options.valueOf(compatibilityLevel) : null);
+
+        Map<Path, Path> inOutFileMap = new LinkedHashMap<>();
         for (Map.Entry<Path, Path> inOut : inOutMap.entrySet()) {
             Path in = inOut.getKey();
             Path out = inOut.getValue();
@@ -839,33 +973,16 @@ public class CqlTranslator {
                 throw new IllegalArgumentException("input and output file must be different!");
             }
 
-            if (options.has(model)) {
-                final File modelFile = options.valueOf(model);
-                if (! modelFile.exists() || modelFile.isDirectory()) {
-                    throw new IllegalArgumentException("model must be a valid file!");
-                }
-                loadModelInfo(modelFile);
-            }
+            inOutFileMap.put(in, out);
+        }
 
-            writeELM(in, out, outputFormat, new CqlTranslatorOptions(outputFormat, options.has(optimization),
-                    options.has(debug) || options.has(annotations),
-                    options.has(debug) || options.has(locators),
-                    options.has(debug) || options.has(resultTypes),
-                    options.has(verify),
-                    options.has(detailedErrors), // Didn't include in debug, maybe should...
-                    options.has(errorLevel)
-                            ? (CqlTranslatorException.ErrorSeverity)options.valueOf(errorLevel)
-                            : CqlTranslatorException.ErrorSeverity.Info,
-                    options.has(strict) || options.has(disableListTraversal),
-                    options.has(strict) || options.has(disableListDemotion),
-                    options.has(strict) || options.has(disableListPromotion),
-                    options.has(enableIntervalDemotion),
-                    options.has(enableIntervalPromotion),
-                    options.has(strict) || options.has(disableMethodInvocation),
-                    options.has(requireFromKeyword),
-                    options.has(validateUnits), options.has(disableDefaultModelInfoLoad),
-                    signatureLevel,
-                    options.has(compatibilityLevel) ? options.valueOf(compatibilityLevel) : null));
+        if (options.has(threads)) {
+            new CqlBatchTranslator(translatorOptions, outputFormat, threads.value(options)).translate(inOutFileMap);
+        }
+        else {
+            for (Map.Entry<Path, Path> inOut : inOutFileMap.entrySet()) {
+                writeELM(inOut.getKey(), inOut.getValue(), outputFormat, translatorOptions);
+            }
         }
     }
 }
@@ -4,7 +4,7 @@ import org.cqframework.cql.cql2elm.model.Version;
 import org.hl7.elm.r1.VersionedIdentifier;
 import org.hl7.elm_modelinfo.r1.ModelInfo;
 
-import javax.xml.bind.JAXB;
+import javax.xml.transform.stream.StreamSource;
 import java.io.*;
 import java.nio.file.Path;
 
@@ -81,7 +81,7 @@ public class DefaultModelInfoProvider implements ModelInfoProvider {
         try {
             if (modelFile != null) {
                 InputStream is = new FileInputStream(modelFile);
-                return JAXB.unmarshal(is, ModelInfo.class);
+                return ElmJaxb.readModelInfo(new StreamSource(is));
             }
         } catch (FileNotFoundException e) {
             throw new IllegalArgumentException(String.format("Could not load definition for model info %s.", modelIdentifier.getId()), e);
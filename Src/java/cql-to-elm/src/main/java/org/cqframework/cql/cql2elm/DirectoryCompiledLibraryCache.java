@@ -0,0 +1,90 @@
+package org.cqframework.cql.cql2elm;
+
+import org.hl7.elm.r1.VersionedIdentifier;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A compiled library cache that stores each entry as a file in a local directory. Entries are written to a temporary
+ * file and then moved into place, so that processes sharing the directory never read a partially written entry.
+ */
+public class DirectoryCompiledLibraryCache implements CompiledLibraryCache {
+    private final Path directory;
+
+    public DirectoryCompiledLibraryCache(Path directory) {
+        if (directory == null) {
+            throw new IllegalArgumentException("directory is null");
+        }
+
+        this.directory = directory;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return The file name of the entry for the given library, the library id (restricted to characters that are safe
+     * in file names) qualified by a hash of the library path, so that libraries with the same id in different
+     * namespaces do not collide
+     */
+    protected String getFileName(VersionedIdentifier libraryIdentifier) {
+        if (libraryIdentifier == null || libraryIdentifier.getId() == null) {
+            throw new IllegalArgumentException("libraryIdentifier is required");
+        }
+
+        String libraryPath = NamespaceManager.getPath(libraryIdentifier.getSystem(), libraryIdentifier.getId());
+        String name = libraryIdentifier.getId().replaceAll("[^A-Za-z0-9._-]", "_");
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(libraryPath.getBytes(StandardCharsets.UTF_8));
+            StringBuilder builder = new StringBuilder(name).append('-');
+            for (int i = 0; i < 4; i++) {
+                builder.append(String.format("%02x", digest[i]));
+            }
+            return builder.append(".json").toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public InputStream getLibrary(VersionedIdentifier libraryIdentifier) throws IOException {
+        Path path = directory.resolve(getFileName(libraryIdentifier));
+        try {
+            return Files.newInputStream(path);
+        }
+        catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void putLibrary(VersionedIdentifier libraryIdentifier, byte[] content) throws IOException {
+        Files.createDirectories(directory);
+        Path path = directory.resolve(getFileName(libraryIdentifier));
+        Path temp = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, content);
+            try {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public void removeLibrary(VersionedIdentifier libraryIdentifier) throws IOException {
+        Files.deleteIfExists(directory.resolve(getFileName(libraryIdentifier)));
+    }
+}
@@ -0,0 +1,337 @@
+package org.cqframework.cql.cql2elm;
+
+import org.cqframework.cql.elm.tracking.Trackable;
+import org.hl7.elm.r1.*;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shares the structurally identical retrieves and subexpressions of a translated library, so that an engine evaluates
+ * each only once. Engines cache the results of expression definitions, so each set of identical expressions is
+ * hoisted into a private expression definition (or an existing definition whose expression it is), and each
+ * occurrence replaced with a reference to it.
+ *
+ * Subtrees are compared by value numbering: each element is numbered by its type, its attributes, and the numbers of
+ * its children, ignoring local ids, locators, annotations and result type names. Only closed subexpressions are
+ * shared, those that do not refer to aliases, let clauses, operands or iteration scopes defined outside them, and
+ * only within the same context. Retrieves are always shared, other subexpressions only if they have at least
+ * {@link #MINIMUM_SIZE} elements, and the largest are shared first, so an expression is shared as a whole rather
+ * than as its parts.
+ *
+ * The reference that replaces an occurrence takes its local id and locator. The elements of the other occurrences
+ * no longer appear in the library, so annotations that refer to them by local id are left unresolved.
+ */
+class ElmCommonSubexpressionEliminator {
+    static final int MINIMUM_SIZE = 5;
+
+    private static final String OPEN = "";
+    private static final Map<Class<?>, List<Field>> fieldsByClass = new ConcurrentHashMap<>();
+
+    private final LibraryBuilder libraryBuilder;
+    private final Map<String, Integer> numbers = new HashMap<>();
+    private final Map<String, List<Node>> occurrences = new LinkedHashMap<>();
+    private final Set<Retrieve> collapsedRetrieves = Collections.newSetFromMap(new IdentityHashMap<>());
+    private int sharedDefinitionCount;
+
+    /**
+     * Where an element occurs: the object and field holding it, and its index if the field is a list.
+     */
+    private static class Node {
+        Element element;
+        Object owner;
+        Field field;
+        int index;
+        ExpressionDef def;
+        int number;
+        int size;
+        boolean impure;
+        boolean shareable;
+        boolean dead;
+        final List<Node> children = new ArrayList<>();
+    }
+
+    ElmCommonSubexpressionEliminator(LibraryBuilder libraryBuilder) {
+        this.libraryBuilder = libraryBuilder;
+    }
+
+    /**
+     * @return The retrieves removed from the library, each replaced by a reference to an identical retrieve
+     */
+    public Set<Retrieve> getCollapsedRetrieves() {
+        return collapsedRetrieves;
+    }
+
+    /**
+     * @return The number of expressions shared, each by a definition
+     */
+    public int getSharedDefinitionCount() {
+        return sharedDefinitionCount;
+    }
+
+    public void eliminate() {
+        Library library = libraryBuilder.getLibrary();
+        if (library.getStatements() == null) {
+            return;
+        }
+
+        List<ExpressionDef> defs = new ArrayList<>(library.getStatements().getDef());
+        for (ExpressionDef def : defs) {
+            if (def.getExpression() != null) {
+                number(def.getExpression(), def, getField(ExpressionDef.class, "expression"), -1, def, new HashSet<>());
+            }
+        }
+
+        List<List<Node>> candidates = new ArrayList<>();
+        for (List<Node> nodes : occurrences.values()) {
+            if (nodes.size() > 1) {
+                candidates.add(nodes);
+            }
+        }
+        candidates.sort(Comparator.comparingInt((List<Node> nodes) -> nodes.get(0).size).reversed());
+
+        int nextName = 1;
+        for (List<Node> candidate : candidates) {
+            List<Node> live = new ArrayList<>();
+            for (Node node : candidate) {
+                if (!node.dead) {
+                    live.add(node);
+                }
+            }
+            if (live.size() < 2) {
+                continue;
+            }
+
+            // An existing definition whose expression is the subexpression is shared rather than adding one
+            ExpressionDef shared = null;
+            Node kept = live.get(0);
+            for (Node node : live) {
+                if (node.owner == node.def && !(node.def instanceof FunctionDef)) {
+                    shared = node.def;
+                    kept = node;
+                    break;
+                }
+            }
+
+            if (shared == null) {
+                Element element = kept.element;
+                String name;
+                do {
+                    name = String.format(element instanceof Retrieve ? "Shared Retrieve %d" : "Shared Expression %d", nextName++);
+                } while (libraryBuilder.getTranslatedLibrary().resolve(name) != null);
+
+                shared = new ExpressionDef()
+                        .withName(name)
+                        .withContext(kept.def.getContext())
+                        .withAccessLevel(AccessModifier.PRIVATE)
+                        .withResultTypeName(element.getResultTypeName())
+                        .withResultTypeSpecifier(element.getResultTypeSpecifier());
+                shared.setResultType(element.getResultType());
+                replace(kept, shared);
+                shared.setExpression((Expression)element);
+                element.setLocalId(null);
+                kept.owner = shared;
+                kept.field = getField(ExpressionDef.class, "expression");
+                kept.index = -1;
+                kept.def = shared;
+                libraryBuilder.addExpression(shared);
+            }
+
+            for (Node node : live) {
+                if (node != kept) {
+                    replace(node, shared);
+                    kill(node);
+                }
+            }
+            sharedDefinitionCount++;
+        }
+    }
+
+    private static List<Field> getFields(Class<?> c) {
+        return fieldsByClass.computeIfAbsent(c, k -> {
+            List<Field> fields = new ArrayList<>();
+            for (Class<?> current = k; current != null && current != Element.class && current != Trackable.class;
+                 current = current.getSuperclass()) {
+                for (Field field : current.getDeclaredFields()) {
+                    if (!Modifier.isStatic(field.getModifiers())) {
+                        field.setAccessible(true);
+                        fields.add(field);
+                    }
+                }
+            }
+            return fields;
+        });
+    }
+
+    private static Field getField(Class<?> c, String name) {
+        for (Field field : getFields(c)) {
+            if (field.getName().equals(name)) {
+                return field;
+            }
+        }
+        throw new IllegalArgumentException(String.format("Unknown field %s of %s.", name, c.getSimpleName()));
+    }
+
+    private static Object get(Field field, Object owner) {
+        try {
+            return field.get(owner);
+        }
+        catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Numbers the element and its descendants, recording the shareable expressions.
+     *
+     * @param free Receives the names the element refers to that are not defined within it
+     */
+    private Node number(Element element, Object owner, Field field, int index, ExpressionDef def, Set<String> free) {
+        Node node = new Node();
+        node.element = element;
+        node.owner = owner;
+        node.field = field;
+        node.index = index;
+        node.def = def;
+        node.size = 1;
+        node.impure = element instanceof Message;
+
+        Set<String> childFree = new HashSet<>();
+        StringBuilder key = new StringBuilder(element.getClass().getSimpleName());
+        for (Field f : getFields(element.getClass())) {
+            Object value = get(f, element);
+            key.append('|').append(f.getName()).append('=');
+            if (value instanceof Element) {
+                Node child = number((Element)value, element, f, -1, def, childFree);
+                node.children.add(child);
+                key.append('#').append(child.number);
+            }
+            else if (value instanceof List) {
+                key.append('[');
+                List<?> list = (List<?>)value;
+                for (int i = 0; i < list.size(); i++) {
+                    Object item = list.get(i);
+                    if (item instanceof Element) {
+                        Node child = number((Element)item, element, f, i, def, childFree);
+                        node.children.add(child);
+                        key.append('#').append(child.number);
+                    }
+                    else {
+                        key.append(item);
+                    }
+                    key.append(',');
+                }
+                key.append(']');
+            }
+            else {
+                key.append(value);
+            }
+        }
+
+        for (Node child : node.children) {
+            node.size += child.size;
+            node.impure = node.impure || child.impure;
+        }
+
+        childFree.removeAll(getDefinedNames(element));
+        childFree.addAll(getReferencedNames(element));
+        free.addAll(childFree);
+
+        node.number = numbers.computeIfAbsent(key.toString(), k -> numbers.size());
+        node.shareable = !node.impure && childFree.isEmpty() && element instanceof Expression;
+        if (node.shareable && (element instanceof Retrieve || node.size >= MINIMUM_SIZE)) {
+            occurrences.computeIfAbsent(String.format("%s|%d", def.getContext(), node.number), k -> new ArrayList<>()).add(node);
+        }
+        return node;
+    }
+
+    /**
+     * @return The names an element defines for its descendants
+     */
+    private static Set<String> getDefinedNames(Element element) {
+        Set<String> names = new HashSet<>();
+        if (element instanceof Query) {
+            Query query = (Query)element;
+            for (AliasedQuerySource source : query.getSource()) {
+                names.add(source.getAlias());
+            }
+            for (LetClause let : query.getLet()) {
+                names.add(let.getIdentifier());
+            }
+            for (RelationshipClause relationship : query.getRelationship()) {
+                names.add(relationship.getAlias());
+            }
+            if (query.getAggregate() != null) {
+                names.add(query.getAggregate().getIdentifier());
+            }
+        }
+        else if (element instanceof Filter && ((Filter)element).getScope() != null) {
+            names.add(((Filter)element).getScope());
+        }
+        else if (element instanceof ForEach && ((ForEach)element).getScope() != null) {
+            names.add(((ForEach)element).getScope());
+        }
+        else if (element instanceof Repeat && ((Repeat)element).getScope() != null) {
+            names.add(((Repeat)element).getScope());
+        }
+        return names;
+    }
+
+    /**
+     * @return The names an element refers to, or {@link #OPEN} if it refers to something that cannot be shared
+     */
+    private static Set<String> getReferencedNames(Element element) {
+        if (element instanceof AliasRef) {
+            return Collections.singleton(((AliasRef)element).getName());
+        }
+        if (element instanceof QueryLetRef) {
+            return Collections.singleton(((QueryLetRef)element).getName());
+        }
+        if (element instanceof Property && ((Property)element).getScope() != null) {
+            return Collections.singleton(((Property)element).getScope());
+        }
+        if (element instanceof OperandRef || element instanceof IdentifierRef || element instanceof Current
+                || element instanceof Iteration || element instanceof Total) {
+            return Collections.singleton(OPEN);
+        }
+        return Collections.emptySet();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void replace(Node node, ExpressionDef shared) {
+        Element element = node.element;
+        ExpressionRef ref = new ExpressionRef()
+                .withName(shared.getName())
+                .withLocalId(element.getLocalId())
+                .withLocator(element.getLocator())
+                .withResultTypeName(element.getResultTypeName())
+                .withResultTypeSpecifier(element.getResultTypeSpecifier());
+        ref.setResultType(element.getResultType());
+        ref.getTrackbacks().addAll(element.getTrackbacks());
+
+        try {
+            if (node.index >= 0) {
+                ((List<Object>)node.field.get(node.owner)).set(node.index, ref);
+            }
+            else {
+                node.field.set(node.owner, ref);
+            }
+        }
+        catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void kill(Node node) {
+        node.dead = true;
+        if (node.element instanceof Retrieve) {
+            collapsedRetrieves.add((Retrieve)node.element);
+        }
+        for (Node child : node.children) {
+            kill(child);
+        }
+    }
+}
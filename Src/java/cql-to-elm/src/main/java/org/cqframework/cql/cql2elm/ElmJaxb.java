@@ -0,0 +1,141 @@
+package org.cqframework.cql.cql2elm;
+
+import org.hl7.cql_annotations.r1.Annotation;
+import org.hl7.elm.r1.ObjectFactory;
+import org.hl7.elm_modelinfo.r1.ModelInfo;
+
+import javax.xml.bind.*;
+import javax.xml.transform.Source;
+
+/**
+ * Shared JAXB infrastructure for reading and writing ELM and ModelInfo.
+ *
+ * There is a single JAXBContext for each schema, created on first use. Contexts are thread-safe, but marshallers and
+ * unmarshallers are not, and are relatively expensive to create, so each thread is given its own, which it reuses
+ * for every subsequent read or write. The marshallers and unmarshallers returned here must not be shared with other
+ * threads, and must not be reconfigured.
+ */
+public class ElmJaxb {
+    private ElmJaxb() {
+    }
+
+    private static JAXBContext createContext(Class<?>... classes) {
+        try {
+            return JAXBContext.newInstance(classes);
+        } catch (JAXBException e) {
+            e.printStackTrace();
+            throw new RuntimeException("Error creating JAXBContext - " + e.getMessage());
+        }
+    }
+
+    // Holders defer creation of each context until it is first used
+    private static class ElmContextHolder {
+        static final JAXBContext context = createContext(ObjectFactory.class, Annotation.class);
+    }
+
+    private static class ModelInfoContextHolder {
+        static final JAXBContext context = createContext(ModelInfo.class);
+    }
+
+    public static JAXBContext getElmContext() {
+        return ElmContextHolder.context;
+    }
+
+    public static JAXBContext getModelInfoContext() {
+        return ModelInfoContextHolder.context;
+    }
+
+    private interface Factory<T> {
+        T create() throws JAXBException;
+    }
+
+    private static <T> ThreadLocal<T> perThread(Factory<T> factory) {
+        return ThreadLocal.withInitial(() -> {
+            try {
+                return factory.create();
+            } catch (JAXBException e) {
+                throw new RuntimeException("Error creating JAXB marshaller - " + e.getMessage(), e);
+            }
+        });
+    }
+
+    private static final ThreadLocal<Unmarshaller> elmXmlUnmarshaller = perThread(() -> getElmContext().createUnmarshaller());
+
+    private static final ThreadLocal<Unmarshaller> elmJsonUnmarshaller = perThread(() -> {
+        Unmarshaller unmarshaller = getElmContext().createUnmarshaller();
+        unmarshaller.setProperty("eclipselink.media-type", "application/json");
+        unmarshaller.setEventHandler(event -> true);
+        return unmarshaller;
+    });
+
+    private static final ThreadLocal<Marshaller> elmXmlMarshaller = perThread(() -> {
+        Marshaller marshaller = getElmContext().createMarshaller();
+        marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+        return marshaller;
+    });
+
+    private static final ThreadLocal<Marshaller> elmJsonMarshaller = perThread(() -> {
+        Marshaller marshaller = getElmContext().createMarshaller();
+        marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+        marshaller.setProperty("eclipselink.media-type", "application/json");
+        return marshaller;
+    });
+
+    private static final ThreadLocal<Unmarshaller> modelInfoUnmarshaller = perThread(() -> getModelInfoContext().createUnmarshaller());
+
+    private static final ThreadLocal<Marshaller> modelInfoMarshaller = perThread(() -> getModelInfoContext().createMarshaller());
+
+    /**
+     * Returns the unmarshaller for ELM XML for the current thread.
+     */
+    public static Unmarshaller getElmXmlUnmarshaller() {
+        return elmXmlUnmarshaller.get();
+    }
+
+    /**
+     * Returns the unmarshaller for ELM JSON for the current thread. Validation events are ignored.
+     */
+    public static Unmarshaller getElmJsonUnmarshaller() {
+        return elmJsonUnmarshaller.get();
+    }
+
+    /**
+     * Returns the marshaller for formatted ELM XML for the current thread.
+     */
+    public static Marshaller getElmXmlMarshaller() {
+        return elmXmlMarshaller.get();
+    }
+
+    /**
+     * Returns the marshaller for formatted ELM JSON for the current thread.
+     */
+    public static Marshaller getElmJsonMarshaller() {
+        return elmJsonMarshaller.get();
+    }
+
+    /**
+     * Returns the unmarshaller for ModelInfo XML for the current thread.
+     */
+    public static Unmarshaller getModelInfoUnmarshaller() {
+        return modelInfoUnmarshaller.get();
+    }
+
+    /**
+     * Returns the marshaller for unformatted ModelInfo XML for the current thread.
+     */
+    public static Marshaller getModelInfoMarshaller() {
+        return modelInfoMarshaller.get();
+    }
+
+    /**
+     * Reads a ModelInfo from the given source. As with {@link JAXB#unmarshal}, errors are reported as a
+     * {@link DataBindingException}.
+     */
+    public static ModelInfo readModelInfo(Source source) {
+        try {
+            return getModelInfoUnmarshaller().unmarshal(source, ModelInfo.class).getValue();
+        } catch (JAXBException e) {
+            throw new DataBindingException(e);
+        }
+    }
+}
@@ -1,24 +1,38 @@
 package org.cqframework.cql.cql2elm;
 
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.module.jaxb.JaxbAnnotationModule;
-import org.cqframework.cql.cql2elm.model.serialization.LibraryWrapper;
 import org.hl7.elm.r1.Library;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.util.Arrays;
+import java.util.EnumSet;
 
 public class ElmJxsonLibraryReader {
     private ElmJxsonLibraryReader() {
     }
 
+    public enum Options {
+        /**
+         * Skip the annotations on each element, such as the translator options and the CQL source of each definition
+         */
+        SkipAnnotations,
+        /**
+         * Skip the source locator of each element
+         */
+        SkipLocators
+    }
+
     public static Library read(Reader reader) throws IOException {
-        ObjectMapper mapper = new ObjectMapper();
-        mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-        JaxbAnnotationModule module = new JaxbAnnotationModule();
-        mapper.registerModule(module);
-        Library result = mapper.readValue(reader, LibraryWrapper.class).getLibrary();
-        return result;
+        return new ElmJxsonParser(true, true).read(reader);
+    }
+
+    /**
+     * Reads a library, skipping the parts of the library given by the options. Skipped parts are not constructed,
+     * which reduces the time and memory needed to read a library that is only to be evaluated.
+     */
+    public static Library read(Reader reader, Options... options) throws IOException {
+        EnumSet<Options> optionSet = EnumSet.noneOf(Options.class);
+        optionSet.addAll(Arrays.asList(options));
+        return new ElmJxsonParser(!optionSet.contains(Options.SkipAnnotations), !optionSet.contains(Options.SkipLocators)).read(reader);
     }
 }
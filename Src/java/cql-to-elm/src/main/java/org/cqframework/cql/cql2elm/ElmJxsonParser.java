@@ -0,0 +1,369 @@
+package org.cqframework.cql.cql2elm;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import org.cqframework.cql.elm.tracking.Trackable;
+import org.hl7.elm.r1.Library;
+import org.hl7.elm.r1.ObjectFactory;
+
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlEnumValue;
+import javax.xml.bind.annotation.XmlTransient;
+import javax.xml.namespace.QName;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.*;
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reads ELM in the JXSON format written by {@link CqlTranslator#toJxson()} with a streaming parser, constructing ELM
+ * nodes directly rather than through Jackson databinding.
+ *
+ * The mapping follows the JAXB annotations on the ELM classes, as the Jackson JAXB module does: each field is read
+ * from the property named by its XmlElement or XmlAttribute annotation, the concrete class of each node is given by
+ * its "type" property, and fields of type Object (the annotations on an element) are read as untyped maps and lists.
+ * The mapping for each class is computed once, on first use.
+ */
+class ElmJxsonParser {
+    private static final JsonFactory jsonFactory = new JsonFactory();
+    private static final String ELM_PACKAGE = ObjectFactory.class.getPackage().getName();
+    private static final String TYPE_PROPERTY = "type";
+
+    private static final Map<Class<?>, ClassInfo> classInfos = new ConcurrentHashMap<>();
+    private static final Map<String, Class<?>> typeNames = new ConcurrentHashMap<>();
+
+    private enum Kind { STRING, QNAME, DECIMAL, BOOLEAN, INTEGER, ENUM, NODE, UNTYPED }
+
+    private static class PropertyInfo {
+        PropertyInfo(Field field, Kind kind, Class<?> type, boolean isList, Map<String, Object> enumValues) {
+            this.field = field;
+            this.kind = kind;
+            this.type = type;
+            this.isList = isList;
+            this.enumValues = enumValues;
+        }
+
+        final Field field;
+        final Kind kind;
+        final Class<?> type;
+        final boolean isList;
+        final Map<String, Object> enumValues;
+    }
+
+    private static class ClassInfo {
+        ClassInfo(Constructor<?> constructor, Map<String, PropertyInfo> properties) {
+            this.constructor = constructor;
+            this.properties = properties;
+        }
+
+        final Constructor<?> constructor;
+        final Map<String, PropertyInfo> properties;
+    }
+
+    private final boolean includeAnnotations;
+    private final boolean includeLocators;
+
+    ElmJxsonParser(boolean includeAnnotations, boolean includeLocators) {
+        this.includeAnnotations = includeAnnotations;
+        this.includeLocators = includeLocators;
+    }
+
+    public Library read(Reader reader) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(reader)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Expected an object containing a library.");
+            }
+
+            Library library = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                parser.nextToken();
+                if (name.equals("library")) {
+                    library = (Library)readNode(parser, Library.class);
+                }
+                else {
+                    parser.skipChildren();
+                }
+            }
+
+            return library;
+        }
+    }
+
+    private Object readNode(JsonParser parser, Class<?> declaredType) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, String.format("Expected an object for %s.", declaredType.getSimpleName()));
+        }
+
+        // The type is normally the first property, but if it is not, the properties before it are buffered
+        TokenBuffer buffer = null;
+        String typeName = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+            // Some types also have an element named type, so only a string is taken as the type
+            if (name.equals(TYPE_PROPERTY) && parser.currentToken() == JsonToken.VALUE_STRING
+                    && Trackable.class.isAssignableFrom(declaredType)) {
+                typeName = parser.getText();
+                break;
+            }
+
+            if (buffer == null) {
+                buffer = new TokenBuffer(parser);
+                buffer.writeStartObject();
+            }
+            buffer.writeFieldName(name);
+            buffer.copyCurrentStructure(parser);
+        }
+
+        Class<?> type = typeName != null ? resolveType(parser, typeName, declaredType) : declaredType;
+        ClassInfo classInfo = getClassInfo(type);
+        Object node;
+        try {
+            node = classInfo.constructor.newInstance();
+        }
+        catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+            throw new JsonParseException(parser, String.format("Could not create an instance of %s.", type.getSimpleName()), e);
+        }
+
+        if (buffer != null) {
+            buffer.writeEndObject();
+            try (JsonParser bufferParser = buffer.asParser()) {
+                bufferParser.nextToken();
+                readProperties(bufferParser, classInfo, node);
+            }
+        }
+
+        if (typeName != null) {
+            readProperties(parser, classInfo, node);
+        }
+
+        return node;
+    }
+
+    private void readProperties(JsonParser parser, ClassInfo classInfo, Object node) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+            PropertyInfo property = classInfo.properties.get(name);
+            if (property == null || (!includeAnnotations && name.equals("annotation")) || (!includeLocators && name.equals("locator"))
+                    || parser.currentToken() == JsonToken.VALUE_NULL) {
+                parser.skipChildren();
+                continue;
+            }
+
+            Object value;
+            if (property.isList) {
+                List<Object> values = new ArrayList<>();
+                if (parser.currentToken() == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        values.add(readValue(parser, property));
+                    }
+                }
+                else {
+                    values.add(readValue(parser, property));
+                }
+                value = values;
+            }
+            else {
+                value = readValue(parser, property);
+            }
+
+            try {
+                property.field.set(node, value);
+            }
+            catch (IllegalAccessException e) {
+                throw new JsonParseException(parser, String.format("Could not set %s.", name), e);
+            }
+        }
+    }
+
+    private Object readValue(JsonParser parser, PropertyInfo property) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+
+        switch (property.kind) {
+            case STRING:
+                return parser.getValueAsString();
+            case QNAME:
+                return QName.valueOf(parser.getValueAsString());
+            case DECIMAL:
+                return parser.currentToken() == JsonToken.VALUE_STRING ? new BigDecimal(parser.getText()) : parser.getDecimalValue();
+            case BOOLEAN:
+                return parser.currentToken() == JsonToken.VALUE_STRING ? Boolean.valueOf(parser.getText()) : parser.getBooleanValue();
+            case INTEGER:
+                return parser.currentToken() == JsonToken.VALUE_STRING ? Integer.valueOf(parser.getText()) : parser.getIntValue();
+            case ENUM:
+                Object value = property.enumValues.get(parser.getText());
+                if (value == null) {
+                    throw new JsonParseException(parser, String.format("Unknown %s value %s.", property.type.getSimpleName(), parser.getText()));
+                }
+                return value;
+            case NODE:
+                return readNode(parser, property.type);
+            case UNTYPED:
+            default:
+                return readUntyped(parser);
+        }
+    }
+
+    /**
+     * Reads a value of unknown type as maps, lists and scalars, in the same way as Jackson's untyped deserializer.
+     */
+    private Object readUntyped(JsonParser parser) throws IOException {
+        switch (parser.currentToken()) {
+            case START_OBJECT:
+                Map<String, Object> map = new LinkedHashMap<>();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.getCurrentName();
+                    parser.nextToken();
+                    map.put(name, readUntyped(parser));
+                }
+                return map;
+            case START_ARRAY:
+                List<Object> list = new ArrayList<>();
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    list.add(readUntyped(parser));
+                }
+                return list;
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+                return parser.getNumberValue();
+            case VALUE_NUMBER_FLOAT:
+                return parser.getDoubleValue();
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            case VALUE_EMBEDDED_OBJECT:
+                return parser.getEmbeddedObject();
+            default:
+                return null;
+        }
+    }
+
+    private static Class<?> resolveType(JsonParser parser, String typeName, Class<?> declaredType) throws IOException {
+        Class<?> type = typeNames.get(typeName);
+        if (type == null) {
+            try {
+                type = Class.forName(ELM_PACKAGE + "." + typeName, false, ObjectFactory.class.getClassLoader());
+            }
+            catch (ClassNotFoundException e) {
+                throw new JsonParseException(parser, String.format("Unknown ELM type %s.", typeName), e);
+            }
+            typeNames.put(typeName, type);
+        }
+
+        if (!declaredType.isAssignableFrom(type)) {
+            throw new JsonParseException(parser, String.format("ELM type %s is not a %s.", typeName, declaredType.getSimpleName()));
+        }
+
+        return type;
+    }
+
+    private static ClassInfo getClassInfo(Class<?> type) {
+        ClassInfo classInfo = classInfos.get(type);
+        if (classInfo == null) {
+            classInfo = createClassInfo(type);
+            classInfos.put(type, classInfo);
+        }
+        return classInfo;
+    }
+
+    private static ClassInfo createClassInfo(Class<?> type) {
+        Map<String, PropertyInfo> properties = new HashMap<>();
+        for (Class<?> c = type; c != null && c != Trackable.class && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || Modifier.isTransient(field.getModifiers())
+                        || field.isAnnotationPresent(XmlTransient.class)) {
+                    continue;
+                }
+
+                String name = field.getName();
+                XmlElement element = field.getAnnotation(XmlElement.class);
+                XmlAttribute attribute = field.getAnnotation(XmlAttribute.class);
+                if (element != null && !element.name().equals("##default")) {
+                    name = element.name();
+                }
+                else if (attribute != null && !attribute.name().equals("##default")) {
+                    name = attribute.name();
+                }
+
+                field.setAccessible(true);
+                properties.putIfAbsent(name, createPropertyInfo(field));
+            }
+        }
+
+        try {
+            Constructor<?> constructor = type.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return new ClassInfo(constructor, properties);
+        }
+        catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException(String.format("ELM type %s has no default constructor.", type.getName()), e);
+        }
+    }
+
+    private static PropertyInfo createPropertyInfo(Field field) {
+        Class<?> type = field.getType();
+        boolean isList = List.class.isAssignableFrom(type);
+        if (isList) {
+            Type elementType = ((ParameterizedType)field.getGenericType()).getActualTypeArguments()[0];
+            type = elementType instanceof Class ? (Class<?>)elementType : Object.class;
+        }
+
+        Map<String, Object> enumValues = null;
+        Kind kind;
+        if (type == String.class) {
+            kind = Kind.STRING;
+        }
+        else if (type == QName.class) {
+            kind = Kind.QNAME;
+        }
+        else if (type == BigDecimal.class) {
+            kind = Kind.DECIMAL;
+        }
+        else if (type == Boolean.class || type == boolean.class) {
+            kind = Kind.BOOLEAN;
+        }
+        else if (type == Integer.class || type == int.class) {
+            kind = Kind.INTEGER;
+        }
+        else if (type.isEnum()) {
+            kind = Kind.ENUM;
+            enumValues = new HashMap<>();
+            for (Object constant : type.getEnumConstants()) {
+                String value = ((Enum<?>)constant).name();
+                try {
+                    XmlEnumValue enumValue = type.getField(value).getAnnotation(XmlEnumValue.class);
+                    if (enumValue != null) {
+                        value = enumValue.value();
+                    }
+                }
+                catch (NoSuchFieldException e) {
+                    // Use the constant name
+                }
+                enumValues.put(value, constant);
+            }
+        }
+        else if (type == Object.class) {
+            kind = Kind.UNTYPED;
+        }
+        else {
+            kind = Kind.NODE;
+        }
+
+        return new PropertyInfo(field, kind, type, isList, enumValues);
+    }
+}
@@ -0,0 +1,1043 @@
+package org.cqframework.cql.cql2elm;
+
+import org.cqframework.cql.cql2elm.model.CallContext;
+import org.cqframework.cql.cql2elm.model.ConversionMap;
+import org.cqframework.cql.cql2elm.model.Model;
+import org.cqframework.cql.cql2elm.model.OperatorResolution;
+import org.cqframework.cql.cql2elm.model.SystemModel;
+import org.cqframework.cql.cql2elm.model.TranslatedLibrary;
+import org.cqframework.cql.cql2elm.model.Version;
+import org.cqframework.cql.elm.visiting.ElmBaseLibraryVisitor;
+import org.hl7.cql.model.*;
+import org.hl7.elm.r1.*;
+import org.hl7.elm_modelinfo.r1.ClassInfo;
+import org.hl7.elm_modelinfo.r1.ModelInfo;
+import org.hl7.elm_modelinfo.r1.TypeInfo;
+
+import javax.xml.namespace.QName;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Infers the result types of the elements of a library read from ELM. Result types are not part of the ELM, so a
+ * library that was not translated in this process has none, and cannot be used as an include until they are set.
+ *
+ * Each element that does not already have a result type is given the type recorded in its resultTypeSpecifier or
+ * resultTypeName, if the library was translated with result types enabled, or otherwise a type inferred from its
+ * operands in the same way as the translator: references are given the types of the definitions they reference,
+ * resolving included libraries as necessary, and system operators are resolved against the System library.
+ *
+ * Definitions are inferred on demand as they are referenced, so forward references are supported. Elements whose
+ * type cannot be inferred are left without a type.
+ */
+public class ElmTypeInferencingVisitor extends ElmBaseLibraryVisitor<Void, Void> {
+    private final ModelManager modelManager;
+    private final Library library;
+    private final Function<IncludeDef, TranslatedLibrary> includeResolver;
+    private final boolean compatibleWith15;
+
+    private final Set<Element> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Map<String, TranslatedLibrary> includedLibraries = new HashMap<>();
+    private final Map<QName, DataType> namedTypes = new HashMap<>();
+    private final Map<String, DataType> templateTypes = new HashMap<>();
+    private List<Model> models;
+    private TranslatedLibrary systemLibrary;
+    // The translator makes implicit conversions explicit in the ELM, so operators are resolved without conversions
+    private final ConversionMap conversionMap = new ConversionMap();
+
+    // The scope of the definition being inferred, saved while a referenced definition is inferred
+    private Deque<Query> queries = new ArrayDeque<>();
+    private FunctionDef currentFunction;
+    private DataType sortElementType;
+
+    /**
+     * @param includeResolver Resolves the library included by an include definition of the library, or returns null
+     *                        if it cannot be resolved
+     * @param compatibilityLevel The compatibility level the library was translated with, or null for the latest
+     */
+    public ElmTypeInferencingVisitor(ModelManager modelManager, Library library,
+            Function<IncludeDef, TranslatedLibrary> includeResolver, String compatibilityLevel) {
+        if (modelManager == null) {
+            throw new IllegalArgumentException("modelManager is null");
+        }
+        if (library == null) {
+            throw new IllegalArgumentException("library is null");
+        }
+        this.modelManager = modelManager;
+        this.library = library;
+        this.includeResolver = includeResolver;
+        this.compatibleWith15 = compatibilityLevel == null
+                || new Version(compatibilityLevel).compatibleWith(new Version("1.5"));
+    }
+
+    /**
+     * Sets the result type of each element of the library that does not have one and whose type can be inferred.
+     */
+    public void infer() {
+        visitLibrary(library, null);
+    }
+
+    @Override
+    public Void visitElement(Element elm, Void context) {
+        if (elm instanceof Expression) {
+            return visitExpression((Expression)elm, context);
+        }
+        if (elm == null || !visited.add(elm)) {
+            return null;
+        }
+
+        if (elm instanceof ExpressionDef) {
+            inferDefinition((ExpressionDef)elm);
+            return null;
+        }
+
+        DataType savedSortElementType = sortElementType;
+        if (elm instanceof SortClause && !queries.isEmpty()) {
+            sortElementType = elementTypeOf(inferQuery(queries.peek()));
+        }
+        try {
+            super.visitElement(elm, context);
+        }
+        finally {
+            sortElementType = savedSortElementType;
+        }
+
+        if (elm.getResultType() == null) {
+            elm.setResultType(inferElement(elm));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitExpression(Expression elm, Void context) {
+        if (elm == null || !visited.add(elm)) {
+            return null;
+        }
+
+        super.visitExpression(elm, context);
+        if (elm.getResultType() == null) {
+            elm.setResultType(inferExpression(elm));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCodeDef(CodeDef elm, Void context) {
+        super.visitCodeDef(elm, context);
+        // The code system reference is visited directly, rather than as an expression
+        typeOf(elm.getCodeSystem());
+        return null;
+    }
+
+    @Override
+    public Void visitTypeSpecifier(TypeSpecifier elm, Void context) {
+        // Nested type specifiers are visited directly rather than as elements
+        super.visitTypeSpecifier(elm, context);
+        if (elm.getResultType() == null) {
+            elm.setResultType(resolveTypeSpecifier(elm));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitQuery(Query elm, Void context) {
+        queries.push(elm);
+        try {
+            return super.visitQuery(elm, context);
+        }
+        finally {
+            queries.pop();
+        }
+    }
+
+    private void inferDefinition(ExpressionDef def) {
+        Deque<Query> savedQueries = queries;
+        FunctionDef savedFunction = currentFunction;
+        DataType savedSortElementType = sortElementType;
+        queries = new ArrayDeque<>();
+        currentFunction = def instanceof FunctionDef ? (FunctionDef)def : null;
+        sortElementType = null;
+        try {
+            super.visitElement(def, null);
+            if (def.getResultType() == null) {
+                def.setResultType(inferElement(def));
+            }
+        }
+        finally {
+            queries = savedQueries;
+            currentFunction = savedFunction;
+            sortElementType = savedSortElementType;
+        }
+    }
+
+    /**
+     * Returns the result type of the given element, inferring it if it has not been visited. A definition that is
+     * still being inferred, i.e. a recursive reference, has no type.
+     */
+    private DataType typeOf(Element element) {
+        if (element == null) {
+            return null;
+        }
+        if (element.getResultType() == null) {
+            visitElement(element, null);
+        }
+        return element.getResultType();
+    }
+
+    private DataType inferElement(Element elm) {
+        DataType result = resolveDeclaredType(elm);
+        if (result != null) {
+            return result;
+        }
+
+        if (elm instanceof TypeSpecifier) {
+            return resolveTypeSpecifier((TypeSpecifier)elm);
+        }
+        else if (elm instanceof FunctionDef) {
+            FunctionDef functionDef = (FunctionDef)elm;
+            return functionDef.getResultTypeSpecifier() != null
+                    ? resolveTypeSpecifier(functionDef.getResultTypeSpecifier())
+                    : typeOf(functionDef.getExpression());
+        }
+        else if (elm instanceof ExpressionDef) {
+            return typeOf(((ExpressionDef)elm).getExpression());
+        }
+        else if (elm instanceof OperandDef) {
+            OperandDef operandDef = (OperandDef)elm;
+            return operandDef.getOperandTypeSpecifier() != null
+                    ? resolveTypeSpecifier(operandDef.getOperandTypeSpecifier())
+                    : resolveTypeName(operandDef.getOperandType());
+        }
+        else if (elm instanceof ParameterDef) {
+            ParameterDef parameterDef = (ParameterDef)elm;
+            if (parameterDef.getParameterTypeSpecifier() != null) {
+                return resolveTypeSpecifier(parameterDef.getParameterTypeSpecifier());
+            }
+            return parameterDef.getParameterType() != null
+                    ? resolveTypeName(parameterDef.getParameterType())
+                    : typeOf(parameterDef.getDefault());
+        }
+        else if (elm instanceof CodeSystemDef) {
+            return compatibleWith15 ? getSystemModel().getCodeSystem() : ListType.of(getSystemModel().getCode());
+        }
+        else if (elm instanceof ValueSetDef) {
+            return compatibleWith15 ? getSystemModel().getValueSet() : ListType.of(getSystemModel().getCode());
+        }
+        else if (elm instanceof CodeDef) {
+            return getSystemModel().getCode();
+        }
+        else if (elm instanceof ConceptDef) {
+            return getSystemModel().getConcept();
+        }
+        else if (elm instanceof AliasedQuerySource) {
+            return typeOf(((AliasedQuerySource)elm).getExpression());
+        }
+        else if (elm instanceof LetClause) {
+            return typeOf(((LetClause)elm).getExpression());
+        }
+        else if (elm instanceof AggregateClause) {
+            return typeOf(((AggregateClause)elm).getExpression());
+        }
+        else if (elm instanceof ReturnClause) {
+            return queries.isEmpty() ? null : inferQuery(queries.peek());
+        }
+        else if (elm instanceof CaseItem) {
+            return typeOf(((CaseItem)elm).getThen());
+        }
+        else if (elm instanceof ByExpression) {
+            return typeOf(((ByExpression)elm).getExpression());
+        }
+
+        return null;
+    }
+
+    private DataType inferExpression(Expression elm) {
+        // The data type of a retrieve is that targeted by its template, so the template identifies the type precisely
+        if (elm instanceof Retrieve && ((Retrieve)elm).getTemplateId() != null) {
+            DataType dataType = resolveTemplateId(((Retrieve)elm).getTemplateId());
+            if (dataType != null) {
+                return ListType.of(dataType);
+            }
+        }
+
+        DataType result = resolveDeclaredType(elm);
+        if (result != null) {
+            return result;
+        }
+
+        SystemModel system = getSystemModel();
+        if (elm instanceof Literal) {
+            return resolveTypeName(((Literal)elm).getValueType());
+        }
+        else if (elm instanceof Null) {
+            return system.getAny();
+        }
+        else if (elm instanceof FunctionRef) {
+            return inferFunctionRef((FunctionRef)elm);
+        }
+        else if (elm instanceof ExpressionRef) {
+            ExpressionRef ref = (ExpressionRef)elm;
+            return ref.getLibraryName() != null
+                    ? typeOf(resolveIncludedDefinition(ref.getLibraryName(), l -> l.resolveExpressionRef(ref.getName())))
+                    : typeOf(findDefinition(library.getStatements() != null ? library.getStatements().getDef() : null, ref.getName()));
+        }
+        else if (elm instanceof ParameterRef) {
+            ParameterRef ref = (ParameterRef)elm;
+            return ref.getLibraryName() != null
+                    ? typeOf(resolveIncludedDefinition(ref.getLibraryName(), l -> l.resolveParameterRef(ref.getName())))
+                    : typeOf(findDefinition(library.getParameters() != null ? library.getParameters().getDef() : null, ref.getName()));
+        }
+        else if (elm instanceof CodeSystemRef) {
+            CodeSystemRef ref = (CodeSystemRef)elm;
+            return ref.getLibraryName() != null
+                    ? typeOf(resolveIncludedDefinition(ref.getLibraryName(), l -> l.resolveCodeSystemRef(ref.getName())))
+                    : typeOf(findDefinition(library.getCodeSystems() != null ? library.getCodeSystems().getDef() : null, ref.getName()));
+        }
+        else if (elm instanceof ValueSetRef) {
+            ValueSetRef ref = (ValueSetRef)elm;
+            return ref.getLibraryName() != null
+                    ? typeOf(resolveIncludedDefinition(ref.getLibraryName(), l -> l.resolveValueSetRef(ref.getName())))
+                    : typeOf(findDefinition(library.getValueSets() != null ? library.getValueSets().getDef() : null, ref.getName()));
+        }
+        else if (elm instanceof CodeRef) {
+            CodeRef ref = (CodeRef)elm;
+            return ref.getLibraryName() != null
+                    ? typeOf(resolveIncludedDefinition(ref.getLibraryName(), l -> l.resolveCodeRef(ref.getName())))
+                    : typeOf(findDefinition(library.getCodes() != null ? library.getCodes().getDef() : null, ref.getName()));
+        }
+        else if (elm instanceof ConceptRef) {
+            ConceptRef ref = (ConceptRef)elm;
+            return ref.getLibraryName() != null
+                    ? typeOf(resolveIncludedDefinition(ref.getLibraryName(), l -> l.resolveConceptRef(ref.getName())))
+                    : typeOf(findDefinition(library.getConcepts() != null ? library.getConcepts().getDef() : null, ref.getName()));
+        }
+        else if (elm instanceof OperandRef) {
+            return currentFunction != null
+                    ? typeOf(findDefinition(currentFunction.getOperand(), ((OperandRef)elm).getName()))
+                    : null;
+        }
+        else if (elm instanceof AliasRef) {
+            return resolveAlias(((AliasRef)elm).getName());
+        }
+        else if (elm instanceof QueryLetRef) {
+            return resolveLet(((QueryLetRef)elm).getName());
+        }
+        else if (elm instanceof IdentifierRef) {
+            return sortElementType != null ? resolvePath(sortElementType, ((IdentifierRef)elm).getName()) : null;
+        }
+        else if (elm instanceof Property) {
+            return inferProperty((Property)elm);
+        }
+        else if (elm instanceof Retrieve) {
+            DataType dataType = resolveTypeName(((Retrieve)elm).getDataType());
+            return dataType != null ? ListType.of(dataType) : null;
+        }
+        else if (elm instanceof Query) {
+            return inferQuery((Query)elm);
+        }
+        else if (elm instanceof As) {
+            As as = (As)elm;
+            return as.getAsTypeSpecifier() != null ? resolveTypeSpecifier(as.getAsTypeSpecifier()) : resolveTypeName(as.getAsType());
+        }
+        else if (elm instanceof Convert) {
+            Convert convert = (Convert)elm;
+            return convert.getToTypeSpecifier() != null ? resolveTypeSpecifier(convert.getToTypeSpecifier()) : resolveTypeName(convert.getToType());
+        }
+        else if (elm instanceof Is || elm instanceof InValueSet || elm instanceof AnyInValueSet
+                || elm instanceof InCodeSystem || elm instanceof AnyInCodeSystem) {
+            return system.getBoolean();
+        }
+        else if (elm instanceof CalculateAge || elm instanceof CalculateAgeAt
+                || elm instanceof DurationBetween || elm instanceof DifferenceBetween) {
+            return system.getInteger();
+        }
+        else if (elm instanceof Instance) {
+            return resolveTypeName(((Instance)elm).getClassType());
+        }
+        else if (elm instanceof MinValue) {
+            return resolveTypeName(((MinValue)elm).getValueType());
+        }
+        else if (elm instanceof MaxValue) {
+            return resolveTypeName(((MaxValue)elm).getValueType());
+        }
+        else if (elm instanceof Tuple) {
+            List<TupleTypeElement> elements = new ArrayList<>();
+            for (TupleElement element : ((Tuple)elm).getElement()) {
+                DataType elementType = typeOf(element.getValue());
+                if (elementType == null) {
+                    return null;
+                }
+                elements.add(new TupleTypeElement(element.getName(), elementType));
+            }
+            return TupleType.of(elements);
+        }
+        else if (elm instanceof org.hl7.elm.r1.List) {
+            org.hl7.elm.r1.List list = (org.hl7.elm.r1.List)elm;
+            if (list.getTypeSpecifier() != null) {
+                return resolveTypeSpecifier(list.getTypeSpecifier());
+            }
+            // As for the translator, the element type is the type the elements are compatible with, if any
+            DataType elementType = null;
+            for (Expression element : list.getElement()) {
+                DataType type = typeOf(element);
+                if (type == null) {
+                    return null;
+                }
+                if (elementType == null) {
+                    elementType = type;
+                }
+                else if (!(elementType.isSuperTypeOf(type) || type.isCompatibleWith(elementType))) {
+                    elementType = type.isSuperTypeOf(elementType) || elementType.isCompatibleWith(type) ? type : system.getAny();
+                }
+            }
+            return ListType.of(elementType != null ? elementType : system.getAny());
+        }
+        else if (elm instanceof Interval) {
+            Interval interval = (Interval)elm;
+            DataType pointType = firstSpecificType(Arrays.asList(interval.getLow(), interval.getHigh()));
+            return pointType != null ? IntervalType.of(pointType) : null;
+        }
+        else if (elm instanceof If) {
+            If ifExpression = (If)elm;
+            return firstSpecificType(Arrays.asList(ifExpression.getThen(), ifExpression.getElse()));
+        }
+        else if (elm instanceof Case) {
+            Case caseExpression = (Case)elm;
+            List<Expression> results = new ArrayList<>();
+            for (CaseItem item : caseExpression.getCaseItem()) {
+                results.add(item.getThen());
+            }
+            results.add(caseExpression.getElse());
+            return firstSpecificType(results);
+        }
+        else if (elm instanceof Code) {
+            return system.getCode();
+        }
+        else if (elm instanceof Concept) {
+            return system.getConcept();
+        }
+        else if (elm instanceof Quantity) {
+            return system.getQuantity();
+        }
+        else if (elm instanceof Ratio) {
+            return system.getRatio();
+        }
+        else if (elm instanceof org.hl7.elm.r1.Date || elm instanceof Today) {
+            return system.getDate();
+        }
+        else if (elm instanceof DateTime || elm instanceof Now) {
+            return system.getDateTime();
+        }
+        else if (elm instanceof Time || elm instanceof TimeOfDay) {
+            return system.getTime();
+        }
+        else if (elm instanceof Slice) {
+            return typeOf(((Slice)elm).getSource());
+        }
+        else if (elm instanceof Message) {
+            return typeOf(((Message)elm).getSource());
+        }
+        else if (elm instanceof ToList) {
+            DataType operandType = typeOf(((ToList)elm).getOperand());
+            return operandType != null ? ListType.of(operandType) : null;
+        }
+        else if (elm instanceof IndexOf) {
+            return system.getInteger();
+        }
+        else if (elm instanceof Sort) {
+            return typeOf(((Sort)elm).getSource());
+        }
+        else if (elm instanceof OperatorExpression || elm instanceof AggregateExpression) {
+            return resolveSystemOperator(elm);
+        }
+
+        return null;
+    }
+
+    /**
+     * @return The type recorded in the ELM for the element, if the library was translated with result types enabled
+     */
+    private DataType resolveDeclaredType(Element elm) {
+        if (elm.getResultTypeSpecifier() != null) {
+            return resolveTypeSpecifier(elm.getResultTypeSpecifier());
+        }
+        if (elm.getResultTypeName() != null) {
+            return resolveTypeName(elm.getResultTypeName());
+        }
+        return null;
+    }
+
+    /**
+     * @return The type of the first of the given expressions whose type is not Any, as the translator converts the
+     * remaining expressions to that type
+     */
+    private DataType firstSpecificType(List<Expression> expressions) {
+        DataType result = null;
+        for (Expression expression : expressions) {
+            DataType type = typeOf(expression);
+            if (type != null && !type.equals(getSystemModel().getAny())) {
+                return type;
+            }
+            if (result == null) {
+                result = type;
+            }
+        }
+        return result;
+    }
+
+    private static DataType elementTypeOf(DataType type) {
+        return type instanceof ListType ? ((ListType)type).getElementType() : type;
+    }
+
+    private static <T extends Element> T findDefinition(List<T> defs, String name) {
+        if (defs != null) {
+            for (T def : defs) {
+                String defName = def instanceof ExpressionDef ? ((ExpressionDef)def).getName()
+                        : def instanceof ParameterDef ? ((ParameterDef)def).getName()
+                        : def instanceof OperandDef ? ((OperandDef)def).getName()
+                        : def instanceof CodeSystemDef ? ((CodeSystemDef)def).getName()
+                        : def instanceof ValueSetDef ? ((ValueSetDef)def).getName()
+                        : def instanceof CodeDef ? ((CodeDef)def).getName()
+                        : def instanceof ConceptDef ? ((ConceptDef)def).getName()
+                        : null;
+                if (name.equals(defName) && !(def instanceof FunctionDef)) {
+                    return def;
+                }
+            }
+        }
+        return null;
+    }
+
+    private TranslatedLibrary resolveIncludedLibrary(String libraryName) {
+        if (includedLibraries.containsKey(libraryName)) {
+            return includedLibraries.get(libraryName);
+        }
+
+        TranslatedLibrary result = null;
+        if (includeResolver != null && library.getIncludes() != null) {
+            for (IncludeDef includeDef : library.getIncludes().getDef()) {
+                if (libraryName.equals(includeDef.getLocalIdentifier())) {
+                    try {
+                        result = includeResolver.apply(includeDef);
+                    }
+                    catch (RuntimeException e) {
+                        // The references to the library are left without types
+                    }
+                    break;
+                }
+            }
+        }
+
+        includedLibraries.put(libraryName, result);
+        return result;
+    }
+
+    private Element resolveIncludedDefinition(String libraryName, Function<TranslatedLibrary, Element> resolver) {
+        TranslatedLibrary includedLibrary = resolveIncludedLibrary(libraryName);
+        return includedLibrary != null ? resolver.apply(includedLibrary) : null;
+    }
+
+    private DataType inferFunctionRef(FunctionRef ref) {
+        // As for a property, the translator types a function ref expanded from a target mapping as the mapped property
+        if (ref.getLibraryName() != null && ref.getOperand().size() == 1 && ref.getOperand().get(0) instanceof Property) {
+            Property operand = (Property)ref.getOperand().get(0);
+            String target = resolveTargetMap(operand);
+            if (target != null && target.contains(String.format("%s.%s(%%value)", ref.getLibraryName(), ref.getName()))) {
+                return typeOf(operand);
+            }
+        }
+
+        List<FunctionDef> candidates = new ArrayList<>();
+        if (ref.getLibraryName() != null) {
+            TranslatedLibrary includedLibrary = resolveIncludedLibrary(ref.getLibraryName());
+            if (includedLibrary == null) {
+                return null;
+            }
+            for (FunctionDef functionDef : includedLibrary.resolveFunctionRef(ref.getName())) {
+                candidates.add(functionDef);
+            }
+        }
+        else if (library.getStatements() != null) {
+            for (ExpressionDef def : library.getStatements().getDef()) {
+                if (def instanceof FunctionDef && def.getName().equals(ref.getName())) {
+                    candidates.add((FunctionDef)def);
+                }
+            }
+        }
+
+        List<DataType> argumentTypes = new ArrayList<>();
+        if (!ref.getSignature().isEmpty()) {
+            for (TypeSpecifier typeSpecifier : ref.getSignature()) {
+                argumentTypes.add(resolveTypeSpecifier(typeSpecifier));
+            }
+        }
+        else {
+            for (Expression operand : ref.getOperand()) {
+                argumentTypes.add(typeOf(operand));
+            }
+        }
+
+        // A function without a local definition is a system function invoked by name
+        if (candidates.isEmpty() && ref.getLibraryName() == null) {
+            return resolveSystemCall(ref.getName(), ref.getSignature(), ref.getOperand());
+        }
+
+        // An overload that does not match the arguments is not a guess at the type, so the type is unknown
+        for (FunctionDef candidate : candidates) {
+            if (candidate.getOperand().size() == argumentTypes.size() && matchesSignature(candidate, argumentTypes)) {
+                return typeOf(candidate);
+            }
+        }
+
+        return null;
+    }
+
+    private boolean matchesSignature(FunctionDef functionDef, List<DataType> argumentTypes) {
+        for (int i = 0; i < argumentTypes.size(); i++) {
+            DataType argumentType = argumentTypes.get(i);
+            DataType operandType = typeOf(functionDef.getOperand().get(i));
+            if (argumentType == null || operandType == null
+                    || !(argumentType.isSubTypeOf(operandType) || argumentType.isCompatibleWith(operandType))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private DataType inferProperty(Property property) {
+        DataType sourceType = inferPropertySource(property);
+        if (sourceType == null) {
+            return null;
+        }
+
+        // The translator expands a target mapping such as %value.value into a property of the mapped property, typed
+        // as the mapped property
+        if (property.getSource() instanceof Property) {
+            String target = resolveTargetMap((Property)property.getSource());
+            if (target != null && target.contains("%value." + property.getPath())) {
+                return sourceType;
+            }
+        }
+
+        return resolvePath(sourceType, property.getPath());
+    }
+
+    private DataType inferPropertySource(Property property) {
+        if (property.getSource() != null) {
+            return typeOf(property.getSource());
+        }
+        if (property.getScope() != null) {
+            return resolveAlias(property.getScope());
+        }
+        return sortElementType;
+    }
+
+    private String resolveTargetMap(Property property) {
+        DataType sourceType = elementTypeOf(inferPropertySource(property));
+        if (sourceType instanceof ClassType && !property.getPath().contains(".")) {
+            ClassTypeElement element = ((ClassType)sourceType).getElement(property.getPath());
+            return element != null ? element.getTarget() : null;
+        }
+        return null;
+    }
+
+    private DataType resolvePath(DataType type, String path) {
+        DataType result = type;
+        for (String identifier : path.split("\\.")) {
+            result = resolveProperty(result, identifier);
+            if (result == null) {
+                return null;
+            }
+        }
+        return result;
+    }
+
+    private DataType resolveProperty(DataType type, String identifier) {
+        if (type instanceof ListType) {
+            DataType elementType = resolveProperty(((ListType)type).getElementType(), identifier);
+            return elementType == null || elementType instanceof ListType ? elementType : ListType.of(elementType);
+        }
+        else if (type instanceof ClassType) {
+            ClassTypeElement element = ((ClassType)type).getElement(identifier);
+            return element != null ? element.getType() : null;
+        }
+        else if (type instanceof TupleType) {
+            TupleTypeElement element = ((TupleType)type).getElement(identifier);
+            return element != null ? element.getType() : null;
+        }
+        else if (type instanceof IntervalType) {
+            switch (identifier) {
+                case "low":
+                case "high":
+                    return ((IntervalType)type).getPointType();
+                case "lowClosed":
+                case "highClosed":
+                    return getSystemModel().getBoolean();
+                default:
+                    return null;
+            }
+        }
+        else if (type instanceof ChoiceType) {
+            Set<DataType> types = new LinkedHashSet<>();
+            for (DataType choice : ((ChoiceType)type).getTypes()) {
+                DataType choiceType = resolveProperty(choice, identifier);
+                if (choiceType != null) {
+                    types.add(choiceType);
+                }
+            }
+            if (types.isEmpty()) {
+                return null;
+            }
+            return types.size() == 1 ? types.iterator().next() : ChoiceType.of(types);
+        }
+
+        return null;
+    }
+
+    private DataType resolveAlias(String alias) {
+        for (Query query : queries) {
+            for (AliasedQuerySource source : query.getSource()) {
+                if (alias.equals(source.getAlias())) {
+                    return elementTypeOf(typeOf(source.getExpression()));
+                }
+            }
+            for (RelationshipClause relationship : query.getRelationship()) {
+                if (alias.equals(relationship.getAlias())) {
+                    return elementTypeOf(typeOf(relationship.getExpression()));
+                }
+            }
+        }
+        return null;
+    }
+
+    private DataType resolveLet(String identifier) {
+        for (Query query : queries) {
+            for (LetClause let : query.getLet()) {
+                if (identifier.equals(let.getIdentifier())) {
+                    return typeOf(let.getExpression());
+                }
+            }
+            // The accumulator of an aggregate clause is referenced as a let, and typed by its starting value
+            if (query.getAggregate() != null && identifier.equals(query.getAggregate().getIdentifier())) {
+                return typeOf(query.getAggregate().getStarting());
+            }
+        }
+        return null;
+    }
+
+    private DataType inferQuery(Query query) {
+        boolean singular = true;
+        for (AliasedQuerySource source : query.getSource()) {
+            DataType sourceType = typeOf(source.getExpression());
+            if (sourceType == null) {
+                return null;
+            }
+            if (sourceType instanceof ListType) {
+                singular = false;
+            }
+        }
+
+        if (query.getAggregate() != null) {
+            return typeOf(query.getAggregate().getExpression());
+        }
+
+        DataType elementType;
+        if (query.getReturn() != null) {
+            elementType = typeOf(query.getReturn().getExpression());
+        }
+        else if (query.getSource().size() == 1) {
+            return typeOf(query.getSource().get(0).getExpression());
+        }
+        else {
+            List<TupleTypeElement> elements = new ArrayList<>();
+            for (AliasedQuerySource source : query.getSource()) {
+                elements.add(new TupleTypeElement(source.getAlias(), elementTypeOf(typeOf(source.getExpression()))));
+            }
+            elementType = TupleType.of(elements);
+        }
+
+        if (elementType == null) {
+            return null;
+        }
+        return singular ? elementType : ListType.of(elementType);
+    }
+
+    private DataType resolveSystemOperator(Expression elm) {
+        List<Expression> operands = new ArrayList<>();
+        if (elm instanceof UnaryExpression) {
+            operands.add(((UnaryExpression)elm).getOperand());
+        }
+        else if (elm instanceof BinaryExpression) {
+            operands.addAll(((BinaryExpression)elm).getOperand());
+        }
+        else if (elm instanceof TernaryExpression) {
+            operands.addAll(((TernaryExpression)elm).getOperand());
+        }
+        else if (elm instanceof NaryExpression) {
+            operands.addAll(((NaryExpression)elm).getOperand());
+        }
+        else if (elm instanceof AggregateExpression) {
+            operands.add(((AggregateExpression)elm).getSource());
+        }
+        else if (elm instanceof Round) {
+            operands.add(((Round)elm).getOperand());
+            if (((Round)elm).getPrecision() != null) {
+                operands.add(((Round)elm).getPrecision());
+            }
+        }
+        else if (elm instanceof Combine) {
+            operands.add(((Combine)elm).getSource());
+            if (((Combine)elm).getSeparator() != null) {
+                operands.add(((Combine)elm).getSeparator());
+            }
+        }
+        else if (elm instanceof Split) {
+            operands.add(((Split)elm).getStringToSplit());
+            operands.add(((Split)elm).getSeparator());
+        }
+        else if (elm instanceof SplitOnMatches) {
+            operands.add(((SplitOnMatches)elm).getStringToSplit());
+            operands.add(((SplitOnMatches)elm).getSeparatorPattern());
+        }
+        else if (elm instanceof PositionOf) {
+            operands.add(((PositionOf)elm).getPattern());
+            operands.add(((PositionOf)elm).getString());
+        }
+        else if (elm instanceof LastPositionOf) {
+            operands.add(((LastPositionOf)elm).getPattern());
+            operands.add(((LastPositionOf)elm).getString());
+        }
+        else if (elm instanceof Substring) {
+            operands.add(((Substring)elm).getStringToSub());
+            operands.add(((Substring)elm).getStartIndex());
+            if (((Substring)elm).getLength() != null) {
+                operands.add(((Substring)elm).getLength());
+            }
+        }
+        // First and Last are resolved as the translator resolves them, as the type the translator gives them depends
+        // on the generic instantiations made for earlier calls
+        else if (elm instanceof First) {
+            operands.add(((First)elm).getSource());
+        }
+        else if (elm instanceof Last) {
+            operands.add(((Last)elm).getSource());
+        }
+        else if (elm instanceof Children) {
+            operands.add(((Children)elm).getSource());
+        }
+        else if (elm instanceof Descendents) {
+            operands.add(((Descendents)elm).getSource());
+        }
+        else {
+            return null;
+        }
+
+        List<TypeSpecifier> signature = elm instanceof OperatorExpression ? ((OperatorExpression)elm).getSignature()
+                : ((AggregateExpression)elm).getSignature();
+        return resolveSystemCall(getOperatorName(elm), signature, operands);
+    }
+
+    private DataType resolveSystemCall(String operatorName, List<TypeSpecifier> signature, List<Expression> operands) {
+        DataType[] argumentTypes = new DataType[operands.size()];
+        for (int i = 0; i < operands.size(); i++) {
+            argumentTypes[i] = signature.size() == operands.size() ? resolveTypeSpecifier(signature.get(i)) : typeOf(operands.get(i));
+            if (argumentTypes[i] == null) {
+                return null;
+            }
+        }
+
+        try {
+            OperatorResolution resolution = getSystemLibrary().resolveCall(
+                    new CallContext("System", operatorName, false, false, false, argumentTypes), conversionMap);
+            return resolution != null && resolution.getOperator() != null ? resolution.getOperator().getResultType() : null;
+        }
+        catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static String getOperatorName(Expression elm) {
+        // Subclasses of ELM types (e.g. for tracking) are named for the nearest ELM type
+        Class<?> elmClass = elm.getClass();
+        while (!elmClass.getPackage().getName().equals(Expression.class.getPackage().getName())) {
+            elmClass = elmClass.getSuperclass();
+        }
+        return elmClass.getSimpleName();
+    }
+
+    private TranslatedLibrary getSystemLibrary() {
+        if (systemLibrary == null) {
+            systemLibrary = new TranslatedLibrary(modelManager.getSystemLibrary());
+        }
+        return systemLibrary;
+    }
+
+    private SystemModel getSystemModel() {
+        return (SystemModel)modelManager.resolveModel("System");
+    }
+
+    private DataType resolveTypeSpecifier(TypeSpecifier typeSpecifier) {
+        if (typeSpecifier == null) {
+            return null;
+        }
+        if (typeSpecifier.getResultType() != null) {
+            return typeSpecifier.getResultType();
+        }
+
+        if (typeSpecifier instanceof NamedTypeSpecifier) {
+            return resolveTypeName(((NamedTypeSpecifier)typeSpecifier).getName());
+        }
+        else if (typeSpecifier instanceof ListTypeSpecifier) {
+            DataType elementType = resolveTypeSpecifier(((ListTypeSpecifier)typeSpecifier).getElementType());
+            return elementType != null ? ListType.of(elementType) : null;
+        }
+        else if (typeSpecifier instanceof IntervalTypeSpecifier) {
+            DataType pointType = resolveTypeSpecifier(((IntervalTypeSpecifier)typeSpecifier).getPointType());
+            return pointType != null ? IntervalType.of(pointType) : null;
+        }
+        else if (typeSpecifier instanceof TupleTypeSpecifier) {
+            List<TupleTypeElement> elements = new ArrayList<>();
+            for (TupleElementDefinition element : ((TupleTypeSpecifier)typeSpecifier).getElement()) {
+                // The type property is deprecated in favor of elementType, but may be present in older ELM
+                DataType elementType = resolveTypeSpecifier(element.getElementType() != null ? element.getElementType() : element.getType());
+                if (elementType == null) {
+                    return null;
+                }
+                elements.add(new TupleTypeElement(element.getName(), elementType));
+            }
+            return TupleType.of(elements);
+        }
+        else if (typeSpecifier instanceof ChoiceTypeSpecifier) {
+            ChoiceTypeSpecifier choiceTypeSpecifier = (ChoiceTypeSpecifier)typeSpecifier;
+            List<DataType> choices = new ArrayList<>();
+            for (TypeSpecifier choice : !choiceTypeSpecifier.getChoice().isEmpty() ? choiceTypeSpecifier.getChoice() : choiceTypeSpecifier.getType()) {
+                DataType choiceType = resolveTypeSpecifier(choice);
+                if (choiceType == null) {
+                    return null;
+                }
+                choices.add(choiceType);
+            }
+            return ChoiceType.of(choices);
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the models used by the library, loading them if necessary.
+     */
+    private List<Model> getModels() {
+        if (models == null) {
+            models = new ArrayList<>();
+            if (library.getUsings() != null) {
+                for (UsingDef usingDef : library.getUsings().getDef()) {
+                    try {
+                        models.add(modelManager.resolveModel(new org.hl7.elm.r1.VersionedIdentifier()
+                                .withId(usingDef.getLocalIdentifier()).withVersion(usingDef.getVersion())));
+                    }
+                    catch (RuntimeException e) {
+                        // Types from the model are resolved by namespace, if the model is loaded
+                    }
+                }
+            }
+        }
+        return models;
+    }
+
+    /**
+     * Resolves a type name in the ELM to a type. Type names are qualified by the target url of the model, if it has one
+     * (e.g. {http://hl7.org/fhir}Patient for QICore.Patient), and named for the target of the type, if it has one, so
+     * the models used by the library whose target url matches are searched first.
+     */
+    private DataType resolveTypeName(QName typeName) {
+        if (typeName == null || typeName.getNamespaceURI() == null || typeName.getNamespaceURI().isEmpty()) {
+            return null;
+        }
+        if (namedTypes.containsKey(typeName)) {
+            return namedTypes.get(typeName);
+        }
+
+        String namespace = typeName.getNamespaceURI();
+        String name = typeName.getLocalPart();
+        DataType result = null;
+        for (Model model : getModels()) {
+            ModelInfo modelInfo = model.getModelInfo();
+            if (modelInfo.getTargetUrl() != null && namespace.equals(modelInfo.getTargetUrl())) {
+                result = resolveTargetName(model, name);
+                if (result != null) {
+                    break;
+                }
+            }
+        }
+        if (result == null) {
+            for (Model model : getModels()) {
+                if (namespace.equals(model.getModelInfo().getUrl())) {
+                    result = model.resolveTypeName(name);
+                    if (result != null) {
+                        break;
+                    }
+                }
+            }
+        }
+        if (result == null) {
+            try {
+                result = modelManager.resolveModelByUri(namespace).resolveTypeName(name);
+            }
+            catch (IllegalArgumentException e) {
+                // The namespace is not that of a loaded model
+            }
+        }
+
+        namedTypes.put(typeName, result);
+        return result;
+    }
+
+    private static DataType resolveTargetName(Model model, String name) {
+        DataType result = model.resolveTypeName(name);
+        if (result != null) {
+            return result;
+        }
+        for (TypeInfo typeInfo : model.getModelInfo().getTypeInfo()) {
+            if (typeInfo instanceof ClassInfo && name.equals(((ClassInfo)typeInfo).getTarget())) {
+                return model.resolveTypeName(((ClassInfo)typeInfo).getName());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Resolves the template of a retrieve to the type with that identifier, as a profile identifies the type more
+     * precisely than its data type, which is the type the profile targets.
+     */
+    private DataType resolveTemplateId(String templateId) {
+        if (templateTypes.containsKey(templateId)) {
+            return templateTypes.get(templateId);
+        }
+
+        DataType result = null;
+        for (Model model : getModels()) {
+            for (TypeInfo typeInfo : model.getModelInfo().getTypeInfo()) {
+                if (typeInfo instanceof ClassInfo && templateId.equals(((ClassInfo)typeInfo).getIdentifier())) {
+                    result = model.resolveTypeName(((ClassInfo)typeInfo).getName());
+                    break;
+                }
+            }
+            if (result != null) {
+                break;
+            }
+        }
+
+        templateTypes.put(templateId, result);
+        return result;
+    }
+}
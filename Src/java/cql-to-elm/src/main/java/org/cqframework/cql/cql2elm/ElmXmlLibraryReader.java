@@ -1,10 +1,7 @@
 package org.cqframework.cql.cql2elm;
 
 import org.hl7.elm.r1.Library;
-import org.hl7.cql_annotations.r1.*;
-import org.hl7.elm.r1.ObjectFactory;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Unmarshaller;
@@ -20,24 +17,15 @@ import java.net.URL;
 
 public class ElmXmlLibraryReader {
 
-    private static JAXBContext context;
-    private static Unmarshaller unmarshaller;
-
     private ElmXmlLibraryReader() {
     }
 
     // Performance enhancement additions ~ start
-    public static synchronized Unmarshaller getUnmarshaller() throws JAXBException {
-        if (context == null)
-        {
-            context = JAXBContext.newInstance(ObjectFactory.class, Annotation.class);
-        }
-
-        if (unmarshaller == null) {
-            unmarshaller = context.createUnmarshaller();
-        }
-
-        return unmarshaller;
+    /**
+     * Returns the unmarshaller for the current thread.
+     */
+    public static Unmarshaller getUnmarshaller() throws JAXBException {
+        return ElmJaxb.getElmXmlUnmarshaller();
     }
 
     public static Library read(Unmarshaller u, File file) throws IOException, JAXBException {
@@ -65,9 +53,12 @@ public class ElmXmlLibraryReader {
     }
 
     @SuppressWarnings("unchecked")
-    public static synchronized Library read(Unmarshaller u, Source source) throws JAXBException {
-        Object result = u.unmarshal(source);
-        return ((JAXBElement<Library>)result).getValue();
+    public static Library read(Unmarshaller u, Source source) throws JAXBException {
+        // Unmarshallers are not thread-safe, so guard against one being shared between threads
+        synchronized (u) {
+            Object result = u.unmarshal(source);
+            return ((JAXBElement<Library>)result).getValue();
+        }
     }
     // Performance enhancement additions ~ end
 
@@ -95,7 +86,7 @@ public class ElmXmlLibraryReader {
         return read(LibraryReaderUtil.toSource(reader));
     }
 
-    public static synchronized Library read(Source source) throws JAXBException {
+    public static Library read(Source source) throws JAXBException {
         return read(getUnmarshaller(), source);
     }
 
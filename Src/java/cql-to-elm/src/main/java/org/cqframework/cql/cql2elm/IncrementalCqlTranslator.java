@@ -0,0 +1,561 @@
+package org.cqframework.cql.cql2elm;
+
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+import org.antlr.v4.runtime.tree.TerminalNodeImpl;
+import org.cqframework.cql.CqlParserUtil;
+import org.cqframework.cql.cql2elm.model.TranslatedLibrary;
+import org.cqframework.cql.cql2elm.preprocessor.*;
+import org.cqframework.cql.elm.tracking.TrackBack;
+import org.cqframework.cql.elm.tracking.Trackable;
+import org.cqframework.cql.elm.visiting.ElmBaseLibraryVisitor;
+import org.cqframework.cql.gen.cqlLexer;
+import org.cqframework.cql.gen.cqlParser;
+import org.fhir.ucum.UcumService;
+import org.hl7.elm.r1.*;
+
+import java.util.*;
+import java.util.List;
+
+/**
+ * Translates successive versions of the text of a library, as an authoring tool would as the library is edited,
+ * re-parsing and re-translating only the definitions that have changed since the previous version, and the
+ * definitions that depend on them.
+ *
+ * Each version of the text is lexed, and its tokens compared with those of the previous version. Only the statements
+ * (expression, function and context definitions) containing the tokens that changed are parsed, and these are spliced
+ * into the parse tree of the previous version. The library is then translated with a new {@link LibraryBuilder}, so
+ * the header definitions are resolved again (the models and included libraries are cached by their managers), but
+ * each unchanged expression and function definition is carried over from the previous translation as it is. A
+ * definition is translated again if it refers, directly or indirectly, to a definition that changed, or if its
+ * previous translation reported any errors, warnings or messages.
+ *
+ * The whole library is translated again if the header definitions or the context definitions change, if the library
+ * has syntax errors, or if a diagnostic of the previous translation has no location. It is always translated again
+ * with common subexpression elimination enabled, as this rewrites the definitions that would be carried over.
+ *
+ * The definitions carried over are shared with the library of the previous version, and retain their local ids, so
+ * with annotations enabled the elements translated in an update are numbered after the last local id used, rather
+ * than in document order. Definitions are added to the library in the order they are translated, so the order of
+ * the statements may also differ from that of a full translation where one definition refers to a later one.
+ */
+public class IncrementalCqlTranslator {
+    private final NamespaceInfo namespaceInfo;
+    private final ModelManager modelManager;
+    private final LibraryManager libraryManager;
+    private final UcumService ucumService;
+    private final CqlTranslatorOptions options;
+
+    private String text;
+    private List<Token> tokens;
+    private cqlParser.LibraryContext tree;
+    private LibraryInfo libraryInfo;
+    private Map<ParseTree, ExpressionDef> definitions;
+    private final Map<ExpressionDef, Set<String>> references = new IdentityHashMap<>();
+    private int nextLocalId = 1;
+    private boolean updatable;
+    private boolean incremental;
+    private int translatedDefinitionCount;
+
+    private Library library;
+    private TranslatedLibrary translatedLibrary;
+    private List<CqlTranslatorException> exceptions;
+    private List<CqlTranslatorException> errors;
+    private List<CqlTranslatorException> warnings;
+    private List<CqlTranslatorException> messages;
+
+    public IncrementalCqlTranslator(ModelManager modelManager, LibraryManager libraryManager, UcumService ucumService,
+                                    CqlTranslatorOptions options) {
+        this(null, modelManager, libraryManager, ucumService, options);
+    }
+
+    public IncrementalCqlTranslator(NamespaceInfo namespaceInfo, ModelManager modelManager, LibraryManager libraryManager,
+                                    UcumService ucumService, CqlTranslatorOptions options) {
+        if (modelManager == null) {
+            throw new IllegalArgumentException("modelManager is null");
+        }
+        if (libraryManager == null) {
+            throw new IllegalArgumentException("libraryManager is null");
+        }
+        if (options == null) {
+            throw new IllegalArgumentException("options is null");
+        }
+
+        this.namespaceInfo = namespaceInfo;
+        this.modelManager = modelManager;
+        this.libraryManager = libraryManager;
+        this.ucumService = ucumService;
+        this.options = options;
+
+        if (namespaceInfo != null) {
+            modelManager.getNamespaceManager().ensureNamespaceRegistered(namespaceInfo);
+            libraryManager.getNamespaceManager().ensureNamespaceRegistered(namespaceInfo);
+        }
+
+        if (libraryManager.getUcumService() == null) {
+            libraryManager.setUcumService(ucumService);
+        }
+    }
+
+    /**
+     * Translates the given version of the library, re-translating only what changed since the previous version.
+     *
+     * @return The translated library
+     */
+    public Library translate(String cqlText) {
+        if (cqlText == null) {
+            throw new IllegalArgumentException("cqlText is null");
+        }
+
+        if (tree != null && cqlText.equals(text)) {
+            incremental = true;
+            translatedDefinitionCount = 0;
+            return library;
+        }
+
+        incremental = updatable && translateIncrementally(cqlText);
+        if (!incremental) {
+            translateFully(cqlText);
+        }
+        text = cqlText;
+        return library;
+    }
+
+    public Library getLibrary() {
+        return library;
+    }
+
+    public TranslatedLibrary getTranslatedLibrary() {
+        return translatedLibrary;
+    }
+
+    public List<CqlTranslatorException> getExceptions() {
+        return exceptions;
+    }
+
+    public List<CqlTranslatorException> getErrors() {
+        return errors;
+    }
+
+    public List<CqlTranslatorException> getWarnings() {
+        return warnings;
+    }
+
+    public List<CqlTranslatorException> getMessages() {
+        return messages;
+    }
+
+    /**
+     * @return Whether the last version was translated incrementally, rather than translating the whole library
+     */
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * @return The number of expression and function definitions translated for the last version, not counting those
+     * carried over from the previous version
+     */
+    public int getTranslatedDefinitionCount() {
+        return translatedDefinitionCount;
+    }
+
+    private LibraryBuilder createBuilder() {
+        LibraryBuilder builder = new LibraryBuilder(namespaceInfo, modelManager, libraryManager, ucumService);
+        builder.setTranslatorOptions(options);
+        return builder;
+    }
+
+    private Cql2ElmVisitor createVisitor(LibraryBuilder builder) {
+        Cql2ElmVisitor visitor = new Cql2ElmVisitor(builder);
+        builder.setVisitor(visitor);
+        visitor.setTranslatorOptions(options);
+        return visitor;
+    }
+
+    private void translateFully(String cqlText) {
+        LibraryBuilder builder = createBuilder();
+        Cql2ElmVisitor visitor = createVisitor(builder);
+        CqlTranslator.CqlErrorListener errorListener = new CqlTranslator.CqlErrorListener(builder, visitor.isDetailedErrorsEnabled(),
+                new VersionedIdentifier().withId("Anonymous").withSystem("text/cql"));
+
+        cqlLexer lexer = new cqlLexer(CharStreams.fromString(cqlText));
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(errorListener);
+        CommonTokenStream tokenStream = new CommonTokenStream(lexer);
+        cqlParser parser = new cqlParser(tokenStream);
+        parser.setBuildParseTree(true);
+        parser.removeErrorListeners();
+        parser.addErrorListener(errorListener);
+        cqlParser.LibraryContext libraryTree = CqlParserUtil.parseLibrary(parser);
+        tokenStream.fill();
+
+        references.clear();
+        nextLocalId = 1;
+        translate(builder, visitor, tokenStream, libraryTree, new HashMap<>());
+        translatedDefinitionCount = definitions.size();
+        if (options.getOptions().contains(CqlTranslator.Options.EnableCommonSubexpressionElimination)) {
+            new ElmCommonSubexpressionEliminator(builder).eliminate();
+            updatable = false;
+            return;
+        }
+
+        // Only a library without syntax errors, whose diagnostics all have a location, can be updated incrementally
+        updatable = true;
+        for (CqlTranslatorException exception : exceptions) {
+            if (exception instanceof CqlSyntaxException || exception.getLocator() == null) {
+                updatable = false;
+            }
+        }
+    }
+
+    private void translate(LibraryBuilder builder, Cql2ElmVisitor visitor, CommonTokenStream tokenStream,
+                           cqlParser.LibraryContext libraryTree, Map<ParseTree, ExpressionDef> reusableDefinitions) {
+        CqlPreprocessorVisitor preprocessor = new CqlPreprocessorVisitor();
+        preprocessor.setTokenStream(tokenStream);
+        preprocessor.visit(libraryTree);
+
+        visitor.setTokenStream(tokenStream);
+        visitor.setLibraryInfo(preprocessor.getLibraryInfo());
+        visitor.setReusableDefinitions(reusableDefinitions);
+        visitor.setNextLocalId(nextLocalId);
+        visitor.visit(libraryTree);
+        nextLocalId = visitor.getNextLocalId();
+
+        tokens = tokenStream.getTokens();
+        tree = libraryTree;
+        libraryInfo = preprocessor.getLibraryInfo();
+        definitions = visitor.getTranslatedDefinitions();
+        library = builder.getLibrary();
+        translatedLibrary = builder.getTranslatedLibrary();
+        exceptions = new ArrayList<>(builder.getExceptions());
+        errors = new ArrayList<>(builder.getErrors());
+        warnings = new ArrayList<>(builder.getWarnings());
+        messages = new ArrayList<>(builder.getMessages());
+    }
+
+    /**
+     * Translates the library by parsing only the statements that changed since the previous version.
+     *
+     * @return Whether the library could be translated incrementally; the state is unchanged if not
+     */
+    private boolean translateIncrementally(String cqlText) {
+        cqlLexer lexer = new cqlLexer(CharStreams.fromString(cqlText));
+        lexer.removeErrorListeners();
+        boolean[] lexerErrors = new boolean[1];
+        lexer.addErrorListener(new BaseErrorListener() {
+            @Override
+            public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line, int charPositionInLine,
+                                    String msg, RecognitionException e) {
+                lexerErrors[0] = true;
+            }
+        });
+        CommonTokenStream tokenStream = new CommonTokenStream(lexer);
+        tokenStream.fill();
+        if (lexerErrors[0]) {
+            return false;
+        }
+
+        // The tokens before and after the change, which are the same in both versions (EOF always matches)
+        List<Token> newTokens = tokenStream.getTokens();
+        int prefix = 0;
+        while (prefix < tokens.size() - 1 && prefix < newTokens.size() - 1 && matches(tokens.get(prefix), newTokens.get(prefix))) {
+            prefix++;
+        }
+        int suffix = 1;
+        while (tokens.size() - suffix - 1 >= prefix && newTokens.size() - suffix - 1 >= prefix
+                && matches(tokens.get(tokens.size() - suffix - 1), newTokens.get(newTokens.size() - suffix - 1))) {
+            suffix++;
+        }
+        int changedStop = tokens.size() - suffix - 1;
+
+        int headerStop = -1;
+        List<cqlParser.StatementContext> statements = new ArrayList<>();
+        for (ParseTree child : tree.children) {
+            if (child instanceof cqlParser.StatementContext) {
+                statements.add((cqlParser.StatementContext)child);
+            }
+            else if (child instanceof ParserRuleContext) {
+                headerStop = ((ParserRuleContext)child).getStop().getTokenIndex();
+            }
+        }
+        if (prefix <= headerStop) {
+            return false;
+        }
+
+        // Each statement is taken to own the hidden tokens (comments and whitespace) that precede it, so the changed
+        // statements are those whose tokens, or the comments before them, changed
+        int first = statements.size();
+        for (int i = 0; i < statements.size(); i++) {
+            if (statements.get(i).getStop().getTokenIndex() >= prefix) {
+                first = i;
+                break;
+            }
+        }
+        int last = first - 1;
+        for (int i = first; i < statements.size(); i++) {
+            if (ownedStart(statements, i, headerStop) <= changedStop) {
+                last = i;
+            }
+        }
+        int regionStart = ownedStart(statements, first, headerStop);
+        int regionStop = last >= first ? statements.get(last).getStop().getTokenIndex() : regionStart - 1;
+        int lastStop = statements.isEmpty() ? headerStop : statements.get(statements.size() - 1).getStop().getTokenIndex();
+        if (changedStop > lastStop) {
+            last = statements.size() - 1;
+            regionStop = tokens.size() - 2;
+        }
+        int shift = newTokens.size() - tokens.size();
+        int nextStart = last + 1 < statements.size()
+                ? statements.get(last + 1).getStart().getTokenIndex() + shift : newTokens.size() - 1;
+
+        cqlParser parser = new cqlParser(tokenStream);
+        parser.setBuildParseTree(true);
+        List<cqlParser.StatementContext> parsed = CqlParserUtil.parseStatements(parser, regionStart, nextStart);
+        if (parsed == null) {
+            return false;
+        }
+
+        List<cqlParser.StatementContext> replaced = statements.subList(first, last + 1);
+        for (cqlParser.StatementContext statement : replaced) {
+            if (statement.contextDefinition() != null) {
+                return false;
+            }
+        }
+        for (cqlParser.StatementContext statement : parsed) {
+            if (statement.contextDefinition() != null) {
+                return false;
+            }
+        }
+
+        // The names of the definitions that changed, whose dependents must be translated again
+        Set<String> changedNames = new HashSet<>();
+        for (cqlParser.StatementContext statement : replaced) {
+            changedNames.add(getName(libraryInfo, statement));
+        }
+        for (cqlParser.StatementContext statement : parsed) {
+            changedNames.add(getName(statement));
+        }
+
+        List<cqlParser.StatementContext> kept = new ArrayList<>(statements.subList(0, first));
+        kept.addAll(statements.subList(last + 1, statements.size()));
+        Map<cqlParser.StatementContext, ExpressionDef> reusable = new HashMap<>();
+        for (cqlParser.StatementContext statement : kept) {
+            ParseTree definition = getDefinition(statement);
+            ExpressionDef def = definitions.get(definition);
+            Token start = statement.getStart();
+            Token newStart = newTokens.get(mapIndex(start.getTokenIndex(), regionStart, shift));
+            if (def == null || start.getCharPositionInLine() != newStart.getCharPositionInLine()
+                    || hasDiagnostics(statement)) {
+                changedNames.add(getName(libraryInfo, statement));
+            }
+            else {
+                reusable.put(statement, def);
+            }
+        }
+
+        boolean dependentsFound = true;
+        while (dependentsFound) {
+            dependentsFound = false;
+            for (Iterator<Map.Entry<cqlParser.StatementContext, ExpressionDef>> i = reusable.entrySet().iterator(); i.hasNext(); ) {
+                Map.Entry<cqlParser.StatementContext, ExpressionDef> entry = i.next();
+                if (!Collections.disjoint(getReferences(entry.getValue()), changedNames)) {
+                    changedNames.add(entry.getValue().getName());
+                    i.remove();
+                    dependentsFound = true;
+                }
+            }
+        }
+
+        // Move the definitions carried over to the lines they are now on
+        for (Map.Entry<cqlParser.StatementContext, ExpressionDef> entry : reusable.entrySet()) {
+            Token start = entry.getKey().getStart();
+            int lineShift = newTokens.get(mapIndex(start.getTokenIndex(), regionStart, shift)).getLine() - start.getLine();
+            if (lineShift != 0) {
+                shiftLines(entry.getValue(), lineShift);
+            }
+            entry.getValue().getTrackbacks().clear();
+        }
+
+        // Splice the parsed statements into the tree, in place of those they replace
+        List<ParseTree> children = new ArrayList<>();
+        for (ParseTree child : tree.children) {
+            if (child instanceof cqlParser.StatementContext) {
+                int index = statements.indexOf(child);
+                if (index == first) {
+                    for (cqlParser.StatementContext statement : parsed) {
+                        statement.setParent(tree);
+                        children.add(statement);
+                    }
+                }
+                if (index >= first && index <= last) {
+                    continue;
+                }
+            }
+            else if (child instanceof TerminalNode && first == statements.size()) {
+                for (cqlParser.StatementContext statement : parsed) {
+                    statement.setParent(tree);
+                    children.add(statement);
+                }
+            }
+            rebind(child, newTokens, regionStart, shift);
+            children.add(child);
+        }
+        tree.children = children;
+        tree.start = onChannel(newTokens, 0, 1);
+        tree.stop = onChannel(newTokens, newTokens.size() - 2, -1);
+
+        Map<ParseTree, ExpressionDef> reusableDefinitions = new HashMap<>();
+        for (Map.Entry<cqlParser.StatementContext, ExpressionDef> entry : reusable.entrySet()) {
+            reusableDefinitions.put(getDefinition(entry.getKey()), entry.getValue());
+        }
+
+        LibraryBuilder builder = createBuilder();
+        Cql2ElmVisitor visitor = createVisitor(builder);
+        translate(builder, visitor, tokenStream, tree, reusableDefinitions);
+        translatedDefinitionCount = definitions.size() - reusableDefinitions.size();
+        Map<ExpressionDef, Set<String>> retained = new IdentityHashMap<>();
+        for (ExpressionDef def : definitions.values()) {
+            if (references.containsKey(def)) {
+                retained.put(def, references.get(def));
+            }
+        }
+        references.clear();
+        references.putAll(retained);
+        for (CqlTranslatorException exception : exceptions) {
+            if (exception.getLocator() == null) {
+                updatable = false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean matches(Token left, Token right) {
+        return left.getType() == right.getType() && left.getChannel() == right.getChannel()
+                && left.getText().equals(right.getText());
+    }
+
+    private static int ownedStart(List<cqlParser.StatementContext> statements, int index, int headerStop) {
+        return index > 0 ? statements.get(index - 1).getStop().getTokenIndex() + 1 : headerStop + 1;
+    }
+
+    /**
+     * Maps the index of an unchanged token in the previous version to its index in the current version.
+     */
+    private static int mapIndex(int index, int regionStart, int shift) {
+        return index < regionStart ? index : index + shift;
+    }
+
+    private static Token onChannel(List<Token> tokens, int index, int direction) {
+        while (index >= 0 && index < tokens.size() - 1 && tokens.get(index).getChannel() != Token.DEFAULT_CHANNEL) {
+            index += direction;
+        }
+        return index >= 0 ? tokens.get(index) : null;
+    }
+
+    /**
+     * Points an unchanged part of the previous parse tree at the tokens of the current version.
+     */
+    private static void rebind(ParseTree tree, List<Token> tokens, int regionStart, int shift) {
+        if (tree instanceof TerminalNodeImpl) {
+            TerminalNodeImpl node = (TerminalNodeImpl)tree;
+            node.symbol = tokens.get(mapIndex(node.symbol.getTokenIndex(), regionStart, shift));
+        }
+        else if (tree instanceof ParserRuleContext) {
+            ParserRuleContext context = (ParserRuleContext)tree;
+            context.start = tokens.get(mapIndex(context.start.getTokenIndex(), regionStart, shift));
+            context.stop = tokens.get(mapIndex(context.stop.getTokenIndex(), regionStart, shift));
+            for (int i = 0; i < context.getChildCount(); i++) {
+                rebind(context.getChild(i), tokens, regionStart, shift);
+            }
+        }
+    }
+
+    private static ParseTree getDefinition(cqlParser.StatementContext statement) {
+        if (statement.expressionDefinition() != null) {
+            return statement.expressionDefinition();
+        }
+        if (statement.functionDefinition() != null) {
+            return statement.functionDefinition();
+        }
+        return statement.contextDefinition();
+    }
+
+    private static String getName(LibraryInfo libraryInfo, cqlParser.StatementContext statement) {
+        BaseInfo info = libraryInfo.resolveDefinition(getDefinition(statement));
+        if (info instanceof ExpressionDefinitionInfo) {
+            return ((ExpressionDefinitionInfo)info).getName();
+        }
+        if (info instanceof FunctionDefinitionInfo) {
+            return ((FunctionDefinitionInfo)info).getName();
+        }
+        return getName(statement);
+    }
+
+    private static String getName(cqlParser.StatementContext statement) {
+        CqlPreprocessorVisitor preprocessor = new CqlPreprocessorVisitor();
+        if (statement.expressionDefinition() != null) {
+            return (String)preprocessor.visit(statement.expressionDefinition().identifier());
+        }
+        if (statement.functionDefinition() != null) {
+            return (String)preprocessor.visit(statement.functionDefinition().identifierOrFunctionIdentifier());
+        }
+        return null;
+    }
+
+    /**
+     * @return Whether the previous translation reported any diagnostics within the statement
+     */
+    private boolean hasDiagnostics(cqlParser.StatementContext statement) {
+        int startLine = statement.getStart().getLine();
+        int stopLine = statement.getStop().getLine();
+        for (CqlTranslatorException exception : exceptions) {
+            TrackBack locator = exception.getLocator();
+            if (locator.getStartLine() <= stopLine && locator.getEndLine() >= startLine) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The names of the definitions of this library the definition refers to
+     */
+    private Set<String> getReferences(ExpressionDef def) {
+        return references.computeIfAbsent(def, d -> {
+            Set<String> names = new HashSet<>();
+            new ElmBaseLibraryVisitor<Void, Void>() {
+                @Override
+                protected Void defaultResult(Trackable elm, Void context) {
+                    if (elm instanceof ExpressionRef && ((ExpressionRef)elm).getLibraryName() == null) {
+                        names.add(((ExpressionRef)elm).getName());
+                    }
+                    return null;
+                }
+            }.visitElement(d, null);
+            return names;
+        });
+    }
+
+    private static void shiftLines(ExpressionDef def, int lineShift) {
+        new ElmBaseLibraryVisitor<Void, Void>() {
+            @Override
+            protected Void defaultResult(Trackable elm, Void context) {
+                if (elm != null) {
+                    List<TrackBack> trackbacks = elm.getTrackbacks();
+                    for (int i = 0; i < trackbacks.size(); i++) {
+                        TrackBack tb = trackbacks.get(i);
+                        trackbacks.set(i, new TrackBack(tb.getLibrary(), tb.getStartLine() + lineShift, tb.getStartChar(),
+                                tb.getEndLine() + lineShift, tb.getEndChar()));
+                    }
+                    if (elm instanceof Element && ((Element)elm).getLocator() != null && !trackbacks.isEmpty()) {
+                        ((Element)elm).setLocator(trackbacks.get(trackbacks.size() - 1).toLocator());
+                    }
+                }
+                return null;
+            }
+        }.visitElement(def, null);
+    }
+}
@@ -126,6 +126,8 @@ public class LibraryBuilder implements ModelResolver {
     private final ObjectFactory of = new ObjectFactory();
     private final org.hl7.cql_annotations.r1.ObjectFactory af = new org.hl7.cql_annotations.r1.ObjectFactory();
     private boolean listTraversal = true;
+    // Property resolutions by source type and identifier, cleared when options affecting resolution change
+    private final Map<DataType, Map<String, PropertyResolution>> propertyResolutions = new HashMap<>();
     private UcumService ucumService = null;
     private CqlTranslatorOptions options;
     private CqlToElmInfo cqlToElmInfo = null;
@@ -134,6 +136,7 @@ public class LibraryBuilder implements ModelResolver {
 
     public void enableListTraversal() {
         listTraversal = true;
+        propertyResolutions.clear();
     }
 
     public void setTranslatorOptions(CqlTranslatorOptions options) {
@@ -144,6 +147,7 @@ public class LibraryBuilder implements ModelResolver {
         this.options = options;
         if (options.getOptions().contains(CqlTranslator.Options.DisableListTraversal)) {
             this.listTraversal = false;
+            propertyResolutions.clear();
         }
         if (options.getOptions().contains(CqlTranslator.Options.DisableListDemotion)) {
             this.getConversionMap().disableListDemotion();
@@ -183,6 +187,7 @@ public class LibraryBuilder implements ModelResolver {
         if (compatibilityLevel != null) {
             this.compatibilityVersion = new Version(compatibilityLevel);
         }
+        propertyResolutions.clear();
     }
 
     public boolean isCompatibleWith(String sinceCompatibilityLevel) {
@@ -423,11 +428,11 @@ public class LibraryBuilder implements ModelResolver {
         // listTypeSpecifier: 'list' '<' typeSpecifier '>'
         if (typeSpecifier.toLowerCase().startsWith("interval<")) {
             DataType pointType = resolveTypeSpecifier(typeSpecifier.substring(typeSpecifier.indexOf('<') + 1, typeSpecifier.lastIndexOf('>')));
-            return new IntervalType(pointType);
+            return IntervalType.of(pointType);
         }
         else if (typeSpecifier.toLowerCase().startsWith("list<")) {
             DataType elementType = resolveTypeName(typeSpecifier.substring(typeSpecifier.indexOf('<') + 1, typeSpecifier.lastIndexOf('>')));
-            return new ListType(elementType);
+            return ListType.of(elementType);
         }
         else if (typeSpecifier.indexOf(".") >= 0) {
             String modelName = typeSpecifier.substring(0, typeSpecifier.indexOf("."));
@@ -470,7 +475,10 @@ public class LibraryBuilder implements ModelResolver {
     }
 
     private void loadSystemLibrary() {
-        TranslatedLibrary systemLibrary = SystemLibraryHelper.load(getSystemModel(), typeBuilder);
+        // The System library is shared across translations, so generic operators instantiated by this translation are
+        // registered in an overlay rather than in the shared library
+        getSystemModel();
+        TranslatedLibrary systemLibrary = new TranslatedLibrary(modelManager.getSystemLibrary());
         libraries.put(systemLibrary.getIdentifier().getId(), systemLibrary);
         loadConversionMap(systemLibrary);
     }
@@ -864,7 +872,7 @@ public class LibraryBuilder implements ModelResolver {
                 }
 
                 if (elementTypes.size() > 1) {
-                    ListType targetType = new ListType(new ChoiceType(elementTypes));
+                    ListType targetType = ListType.of(ChoiceType.of(elementTypes));
                     left = of.createAs().withOperand(left).withAsTypeSpecifier(dataTypeToTypeSpecifier(targetType));
                     left.setResultType(targetType);
 
@@ -1365,7 +1373,7 @@ public class LibraryBuilder implements ModelResolver {
     public Expression resolveToList(Expression expression) {
         // Use a ToList operator here to avoid duplicate evaluation of the operand.
         ToList toList = of.createToList().withOperand(expression);
-        toList.setResultType(new ListType(expression.getResultType()));
+        toList.setResultType(ListType.of(expression.getResultType()));
         return toList;
     }
 
@@ -1400,9 +1408,9 @@ public class LibraryBuilder implements ModelResolver {
     public Expression resolveToInterval(Expression expression) {
         If condition = of.createIf();
         condition.setCondition(buildIsNull(expression));
-        condition.setThen(buildNull(new IntervalType(expression.getResultType())));
+        condition.setThen(buildNull(IntervalType.of(expression.getResultType())));
         Interval toInterval = of.createInterval().withLow(expression).withHigh(expression).withLowClosed(true).withHighClosed(true);
-        toInterval.setResultType(new IntervalType(expression.getResultType()));
+        toInterval.setResultType(IntervalType.of(expression.getResultType()));
         condition.setElse(toInterval);
         condition.setResultType(resolveTypeName("System", "Boolean"));
         return condition;
@@ -1853,7 +1861,7 @@ public class LibraryBuilder implements ModelResolver {
                 .withHighClosed(highClosed);
 
         DataType pointType = ensureCompatibleTypes(result.getLow().getResultType(), result.getHigh().getResultType());
-        result.setResultType(new IntervalType(pointType));
+        result.setResultType(IntervalType.of(pointType));
 
         result.setLow(ensureCompatible(result.getLow(), pointType));
         result.setHigh(ensureCompatible(result.getHigh(), pointType));
@@ -1894,6 +1902,27 @@ public class LibraryBuilder implements ModelResolver {
 
     // TODO: Support case-insensitive models
     public PropertyResolution resolveProperty(DataType sourceType, String identifier, boolean mustResolve) {
+        // Resolutions (including unresolved properties) are cached by source type and identifier; resolutions that
+        // fail with an error are not cached, so the error is reported on every access
+        Map<String, PropertyResolution> typeResolutions = propertyResolutions.computeIfAbsent(sourceType, t -> new HashMap<>());
+        PropertyResolution resolution;
+        if (typeResolutions.containsKey(identifier)) {
+            resolution = typeResolutions.get(identifier);
+        }
+        else {
+            resolution = internalResolveProperty(sourceType, identifier);
+            typeResolutions.put(identifier, resolution);
+        }
+
+        if (resolution == null && mustResolve) {
+            // ERROR:
+            throw new IllegalArgumentException(String.format("Member %s not found for type %s.", identifier, sourceType != null ? sourceType.toLabel() : null));
+        }
+
+        return resolution;
+    }
+
+    private PropertyResolution internalResolveProperty(DataType sourceType, String identifier) {
         DataType currentType = sourceType;
         while (currentType != null) {
             if (currentType instanceof ClassType) {
@@ -1907,23 +1936,24 @@ public class LibraryBuilder implements ModelResolver {
                     }
                 }
                 else {
-                    for (ClassTypeElement e : classType.getElements()) {
-                        if (e.getName().equals(identifier)) {
-                            if (e.isProhibited()) {
-                                throw new IllegalArgumentException(String.format("Element %s cannot be referenced because it is marked prohibited in type %s.", e.getName(), ((ClassType) currentType).getName()));
-                            }
-
-                            return new PropertyResolution(e);
+                    // The element lookup includes the elements of the base types, so they are not searched again
+                    ClassTypeElement e = classType.getElement(identifier);
+                    if (e != null) {
+                        if (e.isProhibited()) {
+                            throw new IllegalArgumentException(String.format("Element %s cannot be referenced because it is marked prohibited in type %s.", e.getName(), getDeclaringType(classType, e).getName()));
                         }
+
+                        return new PropertyResolution(e);
                     }
+
+                    break;
                 }
             }
             else if (currentType instanceof TupleType) {
                 TupleType tupleType = (TupleType)currentType;
-                for (TupleTypeElement e : tupleType.getElements()) {
-                    if (e.getName().equals(identifier)) {
-                        return new PropertyResolution(e);
-                    }
+                TupleTypeElement e = tupleType.getElement(identifier);
+                if (e != null) {
+                    return new PropertyResolution(e);
                 }
             }
             else if (currentType instanceof IntervalType) {
@@ -1984,7 +2014,7 @@ public class LibraryBuilder implements ModelResolver {
 
                 // The result type is a choice of all the resolved types
                 if (resultTypes.size() > 1) {
-                    return new PropertyResolution(new ChoiceType(resultTypes), name, resultTargetMaps);
+                    return new PropertyResolution(ChoiceType.of(resultTypes), name, resultTargetMaps);
                 }
 
                 if (resultTypes.size() == 1) {
@@ -1998,7 +2028,7 @@ public class LibraryBuilder implements ModelResolver {
                 // Resolve property as a list of items of property of the element type
                 ListType listType = (ListType)currentType;
                 PropertyResolution resolution = resolveProperty(listType.getElementType(), identifier);
-                return new PropertyResolution(new ListType(resolution.getType()), resolution.getTargetMap());
+                return new PropertyResolution(ListType.of(resolution.getType()), resolution.getTargetMap());
             }
 
             if (currentType.getBaseType() != null) {
@@ -2009,12 +2039,21 @@ public class LibraryBuilder implements ModelResolver {
             }
         }
 
-        if (mustResolve) {
-            // ERROR:
-            throw new IllegalArgumentException(String.format("Member %s not found for type %s.", identifier, sourceType != null ? sourceType.toLabel() : null));
+        return null;
+    }
+
+    private ClassType getDeclaringType(ClassType classType, ClassTypeElement element) {
+        DataType currentType = classType;
+        while (currentType instanceof ClassType) {
+            for (ClassTypeElement e : ((ClassType)currentType).getElements()) {
+                if (e == element) {
+                    return (ClassType)currentType;
+                }
+            }
+            currentType = currentType.getBaseType();
         }
 
-        return null;
+        return classType;
     }
 
     public Expression resolveIdentifier(String identifier, boolean mustResolve) {
@@ -2593,7 +2632,7 @@ public class LibraryBuilder implements ModelResolver {
                     .withSource(source)
                     .withWhere(not)
                     .withReturn(of.createReturnClause().withDistinct(false).withExpression(accessor));
-            query.setResultType(new ListType(accessor.getResultType()));
+            query.setResultType(ListType.of(accessor.getResultType()));
 
             if (accessor.getResultType() instanceof ListType) {
                 Flatten result = of.createFlatten().withOperand(query);
@@ -2725,7 +2764,7 @@ public class LibraryBuilder implements ModelResolver {
 
             DataType resultType = expressionDef.getResultType();
             if (!(resultType instanceof ListType)) {
-                return new ListType(resultType);
+                return ListType.of(resultType);
             }
             else {
                 return resultType;
@@ -1,7 +1,9 @@
 package org.cqframework.cql.cql2elm;
 
+import org.cqframework.cql.cql2elm.model.Model;
 import org.cqframework.cql.cql2elm.model.TranslatedLibrary;
 import org.fhir.ucum.UcumService;
+import org.hl7.cql.model.DataType;
 import org.hl7.elm.r1.CodeDef;
 import org.hl7.elm.r1.CodeSystemDef;
 import org.hl7.elm.r1.ConceptDef;
@@ -12,17 +14,25 @@ import org.hl7.elm.r1.ParameterDef;
 import org.hl7.elm.r1.UsingDef;
 import org.hl7.elm.r1.ValueSetDef;
 import org.hl7.elm.r1.VersionedIdentifier;
+import org.hl7.elm_modelinfo.r1.ModelSpecifier;
 
 import javax.xml.bind.JAXBException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 
 import static org.cqframework.cql.cql2elm.CqlTranslatorException.HasErrors;
 
@@ -30,15 +40,25 @@ import static org.cqframework.cql.cql2elm.CqlTranslatorException.HasErrors;
  * Manages a set of CQL libraries. As new library references are encountered
  * during translation, the corresponding source is obtained via
  * librarySourceLoader, translated and cached for later use.
+ *
+ * A library manager may be shared by translations running on multiple threads.
+ * Circular reference detection is tracked per thread, and concurrent requests
+ * for a library that is not yet cached wait on a single in-flight translation
+ * of that library rather than each translating it.
  */
 public class LibraryManager {
     private ModelManager modelManager;
     private NamespaceManager namespaceManager;
     private UcumService ucumService;
     private final Map<String, TranslatedLibrary> libraries;
-    private final Stack<String> translationStack;
+    private final ConcurrentHashMap<String, LibraryTranslation> translations;
+    private final ConcurrentHashMap<Thread, LibraryTranslation> awaitedTranslations;
+    private final ThreadLocal<Stack<String>> translationStack;
     private LibrarySourceLoader librarySourceLoader;
     private boolean enableCache;
+    private CompiledLibraryCache compiledLibraryCache;
+    private final Map<String, String> fingerprints;
+    private final Map<Model, String> modelHashes;
 
     public LibraryManager(ModelManager modelManager) {
         if (modelManager == null) {
@@ -51,8 +71,12 @@ public class LibraryManager {
         else {
             this.namespaceManager = new NamespaceManager();
         }
-        libraries = new HashMap<>();
-        translationStack = new Stack<>();
+        libraries = new ConcurrentHashMap<>();
+        translations = new ConcurrentHashMap<>();
+        awaitedTranslations = new ConcurrentHashMap<>();
+        translationStack = ThreadLocal.withInitial(Stack::new);
+        fingerprints = new ConcurrentHashMap<>();
+        modelHashes = new ConcurrentHashMap<>();
         this.enableCache = true;
         this.librarySourceLoader = new PriorityLibrarySourceLoader();
     }
@@ -97,6 +121,24 @@ public class LibraryManager {
 
     public boolean isCacheEnabled() { return enableCache; }
 
+    public CompiledLibraryCache getCompiledLibraryCache() {
+        return compiledLibraryCache;
+    }
+
+    /**
+     * Sets a persistent cache of compiled libraries. When set, each library translated from CQL is stored in the
+     * cache, and a library whose source, translator options and included libraries are unchanged since it was stored
+     * is loaded from the cache rather than translated.
+     */
+    public void setCompiledLibraryCache(CompiledLibraryCache compiledLibraryCache) {
+        this.compiledLibraryCache = compiledLibraryCache;
+    }
+
+    public LibraryManager withCompiledLibraryCache(CompiledLibraryCache compiledLibraryCache) {
+        setCompiledLibraryCache(compiledLibraryCache);
+        return this;
+    }
+
     public Map<String, TranslatedLibrary> getTranslatedLibraries() {
         return libraries;
     }
@@ -170,16 +212,10 @@ public class LibraryManager {
             library = libraries.get(libraryPath);
         }
 
-        if (library != null
-                && libraryIdentifier.getVersion() != null
-                && !libraryIdentifier.getVersion().equals(library.getIdentifier().getVersion())) {
-            throw new CqlTranslatorIncludeException(String.format("Could not resolve reference to library %s, version %s because version %s is already loaded.",
-                    libraryPath, libraryIdentifier.getVersion(), library.getIdentifier().getVersion()), libraryIdentifier.getSystem(), libraryIdentifier.getId(), libraryIdentifier.getVersion());
-        } else if (library != null) {
-            if (libraryIdentifier.getSystem() == null && library.getIdentifier().getSystem() != null) {
-                libraryIdentifier.setSystem(library.getIdentifier().getSystem());
-            }
-            return library;
+        if (library != null) {
+            return checkResolvedLibrary(libraryIdentifier, library, libraryPath);
+        } else if (enableCache) {
+            return translateSharedLibrary(libraryPath, libraryIdentifier, options, errors);
         } else {
             library = translateLibrary(libraryIdentifier, options, errors);
             if (!HasErrors(errors)) {
@@ -191,6 +227,114 @@ public class LibraryManager {
         return library;
     }
 
+    /**
+     * An in-flight translation of a library, shared by all threads requesting the library while it is translated.
+     */
+    private static class LibraryTranslation {
+        final Thread owner = Thread.currentThread();
+        final CompletableFuture<TranslatedLibrary> result = new CompletableFuture<>();
+        // Written only by the owner before the result is completed, so visible to any thread that has awaited it
+        final List<CqlTranslatorException> errors = new ArrayList<>();
+    }
+
+    private TranslatedLibrary translateSharedLibrary(String libraryPath, VersionedIdentifier libraryIdentifier,
+            CqlTranslatorOptions options, List<CqlTranslatorException> errors) {
+        LibraryTranslation translation = new LibraryTranslation();
+        LibraryTranslation existingTranslation = translations.putIfAbsent(libraryPath, translation);
+        if (existingTranslation != null) {
+            if (isWaitingOnCurrentThread(existingTranslation)) {
+                // The library is being translated by this thread, or by a thread waiting on this one, so the
+                // reference is circular; translate it directly so the circular reference is reported
+                return translateLibrary(libraryIdentifier, options, errors);
+            }
+
+            TranslatedLibrary library = awaitTranslation(existingTranslation);
+            if (errors != null) {
+                errors.addAll(existingTranslation.errors);
+            }
+
+            // The in-flight translation may have been requested without a version, or with a different one
+            return checkResolvedLibrary(libraryIdentifier, library, libraryPath);
+        }
+
+        try {
+            // Another thread may have completed the translation between the cache lookup and registering this one
+            TranslatedLibrary library = libraries.get(libraryPath);
+            if (library != null) {
+                translation.result.complete(library);
+                return checkResolvedLibrary(libraryIdentifier, library, libraryPath);
+            }
+
+            library = translateLibrary(libraryIdentifier, options, translation.errors);
+            if (!HasErrors(translation.errors)) {
+                libraries.put(libraryPath, library);
+            }
+            translation.result.complete(library);
+
+            if (errors != null) {
+                errors.addAll(translation.errors);
+            }
+            return library;
+        }
+        catch (RuntimeException | Error e) {
+            translation.result.completeExceptionally(e);
+            throw e;
+        }
+        finally {
+            translations.remove(libraryPath, translation);
+        }
+    }
+
+    private TranslatedLibrary checkResolvedLibrary(VersionedIdentifier libraryIdentifier, TranslatedLibrary library, String libraryPath) {
+        if (libraryIdentifier.getVersion() != null && !libraryIdentifier.getVersion().equals(library.getIdentifier().getVersion())) {
+            throw new CqlTranslatorIncludeException(String.format("Could not resolve reference to library %s, version %s because version %s is already loaded.",
+                    libraryPath, libraryIdentifier.getVersion(), library.getIdentifier().getVersion()), libraryIdentifier.getSystem(), libraryIdentifier.getId(), libraryIdentifier.getVersion());
+        }
+
+        if (libraryIdentifier.getSystem() == null && library.getIdentifier().getSystem() != null) {
+            libraryIdentifier.setSystem(library.getIdentifier().getSystem());
+        }
+
+        return library;
+    }
+
+    private boolean isWaitingOnCurrentThread(LibraryTranslation translation) {
+        Thread currentThread = Thread.currentThread();
+        Thread owner = translation.owner;
+        // Bounded by the number of threads waiting, guards against following a stale chain indefinitely
+        for (int i = 0; owner != null && i <= awaitedTranslations.size(); i++) {
+            if (owner == currentThread) {
+                return true;
+            }
+
+            LibraryTranslation awaited = awaitedTranslations.get(owner);
+            owner = awaited != null ? awaited.owner : null;
+        }
+
+        return false;
+    }
+
+    private TranslatedLibrary awaitTranslation(LibraryTranslation translation) {
+        Thread currentThread = Thread.currentThread();
+        awaitedTranslations.put(currentThread, translation);
+        try {
+            return translation.result.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for library translation", e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+            throw new IllegalArgumentException(e.getCause().getMessage(), e.getCause());
+        }
+        finally {
+            awaitedTranslations.remove(currentThread, translation);
+        }
+    }
+
     private TranslatedLibrary translateLibrary(VersionedIdentifier libraryIdentifier, CqlTranslatorOptions options, List<CqlTranslatorException> errors) {
 
         TranslatedLibrary result = null;
@@ -210,6 +354,22 @@ public class LibraryManager {
                 cqlSource = librarySourceLoader.getLibrarySource(libraryIdentifier);
             }
 
+            String sourceHash = null;
+            // Compiled libraries are only used when the build of the translator that compiled them can be identified
+            if (compiledLibraryCache != null && cqlSource != null && CompiledLibraryEntry.getTranslatorVersion() != null) {
+                byte[] content = readContent(cqlSource);
+                sourceHash = CompiledLibraryEntry.hash(content);
+                result = loadCompiledLibrary(libraryIdentifier, sourceHash, options, errors);
+                if (result != null) {
+                    checkTranslatedVersion(libraryIdentifier, result, libraryPath);
+                    if (libraryIdentifier.getSystem() == null && result.getIdentifier().getSystem() != null) {
+                        libraryIdentifier.setSystem(result.getIdentifier().getSystem());
+                    }
+                    return result;
+                }
+                cqlSource = new ByteArrayInputStream(content);
+            }
+
             CqlTranslator translator = CqlTranslator.fromStream(namespaceManager.getNamespaceInfoFromUri(libraryIdentifier.getSystem()),
                     libraryIdentifier, cqlSource, modelManager, this, ucumService, options);
             if (errors != null) {
@@ -217,10 +377,10 @@ public class LibraryManager {
             }
 
             result = translator.getTranslatedLibrary();
-            if (libraryIdentifier.getVersion() != null && !libraryIdentifier.getVersion().equals(result.getIdentifier().getVersion())) {
-                throw new CqlTranslatorIncludeException(String.format("Library %s was included as version %s, but version %s of the library was found.",
-                        libraryPath, libraryIdentifier.getVersion(), result.getIdentifier().getVersion()),
-                        libraryIdentifier.getSystem(), libraryIdentifier.getId(), libraryIdentifier.getVersion());
+            checkTranslatedVersion(libraryIdentifier, result, libraryPath);
+
+            if (sourceHash != null && translator.getErrors().isEmpty()) {
+                storeCompiledLibrary(result, sourceHash, options, translator.getExceptions());
             }
 
         } catch (IOException e) {
@@ -236,6 +396,211 @@ public class LibraryManager {
         }
     }
 
+    private void checkTranslatedVersion(VersionedIdentifier libraryIdentifier, TranslatedLibrary result, String libraryPath) {
+        if (libraryIdentifier.getVersion() != null && !libraryIdentifier.getVersion().equals(result.getIdentifier().getVersion())) {
+            throw new CqlTranslatorIncludeException(String.format("Library %s was included as version %s, but version %s of the library was found.",
+                    libraryPath, libraryIdentifier.getVersion(), result.getIdentifier().getVersion()),
+                    libraryIdentifier.getSystem(), libraryIdentifier.getId(), libraryIdentifier.getVersion());
+        }
+    }
+
+    private static byte[] readContent(InputStream source) throws IOException {
+        try (InputStream input = source) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = input.read(buffer)) != -1) {
+                output.write(buffer, 0, length);
+            }
+            return output.toByteArray();
+        }
+    }
+
+    /**
+     * Loads a library from the compiled library cache, if its entry was translated from the given source with the
+     * given options, and the models and libraries it depends on are unchanged. The models are resolved first, then the
+     * included libraries, loading them from the cache or translating them as necessary. An entry that does not match
+     * is removed. The warnings and messages of the translation of a library that is loaded are added to the errors, as
+     * they are when the library is translated.
+     *
+     * @return The library, or null if there is no matching entry
+     */
+    private TranslatedLibrary loadCompiledLibrary(VersionedIdentifier libraryIdentifier, String sourceHash, CqlTranslatorOptions options,
+                                                  List<CqlTranslatorException> errors) {
+        CompiledLibraryEntry entry;
+        try (InputStream input = compiledLibraryCache.getLibrary(libraryIdentifier)) {
+            if (input == null) {
+                return null;
+            }
+            entry = CompiledLibraryEntry.read(input);
+        }
+        catch (IOException e) {
+            removeCompiledLibrary(libraryIdentifier);
+            return null;
+        }
+
+        if (!entry.matches(sourceHash, options)) {
+            removeCompiledLibrary(libraryIdentifier);
+            return null;
+        }
+
+        for (CompiledLibraryEntry.ModelEntry modelEntry : entry.getModels()) {
+            String hash;
+            try {
+                hash = getModelHash(modelManager.resolveModel(modelEntry.name, modelEntry.version));
+            }
+            catch (IllegalArgumentException e) {
+                hash = null;
+            }
+            if (!modelEntry.hash.equals(hash)) {
+                removeCompiledLibrary(libraryIdentifier);
+                return null;
+            }
+        }
+
+        for (CompiledLibraryEntry.IncludeEntry include : entry.getIncludes()) {
+            VersionedIdentifier includeIdentifier = new VersionedIdentifier()
+                    .withSystem(NamespaceManager.getUriPart(include.path))
+                    .withId(NamespaceManager.getNamePart(include.path))
+                    .withVersion(include.version);
+            List<CqlTranslatorException> includeErrors = new ArrayList<>();
+            TranslatedLibrary includedLibrary = resolveLibrary(includeIdentifier, options, includeErrors);
+            if (HasErrors(includeErrors) || includedLibrary == null
+                    || !include.fingerprint.equals(fingerprints.get(include.path))) {
+                removeCompiledLibrary(libraryIdentifier);
+                return null;
+            }
+        }
+
+        TranslatedLibrary result;
+        List<CqlTranslatorException> exceptions = null;
+        try {
+            Library library = entry.readLibrary();
+            Map<String, Model> models = resolveModels(library);
+            entry.setResultTypes(library, name -> resolveNamedType(models, name));
+            exceptions = entry.getExceptions();
+            result = generateTranslatedLibrary(library);
+        }
+        catch (IOException | IllegalArgumentException e) {
+            result = null;
+        }
+
+        if (result == null) {
+            removeCompiledLibrary(libraryIdentifier);
+            return null;
+        }
+
+        fingerprints.put(NamespaceManager.getPath(result.getIdentifier().getSystem(), result.getIdentifier().getId()),
+                entry.getFingerprint());
+        if (errors != null) {
+            errors.addAll(exceptions);
+        }
+        return result;
+    }
+
+    private String getModelHash(Model model) {
+        return modelHashes.computeIfAbsent(model, m -> CompiledLibraryEntry.hash(m.getModelInfo()));
+    }
+
+    /**
+     * Adds a model and the models it requires, as resolved when the model is loaded, to the models a library depends on.
+     */
+    private void addModelDependencies(Model model, Map<String, Model> models) {
+        if (models.putIfAbsent(model.getModelInfo().getName(), model) != null) {
+            return;
+        }
+
+        for (ModelSpecifier requiredModel : model.getModelInfo().getRequiredModelInfo()) {
+            addModelDependencies(modelManager.resolveModel(new VersionedIdentifier()
+                    .withSystem(NamespaceManager.getUriPart(requiredModel.getUrl()))
+                    .withId(requiredModel.getName())
+                    .withVersion(requiredModel.getVersion())), models);
+        }
+    }
+
+    /**
+     * Resolves the models used by a library at the versions it uses, as a library would when it is translated. This is
+     * done before any of its types are resolved, as the first resolution of a model determines the version loaded.
+     *
+     * @return The models, by name
+     */
+    private Map<String, Model> resolveModels(Library library) {
+        Map<String, Model> models = new HashMap<>();
+        if (library.getUsings() != null) {
+            for (UsingDef usingDef : library.getUsings().getDef()) {
+                Model model = modelManager.resolveModel(new VersionedIdentifier()
+                        .withId(usingDef.getLocalIdentifier()).withVersion(usingDef.getVersion()));
+                models.put(model.getModelInfo().getName(), model);
+            }
+        }
+        return models;
+    }
+
+    private DataType resolveNamedType(Map<String, Model> models, String name) {
+        int qualifierIndex = name.indexOf('.');
+        if (qualifierIndex <= 0) {
+            throw new IllegalArgumentException(String.format("Could not resolve unqualified type name %s.", name));
+        }
+
+        // A type may be from a model required by a model the library uses, which is loaded with that model
+        String modelName = name.substring(0, qualifierIndex);
+        Model model = models.get(modelName);
+        DataType result = (model != null ? model : modelManager.resolveModel(modelName)).resolveTypeName(name);
+        if (result == null) {
+            throw new IllegalArgumentException(String.format("Could not resolve type name %s.", name));
+        }
+        return result;
+    }
+
+    private void storeCompiledLibrary(TranslatedLibrary translatedLibrary, String sourceHash, CqlTranslatorOptions options,
+                                      List<CqlTranslatorException> exceptions) {
+        Library library = translatedLibrary.getLibrary();
+        Map<String, Model> modelDependencies = new LinkedHashMap<>();
+        for (Model model : resolveModels(library).values()) {
+            addModelDependencies(model, modelDependencies);
+        }
+        List<CompiledLibraryEntry.ModelEntry> models = new ArrayList<>();
+        for (Model model : modelDependencies.values()) {
+            models.add(new CompiledLibraryEntry.ModelEntry(model.getModelInfo().getName(), model.getModelInfo().getVersion(),
+                    getModelHash(model)));
+        }
+
+        List<CompiledLibraryEntry.IncludeEntry> includes = new ArrayList<>();
+        if (library.getIncludes() != null) {
+            for (IncludeDef includeDef : library.getIncludes().getDef()) {
+                String fingerprint = fingerprints.get(includeDef.getPath());
+                if (fingerprint == null) {
+                    // The included library was not translated from CQL, so changes to it cannot be detected
+                    return;
+                }
+                includes.add(new CompiledLibraryEntry.IncludeEntry(includeDef.getPath(), includeDef.getVersion(), fingerprint));
+            }
+        }
+
+        CompiledLibraryEntry entry = CompiledLibraryEntry.create(library, sourceHash, options, models, includes, exceptions);
+        if (entry == null) {
+            return;
+        }
+
+        VersionedIdentifier identifier = translatedLibrary.getIdentifier();
+        fingerprints.put(NamespaceManager.getPath(identifier.getSystem(), identifier.getId()), entry.getFingerprint());
+        try {
+            compiledLibraryCache.putLibrary(identifier, entry.toBytes());
+        }
+        catch (IOException e) {
+            // The cache is an optimization, so failing to write to it does not fail the translation
+        }
+    }
+
+    private void removeCompiledLibrary(VersionedIdentifier libraryIdentifier) {
+        try {
+            compiledLibraryCache.removeLibrary(libraryIdentifier);
+        }
+        catch (IOException e) {
+            // The entry will be replaced when the library is translated
+        }
+    }
+
     private TranslatedLibrary tryTranslatedLibraryElm(VersionedIdentifier libraryIdentifier, CqlTranslatorOptions options) {
         TranslatedLibrary result = null;
         InputStream librarySource = null;
@@ -285,6 +650,7 @@ public class LibraryManager {
 
         if (library != null &&
                 (translatorOptionsMatch(library, options))) {
+            inferResultTypes(library, options);
             translatedLibrary = generateTranslatedLibrary(library);
             if (translatedLibrary != null) {
                 this.cacheLibrary(translatedLibrary);
@@ -294,6 +660,24 @@ public class LibraryManager {
         return translatedLibrary;
     }
 
+    /**
+     * Sets the result types of the elements of a library read from ELM, which are not part of the ELM, resolving the
+     * libraries it includes to type references to their definitions. A definition whose type cannot be inferred is
+     * left without a type, so the library is rejected.
+     */
+    private void inferResultTypes(Library library, CqlTranslatorOptions options) {
+        ElmTypeInferencingVisitor visitor = new ElmTypeInferencingVisitor(modelManager, library, includeDef -> {
+            VersionedIdentifier includeIdentifier = new VersionedIdentifier()
+                    .withSystem(NamespaceManager.getUriPart(includeDef.getPath()))
+                    .withId(NamespaceManager.getNamePart(includeDef.getPath()))
+                    .withVersion(includeDef.getVersion());
+            List<CqlTranslatorException> includeErrors = new ArrayList<>();
+            TranslatedLibrary includedLibrary = resolveLibrary(includeIdentifier, options, includeErrors);
+            return HasErrors(includeErrors) ? null : includedLibrary;
+        }, options != null ? options.getCompatibilityLevel() : null);
+        visitor.infer();
+    }
+
     private TranslatedLibrary generateTranslatedLibrary(Library library) {
 
         if (library == null) {
@@ -324,8 +708,10 @@ public class LibraryManager {
                     translatedLibrary.add(codeSystemDef);
                 }
             }
-            for (ValueSetDef valueSetDef : library.getValueSets().getDef()) {
-                translatedLibrary.add(valueSetDef);
+            if (library.getValueSets() != null && library.getValueSets().getDef() != null) {
+                for (ValueSetDef valueSetDef : library.getValueSets().getDef()) {
+                    translatedLibrary.add(valueSetDef);
+                }
             }
 
             if (library.getCodes() != null && library.getCodes().getDef() != null) {
@@ -346,7 +732,7 @@ public class LibraryManager {
             if (library.getStatements() != null && library.getStatements().getDef() != null) {
                 for (ExpressionDef expressionDef : library.getStatements().getDef()) {
 
-                    //to do implement an ElmTypeInferencingVisitor; make sure that the resultType is set for each node
+                    // The result types are set when the library is loaded, see inferResultTypes
                     if (expressionDef.getResultType() != null) {
                         translatedLibrary.add(expressionDef);
                     } else {
@@ -380,11 +766,12 @@ public class LibraryManager {
             throw new IllegalArgumentException("libraryName is null.");
         }
 
-        if (translationStack.contains(libraryName)) {
+        Stack<String> stack = translationStack.get();
+        if (stack.contains(libraryName)) {
             throw new IllegalArgumentException(String.format("Circular library reference %s.", libraryName));
         }
 
-        translationStack.push(libraryName);
+        stack.push(libraryName);
     }
 
     public void endTranslation(String libraryName) {
@@ -392,7 +779,7 @@ public class LibraryManager {
             throw new IllegalArgumentException("libraryName is null.");
         }
 
-        String currentLibraryName = translationStack.pop();
+        String currentLibraryName = translationStack.get().pop();
         if (!libraryName.equals(currentLibraryName)) {
             throw new IllegalArgumentException(String.format("Translation stack imbalance for library %s.", libraryName));
         }
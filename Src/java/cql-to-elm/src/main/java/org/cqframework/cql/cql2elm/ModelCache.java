@@ -0,0 +1,248 @@
+package org.cqframework.cql.cql2elm;
+
+import org.cqframework.cql.cql2elm.model.Model;
+import org.hl7.elm.r1.VersionedIdentifier;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe cache of fully resolved models that can be shared across ModelManager instances.
+ *
+ * Models are keyed by namespace, identifier and requested version, and are evicted in least-recently-used order
+ * once the total weight (the number of type definitions across all cached models) exceeds the maximum weight.
+ * Concurrent requests for the same model wait on a single load rather than each building the model.
+ *
+ * Note that a cache should only be shared by model managers whose model info loaders resolve a given model
+ * identifier to the same model info (e.g. the default well-known model info providers).
+ */
+public class ModelCache {
+    public static final long DEFAULT_MAXIMUM_WEIGHT = 20000;
+
+    private static final ModelCache globalCache = new ModelCache();
+
+    /**
+     * @return The process-wide model cache
+     */
+    public static ModelCache getGlobalCache() {
+        return globalCache;
+    }
+
+    public interface ModelLoader {
+        Model load(VersionedIdentifier modelIdentifier);
+    }
+
+    private static class CacheEntry {
+        CacheEntry(Model model, long weight) {
+            this.model = model;
+            this.weight = weight;
+        }
+
+        final Model model;
+        final long weight;
+        final List<String> keys = new ArrayList<>();
+    }
+
+    private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ConcurrentHashMap<String, FutureTask<Model>> loading = new ConcurrentHashMap<>();
+    private final long maximumWeight;
+    private long weight;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong totalLoadTime = new AtomicLong();
+
+    public ModelCache() {
+        this(DEFAULT_MAXIMUM_WEIGHT);
+    }
+
+    public ModelCache(long maximumWeight) {
+        if (maximumWeight <= 0) {
+            throw new IllegalArgumentException("maximumWeight must be positive");
+        }
+
+        this.maximumWeight = maximumWeight;
+    }
+
+    private static String getKey(VersionedIdentifier modelIdentifier) {
+        return getKey(modelIdentifier.getSystem(), modelIdentifier.getId(), modelIdentifier.getVersion());
+    }
+
+    private static String getKey(String system, String id, String version) {
+        return String.format("%s|%s", NamespaceManager.getPath(system, id), version == null ? "" : version);
+    }
+
+    private static long getWeight(Model model) {
+        return model.getModelInfo().getTypeInfo().size() + 1;
+    }
+
+    /**
+     * Returns the cached model for the given identifier, using the loader to build and cache the model if it is not present.
+     * If another thread is already loading the model, waits for that load to complete.
+     */
+    public Model getModel(VersionedIdentifier modelIdentifier, ModelLoader loader) {
+        if (modelIdentifier == null) {
+            throw new IllegalArgumentException("Model identifier is required");
+        }
+
+        String key = getKey(modelIdentifier);
+        Model model = lookup(key);
+        if (model != null) {
+            return model;
+        }
+
+        FutureTask<Model> task = new FutureTask<>(() -> {
+            // Another thread may have completed the load between the lookup and registering this task
+            Model loadedModel = lookup(key);
+            if (loadedModel == null) {
+                missCount.incrementAndGet();
+                long start = System.nanoTime();
+                try {
+                    loadedModel = loader.load(modelIdentifier);
+                }
+                finally {
+                    totalLoadTime.addAndGet(System.nanoTime() - start);
+                }
+                loadedModel = put(key, modelIdentifier, loadedModel);
+            }
+            return loadedModel;
+        });
+
+        FutureTask<Model> existingTask = loading.putIfAbsent(key, task);
+        if (existingTask != null) {
+            hitCount.incrementAndGet();
+            return await(existingTask);
+        }
+
+        try {
+            task.run();
+            return await(task);
+        }
+        finally {
+            loading.remove(key, task);
+        }
+    }
+
+    private Model lookup(String key) {
+        synchronized (entries) {
+            CacheEntry entry = entries.get(key);
+            if (entry != null) {
+                hitCount.incrementAndGet();
+                return entry.model;
+            }
+        }
+
+        return null;
+    }
+
+    private Model await(FutureTask<Model> task) {
+        try {
+            return task.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for model to load", e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+            throw new IllegalArgumentException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private Model put(String key, VersionedIdentifier modelIdentifier, Model model) {
+        synchronized (entries) {
+            // A request without a version is also cached under the version that was actually loaded, so that
+            // versioned and unversioned requests (e.g. required models) share the same model instance
+            String resolvedKey = getKey(modelIdentifier.getSystem(), modelIdentifier.getId(), model.getModelInfo().getVersion());
+            CacheEntry entry = entries.get(resolvedKey);
+            if (entry == null) {
+                entry = new CacheEntry(model, getWeight(model));
+                entry.keys.add(resolvedKey);
+                entries.put(resolvedKey, entry);
+                weight += entry.weight;
+            }
+
+            if (!entry.keys.contains(key)) {
+                entry.keys.add(key);
+                entries.put(key, entry);
+            }
+
+            // Evict least recently used entries, always retaining the entry just added
+            while (weight > maximumWeight) {
+                CacheEntry eldest = null;
+                for (CacheEntry candidate : entries.values()) {
+                    if (candidate != entry) {
+                        eldest = candidate;
+                        break;
+                    }
+                }
+
+                if (eldest == null) {
+                    break;
+                }
+
+                for (String eldestKey : eldest.keys) {
+                    entries.remove(eldestKey);
+                }
+                weight -= eldest.weight;
+                evictionCount.incrementAndGet();
+            }
+
+            return entry.model;
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            weight = 0;
+        }
+    }
+
+    /**
+     * @return The number of models in the cache
+     */
+    public int size() {
+        synchronized (entries) {
+            return new HashSet<>(entries.values()).size();
+        }
+    }
+
+    public long getWeight() {
+        synchronized (entries) {
+            return weight;
+        }
+    }
+
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * @return The total time spent loading models into this cache, in nanoseconds (nested loads of required models are included in the time of the requiring model as well)
+     */
+    public long getTotalLoadTime() {
+        return totalLoadTime.get();
+    }
+}
@@ -0,0 +1,44 @@
+package org.cqframework.cql.cql2elm;
+
+import org.hl7.elm_modelinfo.r1.ModelInfo;
+import org.hl7.elm_modelinfo.r1.serializing.ModelInfoSnapshotGenerator;
+import org.hl7.elm_modelinfo.r1.serializing.ModelInfoSnapshotReader;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.IOException;
+import java.io.InputStream;
+
+public class ModelInfoReaderUtil {
+
+    /**
+     * Reads a model info classpath resource. If a binary snapshot of the model info was generated at build time
+     * (see {@link ModelInfoSnapshotGenerator}), the snapshot is read instead of unmarshalling the XML.
+     *
+     * @param resourcePath The absolute classpath resource path of the model info XML
+     * @return The model info
+     */
+    public static ModelInfo readModelInfoResource(String resourcePath) {
+        return readModelInfoResource(resourcePath, true);
+    }
+
+    public static ModelInfo readModelInfoResource(String resourcePath, boolean useSnapshot) {
+        if (useSnapshot) {
+            InputStream snapshot = ModelInfoReaderUtil.class.getResourceAsStream(ModelInfoSnapshotGenerator.getSnapshotPath(resourcePath));
+            if (snapshot != null) {
+                try (InputStream is = snapshot) {
+                    return ModelInfoSnapshotReader.read(is);
+                }
+                catch (IOException e) {
+                    throw new IllegalArgumentException(String.format("Could not read model info snapshot for %s.", resourcePath), e);
+                }
+            }
+        }
+
+        InputStream is = ModelInfoReaderUtil.class.getResourceAsStream(resourcePath);
+        if (is == null) {
+            throw new IllegalArgumentException(String.format("Could not find model info resource %s.", resourcePath));
+        }
+
+        return ElmJaxb.readModelInfo(new StreamSource(is));
+    }
+}
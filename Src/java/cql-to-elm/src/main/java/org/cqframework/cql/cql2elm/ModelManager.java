@@ -1,9 +1,12 @@
 package org.cqframework.cql.cql2elm;
 
 import org.cqframework.cql.cql2elm.model.Model;
+import org.cqframework.cql.cql2elm.model.SystemLibraryHelper;
 import org.cqframework.cql.cql2elm.model.SystemModel;
+import org.cqframework.cql.cql2elm.model.TranslatedLibrary;
 import org.hl7.elm.r1.VersionedIdentifier;
 import org.hl7.elm_modelinfo.r1.ModelInfo;
+import org.hl7.elm_modelinfo.r1.ModelSpecifier;
 
 import java.util.HashMap;
 import java.util.HashSet;
@@ -20,6 +23,8 @@ public class ModelManager {
     private final Set<String> loadingModels = new HashSet<>();
     private final Map<String, Model> modelsByUri = new HashMap<>();
     private boolean enableDefaultModelInfoLoading = true;
+    private ModelCache modelCache;
+    private volatile TranslatedLibrary systemLibrary;
 
     public ModelManager() {
         namespaceManager = new NamespaceManager();
@@ -43,6 +48,29 @@ public class ModelManager {
         initialize();
     }
 
+    /**
+     * Constructs a model manager that draws resolved models from the given shared cache, rather than building them
+     * for each manager.
+     */
+    public ModelManager(ModelCache modelCache) {
+        namespaceManager = new NamespaceManager();
+        this.modelCache = modelCache;
+        initialize();
+    }
+
+    public ModelManager(NamespaceManager namespaceManager, ModelCache modelCache) {
+        this.namespaceManager = namespaceManager;
+        this.modelCache = modelCache;
+        initialize();
+    }
+
+    public ModelManager(boolean enableDefaultModelInfoLoading, ModelCache modelCache) {
+        namespaceManager = new NamespaceManager();
+        this.enableDefaultModelInfoLoading = enableDefaultModelInfoLoading;
+        this.modelCache = modelCache;
+        initialize();
+    }
+
     private void initialize() {
         modelInfoLoader = new ModelInfoLoader(enableDefaultModelInfoLoading);
     }
@@ -55,6 +83,10 @@ public class ModelManager {
         return this.modelInfoLoader;
     }
 
+    public ModelCache getModelCache() {
+        return this.modelCache;
+    }
+
     public boolean isDefaultModelInfoLoadingEnabled() {
         return enableDefaultModelInfoLoading;
     }
@@ -128,13 +160,25 @@ public class ModelManager {
         return resolveModel(new VersionedIdentifier().withId(modelName).withVersion(version));
     }
 
-    public Model resolveModel(VersionedIdentifier modelIdentifier) {
+    // Synchronized so that library managers sharing this model manager across threads resolve a single instance of each model
+    public synchronized Model resolveModel(VersionedIdentifier modelIdentifier) {
         String modelPath = NamespaceManager.getPath(modelIdentifier.getSystem(), modelIdentifier.getId());
         Model model = models.get(modelPath);
         if (model == null) {
-            model = buildModel(modelIdentifier);
+            if (modelCache != null) {
+                if (loadingModels.contains(modelPath)) {
+                    throw new IllegalArgumentException(String.format("Circular model reference %s", modelPath));
+                }
+                model = modelCache.getModel(modelIdentifier, this::buildModel);
+            }
+            else {
+                model = buildModel(modelIdentifier);
+            }
             models.put(modelPath, model);
             modelsByUri.put(model.getModelInfo().getUrl(), model);
+            if (modelCache != null) {
+                resolveRequiredModels(model);
+            }
         }
 
         if (modelIdentifier.getVersion() != null && !modelIdentifier.getVersion().equals(model.getModelInfo().getVersion())) {
@@ -145,7 +189,32 @@ public class ModelManager {
         return model;
     }
 
-    public Model resolveModelByUri(String namespaceUri) {
+    /*
+    A model drawn from the cache may have been built by another model manager, in which case the models it requires
+    have not been resolved by this one, so resolve them as the model importer does when it builds the model
+     */
+    private void resolveRequiredModels(Model model) {
+        if (model instanceof SystemModel) {
+            return;
+        }
+
+        boolean hasSystem = false;
+        for (ModelSpecifier requiredModel : model.getModelInfo().getRequiredModelInfo()) {
+            resolveModel(new VersionedIdentifier()
+                    .withSystem(NamespaceManager.getUriPart(requiredModel.getUrl()))
+                    .withId(requiredModel.getName())
+                    .withVersion(requiredModel.getVersion()));
+            if (requiredModel.getName().equals("System")) {
+                hasSystem = true;
+            }
+        }
+
+        if (!hasSystem) {
+            resolveModel(new VersionedIdentifier().withId("System"));
+        }
+    }
+
+    public synchronized Model resolveModelByUri(String namespaceUri) {
         Model model = modelsByUri.get(namespaceUri);
         if (model == null) {
             throw new IllegalArgumentException(String.format("Could not resolve model with namespace %s", namespaceUri));
@@ -153,4 +222,24 @@ public class ModelManager {
 
         return model;
     }
+
+    /**
+     * Returns the System library, built from the System model on first use and shared by all translations using this
+     * model manager. The shared library is not modified by translation; each translation resolves operators against
+     * an overlay of it (see {@link TranslatedLibrary#TranslatedLibrary(TranslatedLibrary)}).
+     */
+    public TranslatedLibrary getSystemLibrary() {
+        TranslatedLibrary result = systemLibrary;
+        if (result == null) {
+            synchronized (this) {
+                result = systemLibrary;
+                if (result == null) {
+                    result = SystemLibraryHelper.load((SystemModel)resolveModel("System"), new TypeBuilder(this));
+                    systemLibrary = result;
+                }
+            }
+        }
+
+        return result;
+    }
 }
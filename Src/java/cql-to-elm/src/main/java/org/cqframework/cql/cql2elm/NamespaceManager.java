@@ -12,11 +12,11 @@ public class NamespaceManager {
         reverseNamespaces = new HashMap<>();
     }
 
-    public boolean hasNamespaces() {
+    public synchronized boolean hasNamespaces() {
         return namespaces.size() > 0;
     }
 
-    public void ensureNamespaceRegistered(NamespaceInfo namespaceInfo) {
+    public synchronized void ensureNamespaceRegistered(NamespaceInfo namespaceInfo) {
         if (namespaceInfo == null) {
             throw new IllegalArgumentException("namespaceInfo is required");
         }
@@ -34,7 +34,7 @@ public class NamespaceManager {
         addNamespace(namespaceInfo.getName(), namespaceInfo.getUri());
     }
 
-    public void addNamespace(String namespaceName, String namespaceUri) {
+    public synchronized void addNamespace(String namespaceName, String namespaceUri) {
         if (namespaceName == null || namespaceName.isEmpty()) {
             throw new IllegalArgumentException("namespaceName is required");
         }
@@ -55,7 +55,7 @@ public class NamespaceManager {
         reverseNamespaces.put(namespaceUri, namespaceName);
     }
 
-    public String resolveNamespaceUri(String namespaceName) {
+    public synchronized String resolveNamespaceUri(String namespaceName) {
         if (namespaces.containsKey(namespaceName)) {
             return namespaces.get(namespaceName);
         }
@@ -63,7 +63,7 @@ public class NamespaceManager {
         return null;
     }
 
-    public NamespaceInfo getNamespaceInfoFromUri(String namespaceUri) {
+    public synchronized NamespaceInfo getNamespaceInfoFromUri(String namespaceUri) {
         if (reverseNamespaces.containsKey(namespaceUri)) {
             return new NamespaceInfo(reverseNamespaces.get(namespaceUri), namespaceUri);
         }
@@ -3,8 +3,6 @@ package org.cqframework.cql.cql2elm;
 import org.hl7.elm.r1.VersionedIdentifier;
 import org.hl7.elm_modelinfo.r1.ModelInfo;
 
-import javax.xml.bind.JAXB;
-
 public class QICoreModelInfoProvider implements ModelInfoProvider {
     private NamespaceManager namespaceManager;
 
@@ -26,15 +24,12 @@ public class QICoreModelInfoProvider implements ModelInfoProvider {
             String localVersion = modelIdentifier.getVersion() == null ? "" : modelIdentifier.getVersion();
             switch (localVersion) {
                 case "4.0.0":
-                    return JAXB.unmarshal(QICoreModelInfoProvider.class.getResourceAsStream("/org/hl7/fhir/qicore-modelinfo-4.0.0.xml"),
-                            ModelInfo.class);
+                    return ModelInfoReaderUtil.readModelInfoResource("/org/hl7/fhir/qicore-modelinfo-4.0.0.xml");
                 case "4.1.0":
-                    return JAXB.unmarshal(QICoreModelInfoProvider.class.getResourceAsStream("/org/hl7/fhir/qicore-modelinfo-4.1.0.xml"),
-                            ModelInfo.class);
+                    return ModelInfoReaderUtil.readModelInfoResource("/org/hl7/fhir/qicore-modelinfo-4.1.0.xml");
                 case "4.1.1":
                 default:
-                    return JAXB.unmarshal(QICoreModelInfoProvider.class.getResourceAsStream("/org/hl7/fhir/qicore-modelinfo-4.1.1.xml"),
-                            ModelInfo.class);
+                    return ModelInfoReaderUtil.readModelInfoResource("/org/hl7/fhir/qicore-modelinfo-4.1.1.xml");
             }
         }
 
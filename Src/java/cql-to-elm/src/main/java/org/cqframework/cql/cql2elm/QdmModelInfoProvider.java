@@ -3,8 +3,6 @@ package org.cqframework.cql.cql2elm;
 import org.hl7.elm.r1.VersionedIdentifier;
 import org.hl7.elm_modelinfo.r1.ModelInfo;
 
-import javax.xml.bind.JAXB;
-
 /**
  * Created by Bryn on 2/3/2016.
  */
@@ -29,36 +27,26 @@ public class QdmModelInfoProvider implements ModelInfoProvider, NamespaceAware {
             String localVersion = modelIdentifier.getVersion() == null ? "" : modelIdentifier.getVersion();
             switch (localVersion) {
                 case "4.1.2":
-                    return JAXB.unmarshal(QdmModelInfoProvider.class.getResourceAsStream("/gov/healthit/qdm/qdm-modelinfo.xml"),
-                            ModelInfo.class);
+                    return ModelInfoReaderUtil.readModelInfoResource("/gov/healthit/qdm/qdm-modelinfo.xml");
                 case "4.2":
-                    return JAXB.unmarshal(QdmModelInfoProvider.class.getResourceAsStream("/gov/healthit/qdm/qdm-modelinfo-4.2.xml"),
-                            ModelInfo.class);
+                    return ModelInfoReaderUtil.readModelInfoResource("/gov/healthit/qdm/qdm-modelinfo-4.2.xml");
                 case "4.3":
-                    return JAXB.unmarshal(QdmModelInfoProvider.class.getResourceAsStream("/gov/healthit/qdm/qdm-modelinfo-4.3.xml"),
-                            ModelInfo.class);
+                    return ModelInfoReaderUtil.readModelInfoResource("/gov/healthit/qdm/qdm-modelinfo-4.3.xml");
                 case "5.0":
-                    return JAXB.unmarshal(QdmModelInfoProvider.class.getResourceAsStream("/gov/healthit/qdm/qdm-modelinfo-5.0.xml"),
-                            ModelInfo.class);
+                    return ModelInfoReaderUtil.readModelInfoResource("/gov/healthit/qdm/qdm-modelinfo-5.0.xml");
                 case "5.0.1":
-                    return JAXB.unmarshal(QdmModelInfoProvider.class.getResourceAsStream("/gov/healthit/qdm/qdm-modelinfo-5.0.1.xml"),
-                            ModelInfo.class);
+                    return ModelInfoReaderUtil.readModelInfoResource("/gov/healthit/qdm/qdm-modelinfo-5.0.1.xml");
                 case "5.0.2":
-                    return JAXB.unmarshal(QdmModelInfoProvider.class.getResourceAsStream("/gov/healthit/qdm/qdm-modelinfo-5.0.2.xml"),
-                            ModelInfo.class);
+                    return ModelInfoReaderUtil.readModelInfoResource("/gov/healthit/qdm/qdm-modelinfo-5.0.2.xml");
                 case "5.3":
-                    return JAXB.unmarshal(QdmModelInfoProvider.class.getResourceAsStream("/gov/healthit/qdm/qdm-modelinfo-5.3.xml"),
-                            ModelInfo.class);
+                    return ModelInfoReaderUtil.readModelInfoResource("/gov/healthit/qdm/qdm-modelinfo-5.3.xml");
                 case "5.4":
-                    return JAXB.unmarshal(QdmModelInfoProvider.class.getResourceAsStream("/gov/healthit/qdm/qdm-modelinfo-5.4.xml"),
-                            ModelInfo.class);
+                    return ModelInfoReaderUtil.readModelInfoResource("/gov/healthit/qdm/qdm-modelinfo-5.4.xml");
                 case "5.5":
-                    return JAXB.unmarshal(QdmModelInfoProvider.class.getResourceAsStream("/gov/healthit/qdm/qdm-modelinfo-5.5.xml"),
-                            ModelInfo.class);
+                    return ModelInfoReaderUtil.readModelInfoResource("/gov/healthit/qdm/qdm-modelinfo-5.5.xml");
                 case "5.6":
                 case "":
-                    return JAXB.unmarshal(QdmModelInfoProvider.class.getResourceAsStream("/gov/healthit/qdm/qdm-modelinfo-5.6.xml"),
-                            ModelInfo.class);
+                    return ModelInfoReaderUtil.readModelInfoResource("/gov/healthit/qdm/qdm-modelinfo-5.6.xml");
 
                 // Do not throw, allow other providers to resolve
                 //default:
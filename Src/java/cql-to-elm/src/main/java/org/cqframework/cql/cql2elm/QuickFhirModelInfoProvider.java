@@ -3,8 +3,6 @@ package org.cqframework.cql.cql2elm;
 import org.hl7.elm.r1.VersionedIdentifier;
 import org.hl7.elm_modelinfo.r1.ModelInfo;
 
-import javax.xml.bind.JAXB;
-
 /**
  * Created by Bryn on 4/15/2016.
  */
@@ -30,8 +28,7 @@ public class QuickFhirModelInfoProvider implements ModelInfoProvider {
             switch (localVersion) {
                 case "3.0.1":
                 case "":
-                    return JAXB.unmarshal(QuickFhirModelInfoProvider.class.getResourceAsStream("/org/hl7/fhir/quickfhir-modelinfo-3.0.1.xml"),
-                            ModelInfo.class);
+                    return ModelInfoReaderUtil.readModelInfoResource("/org/hl7/fhir/quickfhir-modelinfo-3.0.1.xml");
 
                 //default:
                 //    throw new IllegalArgumentException(String.format("Unknown version %s of the QUICKFHIR model.", localVersion));
@@ -3,8 +3,6 @@ package org.cqframework.cql.cql2elm;
 import org.hl7.elm.r1.VersionedIdentifier;
 import org.hl7.elm_modelinfo.r1.ModelInfo;
 
-import javax.xml.bind.JAXB;
-
 public class QuickModelInfoProvider implements ModelInfoProvider {
     private NamespaceManager namespaceManager;
 
@@ -26,14 +24,11 @@ public class QuickModelInfoProvider implements ModelInfoProvider {
             String localVersion = modelIdentifier.getVersion() == null ? "" : modelIdentifier.getVersion();
             switch (localVersion) {
                 case "3.3.0":
-                    return JAXB.unmarshal(QuickModelInfoProvider.class.getResourceAsStream("/org/hl7/fhir/quick-modelinfo-3.3.0.xml"),
-                            ModelInfo.class);
+                    return ModelInfoReaderUtil.readModelInfoResource("/org/hl7/fhir/quick-modelinfo-3.3.0.xml");
                 case "3.0.0":
-                    return JAXB.unmarshal(QuickModelInfoProvider.class.getResourceAsStream("/org/hl7/fhir/quick-modelinfo-3.0.0.xml"),
-                            ModelInfo.class);
+                    return ModelInfoReaderUtil.readModelInfoResource("/org/hl7/fhir/quick-modelinfo-3.0.0.xml");
                 default:
-                    return JAXB.unmarshal(QuickModelInfoProvider.class.getResourceAsStream("/org/hl7/fhir/quick-modelinfo.xml"),
-                            ModelInfo.class);
+                    return ModelInfoReaderUtil.readModelInfoResource("/org/hl7/fhir/quick-modelinfo.xml");
             }
         }
 
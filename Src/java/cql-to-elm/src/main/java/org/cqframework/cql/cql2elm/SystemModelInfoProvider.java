@@ -3,8 +3,6 @@ package org.cqframework.cql.cql2elm;
 import org.hl7.elm.r1.VersionedIdentifier;
 import org.hl7.elm_modelinfo.r1.ModelInfo;
 
-import javax.xml.bind.JAXB;
-
 public class SystemModelInfoProvider implements ModelInfoProvider {
     private NamespaceManager namespaceManager;
 
@@ -23,8 +21,7 @@ public class SystemModelInfoProvider implements ModelInfoProvider {
 
     public ModelInfo load(VersionedIdentifier modelIdentifier) {
         if (isSystemModelIdentifier(modelIdentifier)) {
-            return JAXB.unmarshal(SystemModelInfoProvider.class.getResourceAsStream("/org/hl7/elm/r1/system-modelinfo.xml"),
-                    ModelInfo.class);
+            return ModelInfoReaderUtil.readModelInfoResource("/org/hl7/elm/r1/system-modelinfo.xml");
         }
 
         return null;
@@ -3,8 +3,6 @@ package org.cqframework.cql.cql2elm;
 import org.hl7.elm.r1.VersionedIdentifier;
 import org.hl7.elm_modelinfo.r1.ModelInfo;
 
-import javax.xml.bind.JAXB;
-
 public class UsCoreModelInfoProvider implements ModelInfoProvider {
     private NamespaceManager namespaceManager;
 
@@ -26,12 +24,10 @@ public class UsCoreModelInfoProvider implements ModelInfoProvider {
             String localVersion = modelIdentifier.getVersion() == null ? "" : modelIdentifier.getVersion();
             switch (localVersion) {
                 case "3.1.0":
-                    return JAXB.unmarshal(QuickModelInfoProvider.class.getResourceAsStream("/org/hl7/fhir/uscore-modelinfo-3.1.0.xml"),
-                            ModelInfo.class);
+                    return ModelInfoReaderUtil.readModelInfoResource("/org/hl7/fhir/uscore-modelinfo-3.1.0.xml");
                 case "3.1.1":
                 default:
-                    return JAXB.unmarshal(QuickModelInfoProvider.class.getResourceAsStream("/org/hl7/fhir/uscore-modelinfo-3.1.1.xml"),
-                            ModelInfo.class);
+                    return ModelInfoReaderUtil.readModelInfoResource("/org/hl7/fhir/uscore-modelinfo-3.1.1.xml");
             }
         }
 
@@ -54,12 +54,76 @@ public class ConversionMap {
     private boolean intervalDemotion = false;
     private boolean intervalPromotion = false;
 
+    // Incremented whenever conversions are added or promotion and demotion settings change, so that cached operator
+    // resolutions made against an earlier state of the map are not reused
+    private int version;
+    int getVersion() {
+        return version;
+    }
+
+    private static class ConversionKey {
+        ConversionKey(DataType fromType, DataType toType, boolean isImplicit, boolean allowPromotionAndDemotion) {
+            this.fromType = fromType;
+            this.toType = toType;
+            this.isImplicit = isImplicit;
+            this.allowPromotionAndDemotion = allowPromotionAndDemotion;
+        }
+
+        final DataType fromType;
+        final DataType toType;
+        final boolean isImplicit;
+        final boolean allowPromotionAndDemotion;
+
+        @Override
+        public int hashCode() {
+            int result = fromType.hashCode();
+            result = 31 * result + toType.hashCode();
+            result = 31 * result + (isImplicit ? 1 : 0);
+            result = 31 * result + (allowPromotionAndDemotion ? 1 : 0);
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof ConversionKey) {
+                ConversionKey that = (ConversionKey)o;
+                return this.fromType.equals(that.fromType)
+                        && this.toType.equals(that.toType)
+                        && this.isImplicit == that.isImplicit
+                        && this.allowPromotionAndDemotion == that.allowPromotionAndDemotion;
+            }
+
+            return false;
+        }
+    }
+
+    // Results of findConversion, including conversions that were not found. Since the promotion and demotion settings
+    // are not part of the key, the cache is cleared whenever they change, as well as when conversions are added.
+    private final Map<ConversionKey, Conversion> foundConversions = new HashMap<>();
+    private long conversionHitCount;
+    private long conversionMissCount;
+
+    private void changed() {
+        version++;
+        foundConversions.clear();
+    }
+
+    public long getConversionHitCount() {
+        return conversionHitCount;
+    }
+
+    public long getConversionMissCount() {
+        return conversionMissCount;
+    }
+
     public void enableListDemotion() {
         listDemotion = true;
+        changed();
     }
 
     public void disableListDemotion() {
         listDemotion = false;
+        changed();
     }
 
     public boolean isListDemotionEnabled() {
@@ -68,10 +132,12 @@ public class ConversionMap {
 
     public void enableListPromotion() {
         listPromotion = true;
+        changed();
     }
 
     public void disableListPromotion() {
         listPromotion = false;
+        changed();
     }
 
     public boolean isListPromotionEnabled() {
@@ -80,10 +146,12 @@ public class ConversionMap {
 
     public void enableIntervalDemotion() {
         intervalDemotion = true;
+        changed();
     }
 
     public void disableIntervalDemotion() {
         intervalDemotion = false;
+        changed();
     }
 
     public boolean isIntervalDemotionEnabled() {
@@ -92,10 +160,12 @@ public class ConversionMap {
 
     public void enableIntervalPromotion() {
         intervalPromotion = true;
+        changed();
     }
 
     public void disableIntervalPromotion() {
         intervalPromotion = false;
+        changed();
     }
 
     public boolean isIntervalPromotionEnabled() {
@@ -150,6 +220,7 @@ public class ConversionMap {
             conversions.add(conversion);
         }
 
+        changed();
     }
 
     public List<Conversion> getGenericConversions() {
@@ -342,6 +413,24 @@ public class ConversionMap {
     }
 
     public Conversion findConversion(DataType fromType, DataType toType, boolean isImplicit, boolean allowPromotionAndDemotion, OperatorMap operatorMap) {
+        // Generic conversions are instantiated against the operator map, so results are only cached without them
+        if (!genericConversions.isEmpty()) {
+            return searchConversion(fromType, toType, isImplicit, allowPromotionAndDemotion, operatorMap);
+        }
+
+        ConversionKey key = new ConversionKey(fromType, toType, isImplicit, allowPromotionAndDemotion);
+        if (foundConversions.containsKey(key)) {
+            conversionHitCount++;
+            return foundConversions.get(key);
+        }
+
+        conversionMissCount++;
+        Conversion result = searchConversion(fromType, toType, isImplicit, allowPromotionAndDemotion, operatorMap);
+        foundConversions.put(key, result);
+        return result;
+    }
+
+    private Conversion searchConversion(DataType fromType, DataType toType, boolean isImplicit, boolean allowPromotionAndDemotion, OperatorMap operatorMap) {
         Conversion result = findCompatibleConversion(fromType, toType);
         if (result == null) {
             result = internalFindConversion(fromType, toType, isImplicit);
@@ -173,7 +173,7 @@ public class InstantiationContextImpl implements InstantiationContext {
         // Add interval promotion if no other conversion is found
         if (results.isEmpty()) {
             if (!(callType instanceof IntervalType) && operatorMap.isPointType(callType) && (allowPromotionAndDemotion || conversionMap.isIntervalPromotionEnabled())) {
-                results.add(new IntervalType(callType));
+                results.add(IntervalType.of(callType));
                 conversionScore += ConversionMap.ConversionScore.IntervalPromotion.score();
             }
         }
@@ -214,7 +214,7 @@ public class InstantiationContextImpl implements InstantiationContext {
         // Add list promotion if no other conversion is found
         if (results.isEmpty()) {
             if (!(callType instanceof ListType) && (allowPromotionAndDemotion || conversionMap.isListPromotionEnabled())) {
-                results.add(new ListType(callType));
+                results.add(ListType.of(callType));
                 conversionScore += ConversionMap.ConversionScore.ListPromotion.score();
             }
         }
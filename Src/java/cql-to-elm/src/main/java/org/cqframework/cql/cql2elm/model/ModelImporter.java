@@ -186,14 +186,14 @@ public class ModelImporter {
         if (typeSpecifier instanceof IntervalTypeSpecifier) {
             IntervalTypeSpecifier intervalTypeSpecifier = (IntervalTypeSpecifier)typeSpecifier;
             DataType pointType = resolveTypeNameOrSpecifier(intervalTypeSpecifier.getPointType(), intervalTypeSpecifier.getPointTypeSpecifier());
-            return new IntervalType(pointType);
+            return IntervalType.of(pointType);
         }
 
         if (typeSpecifier instanceof ListTypeSpecifier) {
             ListTypeSpecifier listTypeSpecifier = (ListTypeSpecifier)typeSpecifier;
             DataType elementType = resolveTypeNameOrSpecifier(listTypeSpecifier.getElementType(), listTypeSpecifier.getElementTypeSpecifier());
             if (elementType != null) {
-                return new ListType(elementType);
+                return ListType.of(elementType);
             }
         }
 
@@ -213,7 +213,7 @@ public class ModelImporter {
                 DataType choiceType = resolveTypeSpecifier(choice);
                 choices.add(choiceType);
             }
-            return new ChoiceType(choices);
+            return ChoiceType.of(choices);
         }
 
         return null;
@@ -231,11 +231,11 @@ public class ModelImporter {
         // listTypeSpecifier: 'list' '<' typeSpecifier '>'
         if (typeName.toLowerCase().startsWith("interval<")) {
             DataType pointType = resolveTypeName(typeName.substring(typeName.indexOf('<') + 1, typeName.lastIndexOf('>')));
-            return new IntervalType(pointType);
+            return IntervalType.of(pointType);
         }
         else if (typeName.toLowerCase().startsWith("list<")) {
             DataType elementType = resolveTypeName(typeName.substring(typeName.indexOf('<') + 1, typeName.lastIndexOf('>')));
-            return new ListType(elementType);
+            return ListType.of(elementType);
         }
 
         DataType result = lookupType(typeName);
@@ -365,7 +365,7 @@ public class ModelImporter {
     }
 
     private TupleType resolveTupleType(TupleTypeInfo t) {
-        TupleType result = new TupleType(resolveTupleTypeElements(t.getElement()));
+        TupleType result = TupleType.of(resolveTupleTypeElements(t.getElement()));
         return result;
     }
 
@@ -602,12 +602,12 @@ public class ModelImporter {
     }
 
     private IntervalType resolveIntervalType(IntervalTypeInfo t) {
-        IntervalType result = new IntervalType(resolveTypeNameOrSpecifier(t.getPointType(), t.getPointTypeSpecifier()));
+        IntervalType result = IntervalType.of(resolveTypeNameOrSpecifier(t.getPointType(), t.getPointTypeSpecifier()));
         return result;
     }
 
     private ListType resolveListType(ListTypeInfo t) {
-        ListType result = new ListType(resolveTypeNameOrSpecifier(t.getElementType(), t.getElementTypeSpecifier()));
+        ListType result = ListType.of(resolveTypeNameOrSpecifier(t.getElementType(), t.getElementTypeSpecifier()));
         return result;
     }
 
@@ -623,7 +623,7 @@ public class ModelImporter {
                 types.add(resolveTypeSpecifier(typeSpecifier));
             }
         }
-        return new ChoiceType(types);
+        return ChoiceType.of(types);
     }
 
     /**
@@ -14,6 +14,15 @@ public class OperatorEntry {
         this.name = name;
     }
 
+    /**
+     * Creates a copy of the given entry that can be modified without affecting the original.
+     */
+    public OperatorEntry(OperatorEntry entry) {
+        this.name = entry.name;
+        this.signatures = entry.signatures.copy();
+        this.genericOperators = new HashMap<>(entry.genericOperators);
+    }
+
     private String name;
     public String getName() {
         return this.name;
@@ -71,6 +80,12 @@ public class OperatorEntry {
 
         private SignatureNodes subSignatures = new SignatureNodes();
 
+        public SignatureNode copy() {
+            SignatureNode result = new SignatureNode(operator);
+            result.subSignatures = subSignatures.copy();
+            return result;
+        }
+
         @Override
         public int hashCode() {
             return operator.getSignature().hashCode();
@@ -95,6 +110,14 @@ public class OperatorEntry {
     private static class SignatureNodes {
         private Map<Signature, SignatureNode> signatures = new HashMap<>();
 
+        public SignatureNodes copy() {
+            SignatureNodes result = new SignatureNodes();
+            for (Map.Entry<Signature, SignatureNode> entry : signatures.entrySet()) {
+                result.signatures.put(entry.getKey(), entry.getValue().copy());
+            }
+            return result;
+        }
+
         public boolean contains(Operator operator) {
             boolean result = signatures.containsKey(operator.getSignature());
             if (!result) {
@@ -257,20 +280,26 @@ public class OperatorEntry {
         // If there is no resolution, or all resolutions require conversion, attempt to instantiate a generic signature
         if (results == null || allResultsUseConversion(results)) {
             // If the callContext signature contains choices, attempt instantiation with all possible combinations of the call signature (ouch, this could really hurt...)
+            // If this entry is shared from the base of an overlay, instantiations are stored in the overlay's copy of the entry
+            OperatorEntry entry = this;
             boolean signaturesInstantiated = false;
             List<Signature> callSignatures = expandChoices(callContext.getSignature());
             for (Signature callSignature : callSignatures) {
                 Operator result = instantiate(callSignature, operatorMap, conversionMap, callContext.getAllowPromotionAndDemotion());
-                if (result != null && !signatures.contains(result)) {
+                if (result != null && !entry.signatures.contains(result)) {
                     // If the generic signature was instantiated, store it as an actual signature.
-                    signatures.add(new SignatureNode(result));
+                    if (!signaturesInstantiated) {
+                        entry = operatorMap.getEntry(name);
+                    }
+                    entry.signatures.add(new SignatureNode(result));
                     signaturesInstantiated = true;
                 }
             }
 
             // re-attempt the resolution with the instantiated signature registered
             if (signaturesInstantiated) {
-                results = signatures.resolve(callContext, conversionMap, operatorMap);
+                operatorMap.invalidateResolutions();
+                results = entry.signatures.resolve(callContext, conversionMap, operatorMap);
             }
         }
 
@@ -3,34 +3,162 @@ package org.cqframework.cql.cql2elm.model;
 import org.hl7.cql.model.*;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class OperatorMap {
-    private Map<String, OperatorEntry> operators = new HashMap<>();
+    private Map<String, OperatorEntry> operators = new ConcurrentHashMap<>();
+    private final OperatorMap base;
+
+    public OperatorMap() {
+        this(null);
+    }
+
+    /**
+     * Creates an overlay of the given operator map. Operators are resolved against the entries of the base map, which
+     * is not modified; operators added to the overlay, including generic instantiations, are registered in copies of
+     * the base entries owned by the overlay.
+     */
+    public OperatorMap(OperatorMap base) {
+        this.base = base;
+    }
+
+    public static final int MAXIMUM_CACHED_RESOLUTIONS = 10000;
+
+    // Resolution results are cached by call signature. Results depend on the operators in the map and on the state of
+    // the conversion map, so the cache is invalidated whenever an operator is added (including generic instantiations),
+    // and the key includes the identity and version of the conversion map used for the resolution.
+    private static class ResolutionKey {
+        ResolutionKey(CallContext callContext, ConversionMap conversionMap) {
+            this.operatorName = callContext.getOperatorName();
+            this.signature = callContext.getSignature();
+            this.allowPromotionAndDemotion = callContext.getAllowPromotionAndDemotion();
+            this.mustResolve = callContext.getMustResolve();
+            this.conversionMap = conversionMap;
+            this.conversionMapVersion = conversionMap != null ? conversionMap.getVersion() : 0;
+        }
+
+        final String operatorName;
+        final Signature signature;
+        final boolean allowPromotionAndDemotion;
+        final boolean mustResolve;
+        final ConversionMap conversionMap;
+        final int conversionMapVersion;
+
+        @Override
+        public int hashCode() {
+            int result = operatorName.hashCode();
+            result = 31 * result + signature.hashCode();
+            result = 31 * result + (allowPromotionAndDemotion ? 1 : 0);
+            result = 31 * result + (mustResolve ? 1 : 0);
+            result = 31 * result + System.identityHashCode(conversionMap);
+            result = 31 * result + conversionMapVersion;
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof ResolutionKey) {
+                ResolutionKey that = (ResolutionKey)o;
+                return this.operatorName.equals(that.operatorName)
+                        && this.signature.equals(that.signature)
+                        && this.allowPromotionAndDemotion == that.allowPromotionAndDemotion
+                        && this.mustResolve == that.mustResolve
+                        && this.conversionMap == that.conversionMap
+                        && this.conversionMapVersion == that.conversionMapVersion;
+            }
+
+            return false;
+        }
+    }
+
+    private static class CachedResolution {
+        CachedResolution(long generation, OperatorResolution resolution) {
+            this.generation = generation;
+            this.resolution = resolution;
+        }
+
+        final long generation;
+        final OperatorResolution resolution; // null if the call did not resolve
+    }
+
+    private final Map<ResolutionKey, CachedResolution> resolutions = new ConcurrentHashMap<>();
+    private volatile long generation;
+    private final AtomicLong resolutionHitCount = new AtomicLong();
+    private final AtomicLong resolutionMissCount = new AtomicLong();
+    private final AtomicLong resolutionInvalidationCount = new AtomicLong();
 
     public boolean containsOperator(Operator operator) {
-        OperatorEntry entry = getEntry(operator.getName());
-        return entry.containsOperator(operator);
+        OperatorEntry entry = findEntry(operator.getName());
+        return entry != null && entry.containsOperator(operator);
     }
 
     public void addOperator(Operator operator) {
         OperatorEntry entry = getEntry(operator.getName());
         entry.addOperator(operator);
+        invalidateResolutions();
     }
 
-    private OperatorEntry getEntry(String operatorName) {
-        if (operatorName == null || operatorName.equals("")) {
-            throw new IllegalArgumentException("operatorName is null or empty.");
+    /**
+     * Discards cached resolutions, called whenever the operators in the map change.
+     */
+    void invalidateResolutions() {
+        synchronized (resolutions) {
+            generation++;
+            resolutions.clear();
         }
+        resolutionInvalidationCount.incrementAndGet();
+    }
+
+    public long getResolutionHitCount() {
+        return resolutionHitCount.get();
+    }
+
+    public long getResolutionMissCount() {
+        return resolutionMissCount.get();
+    }
+
+    public long getResolutionInvalidationCount() {
+        return resolutionInvalidationCount.get();
+    }
+
+    public int getCachedResolutionCount() {
+        return resolutions.size();
+    }
+
+    /**
+     * Returns the entry for the operator owned by this map, creating it (as a copy of the base entry, if any) if necessary.
+     */
+    OperatorEntry getEntry(String operatorName) {
+        checkOperatorName(operatorName);
+
+        // Resolution against a library shared across translations may add entries concurrently
+        return operators.computeIfAbsent(operatorName, name -> {
+            OperatorEntry baseEntry = base != null ? base.findEntry(name) : null;
+            return baseEntry != null ? new OperatorEntry(baseEntry) : new OperatorEntry(name);
+        });
+    }
+
+    /**
+     * Returns the entry for the operator, either owned by this map or shared from the base map, or null if there is none.
+     */
+    private OperatorEntry findEntry(String operatorName) {
+        checkOperatorName(operatorName);
 
         OperatorEntry entry = operators.get(operatorName);
-        if (entry == null) {
-            entry = new OperatorEntry(operatorName);
-            operators.put(operatorName, entry);
+        if (entry == null && base != null) {
+            entry = base.findEntry(operatorName);
         }
 
         return entry;
     }
 
+    private static void checkOperatorName(String operatorName) {
+        if (operatorName == null || operatorName.equals("")) {
+            throw new IllegalArgumentException("operatorName is null or empty.");
+        }
+    }
+
     public boolean supportsOperator(String libraryName, String operatorName, DataType... signature) {
         CallContext call = new CallContext(libraryName, operatorName, false, false, false, signature);
         try {
@@ -52,8 +180,46 @@ public class OperatorMap {
         return supportsOperator("System", "LessOrEqual", type, type) && supportsOperator("System", "Successor", type);
     }
 
+    /**
+     * Resolves the call against the operators in the map, returning the best matching operator, or null if the call
+     * does not resolve. The returned resolution is a new instance that the caller may modify.
+     */
     public OperatorResolution resolveOperator(CallContext callContext, ConversionMap conversionMap) {
-        OperatorEntry entry = getEntry(callContext.getOperatorName());
+        ResolutionKey key = new ResolutionKey(callContext, conversionMap);
+        long resolutionGeneration = generation;
+        CachedResolution cached = resolutions.get(key);
+        if (cached != null && cached.generation == resolutionGeneration) {
+            resolutionHitCount.incrementAndGet();
+            return cached.resolution != null ? new OperatorResolution(cached.resolution) : null;
+        }
+
+        resolutionMissCount.incrementAndGet();
+        OperatorResolution result = internalResolveOperator(callContext, conversionMap);
+
+        // Resolution may instantiate generic operators or conversions, in which case the result is not cached
+        if (generation == resolutionGeneration && (conversionMap == null || conversionMap.getVersion() == key.conversionMapVersion)) {
+            synchronized (resolutions) {
+                if (generation == resolutionGeneration) {
+                    if (resolutions.size() >= MAXIMUM_CACHED_RESOLUTIONS) {
+                        resolutions.clear();
+                    }
+                    resolutions.put(key, new CachedResolution(resolutionGeneration, result));
+                }
+            }
+            if (result != null) {
+                result = new OperatorResolution(result);
+            }
+        }
+
+        return result;
+    }
+
+    private OperatorResolution internalResolveOperator(CallContext callContext, ConversionMap conversionMap) {
+        OperatorEntry entry = findEntry(callContext.getOperatorName());
+        if (entry == null) {
+            return null;
+        }
+
         List<OperatorResolution> results = entry.resolve(callContext, this, conversionMap);
 
         // Score each resolution and return the lowest score
@@ -14,6 +14,18 @@ public class OperatorResolution {
         this.operator = operator;
     }
 
+    public OperatorResolution(OperatorResolution other) {
+        this.operator = other.operator;
+        this.allowFluent = other.allowFluent;
+        this.libraryIdentifier = other.libraryIdentifier;
+        this.libraryName = other.libraryName;
+        if (other.conversions != null) {
+            this.conversions = new ArrayList<>(other.conversions);
+        }
+        this.operatorHasOverloads = other.operatorHasOverloads;
+        this.score = other.score;
+    }
+
     private Operator operator;
     public Operator getOperator() {
         return operator;
@@ -28,7 +28,7 @@ public class SystemLibraryHelper {
         // Coalesce<T>(T, T, T)
         // Coalesce<T>(T, T, T, T)
         // Coalesce<T>(T, T, T, T, T)
-        add(system, tb, new GenericOperator("Coalesce", new Signature(new ListType(new TypeParameter("T"))), new TypeParameter("T"), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("Coalesce", new Signature(ListType.of(new TypeParameter("T"))), new TypeParameter("T"), new TypeParameter("T")));
         add(system, tb, new GenericOperator("Coalesce", new Signature(new TypeParameter("T"), new TypeParameter("T")), new TypeParameter("T"), new TypeParameter("T")));
         add(system, tb, new GenericOperator("Coalesce", new Signature(new TypeParameter("T"), new TypeParameter("T"), new TypeParameter("T")), new TypeParameter("T"), new TypeParameter("T")));
         add(system, tb, new GenericOperator("Coalesce", new Signature(new TypeParameter("T"), new TypeParameter("T"), new TypeParameter("T"), new TypeParameter("T")), new TypeParameter("T"), new TypeParameter("T")));
@@ -98,7 +98,7 @@ public class SystemLibraryHelper {
         //add(system, tb, new Conversion(booleanToBoolean, false));
 
         // ToChars(String) : List(String)
-        Operator toChars = new Operator("ToChars", new Signature(systemModel.getString()), new ListType(systemModel.getString()));
+        Operator toChars = new Operator("ToChars", new Signature(systemModel.getString()), ListType.of(systemModel.getString()));
         add(system, tb, toChars);
         add(system, tb, new Conversion(toChars, false));
 
@@ -443,8 +443,8 @@ public class SystemLibraryHelper {
 
         // String operators
         add(system, tb, new Operator("Add", new Signature(systemModel.getString(), systemModel.getString()), systemModel.getString()));
-        add(system, tb, new Operator("Combine", new Signature(new ListType(systemModel.getString())), systemModel.getString()));
-        add(system, tb, new Operator("Combine", new Signature(new ListType(systemModel.getString()), systemModel.getString()), systemModel.getString()));
+        add(system, tb, new Operator("Combine", new Signature(ListType.of(systemModel.getString())), systemModel.getString()));
+        add(system, tb, new Operator("Combine", new Signature(ListType.of(systemModel.getString()), systemModel.getString()), systemModel.getString()));
         add(system, tb, new Operator("Concatenate", new Signature(systemModel.getString(), systemModel.getString()), systemModel.getString()));
         add(system, tb, new Operator("EndsWith", new Signature(systemModel.getString(), systemModel.getString()), systemModel.getBoolean()));
         add(system, tb, new Operator("Indexer", new Signature(systemModel.getString(), systemModel.getInteger()), systemModel.getString()));
@@ -454,8 +454,8 @@ public class SystemLibraryHelper {
         add(system, tb, new Operator("Matches", new Signature(systemModel.getString(), systemModel.getString()), systemModel.getBoolean()));
         add(system, tb, new Operator("PositionOf", new Signature(systemModel.getString(), systemModel.getString()), systemModel.getInteger()));
         add(system, tb, new Operator("ReplaceMatches", new Signature(systemModel.getString(), systemModel.getString(), systemModel.getString()), systemModel.getString()));
-        add(system, tb, new Operator("Split", new Signature(systemModel.getString(), systemModel.getString()), new ListType(systemModel.getString())));
-        add(system, tb, new Operator("SplitOnMatches", new Signature(systemModel.getString(), systemModel.getString()), new ListType(systemModel.getString())));
+        add(system, tb, new Operator("Split", new Signature(systemModel.getString(), systemModel.getString()), ListType.of(systemModel.getString())));
+        add(system, tb, new Operator("SplitOnMatches", new Signature(systemModel.getString(), systemModel.getString()), ListType.of(systemModel.getString())));
         add(system, tb, new Operator("StartsWith", new Signature(systemModel.getString(), systemModel.getString()), systemModel.getBoolean()));
         add(system, tb, new Operator("Substring", new Signature(systemModel.getString(), systemModel.getInteger()), systemModel.getString()));
         add(system, tb, new Operator("Substring", new Signature(systemModel.getString(), systemModel.getInteger(), systemModel.getInteger()), systemModel.getString()));
@@ -517,185 +517,185 @@ public class SystemLibraryHelper {
 
         // Interval Operators
         // After<T>(interval<T>, interval<T>) : Boolean
-        add(system, tb, new GenericOperator("After", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("After", new Signature(IntervalType.of(new TypeParameter("T")), IntervalType.of(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // Before<T>(interval<T>, interval<T>) : Boolean
-        add(system, tb, new GenericOperator("Before", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("Before", new Signature(IntervalType.of(new TypeParameter("T")), IntervalType.of(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // Collapse<T>(list<interval<T>>) : list<interval<T>>
         // Collapse<T>(list<interval<T>>, Quantity) : list<interval<T>>
-        add(system, tb, new GenericOperator("Collapse", new Signature(new ListType(new IntervalType(new TypeParameter("T"))), systemModel.getQuantity()), new ListType(new IntervalType(new TypeParameter("T"))), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("Collapse", new Signature(ListType.of(IntervalType.of(new TypeParameter("T"))), systemModel.getQuantity()), ListType.of(IntervalType.of(new TypeParameter("T"))), new TypeParameter("T")));
         // Contains<T>(interval<T>, T) : Boolean
-        add(system, tb, new GenericOperator("Contains", new Signature(new IntervalType(new TypeParameter("T")), new TypeParameter("T")), systemModel.getBoolean(), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("Contains", new Signature(IntervalType.of(new TypeParameter("T")), new TypeParameter("T")), systemModel.getBoolean(), new TypeParameter("T")));
         // End<T>(interval<T>) : T
-        add(system, tb, new GenericOperator("End", new Signature(new IntervalType(new TypeParameter("T"))), new TypeParameter("T"), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("End", new Signature(IntervalType.of(new TypeParameter("T"))), new TypeParameter("T"), new TypeParameter("T")));
         // Ends<T>(interval<T>, interval<T>) : Boolean
-        add(system, tb, new GenericOperator("Ends", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("Ends", new Signature(IntervalType.of(new TypeParameter("T")), IntervalType.of(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // Equal<T>(interval<T>, interval<T>) : Boolean
-        add(system, tb, new GenericOperator("Equal", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("Equal", new Signature(IntervalType.of(new TypeParameter("T")), IntervalType.of(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // Equivalent<T>(interval<T>, interval<T>) : Boolean
-        add(system, tb, new GenericOperator("Equivalent", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("Equivalent", new Signature(IntervalType.of(new TypeParameter("T")), IntervalType.of(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // Except<T>(interval<T>, interval<T>) : interval<T>
-        add(system, tb, new GenericOperator("Except", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), new IntervalType(new TypeParameter("T")), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("Except", new Signature(IntervalType.of(new TypeParameter("T")), IntervalType.of(new TypeParameter("T"))), IntervalType.of(new TypeParameter("T")), new TypeParameter("T")));
         // Expand<T>(list<interval<T>>) : list<interval<T>>
         // Expand<T>(list<interval<T>>, Quantity) : list<interval<T>>
         // Expand<T>(interval<T>) : List<T>
         // Expand<T>(interval<T>, Quantity) : list<T>
-        add(system, tb, new GenericOperator("Expand", new Signature(new ListType(new IntervalType(new TypeParameter("T"))), systemModel.getQuantity()), new ListType(new IntervalType(new TypeParameter("T"))), new TypeParameter("T")));
-        add(system, tb, new GenericOperator("Expand", new Signature(new IntervalType(new TypeParameter("T")), systemModel.getQuantity()), new ListType(new TypeParameter("T")), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("Expand", new Signature(ListType.of(IntervalType.of(new TypeParameter("T"))), systemModel.getQuantity()), ListType.of(IntervalType.of(new TypeParameter("T"))), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("Expand", new Signature(IntervalType.of(new TypeParameter("T")), systemModel.getQuantity()), ListType.of(new TypeParameter("T")), new TypeParameter("T")));
         // In<T>(T, interval<T>) : Boolean
-        add(system, tb, new GenericOperator("In", new Signature(new TypeParameter("T"), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("In", new Signature(new TypeParameter("T"), IntervalType.of(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // Includes<T>(interval<T>, interval<T>) : Boolean
-        add(system, tb, new GenericOperator("Includes", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("Includes", new Signature(IntervalType.of(new TypeParameter("T")), IntervalType.of(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // IncludedIn<T>(interval<T>, interval<T>) : Boolean
-        add(system, tb, new GenericOperator("IncludedIn", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("IncludedIn", new Signature(IntervalType.of(new TypeParameter("T")), IntervalType.of(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // Intersect<T>(interval<T>, interval<T>) : interval<T>
-        add(system, tb, new GenericOperator("Intersect", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), new IntervalType(new TypeParameter("T")), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("Intersect", new Signature(IntervalType.of(new TypeParameter("T")), IntervalType.of(new TypeParameter("T"))), IntervalType.of(new TypeParameter("T")), new TypeParameter("T")));
         // Meets<T>(interval<T>, interval<T>) : Boolean
-        add(system, tb, new GenericOperator("Meets", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("Meets", new Signature(IntervalType.of(new TypeParameter("T")), IntervalType.of(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // MeetsBefore<T>(interval<T>, interval<T>) : Boolean
-        add(system, tb, new GenericOperator("MeetsBefore", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("MeetsBefore", new Signature(IntervalType.of(new TypeParameter("T")), IntervalType.of(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // MeetsAfter<T>(interval<T>, interval<T>) : Boolean
-        add(system, tb, new GenericOperator("MeetsAfter", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("MeetsAfter", new Signature(IntervalType.of(new TypeParameter("T")), IntervalType.of(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // Overlaps<T>(interval<T>, interval<T>) : Boolean
-        add(system, tb, new GenericOperator("Overlaps", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("Overlaps", new Signature(IntervalType.of(new TypeParameter("T")), IntervalType.of(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // OverlapsBefore<T>(interval<T>, interval<T>) : Boolean
-        add(system, tb, new GenericOperator("OverlapsBefore", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("OverlapsBefore", new Signature(IntervalType.of(new TypeParameter("T")), IntervalType.of(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // OverlapsAfter<T>(interval<T>, interval<T>) : Boolean
-        add(system, tb, new GenericOperator("OverlapsAfter", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("OverlapsAfter", new Signature(IntervalType.of(new TypeParameter("T")), IntervalType.of(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // PointFrom<T>(interval<T>) : T
-        GenericOperator pointFrom = new GenericOperator("PointFrom", new Signature(new IntervalType(new TypeParameter("T"))), new TypeParameter("T"), new TypeParameter("T"));
+        GenericOperator pointFrom = new GenericOperator("PointFrom", new Signature(IntervalType.of(new TypeParameter("T"))), new TypeParameter("T"), new TypeParameter("T"));
         add(system, tb, pointFrom);
         // ProperContains<T>(interval<T>, T) : Boolean
-        add(system, tb, new GenericOperator("ProperContains", new Signature(new IntervalType(new TypeParameter("T")), new TypeParameter("T")), systemModel.getBoolean(), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("ProperContains", new Signature(IntervalType.of(new TypeParameter("T")), new TypeParameter("T")), systemModel.getBoolean(), new TypeParameter("T")));
         // ProperIn<T>(T, interval<T>) : Boolean
-        add(system, tb, new GenericOperator("ProperIn", new Signature(new TypeParameter("T"), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("ProperIn", new Signature(new TypeParameter("T"), IntervalType.of(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // ProperIncludes<T>(interval<T>, interval<T>) : Boolean
-        add(system, tb, new GenericOperator("ProperIncludes", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("ProperIncludes", new Signature(IntervalType.of(new TypeParameter("T")), IntervalType.of(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // ProperIncludedIn<T>(interval<T>, interval<T>) : Boolean
-        add(system, tb, new GenericOperator("ProperIncludedIn", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("ProperIncludedIn", new Signature(IntervalType.of(new TypeParameter("T")), IntervalType.of(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // SameAs<T>(interval<T>, interval<T>) : Boolean
-        add(system, tb, new GenericOperator("SameAs", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("SameAs", new Signature(IntervalType.of(new TypeParameter("T")), IntervalType.of(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // SameOrAfter<T>(interval<T>, interval<T>) : Boolean
-        add(system, tb, new GenericOperator("SameOrAfter", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("SameOrAfter", new Signature(IntervalType.of(new TypeParameter("T")), IntervalType.of(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // SameOrBefore<T>(interval<T>, interval<T>) : Boolean
-        add(system, tb, new GenericOperator("SameOrBefore", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("SameOrBefore", new Signature(IntervalType.of(new TypeParameter("T")), IntervalType.of(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // Size<T>(interval<T>) : T
-        add(system, tb, new GenericOperator("Size", new Signature(new IntervalType(new TypeParameter("T"))), new TypeParameter("T"), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("Size", new Signature(IntervalType.of(new TypeParameter("T"))), new TypeParameter("T"), new TypeParameter("T")));
         // Start<T>(interval<T>) : T
-        add(system, tb, new GenericOperator("Start", new Signature(new IntervalType(new TypeParameter("T"))), new TypeParameter("T"), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("Start", new Signature(IntervalType.of(new TypeParameter("T"))), new TypeParameter("T"), new TypeParameter("T")));
         // Starts<T>(interval<T>, interval<T>) : Boolean
-        add(system, tb, new GenericOperator("Starts", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("Starts", new Signature(IntervalType.of(new TypeParameter("T")), IntervalType.of(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // Union<T>(interval<T>, interval<T>) : interval<T>
-        add(system, tb, new GenericOperator("Union", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), new IntervalType(new TypeParameter("T")), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("Union", new Signature(IntervalType.of(new TypeParameter("T")), IntervalType.of(new TypeParameter("T"))), IntervalType.of(new TypeParameter("T")), new TypeParameter("T")));
         // Width<T>(interval<T>) : T
-        add(system, tb, new GenericOperator("Width", new Signature(new IntervalType(new TypeParameter("T"))), new TypeParameter("T"), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("Width", new Signature(IntervalType.of(new TypeParameter("T"))), new TypeParameter("T"), new TypeParameter("T")));
 
         // List Operators
         // Contains<T>(list<T>, T) : Boolean
-        add(system, tb, new GenericOperator("Contains", new Signature(new ListType(new TypeParameter("T")), new TypeParameter("T")), systemModel.getBoolean(), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("Contains", new Signature(ListType.of(new TypeParameter("T")), new TypeParameter("T")), systemModel.getBoolean(), new TypeParameter("T")));
         // Distinct<T>(list<T>) : list<T>
-        add(system, tb, new GenericOperator("Distinct", new Signature(new ListType(new TypeParameter("T"))), new ListType(new TypeParameter("T")), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("Distinct", new Signature(ListType.of(new TypeParameter("T"))), ListType.of(new TypeParameter("T")), new TypeParameter("T")));
         // Equal<T>(list<T>, list<T>) : Boolean
-        add(system, tb, new GenericOperator("Equal", new Signature(new ListType(new TypeParameter("T")), new ListType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("Equal", new Signature(ListType.of(new TypeParameter("T")), ListType.of(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // Equivalent<T>(list<T>, list<T>) : Boolean
-        add(system, tb, new GenericOperator("Equivalent", new Signature(new ListType(new TypeParameter("T")), new ListType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("Equivalent", new Signature(ListType.of(new TypeParameter("T")), ListType.of(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // Except<T>(list<T>, list<T>) : list<T>
-        add(system, tb, new GenericOperator("Except", new Signature(new ListType(new TypeParameter("T")), new ListType(new TypeParameter("T"))), new ListType(new TypeParameter("T")), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("Except", new Signature(ListType.of(new TypeParameter("T")), ListType.of(new TypeParameter("T"))), ListType.of(new TypeParameter("T")), new TypeParameter("T")));
         // Exists<T>(list<T>) : Boolean
-        add(system, tb, new GenericOperator("Exists", new Signature(new ListType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("Exists", new Signature(ListType.of(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // Flatten<T>(list<list<T>>) : list<T>
-        add(system, tb, new GenericOperator("Flatten", new Signature(new ListType(new ListType(new TypeParameter("T")))), new ListType(new TypeParameter("T")), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("Flatten", new Signature(ListType.of(ListType.of(new TypeParameter("T")))), ListType.of(new TypeParameter("T")), new TypeParameter("T")));
         // First<T>(list<T>) : T
-        add(system, tb, new GenericOperator("First", new Signature(new ListType(new TypeParameter("T"))), new TypeParameter("T"), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("First", new Signature(ListType.of(new TypeParameter("T"))), new TypeParameter("T"), new TypeParameter("T")));
         // In<T>(T, list<T>) : Boolean
-        add(system, tb, new GenericOperator("In", new Signature(new TypeParameter("T"), new ListType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("In", new Signature(new TypeParameter("T"), ListType.of(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // Includes<T>(list<T>, list<T>) : Boolean
-        add(system, tb, new GenericOperator("Includes", new Signature(new ListType(new TypeParameter("T")), new ListType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("Includes", new Signature(ListType.of(new TypeParameter("T")), ListType.of(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // IncludedIn<T>(list<T>, list<T>) : Boolean
-        add(system, tb, new GenericOperator("IncludedIn", new Signature(new ListType(new TypeParameter("T")), new ListType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("IncludedIn", new Signature(ListType.of(new TypeParameter("T")), ListType.of(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // Indexer<T>(list<T>, integer) : T
-        add(system, tb, new GenericOperator("Indexer", new Signature(new ListType(new TypeParameter("T")), systemModel.getInteger()), new TypeParameter("T"), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("Indexer", new Signature(ListType.of(new TypeParameter("T")), systemModel.getInteger()), new TypeParameter("T"), new TypeParameter("T")));
         // IndexOf<T>(list<T>, T) : Integer
-        add(system, tb, new GenericOperator("IndexOf", new Signature(new ListType(new TypeParameter("T")), new TypeParameter("T")), systemModel.getInteger(), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("IndexOf", new Signature(ListType.of(new TypeParameter("T")), new TypeParameter("T")), systemModel.getInteger(), new TypeParameter("T")));
         // Intersect<T>(list<T>, list<T>) : list<T>
-        add(system, tb, new GenericOperator("Intersect", new Signature(new ListType(new TypeParameter("T")), new ListType(new TypeParameter("T"))), new ListType(new TypeParameter("T")), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("Intersect", new Signature(ListType.of(new TypeParameter("T")), ListType.of(new TypeParameter("T"))), ListType.of(new TypeParameter("T")), new TypeParameter("T")));
         // Last<T>(list<T>) : T
-        add(system, tb, new GenericOperator("Last", new Signature(new ListType(new TypeParameter("T"))), new TypeParameter("T"), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("Last", new Signature(ListType.of(new TypeParameter("T"))), new TypeParameter("T"), new TypeParameter("T")));
         // Length<T>(list<T>) : Integer
-        add(system, tb, new GenericOperator("Length", new Signature(new ListType(new TypeParameter("T"))), systemModel.getInteger(), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("Length", new Signature(ListType.of(new TypeParameter("T"))), systemModel.getInteger(), new TypeParameter("T")));
         // ProperContains<T>(list<T>, T) : Boolean
-        add(system, tb, new GenericOperator("ProperContains", new Signature(new ListType(new TypeParameter("T")), new TypeParameter("T")), systemModel.getBoolean(), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("ProperContains", new Signature(ListType.of(new TypeParameter("T")), new TypeParameter("T")), systemModel.getBoolean(), new TypeParameter("T")));
         // ProperIn<T>(T, list<T>) : Boolean
-        add(system, tb, new GenericOperator("ProperIn", new Signature(new TypeParameter("T"), new ListType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("ProperIn", new Signature(new TypeParameter("T"), ListType.of(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // ProperIncludes<T>(list<T>, list<T>) : Boolean
-        add(system, tb, new GenericOperator("ProperIncludes", new Signature(new ListType(new TypeParameter("T")), new ListType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("ProperIncludes", new Signature(ListType.of(new TypeParameter("T")), ListType.of(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // ProperIncludedIn<T>(list<T>, list<T>) : Boolean
-        add(system, tb, new GenericOperator("ProperIncludedIn", new Signature(new ListType(new TypeParameter("T")), new ListType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("ProperIncludedIn", new Signature(ListType.of(new TypeParameter("T")), ListType.of(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // SingletonFrom<T>(list<T>) : T
-        GenericOperator singletonFrom = new GenericOperator("SingletonFrom", new Signature(new ListType(new TypeParameter("T"))), new TypeParameter("T"), new TypeParameter("T"));
+        GenericOperator singletonFrom = new GenericOperator("SingletonFrom", new Signature(ListType.of(new TypeParameter("T"))), new TypeParameter("T"), new TypeParameter("T"));
         add(system, tb, singletonFrom);
         //// NOTE: FHIRPath Implicit List Demotion
         // Generic conversions turned out to be computationally expensive, so we added explicit list promotion/demotion in the conversion map directly instead.
         //add(system, tb, new Conversion(singletonFrom, true));
         // Skip(list<T>, Integer): list<T>
-        add(system, tb, new GenericOperator("Skip", new Signature(new ListType(new TypeParameter("T")), systemModel.getInteger()), new ListType(new TypeParameter("T")), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("Skip", new Signature(ListType.of(new TypeParameter("T")), systemModel.getInteger()), ListType.of(new TypeParameter("T")), new TypeParameter("T")));
         // Tail(list<T>): list<T>
-        add(system, tb, new GenericOperator("Tail", new Signature(new ListType(new TypeParameter("T"))), new ListType(new TypeParameter("T")), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("Tail", new Signature(ListType.of(new TypeParameter("T"))), ListType.of(new TypeParameter("T")), new TypeParameter("T")));
         // Take(list<T>, Integer): list<T>
-        add(system, tb, new GenericOperator("Take", new Signature(new ListType(new TypeParameter("T")), systemModel.getInteger()), new ListType(new TypeParameter("T")), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("Take", new Signature(ListType.of(new TypeParameter("T")), systemModel.getInteger()), ListType.of(new TypeParameter("T")), new TypeParameter("T")));
         // Union<T>(list<T>, list<T>) : list<T>
-        add(system, tb, new GenericOperator("Union", new Signature(new ListType(new TypeParameter("T")), new ListType(new TypeParameter("T"))), new ListType(new TypeParameter("T")), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("Union", new Signature(ListType.of(new TypeParameter("T")), ListType.of(new TypeParameter("T"))), ListType.of(new TypeParameter("T")), new TypeParameter("T")));
 
         // NOTE: FHIRPath Implicit List Promotion operator
-        //GenericOperator toList = new GenericOperator("List", new Signature(new TypeParameter("T")), new ListType(new TypeParameter("T")), new TypeParameter("T"));
+        //GenericOperator toList = new GenericOperator("List", new Signature(new TypeParameter("T")), ListType.of(new TypeParameter("T")), new TypeParameter("T"));
         //add(system, tb, toList);
         //add(system, tb, new Conversion(toList, true));
 
         // Aggregate Operators
-        add(system, tb, new Operator("AllTrue", new Signature(new ListType(systemModel.getBoolean())), systemModel.getBoolean()));
-        add(system, tb, new Operator("AnyTrue", new Signature(new ListType(systemModel.getBoolean())), systemModel.getBoolean()));
-        add(system, tb, new Operator("Avg", new Signature(new ListType(systemModel.getDecimal())), systemModel.getDecimal()));
-        add(system, tb, new Operator("Avg", new Signature(new ListType(systemModel.getQuantity())), systemModel.getQuantity()));
+        add(system, tb, new Operator("AllTrue", new Signature(ListType.of(systemModel.getBoolean())), systemModel.getBoolean()));
+        add(system, tb, new Operator("AnyTrue", new Signature(ListType.of(systemModel.getBoolean())), systemModel.getBoolean()));
+        add(system, tb, new Operator("Avg", new Signature(ListType.of(systemModel.getDecimal())), systemModel.getDecimal()));
+        add(system, tb, new Operator("Avg", new Signature(ListType.of(systemModel.getQuantity())), systemModel.getQuantity()));
         // Count<T>(list<T>) : Integer
-        add(system, tb, new GenericOperator("Count", new Signature(new ListType(new TypeParameter("T"))), systemModel.getInteger(), new TypeParameter("T")));
+        add(system, tb, new GenericOperator("Count", new Signature(ListType.of(new TypeParameter("T"))), systemModel.getInteger(), new TypeParameter("T")));
         //// Count(list<Any>) : Integer
-        //add(system, tb, new Operator("Count", new Signature(new ListType(systemModel.getAny())), systemModel.getInteger()));
-        add(system, tb, new Operator("GeometricMean", new Signature(new ListType(systemModel.getDecimal())), systemModel.getDecimal()));
-        add(system, tb, new Operator("Max", new Signature(new ListType(systemModel.getInteger())), systemModel.getInteger()));
-        add(system, tb, new Operator("Max", new Signature(new ListType(systemModel.getLong())), systemModel.getLong()));
-        add(system, tb, new Operator("Max", new Signature(new ListType(systemModel.getDecimal())), systemModel.getDecimal()));
-        add(system, tb, new Operator("Max", new Signature(new ListType(systemModel.getQuantity())), systemModel.getQuantity()));
-        add(system, tb, new Operator("Max", new Signature(new ListType(systemModel.getDateTime())), systemModel.getDateTime()));
-        add(system, tb, new Operator("Max", new Signature(new ListType(systemModel.getDate())), systemModel.getDate()));
-        add(system, tb, new Operator("Max", new Signature(new ListType(systemModel.getTime())), systemModel.getTime()));
-        add(system, tb, new Operator("Max", new Signature(new ListType(systemModel.getString())), systemModel.getString()));
-        add(system, tb, new Operator("Min", new Signature(new ListType(systemModel.getInteger())), systemModel.getInteger()));
-        add(system, tb, new Operator("Min", new Signature(new ListType(systemModel.getLong())), systemModel.getLong()));
-        add(system, tb, new Operator("Min", new Signature(new ListType(systemModel.getDecimal())), systemModel.getDecimal()));
-        add(system, tb, new Operator("Min", new Signature(new ListType(systemModel.getQuantity())), systemModel.getQuantity()));
-        add(system, tb, new Operator("Min", new Signature(new ListType(systemModel.getDateTime())), systemModel.getDateTime()));
-        add(system, tb, new Operator("Min", new Signature(new ListType(systemModel.getDate())), systemModel.getDate()));
-        add(system, tb, new Operator("Min", new Signature(new ListType(systemModel.getTime())), systemModel.getTime()));
-        add(system, tb, new Operator("Min", new Signature(new ListType(systemModel.getString())), systemModel.getString()));
-        add(system, tb, new Operator("Median", new Signature(new ListType(systemModel.getDecimal())), systemModel.getDecimal()));
-        add(system, tb, new Operator("Median", new Signature(new ListType(systemModel.getQuantity())), systemModel.getQuantity()));
+        //add(system, tb, new Operator("Count", new Signature(ListType.of(systemModel.getAny())), systemModel.getInteger()));
+        add(system, tb, new Operator("GeometricMean", new Signature(ListType.of(systemModel.getDecimal())), systemModel.getDecimal()));
+        add(system, tb, new Operator("Max", new Signature(ListType.of(systemModel.getInteger())), systemModel.getInteger()));
+        add(system, tb, new Operator("Max", new Signature(ListType.of(systemModel.getLong())), systemModel.getLong()));
+        add(system, tb, new Operator("Max", new Signature(ListType.of(systemModel.getDecimal())), systemModel.getDecimal()));
+        add(system, tb, new Operator("Max", new Signature(ListType.of(systemModel.getQuantity())), systemModel.getQuantity()));
+        add(system, tb, new Operator("Max", new Signature(ListType.of(systemModel.getDateTime())), systemModel.getDateTime()));
+        add(system, tb, new Operator("Max", new Signature(ListType.of(systemModel.getDate())), systemModel.getDate()));
+        add(system, tb, new Operator("Max", new Signature(ListType.of(systemModel.getTime())), systemModel.getTime()));
+        add(system, tb, new Operator("Max", new Signature(ListType.of(systemModel.getString())), systemModel.getString()));
+        add(system, tb, new Operator("Min", new Signature(ListType.of(systemModel.getInteger())), systemModel.getInteger()));
+        add(system, tb, new Operator("Min", new Signature(ListType.of(systemModel.getLong())), systemModel.getLong()));
+        add(system, tb, new Operator("Min", new Signature(ListType.of(systemModel.getDecimal())), systemModel.getDecimal()));
+        add(system, tb, new Operator("Min", new Signature(ListType.of(systemModel.getQuantity())), systemModel.getQuantity()));
+        add(system, tb, new Operator("Min", new Signature(ListType.of(systemModel.getDateTime())), systemModel.getDateTime()));
+        add(system, tb, new Operator("Min", new Signature(ListType.of(systemModel.getDate())), systemModel.getDate()));
+        add(system, tb, new Operator("Min", new Signature(ListType.of(systemModel.getTime())), systemModel.getTime()));
+        add(system, tb, new Operator("Min", new Signature(ListType.of(systemModel.getString())), systemModel.getString()));
+        add(system, tb, new Operator("Median", new Signature(ListType.of(systemModel.getDecimal())), systemModel.getDecimal()));
+        add(system, tb, new Operator("Median", new Signature(ListType.of(systemModel.getQuantity())), systemModel.getQuantity()));
         // Mode<T>(list<T>) : T
-        add(system, tb, new GenericOperator("Mode", new Signature(new ListType(new TypeParameter("T"))), new TypeParameter("T"), new TypeParameter("T")));
-        add(system, tb, new Operator("PopulationStdDev", new Signature(new ListType(systemModel.getDecimal())), systemModel.getDecimal()));
-        add(system, tb, new Operator("PopulationStdDev", new Signature(new ListType(systemModel.getQuantity())), systemModel.getQuantity()));
-        add(system, tb, new Operator("PopulationVariance", new Signature(new ListType(systemModel.getDecimal())), systemModel.getDecimal()));
-        add(system, tb, new Operator("PopulationVariance", new Signature(new ListType(systemModel.getQuantity())), systemModel.getQuantity()));
-        add(system, tb, new Operator("Product", new Signature(new ListType(systemModel.getInteger())), systemModel.getInteger()));
-        add(system, tb, new Operator("Product", new Signature(new ListType(systemModel.getLong())), systemModel.getLong()));
-        add(system, tb, new Operator("Product", new Signature(new ListType(systemModel.getDecimal())), systemModel.getDecimal()));
-        add(system, tb, new Operator("Product", new Signature(new ListType(systemModel.getQuantity())), systemModel.getQuantity()));
-        add(system, tb, new Operator("StdDev", new Signature(new ListType(systemModel.getDecimal())), systemModel.getDecimal()));
-        add(system, tb, new Operator("StdDev", new Signature(new ListType(systemModel.getQuantity())), systemModel.getQuantity()));
-        add(system, tb, new Operator("Sum", new Signature(new ListType(systemModel.getInteger())), systemModel.getInteger()));
-        add(system, tb, new Operator("Sum", new Signature(new ListType(systemModel.getLong())), systemModel.getLong()));
-        add(system, tb, new Operator("Sum", new Signature(new ListType(systemModel.getDecimal())), systemModel.getDecimal()));
-        add(system, tb, new Operator("Sum", new Signature(new ListType(systemModel.getQuantity())), systemModel.getQuantity()));
-        add(system, tb, new Operator("Variance", new Signature(new ListType(systemModel.getDecimal())), systemModel.getDecimal()));
-        add(system, tb, new Operator("Variance", new Signature(new ListType(systemModel.getQuantity())), systemModel.getQuantity()));
+        add(system, tb, new GenericOperator("Mode", new Signature(ListType.of(new TypeParameter("T"))), new TypeParameter("T"), new TypeParameter("T")));
+        add(system, tb, new Operator("PopulationStdDev", new Signature(ListType.of(systemModel.getDecimal())), systemModel.getDecimal()));
+        add(system, tb, new Operator("PopulationStdDev", new Signature(ListType.of(systemModel.getQuantity())), systemModel.getQuantity()));
+        add(system, tb, new Operator("PopulationVariance", new Signature(ListType.of(systemModel.getDecimal())), systemModel.getDecimal()));
+        add(system, tb, new Operator("PopulationVariance", new Signature(ListType.of(systemModel.getQuantity())), systemModel.getQuantity()));
+        add(system, tb, new Operator("Product", new Signature(ListType.of(systemModel.getInteger())), systemModel.getInteger()));
+        add(system, tb, new Operator("Product", new Signature(ListType.of(systemModel.getLong())), systemModel.getLong()));
+        add(system, tb, new Operator("Product", new Signature(ListType.of(systemModel.getDecimal())), systemModel.getDecimal()));
+        add(system, tb, new Operator("Product", new Signature(ListType.of(systemModel.getQuantity())), systemModel.getQuantity()));
+        add(system, tb, new Operator("StdDev", new Signature(ListType.of(systemModel.getDecimal())), systemModel.getDecimal()));
+        add(system, tb, new Operator("StdDev", new Signature(ListType.of(systemModel.getQuantity())), systemModel.getQuantity()));
+        add(system, tb, new Operator("Sum", new Signature(ListType.of(systemModel.getInteger())), systemModel.getInteger()));
+        add(system, tb, new Operator("Sum", new Signature(ListType.of(systemModel.getLong())), systemModel.getLong()));
+        add(system, tb, new Operator("Sum", new Signature(ListType.of(systemModel.getDecimal())), systemModel.getDecimal()));
+        add(system, tb, new Operator("Sum", new Signature(ListType.of(systemModel.getQuantity())), systemModel.getQuantity()));
+        add(system, tb, new Operator("Variance", new Signature(ListType.of(systemModel.getDecimal())), systemModel.getDecimal()));
+        add(system, tb, new Operator("Variance", new Signature(ListType.of(systemModel.getQuantity())), systemModel.getQuantity()));
 
         // Clinical
         // ToConcept(Code)
@@ -703,7 +703,7 @@ public class SystemLibraryHelper {
         add(system, tb, codeToConcept);
         add(system, tb, new Conversion(codeToConcept, true));
         // ToConcept(list<Code>)
-        Operator codesToConcept = new Operator("ToConcept", new Signature(new ListType(systemModel.getCode())), systemModel.getConcept());
+        Operator codesToConcept = new Operator("ToConcept", new Signature(ListType.of(systemModel.getCode())), systemModel.getConcept());
         add(system, tb, codesToConcept);
         add(system, tb, new Conversion(codesToConcept, false));
 
@@ -720,13 +720,13 @@ public class SystemLibraryHelper {
         add(system, tb, new Operator("InValueSet", new Signature(systemModel.getCode(), systemModel.getValueSet()), systemModel.getBoolean()));
         add(system, tb, new Operator("InValueSet", new Signature(systemModel.getConcept(), systemModel.getValueSet()), systemModel.getBoolean()));
 
-        add(system, tb, new Operator("AnyInValueSet", new Signature(new ListType(systemModel.getString())), systemModel.getBoolean()));
-        add(system, tb, new Operator("AnyInValueSet", new Signature(new ListType(systemModel.getCode())), systemModel.getBoolean()));
-        add(system, tb, new Operator("AnyInValueSet", new Signature(new ListType(systemModel.getConcept())), systemModel.getBoolean()));
+        add(system, tb, new Operator("AnyInValueSet", new Signature(ListType.of(systemModel.getString())), systemModel.getBoolean()));
+        add(system, tb, new Operator("AnyInValueSet", new Signature(ListType.of(systemModel.getCode())), systemModel.getBoolean()));
+        add(system, tb, new Operator("AnyInValueSet", new Signature(ListType.of(systemModel.getConcept())), systemModel.getBoolean()));
 
-        add(system, tb, new Operator("AnyInValueSet", new Signature(new ListType(systemModel.getString()), systemModel.getValueSet()), systemModel.getBoolean()));
-        add(system, tb, new Operator("AnyInValueSet", new Signature(new ListType(systemModel.getCode()), systemModel.getValueSet()), systemModel.getBoolean()));
-        add(system, tb, new Operator("AnyInValueSet", new Signature(new ListType(systemModel.getConcept()), systemModel.getValueSet()), systemModel.getBoolean()));
+        add(system, tb, new Operator("AnyInValueSet", new Signature(ListType.of(systemModel.getString()), systemModel.getValueSet()), systemModel.getBoolean()));
+        add(system, tb, new Operator("AnyInValueSet", new Signature(ListType.of(systemModel.getCode()), systemModel.getValueSet()), systemModel.getBoolean()));
+        add(system, tb, new Operator("AnyInValueSet", new Signature(ListType.of(systemModel.getConcept()), systemModel.getValueSet()), systemModel.getBoolean()));
 
         add(system, tb, new Operator("InCodeSystem", new Signature(systemModel.getString()), systemModel.getBoolean()));
         add(system, tb, new Operator("InCodeSystem", new Signature(systemModel.getCode()), systemModel.getBoolean()));
@@ -736,15 +736,15 @@ public class SystemLibraryHelper {
         add(system, tb, new Operator("InCodeSystem", new Signature(systemModel.getCode(), systemModel.getCodeSystem()), systemModel.getBoolean()));
         add(system, tb, new Operator("InCodeSystem", new Signature(systemModel.getConcept(), systemModel.getCodeSystem()), systemModel.getBoolean()));
 
-        add(system, tb, new Operator("AnyInCodeSystem", new Signature(new ListType(systemModel.getString())), systemModel.getBoolean()));
-        add(system, tb, new Operator("AnyInCodeSystem", new Signature(new ListType(systemModel.getCode())), systemModel.getBoolean()));
-        add(system, tb, new Operator("AnyInCodeSystem", new Signature(new ListType(systemModel.getConcept())), systemModel.getBoolean()));
+        add(system, tb, new Operator("AnyInCodeSystem", new Signature(ListType.of(systemModel.getString())), systemModel.getBoolean()));
+        add(system, tb, new Operator("AnyInCodeSystem", new Signature(ListType.of(systemModel.getCode())), systemModel.getBoolean()));
+        add(system, tb, new Operator("AnyInCodeSystem", new Signature(ListType.of(systemModel.getConcept())), systemModel.getBoolean()));
 
-        add(system, tb, new Operator("AnyInCodeSystem", new Signature(new ListType(systemModel.getString()), systemModel.getCodeSystem()), systemModel.getBoolean()));
-        add(system, tb, new Operator("AnyInCodeSystem", new Signature(new ListType(systemModel.getCode()), systemModel.getCodeSystem()), systemModel.getBoolean()));
-        add(system, tb, new Operator("AnyInCodeSystem", new Signature(new ListType(systemModel.getConcept()), systemModel.getCodeSystem()), systemModel.getBoolean()));
+        add(system, tb, new Operator("AnyInCodeSystem", new Signature(ListType.of(systemModel.getString()), systemModel.getCodeSystem()), systemModel.getBoolean()));
+        add(system, tb, new Operator("AnyInCodeSystem", new Signature(ListType.of(systemModel.getCode()), systemModel.getCodeSystem()), systemModel.getBoolean()));
+        add(system, tb, new Operator("AnyInCodeSystem", new Signature(ListType.of(systemModel.getConcept()), systemModel.getCodeSystem()), systemModel.getBoolean()));
 
-        Operator expandValueSet = new Operator("ExpandValueSet", new Signature(systemModel.getValueSet()), new ListType(systemModel.getCode()));
+        Operator expandValueSet = new Operator("ExpandValueSet", new Signature(systemModel.getValueSet()), ListType.of(systemModel.getCode()));
         add(system, tb, expandValueSet);
         add(system, tb, new Conversion(expandValueSet, true));
 
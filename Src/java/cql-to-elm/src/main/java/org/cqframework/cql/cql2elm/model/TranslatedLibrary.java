@@ -12,10 +12,31 @@ import java.util.List;
 public class TranslatedLibrary {
     private VersionedIdentifier identifier;
     private Library library;
-    private final Map<String, Element> namespace = new HashMap<>();
-    private final OperatorMap operators = new OperatorMap();
-    private final Map<Operator, FunctionDef> functionDefs = new HashMap<>();
-    private final java.util.List<Conversion> conversions = new ArrayList<>();
+    private final Map<String, Element> namespace;
+    private final OperatorMap operators;
+    private final Map<Operator, FunctionDef> functionDefs;
+    private final java.util.List<Conversion> conversions;
+
+    public TranslatedLibrary() {
+        namespace = new HashMap<>();
+        operators = new OperatorMap();
+        functionDefs = new HashMap<>();
+        conversions = new ArrayList<>();
+    }
+
+    /**
+     * Creates an overlay of the given library for use by a single translation. The overlay shares the definitions of
+     * the library, which should not be added to, and resolves operators against an overlay of its operator map, so
+     * that operators instantiated during resolution are registered in the overlay rather than the shared library.
+     */
+    public TranslatedLibrary(TranslatedLibrary library) {
+        identifier = library.identifier;
+        this.library = library.library;
+        namespace = library.namespace;
+        operators = new OperatorMap(library.operators);
+        functionDefs = library.functionDefs;
+        conversions = library.conversions;
+    }
 
     public VersionedIdentifier getIdentifier() {
         return identifier;
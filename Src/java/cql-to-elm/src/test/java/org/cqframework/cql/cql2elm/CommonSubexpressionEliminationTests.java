@@ -0,0 +1,89 @@
+package org.cqframework.cql.cql2elm;
+
+import org.hl7.cql.model.ListType;
+import org.hl7.elm.r1.*;
+import org.testng.annotations.Test;
+
+import javax.xml.bind.JAXBException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class CommonSubexpressionEliminationTests {
+
+    private static final String TEXT = String.join("\n",
+            "library Test version '1.0'",
+            "using FHIR version '4.0.1'",
+            "valueset \"Inpatient\": 'http://example.org/fhir/ValueSet/inpatient'",
+            "valueset \"Diabetes\": 'http://example.org/fhir/ValueSet/diabetes'",
+            "context Patient",
+            "define \"Diabetes Conditions\": [Condition: \"Diabetes\"]",
+            "define \"Has Diabetes\": exists [Condition: \"Diabetes\"]",
+            "define \"Identified Encounters\": [Encounter: \"Inpatient\"] E where E.id is not null",
+            "define \"Encounter Count\": Count([Encounter: \"Inpatient\"] E where E.id is not null)",
+            "define \"Any Encounters\": exists [Encounter: \"Inpatient\"]",
+            "define \"Identified Conditions\": [Condition] C where C.id is not null",
+            "define \"Identified Observations\": [Observation] O where O.id is not null");
+
+    private static CqlTranslator translate(CqlTranslator.Options... options) {
+        ModelManager modelManager = new ModelManager();
+        CqlTranslator translator = CqlTranslator.fromText(TEXT, modelManager, new LibraryManager(modelManager), options);
+        assertThat(translator.getErrors().toString(), translator.getErrors(), empty());
+        return translator;
+    }
+
+    private static int countRetrieves(Library library) throws JAXBException {
+        return CqlTranslator.convertToXml(library).split("xsi:type=\"Retrieve\"", -1).length - 1;
+    }
+
+    private static ExpressionDef getDef(Library library, String name) {
+        for (ExpressionDef def : library.getStatements().getDef()) {
+            if (def.getName().equals(name)) {
+                return def;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testDisabledByDefault() throws JAXBException {
+        // The library also retrieves the patient for the context, which is not reported as a retrieve
+        CqlTranslator translator = translate();
+        assertThat(countRetrieves(translator.toELM()), is(8));
+        assertThat(translator.toRetrieves(), hasSize(7));
+        assertThat(translator.getCollapsedRetrieveCount(), is(0));
+    }
+
+    @Test
+    public void testDuplicateRetrievesAreShared() throws JAXBException {
+        CqlTranslator translator = translate(CqlTranslator.Options.EnableCommonSubexpressionElimination);
+        Library library = translator.toELM();
+        assertThat(translator.getCollapsedRetrieveCount(), is(3));
+        assertThat(countRetrieves(library), is(5));
+        assertThat(translator.toRetrieves(), hasSize(4));
+
+        // A retrieve that is the expression of a definition is shared by referring to that definition
+        Exists hasDiabetes = (Exists)getDef(library, "Has Diabetes").getExpression();
+        assertThat(hasDiabetes.getOperand(), instanceOf(ExpressionRef.class));
+        assertThat(((ExpressionRef)hasDiabetes.getOperand()).getName(), is("Diabetes Conditions"));
+
+        // As is a query, whose retrieve is then shared with the other definition it appears in
+        Count count = (Count)getDef(library, "Encounter Count").getExpression();
+        assertThat(((ExpressionRef)count.getSource()).getName(), is("Identified Encounters"));
+        Query query = (Query)getDef(library, "Identified Encounters").getExpression();
+        ExpressionRef source = (ExpressionRef)query.getSource().get(0).getExpression();
+        ExpressionDef shared = getDef(library, source.getName());
+        assertThat(shared.getName(), is("Shared Retrieve 1"));
+        assertThat(shared.getAccessLevel(), is(AccessModifier.PRIVATE));
+        assertThat(shared.getContext(), is("Patient"));
+        assertThat(shared.getExpression(), instanceOf(Retrieve.class));
+        assertThat(shared.getResultType(), instanceOf(ListType.class));
+        assertThat(source.getResultType(), is(shared.getResultType()));
+        Exists anyEncounters = (Exists)getDef(library, "Any Encounters").getExpression();
+        assertThat(((ExpressionRef)anyEncounters.getOperand()).getName(), is("Shared Retrieve 1"));
+
+        // The where clauses of the other queries refer to their aliases, so are not shared
+        assertThat(library.getStatements().getDef(), hasSize(9));
+        assertThat(getDef(library, "Identified Conditions").getExpression(), instanceOf(Query.class));
+    }
+}
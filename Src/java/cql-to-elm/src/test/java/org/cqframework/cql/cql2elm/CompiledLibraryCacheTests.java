@@ -0,0 +1,342 @@
+package org.cqframework.cql.cql2elm;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.cqframework.cql.cql2elm.model.TranslatedLibrary;
+import org.hl7.cql.model.ListType;
+import org.hl7.elm.r1.*;
+import org.hl7.elm_modelinfo.r1.ClassInfo;
+import org.hl7.elm_modelinfo.r1.ModelInfo;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class CompiledLibraryCacheTests {
+
+    private static final String COMMON = String.join("\n",
+            "library Common version '1.0'",
+            "using FHIR version '4.0.1'",
+            "codesystem \"LOINC\": 'http://loinc.org'",
+            "code \"Glucose\": '2345-7' from \"LOINC\"",
+            "parameter \"Threshold\" Integer default 5",
+            "context Patient",
+            "define \"Numbers\": { 1, 2, 3 }",
+            "define \"Range\": Interval[1, 10]",
+            "define \"Pair\": Tuple { id: 'a', n: 1 }",
+            "define \"Observations\": [Observation]",
+            "define function \"Add\"(a Integer, b Integer): a + b",
+            "define function \"Status\"(o FHIR.Observation): o.status",
+            "define fluent function \"Twice\"(a Integer): a * 2");
+
+    private static final String MIDDLE = String.join("\n",
+            "library Middle version '1.0'",
+            "include Common version '1.0' called C",
+            "define \"Doubled\": C.\"Add\"(C.\"Threshold\", C.\"Threshold\")");
+
+    private static final String MAIN = String.join("\n",
+            "library Main",
+            "using FHIR version '4.0.1'",
+            "include Common version '1.0' called C",
+            "include Middle version '1.0' called M",
+            "context Patient",
+            "define \"Sum\": C.\"Add\"(1, 2)",
+            "define \"Count\": Count(C.\"Numbers\")",
+            "define \"N\": C.\"Pair\".n",
+            "define \"Twice\": 3.Twice()",
+            "define \"InRange\": 5 in C.\"Range\"",
+            "define \"Code\": C.\"Glucose\"",
+            "define \"Statuses\": C.\"Observations\" O return C.\"Status\"(O)",
+            "define \"Doubled\": M.\"Doubled\" + 1");
+
+    private static class MemoryLibrarySourceProvider implements LibrarySourceProvider {
+        final Map<String, String> sources = new HashMap<>();
+
+        @Override
+        public InputStream getLibrarySource(VersionedIdentifier libraryIdentifier) {
+            String source = sources.get(libraryIdentifier.getId());
+            return source != null ? new ByteArrayInputStream(source.getBytes(StandardCharsets.UTF_8)) : null;
+        }
+    }
+
+    private static class CountingCache extends DirectoryCompiledLibraryCache {
+        CountingCache(Path directory) {
+            super(directory);
+        }
+
+        int hits;
+        int puts;
+        int removes;
+
+        @Override
+        public InputStream getLibrary(VersionedIdentifier libraryIdentifier) throws IOException {
+            InputStream result = super.getLibrary(libraryIdentifier);
+            if (result != null) {
+                hits++;
+            }
+            return result;
+        }
+
+        @Override
+        public void putLibrary(VersionedIdentifier libraryIdentifier, byte[] content) throws IOException {
+            puts++;
+            super.putLibrary(libraryIdentifier, content);
+        }
+
+        @Override
+        public void removeLibrary(VersionedIdentifier libraryIdentifier) throws IOException {
+            removes++;
+            super.removeLibrary(libraryIdentifier);
+        }
+    }
+
+    private static CqlTranslator translate(MemoryLibrarySourceProvider provider, CompiledLibraryCache cache) {
+        return translate(provider, cache, null);
+    }
+
+    private static CqlTranslator translate(MemoryLibrarySourceProvider provider, CompiledLibraryCache cache,
+                                           ModelInfoProvider modelInfoProvider) {
+        ModelManager modelManager = new ModelManager();
+        if (modelInfoProvider != null) {
+            modelManager.getModelInfoLoader().registerModelInfoProvider(modelInfoProvider);
+        }
+        LibraryManager libraryManager = new LibraryManager(modelManager).withCompiledLibraryCache(cache);
+        libraryManager.getLibrarySourceLoader().registerProvider(provider);
+        CqlTranslator translator = CqlTranslator.fromText(provider.sources.get("Main"), modelManager, libraryManager);
+        assertThat(translator.getErrors().toString(), translator.getErrors(), empty());
+        return translator;
+    }
+
+    private static MemoryLibrarySourceProvider createProvider() {
+        MemoryLibrarySourceProvider provider = new MemoryLibrarySourceProvider();
+        provider.sources.put("Common", COMMON);
+        provider.sources.put("Middle", MIDDLE);
+        provider.sources.put("Main", MAIN);
+        return provider;
+    }
+
+    @Test
+    public void testUnchangedLibrariesAreLoaded() throws IOException {
+        Path directory = Files.createTempDirectory("compiled-library-cache");
+        MemoryLibrarySourceProvider provider = createProvider();
+
+        CountingCache cache = new CountingCache(directory);
+        CqlTranslator first = translate(provider, cache);
+        assertThat(cache.puts, is(2));
+        assertThat(cache.hits, is(0));
+
+        cache = new CountingCache(directory);
+        CqlTranslator second = translate(provider, cache);
+        assertThat(cache.hits, is(2));
+        assertThat(cache.puts, is(0));
+        assertThat(cache.removes, is(0));
+        assertThat(second.toXml(), is(first.toXml()));
+
+        // The loaded libraries have the result types of the translated definitions
+        TranslatedLibrary translated = first.getTranslatedLibraries().get("Common");
+        TranslatedLibrary loaded = second.getTranslatedLibraries().get("Common");
+        assertThat(loaded, not(sameInstance(translated)));
+        List<Element> translatedElements = CompiledLibraryEntry.getTypedElements(translated.getLibrary());
+        List<Element> loadedElements = CompiledLibraryEntry.getTypedElements(loaded.getLibrary());
+        assertThat(loadedElements.size(), is(translatedElements.size()));
+        for (int i = 0; i < loadedElements.size(); i++) {
+            assertThat(loadedElements.get(i).getResultType(), is(translatedElements.get(i).getResultType()));
+        }
+        assertThat(loaded.getLibrary(), is(translated.getLibrary()));
+    }
+
+    @Test
+    public void testChangedLibrariesAreTranslated() throws IOException {
+        Path directory = Files.createTempDirectory("compiled-library-cache");
+        MemoryLibrarySourceProvider provider = createProvider();
+        translate(provider, new CountingCache(directory));
+
+        // Changing Common invalidates both Common and Middle, which includes it
+        provider.sources.put("Common", COMMON + "\ndefine \"Added\": 1");
+        CountingCache cache = new CountingCache(directory);
+        translate(provider, cache);
+        assertThat(cache.removes, is(2));
+        assertThat(cache.puts, is(2));
+
+        // Different translator options invalidate the entries
+        cache = new CountingCache(directory);
+        ModelManager modelManager = new ModelManager();
+        LibraryManager libraryManager = new LibraryManager(modelManager).withCompiledLibraryCache(cache);
+        libraryManager.getLibrarySourceLoader().registerProvider(provider);
+        CqlTranslator translator = CqlTranslator.fromText(MAIN, modelManager, libraryManager, CqlTranslator.Options.EnableAnnotations);
+        assertThat(translator.getErrors(), empty());
+        assertThat(cache.puts, is(2));
+
+        cache = new CountingCache(directory);
+        translate(provider, cache);
+        assertThat(cache.puts, is(2));
+        cache = new CountingCache(directory);
+        translate(provider, cache);
+        assertThat(cache.puts, is(0));
+        assertThat(cache.hits, is(2));
+
+        // The error level determines the errors recorded in the ELM, so a different error level invalidates the entries
+        cache = new CountingCache(directory);
+        modelManager = new ModelManager();
+        libraryManager = new LibraryManager(modelManager).withCompiledLibraryCache(cache);
+        libraryManager.getLibrarySourceLoader().registerProvider(provider);
+        translator = CqlTranslator.fromText(MAIN, modelManager, libraryManager, CqlTranslatorException.ErrorSeverity.Warning);
+        assertThat(translator.getErrors(), empty());
+        assertThat(cache.puts, is(2));
+    }
+
+    @Test
+    public void testWarningsOfLoadedLibrariesAreReported() throws IOException {
+        Path directory = Files.createTempDirectory("compiled-library-cache");
+        MemoryLibrarySourceProvider provider = new MemoryLibrarySourceProvider();
+        // Patient has no primary code path, so the retrieve is translated with a warning
+        provider.sources.put("Warned", String.join("\n",
+                "library Warned version '1.0'",
+                "using FHIR version '4.0.1'",
+                "valueset \"Patients\": 'http://example.org/ValueSet/patients'",
+                "context Patient",
+                "define \"Warned Patients\": [Patient: \"Patients\"]"));
+        provider.sources.put("Main", String.join("\n",
+                "library Main",
+                "using FHIR version '4.0.1'",
+                "include Warned version '1.0' called W",
+                "context Patient",
+                "define \"Count\": Count(W.\"Warned Patients\")"));
+
+        CountingCache cache = new CountingCache(directory);
+        CqlTranslator translated = translate(provider, cache);
+        assertThat(cache.puts, is(1));
+        assertThat(translated.getWarnings(), not(empty()));
+
+        // The including library records the warnings of the included library whether it is translated or loaded
+        cache = new CountingCache(directory);
+        CqlTranslator loaded = translate(provider, cache);
+        assertThat(cache.hits, is(1));
+        assertThat(loaded.toXml(), is(translated.toXml()));
+        assertThat(loaded.getExceptions().size(), is(translated.getExceptions().size()));
+        for (int i = 0; i < translated.getExceptions().size(); i++) {
+            CqlTranslatorException expected = translated.getExceptions().get(i);
+            CqlTranslatorException actual = loaded.getExceptions().get(i);
+            assertThat(actual.getClass().getName(), is(expected.getClass().getName()));
+            assertThat(actual.getMessage(), is(expected.getMessage()));
+            assertThat(actual.getSeverity(), is(expected.getSeverity()));
+            assertThat(actual.getLocator(), is(expected.getLocator()));
+        }
+    }
+
+    @Test
+    public void testChangedModelsInvalidateEntries() throws IOException {
+        Path directory = Files.createTempDirectory("compiled-library-cache");
+        MemoryLibrarySourceProvider provider = new MemoryLibrarySourceProvider();
+        provider.sources.put("Medications", String.join("\n",
+                "library Medications version '1.0'",
+                "using Test",
+                "context Patient",
+                "define \"Statements\": [MedicationStatement]"));
+        provider.sources.put("Main", String.join("\n",
+                "library Main",
+                "using Test",
+                "include Medications version '1.0' called M",
+                "context Patient",
+                "define \"Statements\": M.\"Statements\""));
+
+        // The model information changes without a change to the name or version of the model
+        boolean[] changed = { false };
+        ModelInfoProvider modelInfoProvider = modelIdentifier -> {
+            ModelInfo modelInfo = new TestModelInfoProvider().load(modelIdentifier);
+            if (modelInfo != null && changed[0]) {
+                modelInfo.getTypeInfo().add(new ClassInfo().withName("Test.Added").withBaseType("System.Any"));
+            }
+            return modelInfo;
+        };
+
+        CountingCache cache = new CountingCache(directory);
+        translate(provider, cache, modelInfoProvider);
+        assertThat(cache.puts, is(1));
+
+        cache = new CountingCache(directory);
+        translate(provider, cache, modelInfoProvider);
+        assertThat(cache.hits, is(1));
+        assertThat(cache.puts, is(0));
+
+        changed[0] = true;
+        cache = new CountingCache(directory);
+        translate(provider, cache, modelInfoProvider);
+        assertThat(cache.removes, is(1));
+        assertThat(cache.puts, is(1));
+    }
+
+    @Test
+    public void testEntriesFromOtherTranslatorVersionsAreReplaced() throws IOException {
+        Path directory = Files.createTempDirectory("compiled-library-cache");
+        MemoryLibrarySourceProvider provider = createProvider();
+        CountingCache cache = new CountingCache(directory);
+        translate(provider, cache);
+
+        VersionedIdentifier common = new VersionedIdentifier().withId("Common").withVersion("1.0");
+        ObjectNode entry;
+        try (InputStream input = cache.getLibrary(common)) {
+            entry = (ObjectNode)new ObjectMapper().readTree(input);
+        }
+        entry.put("translatorVersion", CompiledLibraryEntry.getTranslatorVersion() + "-other");
+        cache.putLibrary(common, new ObjectMapper().writeValueAsBytes(entry));
+
+        cache = new CountingCache(directory);
+        translate(provider, cache);
+        assertThat(cache.removes, is(1));
+        assertThat(cache.puts, is(1));
+    }
+
+    @Test
+    public void testModelVersionsOfLoadedLibraries() throws IOException {
+        Path directory = Files.createTempDirectory("compiled-library-cache");
+        MemoryLibrarySourceProvider provider = createProvider();
+        translate(provider, new CountingCache(directory));
+
+        // Loading a library is the first use of the model manager, so the library's usings determine the versions loaded
+        CountingCache cache = new CountingCache(directory);
+        ModelManager modelManager = new ModelManager();
+        LibraryManager libraryManager = new LibraryManager(modelManager).withCompiledLibraryCache(cache);
+        libraryManager.getLibrarySourceLoader().registerProvider(provider);
+        List<CqlTranslatorException> errors = new ArrayList<>();
+        TranslatedLibrary loaded = libraryManager.resolveLibrary(new VersionedIdentifier().withId("Common").withVersion("1.0"),
+                new CqlTranslatorOptions(CqlTranslatorException.ErrorSeverity.Info, LibraryBuilder.SignatureLevel.None), errors);
+        assertThat(errors, empty());
+        assertThat(cache.hits, is(1));
+        assertThat(cache.puts, is(0));
+        assertThat(modelManager.resolveModel("FHIR").getModelInfo().getVersion(), is("4.0.1"));
+        ExpressionDef observations = loaded.resolveExpressionRef("Observations");
+        assertThat(observations.getResultType(), is(ListType.of(modelManager.resolveModel("FHIR").resolveTypeName("FHIR.Observation"))));
+
+        CqlTranslator translator = CqlTranslator.fromText(MAIN, modelManager, libraryManager);
+        assertThat(translator.getErrors().toString(), translator.getErrors(), empty());
+    }
+
+    @Test
+    public void testInvalidEntriesAreReplaced() throws IOException {
+        Path directory = Files.createTempDirectory("compiled-library-cache");
+        MemoryLibrarySourceProvider provider = createProvider();
+        CountingCache cache = new CountingCache(directory);
+        translate(provider, cache);
+
+        cache.putLibrary(new VersionedIdentifier().withId("Common"), "{ \"elm\" : ".getBytes(StandardCharsets.UTF_8));
+        cache = new CountingCache(directory);
+        translate(provider, cache);
+        assertThat(cache.removes, is(1));
+        assertThat(cache.puts, is(1));
+
+        // The replaced entry has the same fingerprint, so the entry for Middle is still valid
+        assertThat(cache.hits, is(2));
+    }
+}
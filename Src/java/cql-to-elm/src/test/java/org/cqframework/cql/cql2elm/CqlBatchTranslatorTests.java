@@ -0,0 +1,57 @@
+package org.cqframework.cql.cql2elm;
+
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class CqlBatchTranslatorTests {
+
+    private static Path copyResource(String name, Path directory) throws IOException {
+        Path path = directory.resolve(name);
+        try (InputStream is = CqlBatchTranslatorTests.class.getResourceAsStream("LibraryTests/" + name)) {
+            Files.copy(is, path);
+        }
+        return path;
+    }
+
+    @Test
+    public void testScanHeader() throws IOException {
+        Path directory = Files.createTempDirectory("cql-batch");
+        CqlBatchTranslator.LibraryHeader header = CqlBatchTranslator.scanHeader(copyResource("ReferencingLibrary.cql", directory));
+        assertThat(header.name, is("ReferencingLibrary"));
+        assertThat(header.includes, contains("BaseLibrary"));
+    }
+
+    @Test
+    public void testBatchTranslation() throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("cql-batch");
+        Map<Path, Path> inOutMap = new LinkedHashMap<>();
+        for (String name : new String[] { "ReferencingLibrary", "BaseLibrary", "TestFluent1", "TestFluent2" }) {
+            inOutMap.put(copyResource(name + ".cql", directory), directory.resolve(name + ".json"));
+        }
+
+        List<CqlBatchTranslator.FileResult> results = new CqlBatchTranslator(new CqlTranslatorOptions(),
+                CqlTranslator.Format.JSON, 4).translate(inOutMap);
+
+        assertThat(results.size(), is(4));
+        List<String> completed = new ArrayList<>();
+        for (CqlBatchTranslator.FileResult result : results) {
+            assertThat(result.getInput().toString(), result.isSuccess(), is(true));
+            assertThat(Files.exists(result.getOutput()), is(true));
+            completed.add(result.getInput().getFileName().toString());
+        }
+
+        // Included libraries in the batch are translated before the libraries that include them
+        assertThat(completed.indexOf("BaseLibrary.cql"), lessThan(completed.indexOf("ReferencingLibrary.cql")));
+    }
+}
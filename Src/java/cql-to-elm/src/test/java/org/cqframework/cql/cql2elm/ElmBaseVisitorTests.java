@@ -0,0 +1,112 @@
+package org.cqframework.cql.cql2elm;
+
+import org.cqframework.cql.elm.tracking.Trackable;
+import org.cqframework.cql.elm.visiting.ElmBaseLibraryVisitor;
+import org.hl7.elm.r1.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.cqframework.cql.cql2elm.TestUtils.runSemanticTest;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class ElmBaseVisitorTests {
+    private static final Logger logger = LoggerFactory.getLogger(ElmBaseVisitorTests.class);
+
+    private static class NodeCountingVisitor extends ElmBaseLibraryVisitor<Integer, Void> {
+        @Override
+        protected Integer defaultResult(Trackable elm, Void context) {
+            return 1;
+        }
+
+        @Override
+        protected Integer aggregateResult(Integer aggregate, Integer nextResult) {
+            return (aggregate == null ? 0 : aggregate) + (nextResult == null ? 0 : nextResult);
+        }
+    }
+
+    private static class CountingVisitor extends ElmBaseLibraryVisitor<Integer, Void> {
+        final Map<Class<?>, Integer> defaultCounts = new HashMap<>();
+        int equalCount;
+        int retrieveCount;
+
+        @Override
+        protected Integer defaultResult(Trackable elm, Void context) {
+            if (elm != null) {
+                defaultCounts.merge(elm.getClass(), 1, Integer::sum);
+            }
+            return 1;
+        }
+
+        @Override
+        protected Integer aggregateResult(Integer aggregate, Integer nextResult) {
+            return (aggregate == null ? 0 : aggregate) + (nextResult == null ? 0 : nextResult);
+        }
+
+        @Override
+        public Integer visitEqual(Equal elm, Void context) {
+            equalCount++;
+            return super.visitEqual(elm, context);
+        }
+
+        @Override
+        public Integer visitRetrieve(Retrieve elm, Void context) {
+            retrieveCount++;
+            return super.visitRetrieve(elm, context);
+        }
+    }
+
+    @Test
+    public void testOverridesAreDispatched() throws IOException {
+        Library library = runSemanticTest("OperatorTests/CqlComparisonOperators.cql", 0).toELM();
+        CountingVisitor visitor = new CountingVisitor();
+        visitor.visitLibrary(library, null);
+        assertThat(visitor.equalCount, greaterThan(0));
+        assertThat(visitor.equalCount, is(visitor.defaultCounts.get(Equal.class)));
+
+        visitor = new CountingVisitor();
+        visitor.visitLibrary(runSemanticTest("qicore/v411/MATGlobalCommonFunctions_QICore4-5.0.000.cql", 0).toELM(), null);
+        assertThat(visitor.retrieveCount, greaterThan(0));
+        assertThat(visitor.retrieveCount, is(visitor.defaultCounts.get(Retrieve.class)));
+    }
+
+    @Test
+    public void testSubclassesAreDispatched() {
+        // Subclasses of ELM types are dispatched to the visit method for the nearest ELM type
+        Equal equal = new Equal() { };
+        equal.getOperand().add(new Null());
+        equal.getOperand().add(new Literal() { });
+        CountingVisitor visitor = new CountingVisitor();
+        assertThat(visitor.visitElement(equal, null), is(3));
+        assertThat(visitor.equalCount, is(1));
+    }
+
+    /**
+     * Reports the time to walk a large library with a visitor that does no work other than visiting every node, so
+     * that the time is dominated by dispatch.
+     */
+    @Test(groups = "benchmark")
+    public void testVisitPerformance() throws IOException {
+        Library library = runSemanticTest("OperatorTests/IntervalOperatorPhrases.cql", 0).toELM();
+        int nodes = new NodeCountingVisitor().visitLibrary(library, null);
+
+        int iterations = 2000;
+        // The first passes warm up the visitor and are not measured
+        for (int i = 0; i < iterations; i++) {
+            new NodeCountingVisitor().visitLibrary(library, null);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            new NodeCountingVisitor().visitLibrary(library, null);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        logger.info("Visited {} nodes {} times in {} ms ({} ns per node)",
+                nodes, iterations, elapsed / 1000000, elapsed / ((long)nodes * iterations));
+    }
+}
@@ -0,0 +1,97 @@
+package org.cqframework.cql.cql2elm;
+
+import org.hl7.elm.r1.Library;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.Test;
+
+import javax.xml.bind.Unmarshaller;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class ElmJaxbTests {
+    private static final Logger logger = LoggerFactory.getLogger(ElmJaxbTests.class);
+
+    private static String getElmXml() throws IOException {
+        try (InputStream is = ElmJaxbTests.class.getResourceAsStream("ElmDeserialize/fhir/AdultOutpatientEncounters_FHIR4-2.0.000.xml")) {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = is.read(buffer)) > 0) {
+                os.write(buffer, 0, read);
+            }
+            return new String(os.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void testPerThreadUnmarshallers() throws Exception {
+        Unmarshaller unmarshaller = ElmJaxb.getElmXmlUnmarshaller();
+        assertThat(ElmJaxb.getElmXmlUnmarshaller(), sameInstance(unmarshaller));
+        assertThat(ElmXmlLibraryReader.getUnmarshaller(), sameInstance(unmarshaller));
+        assertThat(ElmJaxb.getElmJsonUnmarshaller(), not(sameInstance(unmarshaller)));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertThat(executor.submit(ElmJaxb::getElmXmlUnmarshaller).get(), not(sameInstance(unmarshaller)));
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    private static long readConcurrently(String xml, int threads, int readsPerThread) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Callable<Integer>> tasks = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                tasks.add(() -> {
+                    int count = 0;
+                    for (int j = 0; j < readsPerThread; j++) {
+                        Library library = ElmXmlLibraryReader.read(new StringReader(xml));
+                        if (library.getIdentifier().getId().equals("AdultOutpatientEncounters_FHIR4")) {
+                            count++;
+                        }
+                    }
+                    return count;
+                });
+            }
+
+            long start = System.nanoTime();
+            for (Future<Integer> result : executor.invokeAll(tasks)) {
+                assertThat(result.get(), is(readsPerThread));
+            }
+            return System.nanoTime() - start;
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Reports the time to read a library the same number of times from one thread, and spread across several threads.
+     */
+    @Test(groups = "benchmark")
+    public void testConcurrentReadPerformance() throws Exception {
+        String xml = getElmXml();
+        int threads = 4;
+        int reads = 200;
+
+        // The first pass warms up the readers and is not measured
+        readConcurrently(xml, threads, reads / threads);
+        long sequential = readConcurrently(xml, 1, reads);
+        long concurrent = readConcurrently(xml, threads, reads / threads);
+
+        logger.info("Read ELM XML {} times in {} ms from 1 thread, and in {} ms from {} threads",
+                reads, sequential / 1000000, concurrent / 1000000, threads);
+    }
+}
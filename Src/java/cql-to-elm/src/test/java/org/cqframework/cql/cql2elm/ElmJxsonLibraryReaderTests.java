@@ -0,0 +1,120 @@
+package org.cqframework.cql.cql2elm;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.module.jaxb.JaxbAnnotationModule;
+import org.cqframework.cql.cql2elm.model.serialization.LibraryWrapper;
+import org.hl7.elm.r1.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Scanner;
+
+import static org.cqframework.cql.cql2elm.TestUtils.runSemanticTest;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class ElmJxsonLibraryReaderTests {
+    private static final Logger logger = LoggerFactory.getLogger(ElmJxsonLibraryReaderTests.class);
+
+    private static final String[] RESOURCES = {
+            "ElmDeserialize/ANCFHIRDummy.json",
+            "ElmDeserialize/fhir/jxson/AdultOutpatientEncounters_FHIR4-2.0.000.json",
+            "ElmDeserialize/qdm/jxson/Adult_Outpatient_Encounters-1.2.000.json",
+            "ElmDeserialize/qdm2020/jxson/Adult_Outpatient_Encounters-1.3.000.json",
+            "LibraryTests/jxson/SupplementalDataElements_FHIR4-2.0.0.json"
+    };
+
+    private static String readResource(String name) {
+        try (Scanner scanner = new Scanner(ElmJxsonLibraryReaderTests.class.getResourceAsStream(name), StandardCharsets.UTF_8.name())) {
+            return scanner.useDelimiter("\\A").next();
+        }
+    }
+
+    // Reads a library through Jackson databinding, as the reader did previously
+    private static Library readWithDatabind(String jxson) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        mapper.registerModule(new JaxbAnnotationModule());
+        return mapper.readValue(new StringReader(jxson), LibraryWrapper.class).getLibrary();
+    }
+
+    private static String translateToJxson(String fileName) throws IOException {
+        return runSemanticTest(fileName, 0, CqlTranslator.Options.EnableAnnotations, CqlTranslator.Options.EnableLocators,
+                CqlTranslator.Options.EnableResultTypes).toJxson();
+    }
+
+    @Test
+    public void testReadMatchesDatabind() throws IOException {
+        for (String resource : RESOURCES) {
+            String jxson = readResource(resource);
+            assertThat(resource, ElmJxsonLibraryReader.read(new StringReader(jxson)), is(readWithDatabind(jxson)));
+        }
+
+        String jxson = translateToJxson("OperatorTests/IntervalOperatorPhrases.cql");
+        Library library = ElmJxsonLibraryReader.read(new StringReader(jxson));
+        assertThat(library.getAnnotation(), not(empty()));
+        assertThat(library, is(readWithDatabind(jxson)));
+
+        // Case and If have elements named with Java keywords
+        jxson = translateToJxson("Issue581.cql");
+        assertThat(jxson, containsString("\"else\""));
+        assertThat(ElmJxsonLibraryReader.read(new StringReader(jxson)), is(readWithDatabind(jxson)));
+    }
+
+    @Test
+    public void testTypeAfterProperties() throws IOException {
+        String jxson = "{ \"library\" : { \"identifier\" : { \"id\" : \"Test\", \"type\" : \"VersionedIdentifier\" }, \"type\" : \"Library\", "
+                + "\"statements\" : { \"type\" : \"Library$Statements\", \"def\" : [ { \"name\" : \"Five\", \"expression\" : { \"valueType\" : \"{urn:hl7-org:elm-types:r1}Integer\", "
+                + "\"value\" : \"5\", \"type\" : \"Literal\" }, \"type\" : \"ExpressionDef\" } ] }, \"unknown\" : [ 1, { \"a\" : 2 } ] } }";
+        Library library = ElmJxsonLibraryReader.read(new StringReader(jxson));
+        assertThat(library, is(readWithDatabind(jxson)));
+        assertThat(library.getIdentifier().getId(), is("Test"));
+        Literal literal = (Literal)library.getStatements().getDef().get(0).getExpression();
+        assertThat(literal.getValue(), is("5"));
+        assertThat(literal.getValueType().getLocalPart(), is("Integer"));
+    }
+
+    @Test
+    public void testSkipOptions() throws IOException {
+        String jxson = translateToJxson("OperatorTests/IntervalOperatorPhrases.cql");
+        Library library = ElmJxsonLibraryReader.read(new StringReader(jxson), ElmJxsonLibraryReader.Options.SkipAnnotations,
+                ElmJxsonLibraryReader.Options.SkipLocators);
+        assertThat(library.getAnnotation(), empty());
+        ExpressionDef def = library.getStatements().getDef().get(0);
+        assertThat(def.getLocator(), nullValue());
+        assertThat(def.getAnnotation(), empty());
+        assertThat(def.getName(), is(ElmJxsonLibraryReader.read(new StringReader(jxson)).getStatements().getDef().get(0).getName()));
+    }
+
+    /**
+     * Reports the time to read a large library with the streaming reader and with Jackson databinding.
+     */
+    @Test(groups = "benchmark")
+    public void testReadPerformance() throws IOException {
+        String jxson = translateToJxson("OperatorTests/IntervalOperatorPhrases.cql");
+        int iterations = 200;
+        for (int i = 0; i < iterations; i++) {
+            ElmJxsonLibraryReader.read(new StringReader(jxson));
+            readWithDatabind(jxson);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            ElmJxsonLibraryReader.read(new StringReader(jxson));
+        }
+        long streaming = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            readWithDatabind(jxson);
+        }
+        long databind = System.nanoTime() - start;
+
+        logger.info("Read {} KB of JXSON {} times: streaming {} ms, databind {} ms",
+                jxson.length() / 1024, iterations, streaming / 1000000, databind / 1000000);
+    }
+}
@@ -0,0 +1,194 @@
+package org.cqframework.cql.cql2elm;
+
+import org.cqframework.cql.cql2elm.LibraryBuilder.SignatureLevel;
+import org.cqframework.cql.cql2elm.model.TranslatedLibrary;
+import org.cqframework.cql.elm.tracking.Trackable;
+import org.cqframework.cql.elm.visiting.ElmBaseLibraryVisitor;
+import org.hl7.elm.r1.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.Test;
+
+import javax.xml.bind.JAXBException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.cqframework.cql.cql2elm.TestUtils.runSemanticTest;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class ElmTypeInferencingVisitorTests {
+
+    private static final Logger logger = LoggerFactory.getLogger(ElmTypeInferencingVisitorTests.class);
+
+    private static class ElementCollector extends ElmBaseLibraryVisitor<Void, Void> {
+        final List<Element> elements = new ArrayList<>();
+
+        @Override
+        protected Void defaultResult(Trackable elm, Void context) {
+            if (elm instanceof Element) {
+                elements.add((Element)elm);
+            }
+            return null;
+        }
+    }
+
+    private static List<Element> collect(Library library) {
+        ElementCollector collector = new ElementCollector();
+        collector.visitLibrary(library, null);
+        return collector.elements;
+    }
+
+    private static Library readBack(CqlTranslator translator, Library library) throws IOException, JAXBException {
+        Library result = ElmXmlLibraryReader.read(new StringReader(CqlTranslator.convertToXml(library)));
+        ElmTypeInferencingVisitor visitor = new ElmTypeInferencingVisitor(new ModelManager(), result,
+                includeDef -> translator.getTranslatedLibraries().get(includeDef.getPath()), null);
+        visitor.infer();
+        return result;
+    }
+
+    // Resolving the includes of a DateTime list in an earlier definition instantiates SingletonFrom for a DateTime
+    // list, as the translator considers demoting the included list, so the translator gives this definition a more
+    // specific type than it gives the other singleton from definitions. Nothing in the ELM records the instantiation.
+    private static final Set<String> unrecordedInstantiations = Collections.singleton(
+            "OperatorTests/CqlListOperators.cql: SingletonFromDateTime");
+
+    /**
+     * Checks that the type inferred for each definition of the library read back from ELM is the type the translator
+     * gave it. Only definitions are compared, as references to the library depend only on their types.
+     */
+    private static void checkInferredTypes(String fileName) throws IOException, JAXBException {
+        CqlTranslator translator = runSemanticTest(fileName, 0);
+        Library library = translator.toELM();
+        List<Element> translated = collect(library);
+        List<Element> inferred = collect(readBack(translator, library));
+        assertThat(inferred.size(), is(translated.size()));
+
+        for (int i = 0; i < translated.size(); i++) {
+            Element element = translated.get(i);
+            // The result type of an external function is only recorded in the ELM when result types are enabled
+            if (!(element instanceof ExpressionDef) || element.getResultType() == null
+                    || (element instanceof FunctionDef && Boolean.TRUE.equals(((FunctionDef)element).isExternal()))) {
+                continue;
+            }
+
+            String name = String.format("%s: %s", fileName, ((ExpressionDef)element).getName());
+            assertThat(name, inferred.get(i).getResultType(),
+                    unrecordedInstantiations.contains(name) ? notNullValue() : is(element.getResultType()));
+        }
+    }
+
+    @Test
+    public void testInferredTypesMatchTranslatedTypes() throws IOException, JAXBException {
+        for (String fileName : new String[] { "OperatorTests/ArithmeticOperators.cql", "OperatorTests/ComparisonOperators.cql",
+                "OperatorTests/CqlComparisonOperators.cql", "OperatorTests/CqlIntervalOperators.cql",
+                "OperatorTests/CqlListOperators.cql", "OperatorTests/DateTimeOperators.cql",
+                "OperatorTests/ForwardReferences.cql", "OperatorTests/Functions.cql",
+                "OperatorTests/ImplicitConversions.cql", "OperatorTests/IntervalOperatorPhrases.cql",
+                "OperatorTests/IntervalOperators.cql", "OperatorTests/ListOperators.cql",
+                "OperatorTests/LogicalOperators.cql", "OperatorTests/MessageOperators.cql",
+                "OperatorTests/MultiSourceQuery.cql", "OperatorTests/NullologicalOperators.cql",
+                "OperatorTests/Query.cql", "OperatorTests/StringOperators.cql",
+                "OperatorTests/TerminologyReferences.cql", "OperatorTests/TimeOperators.cql",
+                "OperatorTests/TupleAndClassConversions.cql", "OperatorTests/TypeOperators.cql",
+                "OperatorTests/AggregateOperators.cql", "OperatorTests/Aggregate.cql", "OperatorTests/AgeOperators.cql" }) {
+            checkInferredTypes(fileName);
+        }
+    }
+
+    @Test
+    public void testInferredModelTypesMatchTranslatedTypes() throws IOException, JAXBException {
+        for (String fileName : new String[] { "fhir/r401/TestFHIR.cql", "fhir/r401/TestChoiceTypes.cql",
+                "fhir/r401/TestFHIRHelpers.cql", "qicore/v411/MATGlobalCommonFunctions_QICore4-5.0.000.cql",
+                "qicore/v411/EXM124_QICore4-8.2.000.cql" }) {
+            checkInferredTypes(fileName);
+        }
+    }
+
+    @Test
+    public void testIncludedLibraryWithJxsonElm() throws IOException {
+        ModelManager modelManager = new ModelManager();
+        LibraryManager libraryManager = new LibraryManager(modelManager);
+        libraryManager.getLibrarySourceLoader().registerProvider(new ElmJxsonLibrarySourceProvider());
+
+        // The options must match those the ELM was translated with for it to be used
+        String text = String.join("\n",
+                "library ReferencingLibrary",
+                "using FHIR version '4.0.1'",
+                "include SupplementalDataElements_FHIR4 version '2.0.0' called SDE",
+                "context Patient",
+                "define \"SDE Ethnicity\": SDE.\"SDE Ethnicity\"",
+                "define \"SDE Payer\": SDE.\"SDE Payer\"",
+                "define \"SDE Race\": SDE.\"SDE Race\"");
+        CqlTranslator translator = CqlTranslator.fromText(text, modelManager, libraryManager, null,
+                CqlTranslatorException.ErrorSeverity.Info, SignatureLevel.All,
+                CqlTranslator.Options.EnableDateRangeOptimization, CqlTranslator.Options.EnableAnnotations,
+                CqlTranslator.Options.EnableLocators, CqlTranslator.Options.EnableResultTypes,
+                CqlTranslator.Options.DisableListDemotion, CqlTranslator.Options.DisableListPromotion,
+                CqlTranslator.Options.DisableMethodInvocation);
+        assertThat(translator.getErrors().toString(), translator.getErrors(), empty());
+
+        TranslatedLibrary included = libraryManager.getTranslatedLibraries().get("SupplementalDataElements_FHIR4");
+        assertThat(included, notNullValue());
+        for (ExpressionDef def : translator.toELM().getStatements().getDef()) {
+            ExpressionDef includedDef = included.resolveExpressionRef(def.getName());
+            if (includedDef != null) {
+                assertThat(def.getName(), includedDef.getResultType(), notNullValue());
+                assertThat(def.getName(), def.getResultType(), is(includedDef.getResultType()));
+            }
+        }
+    }
+
+    /**
+     * Reports the time to load a library from ELM, inferring its types, against the time to translate it. Both share
+     * the models and the translated included libraries, as they would in a library manager.
+     */
+    @Test(groups = "benchmark")
+    public void testInferencePerformance() throws IOException, JAXBException {
+        ModelManager modelManager = new ModelManager();
+        LibraryManager libraryManager = new LibraryManager(modelManager);
+        libraryManager.getLibrarySourceLoader().registerProvider(new TestLibrarySourceProvider("qicore/v411"));
+        libraryManager.getLibrarySourceLoader().registerProvider(new FhirLibrarySourceProvider());
+        String text = new String(Files.readAllBytes(Paths.get(URLDecoder.decode(ElmTypeInferencingVisitorTests.class
+                .getResource("qicore/v411/MATGlobalCommonFunctions_QICore4-5.0.000.cql").getFile(), "UTF-8"))), StandardCharsets.UTF_8);
+        CqlTranslator translator = CqlTranslator.fromText(text, modelManager, libraryManager);
+        assertThat(translator.getErrors(), empty());
+        String xml = CqlTranslator.convertToXml(translator.toELM());
+
+        int iterations = 10;
+        // The first passes warm up the reader and the translator and are not measured
+        for (int i = 0; i < iterations; i++) {
+            load(xml, modelManager, translator);
+            CqlTranslator.fromText(text, modelManager, libraryManager);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            load(xml, modelManager, translator);
+        }
+        long loading = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            CqlTranslator.fromText(text, modelManager, libraryManager);
+        }
+        long translating = System.nanoTime() - start;
+
+        logger.info("Loaded {} KB of ELM {} times: loading and inferring {} ms, translating {} ms",
+                xml.length() / 1024, iterations, loading / 1000000, translating / 1000000);
+    }
+
+    private static void load(String xml, ModelManager modelManager, CqlTranslator translator) throws IOException, JAXBException {
+        Library library = ElmXmlLibraryReader.read(new StringReader(xml));
+        new ElmTypeInferencingVisitor(modelManager, library,
+                includeDef -> translator.getTranslatedLibraries().get(includeDef.getPath()), null).infer();
+    }
+}
@@ -0,0 +1,179 @@
+package org.cqframework.cql.cql2elm;
+
+import org.hl7.elm.r1.*;
+import org.testng.annotations.Test;
+
+import javax.xml.bind.JAXBException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class IncrementalCqlTranslatorTests {
+
+    private static final String BASE = String.join("\n",
+            "library Test version '1.0'",
+            "parameter \"Limit\" Integer default 10",
+            "context Unfiltered",
+            "// The numbers to add up",
+            "define \"Numbers\": { 1, 2, 3 }",
+            "define \"Total\": Sum(\"Numbers\")",
+            "define \"Doubled\": \"Total\" * 2",
+            "define \"Unrelated\": 'a' + 'b'",
+            "define function \"Add\"(a Integer, b Integer): a + b",
+            "define \"Added\": \"Add\"(1, \"Limit\")",
+            "define \"Forward\": \"Later\" + 1",
+            "define \"Later\": 5");
+
+    private final ModelManager modelManager = new ModelManager();
+    private final LibraryManager libraryManager = new LibraryManager(modelManager);
+    private final CqlTranslatorOptions options = new CqlTranslatorOptions(CqlTranslator.Options.EnableLocators,
+            CqlTranslator.Options.EnableResultTypes);
+
+    private IncrementalCqlTranslator translate(String text) {
+        IncrementalCqlTranslator translator = new IncrementalCqlTranslator(modelManager, libraryManager, null, options);
+        translator.translate(text);
+        assertThat(translator.isIncremental(), is(false));
+        return translator;
+    }
+
+    /**
+     * Checks that the library and the diagnostics are those of a full translation of the text. The statements are
+     * compared by name, as the incremental translation adds those it carries over in the order they are visited.
+     */
+    private void checkMatchesFullTranslation(IncrementalCqlTranslator translator, String text) throws IOException, JAXBException {
+        CqlTranslator full = CqlTranslator.fromText(text, modelManager, libraryManager, null, options);
+        assertThat(normalize(translator.getLibrary()), is(normalize(full.toELM())));
+        assertThat(describe(translator.getExceptions()), is(describe(full.getExceptions())));
+    }
+
+    private static String normalize(Library library) throws IOException, JAXBException {
+        Library copy = ElmXmlLibraryReader.read(new StringReader(CqlTranslator.convertToXml(library)));
+        if (copy.getStatements() != null) {
+            copy.getStatements().getDef().sort(Comparator.comparing(ExpressionDef::getName));
+        }
+        return CqlTranslator.convertToXml(copy);
+    }
+
+    private static List<String> describe(List<CqlTranslatorException> exceptions) {
+        List<String> result = new ArrayList<>();
+        for (CqlTranslatorException exception : exceptions) {
+            result.add(String.format("%s %s", exception.getLocator() != null ? exception.getLocator().toLocator() : null,
+                    exception.getMessage()));
+        }
+        result.sort(Comparator.naturalOrder());
+        return result;
+    }
+
+    private static ExpressionDef getDef(IncrementalCqlTranslator translator, String name) {
+        for (ExpressionDef def : translator.getLibrary().getStatements().getDef()) {
+            if (def.getName().equals(name)) {
+                return def;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testChangedDefinitionAndDependentsAreTranslated() throws IOException, JAXBException {
+        IncrementalCqlTranslator translator = translate(BASE);
+        assertThat(translator.getErrors(), empty());
+        ExpressionDef numbers = getDef(translator, "Numbers");
+        ExpressionDef doubled = getDef(translator, "Doubled");
+        ExpressionDef unrelated = getDef(translator, "Unrelated");
+        ExpressionDef add = getDef(translator, "Add");
+        ExpressionDef forward = getDef(translator, "Forward");
+
+        String text = BASE.replace("{ 1, 2, 3 }", "{ 1, 2, 3, 4 }");
+        translator.translate(text);
+        assertThat(translator.isIncremental(), is(true));
+        assertThat(translator.getTranslatedDefinitionCount(), is(3));
+        assertThat(getDef(translator, "Numbers"), not(sameInstance(numbers)));
+        assertThat(getDef(translator, "Doubled"), not(sameInstance(doubled)));
+        assertThat(getDef(translator, "Unrelated"), sameInstance(unrelated));
+        assertThat(getDef(translator, "Add"), sameInstance(add));
+        assertThat(getDef(translator, "Forward"), sameInstance(forward));
+        checkMatchesFullTranslation(translator, text);
+
+        // Changing a function translates the definitions that call it
+        text = text.replace("a Integer, b Integer): a + b", "a Integer, b Integer): a - b");
+        translator.translate(text);
+        assertThat(translator.isIncremental(), is(true));
+        assertThat(translator.getTranslatedDefinitionCount(), is(2));
+        assertThat(getDef(translator, "Forward"), sameInstance(forward));
+        checkMatchesFullTranslation(translator, text);
+    }
+
+    @Test
+    public void testInsertedLinesMoveLaterDefinitions() throws IOException, JAXBException {
+        IncrementalCqlTranslator translator = translate(BASE);
+        ExpressionDef later = getDef(translator, "Later");
+
+        String text = BASE.replace("define \"Unrelated\"", "define \"Inserted\":\n  \"Total\"\n    + 1\ndefine \"Unrelated\"");
+        translator.translate(text);
+        assertThat(translator.isIncremental(), is(true));
+        // The tokens of the inserted definition are matched from the end, so the start of the definition it is
+        // inserted before is taken as changed, and that definition is parsed and translated again
+        assertThat(translator.getTranslatedDefinitionCount(), is(2));
+        assertThat(getDef(translator, "Later"), sameInstance(later));
+        assertThat(later.getLocator(), is("15:1-15:17"));
+        checkMatchesFullTranslation(translator, text);
+
+        // Removing the definition moves them back
+        translator.translate(BASE);
+        assertThat(translator.isIncremental(), is(true));
+        assertThat(translator.getTranslatedDefinitionCount(), is(1));
+        assertThat(later.getLocator(), is("12:1-12:17"));
+        checkMatchesFullTranslation(translator, BASE);
+    }
+
+    @Test
+    public void testErrorsAreReportedAsInAFullTranslation() throws IOException, JAXBException {
+        String text = BASE + "\ndefine \"Uses\": \"Missing\" + 1";
+        IncrementalCqlTranslator translator = translate(text);
+        assertThat(translator.getErrors(), hasSize(1));
+
+        // Defining the missing definition translates the definition that referred to it
+        text = text + "\ndefine \"Missing\": 2";
+        translator.translate(text);
+        assertThat(translator.isIncremental(), is(true));
+        assertThat(translator.getTranslatedDefinitionCount(), is(2));
+        assertThat(translator.getErrors(), empty());
+        checkMatchesFullTranslation(translator, text);
+
+        // A renamed definition is no longer found by the definitions that refer to it
+        text = text.replace("define \"Later\"", "define \"Later2\"");
+        translator.translate(text);
+        assertThat(translator.isIncremental(), is(true));
+        assertThat(translator.getErrors(), hasSize(1));
+        checkMatchesFullTranslation(translator, text);
+    }
+
+    @Test
+    public void testHeaderChangesAndSyntaxErrorsTranslateTheLibrary() throws IOException, JAXBException {
+        IncrementalCqlTranslator translator = translate(BASE);
+
+        String text = BASE.replace("default 10", "default 20");
+        translator.translate(text);
+        assertThat(translator.isIncremental(), is(false));
+        checkMatchesFullTranslation(translator, text);
+
+        text = text.replace("define \"Later\": 5", "define \"Later\": (5");
+        translator.translate(text);
+        assertThat(translator.isIncremental(), is(false));
+        assertThat(translator.getErrors(), not(empty()));
+        checkMatchesFullTranslation(translator, text);
+
+        // The library is translated again after the syntax error is corrected, then incrementally once more
+        translator.translate(BASE);
+        assertThat(translator.isIncremental(), is(false));
+        assertThat(translator.getErrors(), empty());
+        translator.translate(BASE.replace("'a' + 'b'", "'a' + 'c'"));
+        assertThat(translator.isIncremental(), is(true));
+        assertThat(translator.getTranslatedDefinitionCount(), is(1));
+    }
+}
@@ -0,0 +1,114 @@
+package org.cqframework.cql.cql2elm;
+
+import org.cqframework.cql.cql2elm.model.TranslatedLibrary;
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.testng.annotations.Test;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class LibraryManagerTests {
+
+    private static class CountingLibrarySourceProvider extends TestLibrarySourceProvider {
+        final AtomicInteger requestCount = new AtomicInteger();
+
+        @Override
+        public InputStream getLibrarySource(VersionedIdentifier libraryIdentifier) {
+            requestCount.incrementAndGet();
+            try {
+                // Widen the window in which concurrent requests overlap the in-flight translation
+                Thread.sleep(50);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.getLibrarySource(libraryIdentifier);
+        }
+    }
+
+    private static <T> List<T> runConcurrently(int count, Callable<T> task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(count);
+        try {
+            List<Future<T>> futures = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                futures.add(executor.submit(task));
+            }
+
+            List<T> results = new ArrayList<>();
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testConcurrentResolutionTranslatesOnce() throws Exception {
+        LibraryManager libraryManager = new LibraryManager(new ModelManager());
+        CountingLibrarySourceProvider provider = new CountingLibrarySourceProvider();
+        libraryManager.getLibrarySourceLoader().registerProvider(provider);
+
+        List<List<CqlTranslatorException>> errors = new ArrayList<>();
+        List<TranslatedLibrary> libraries = runConcurrently(8, () -> {
+            List<CqlTranslatorException> libraryErrors = new ArrayList<>();
+            synchronized (errors) {
+                errors.add(libraryErrors);
+            }
+            return libraryManager.resolveLibrary(new VersionedIdentifier().withId("BaseLibrary"), new CqlTranslatorOptions(), libraryErrors);
+        });
+
+        assertThat(provider.requestCount.get(), is(1));
+        for (TranslatedLibrary library : libraries) {
+            assertThat(library, sameInstance(libraries.get(0)));
+        }
+        for (List<CqlTranslatorException> libraryErrors : errors) {
+            assertThat(libraryErrors.size(), is(0));
+        }
+        assertThat(libraryManager.getTranslatedLibraries().get("BaseLibrary"), sameInstance(libraries.get(0)));
+    }
+
+    @Test
+    public void testConcurrentTranslationsShareIncludes() throws Exception {
+        ModelManager modelManager = new ModelManager();
+        LibraryManager libraryManager = new LibraryManager(modelManager);
+        libraryManager.getLibrarySourceLoader().registerProvider(new TestLibrarySourceProvider());
+
+        List<CqlTranslator> translators = runConcurrently(8, () ->
+                CqlTranslator.fromStream(LibraryManagerTests.class.getResourceAsStream("LibraryTests/ReferencingLibrary.cql"), modelManager, libraryManager));
+
+        for (CqlTranslator translator : translators) {
+            assertThat(translator.getErrors().size(), is(0));
+            assertThat(translator.getTranslatedLibraries().get("BaseLibrary"), sameInstance(libraryManager.getTranslatedLibraries().get("BaseLibrary")));
+        }
+    }
+
+    @Test
+    public void testConcurrentResolutionReportsErrors() throws Exception {
+        LibraryManager libraryManager = new LibraryManager(new ModelManager());
+        libraryManager.getLibrarySourceLoader().registerProvider(new CountingLibrarySourceProvider());
+
+        List<List<CqlTranslatorException>> errors = runConcurrently(4, () -> {
+            List<CqlTranslatorException> libraryErrors = new ArrayList<>();
+            libraryManager.resolveLibrary(new VersionedIdentifier().withId("InvalidBaseLibrary"), new CqlTranslatorOptions(), libraryErrors);
+            return libraryErrors;
+        });
+
+        // Callers that waited on the failed translation receive its errors, and the library is not cached
+        for (List<CqlTranslatorException> libraryErrors : errors) {
+            assertThat(libraryErrors.size(), greaterThan(0));
+        }
+        assertThat(libraryManager.getTranslatedLibraries().containsKey("InvalidBaseLibrary"), is(false));
+    }
+}
@@ -0,0 +1,105 @@
+package org.cqframework.cql.cql2elm;
+
+import org.cqframework.cql.cql2elm.model.Model;
+import org.hl7.elm.r1.Library;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class ModelCacheTests {
+
+    @Test
+    public void testModelsSharedAcrossManagers() {
+        ModelCache modelCache = new ModelCache();
+        ModelManager first = new ModelManager(modelCache);
+        ModelManager second = new ModelManager(modelCache);
+
+        Model firstModel = first.resolveModel("FHIR", "4.0.1");
+        Model secondModel = second.resolveModel("FHIR", "4.0.1");
+        assertThat(secondModel, sameInstance(firstModel));
+        assertThat(second.resolveModel("System"), sameInstance(first.resolveModel("System")));
+
+        // FHIR and System 1.0.0 were each loaded once, and the second manager's FHIR resolution and its resolution of
+        // the System model that FHIR requires were hits, so its unversioned System request was already resolved
+        assertThat(modelCache.getMissCount(), is(2L));
+        assertThat(modelCache.getHitCount(), is(2L));
+        assertThat(modelCache.size(), is(2));
+        assertThat(modelCache.getTotalLoadTime(), greaterThan(0L));
+    }
+
+    @Test
+    public void testRequiredModelsResolvedOnHit() {
+        ModelCache modelCache = new ModelCache();
+        ModelManager first = new ModelManager(modelCache);
+        ModelManager second = new ModelManager(modelCache);
+
+        Model qiCore = first.resolveModel("QICore", "4.1.1");
+        assertThat(second.resolveModel("QICore", "4.1.1"), sameInstance(qiCore));
+
+        // The second manager resolves the models QICore requires, although the cached model was built by the first
+        Model system = first.resolveModel("System");
+        assertThat(second.resolveModelByUri(system.getModelInfo().getUrl()), sameInstance(system));
+    }
+
+    @Test
+    public void testUncachedManagersBuildDistinctModels() {
+        Model firstModel = new ModelManager().resolveModel("FHIR", "4.0.1");
+        Model secondModel = new ModelManager().resolveModel("FHIR", "4.0.1");
+        assertThat(secondModel, not(sameInstance(firstModel)));
+    }
+
+    @Test
+    public void testEviction() {
+        ModelCache modelCache = new ModelCache(1);
+        new ModelManager(modelCache).resolveModel("FHIR", "4.0.1");
+        assertThat(modelCache.size(), is(1));
+        assertThat(modelCache.getEvictionCount(), is(1L));
+
+        // The System model was evicted, so resolving it again is a miss
+        new ModelManager(modelCache).resolveModel("System");
+        assertThat(modelCache.getMissCount(), is(3L));
+    }
+
+    @Test
+    public void testConcurrentResolution() throws Exception {
+        ModelCache modelCache = new ModelCache();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Model>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> new ModelManager(modelCache).resolveModel("FHIR", "4.0.1")));
+            }
+
+            Model model = results.get(0).get();
+            for (Future<Model> result : results) {
+                assertThat(result.get(), sameInstance(model));
+            }
+            assertThat(modelCache.getMissCount(), is(2L));
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testTranslationWithCachedModels() throws IOException {
+        ModelCache modelCache = new ModelCache();
+        for (int i = 0; i < 2; i++) {
+            ModelManager modelManager = new ModelManager(modelCache);
+            CqlTranslator translator = CqlTranslator.fromStream(ModelCacheTests.class.getResourceAsStream("fhir/r401/TestFHIR.cql"),
+                    modelManager, new LibraryManager(modelManager));
+            Library library = translator.toELM();
+            assertThat(library, notNullValue());
+            assertThat(translator.getErrors().size(), is(0));
+        }
+        assertThat(modelCache.getHitCount(), greaterThan(0L));
+    }
+}
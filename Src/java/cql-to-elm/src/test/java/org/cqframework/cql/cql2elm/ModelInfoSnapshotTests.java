@@ -0,0 +1,146 @@
+package org.cqframework.cql.cql2elm;
+
+import org.cqframework.cql.cql2elm.model.Model;
+import org.hl7.elm_modelinfo.r1.ClassInfo;
+import org.hl7.elm_modelinfo.r1.ModelInfo;
+import org.hl7.elm_modelinfo.r1.ObjectFactory;
+import org.hl7.elm_modelinfo.r1.TypeInfo;
+import org.hl7.elm_modelinfo.r1.serializing.ModelInfoSnapshotReader;
+import org.hl7.elm_modelinfo.r1.serializing.ModelInfoSnapshotWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class ModelInfoSnapshotTests {
+    private static final Logger logger = LoggerFactory.getLogger(ModelInfoSnapshotTests.class);
+
+    @DataProvider
+    private static Object[][] modelInfoResources() {
+        return new Object[][] {
+                {"/org/hl7/elm/r1/system-modelinfo.xml"},
+                {"/gov/healthit/qdm/qdm-modelinfo-4.2.xml"},
+                {"/gov/healthit/qdm/qdm-modelinfo-4.3.xml"},
+                {"/gov/healthit/qdm/qdm-modelinfo-5.0.1.xml"},
+                {"/gov/healthit/qdm/qdm-modelinfo-5.0.2.xml"},
+                {"/gov/healthit/qdm/qdm-modelinfo-5.0.xml"},
+                {"/gov/healthit/qdm/qdm-modelinfo-5.0_withNegationTypes.xml"},
+                {"/gov/healthit/qdm/qdm-modelinfo-5.3.xml"},
+                {"/gov/healthit/qdm/qdm-modelinfo-5.4.xml"},
+                {"/gov/healthit/qdm/qdm-modelinfo-5.5.xml"},
+                {"/gov/healthit/qdm/qdm-modelinfo-5.6.xml"},
+                {"/gov/healthit/qdm/qdm-modelinfo.xml"},
+                {"/org/hl7/fhir/fhir-modelinfo-1.0.2.xml"},
+                {"/org/hl7/fhir/fhir-modelinfo-1.4.xml"},
+                {"/org/hl7/fhir/fhir-modelinfo-1.6.xml"},
+                {"/org/hl7/fhir/fhir-modelinfo-1.8.xml"},
+                {"/org/hl7/fhir/fhir-modelinfo-3.0.0.xml"},
+                {"/org/hl7/fhir/fhir-modelinfo-3.0.1.xml"},
+                {"/org/hl7/fhir/fhir-modelinfo-3.2.0.xml"},
+                {"/org/hl7/fhir/fhir-modelinfo-4.0.0.xml"},
+                {"/org/hl7/fhir/fhir-modelinfo-4.0.1.xml"},
+                {"/org/hl7/fhir/qicore-modelinfo-4.0.0.xml"},
+                {"/org/hl7/fhir/qicore-modelinfo-4.1.0.xml"},
+                {"/org/hl7/fhir/qicore-modelinfo-4.1.1.xml"},
+                {"/org/hl7/fhir/quick-modelinfo-0.3.0.xml"},
+                {"/org/hl7/fhir/quick-modelinfo-3.0.0.xml"},
+                {"/org/hl7/fhir/quick-modelinfo-3.3.0.xml"},
+                {"/org/hl7/fhir/quick-modelinfo-old.xml"},
+                {"/org/hl7/fhir/quick-modelinfo.xml"},
+                {"/org/hl7/fhir/quickfhir-modelinfo-3.0.1.xml"},
+                {"/org/hl7/fhir/uscore-modelinfo-3.1.0.xml"},
+                {"/org/hl7/fhir/uscore-modelinfo-3.1.1.xml"}
+        };
+    }
+
+    private static byte[] writeSnapshot(ModelInfo modelInfo) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ModelInfoSnapshotWriter.write(modelInfo, output);
+        return output.toByteArray();
+    }
+
+    @Test(dataProvider = "modelInfoResources")
+    public void testSnapshotRoundTrip(String resourcePath) throws IOException {
+        ModelInfo modelInfo = ModelInfoReaderUtil.readModelInfoResource(resourcePath, false);
+        ModelInfo snapshotModelInfo = ModelInfoSnapshotReader.read(new ByteArrayInputStream(writeSnapshot(modelInfo)));
+        assertThat(snapshotModelInfo, equalTo(withDefaultRetrievable(modelInfo)));
+    }
+
+    // An explicit retrievable="false" is the schema default, which the snapshot writes as an absent attribute
+    private static ModelInfo withDefaultRetrievable(ModelInfo modelInfo) {
+        for (TypeInfo typeInfo : modelInfo.getTypeInfo()) {
+            if (typeInfo instanceof ClassInfo && !((ClassInfo)typeInfo).isRetrievable()) {
+                ((ClassInfo)typeInfo).setRetrievable(null);
+            }
+        }
+        return modelInfo;
+    }
+
+    private static String toXml(ModelInfo modelInfo) throws JAXBException {
+        StringWriter writer = new StringWriter();
+        Marshaller marshaller = ElmJaxb.getModelInfoContext().createMarshaller();
+        marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+        marshaller.marshal(new ObjectFactory().createModelInfo(modelInfo), writer);
+        return writer.toString();
+    }
+
+    /**
+     * Compares the XML of the model info with the XML of the snapshot of it, so that a field of the schema that the
+     * snapshot does not write fails the round trip.
+     */
+    @Test(dataProvider = "modelInfoResources")
+    public void testSnapshotXmlRoundTrip(String resourcePath) throws IOException, JAXBException {
+        ModelInfo modelInfo = ModelInfoReaderUtil.readModelInfoResource(resourcePath, false);
+        ModelInfo snapshotModelInfo = ModelInfoSnapshotReader.read(new ByteArrayInputStream(writeSnapshot(modelInfo)));
+        assertThat(toXml(snapshotModelInfo), is(toXml(withDefaultRetrievable(modelInfo))));
+    }
+
+    @Test
+    public void testSnapshotModelResolution() throws IOException, ClassNotFoundException {
+        ModelManager modelManager = new ModelManager();
+        ModelInfo modelInfo = ModelInfoReaderUtil.readModelInfoResource("/org/hl7/fhir/fhir-modelinfo-4.0.1.xml", false);
+        Model model = new Model(ModelInfoSnapshotReader.read(new ByteArrayInputStream(writeSnapshot(modelInfo))), modelManager);
+        assertThat(model.resolveTypeName("Patient"), notNullValue());
+        assertThat(model.resolveContextName("Patient"), notNullValue());
+        assertThat(model.getConversions().iterator().hasNext(), is(true));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testInvalidSnapshot() throws IOException {
+        ModelInfoSnapshotReader.read(new ByteArrayInputStream("<modelInfo/>".getBytes()));
+    }
+
+    /**
+     * Compares loading the FHIR 4.0.1 model info from XML with loading it from a snapshot. The first iteration
+     * reflects cold start cost (including JAXB context creation for XML), later iterations reflect warm load cost.
+     */
+    @Test(groups = "benchmark")
+    public void testSnapshotLoadTime() throws IOException {
+        String resourcePath = "/org/hl7/fhir/fhir-modelinfo-4.0.1.xml";
+        byte[] snapshot = writeSnapshot(ModelInfoReaderUtil.readModelInfoResource(resourcePath, false));
+
+        int iterations = 5;
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            ModelInfoReaderUtil.readModelInfoResource(resourcePath, false);
+            long xmlElapsed = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            ModelInfoSnapshotReader.read(new ByteArrayInputStream(snapshot));
+            long snapshotElapsed = System.nanoTime() - start;
+
+            logger.info("fhir-modelinfo-4.0.1 load {}: XML {} ms, snapshot {} ms ({} bytes)",
+                    i, xmlElapsed / 1000000, snapshotElapsed / 1000000, snapshot.length);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package org.cqframework.cql.cql2elm;
+
+import org.cqframework.cql.cql2elm.model.Operator;
+import org.cqframework.cql.cql2elm.model.Signature;
+import org.cqframework.cql.cql2elm.model.SystemLibraryHelper;
+import org.cqframework.cql.cql2elm.model.SystemModel;
+import org.cqframework.cql.cql2elm.model.TranslatedLibrary;
+import org.hl7.cql.model.ListType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class SystemLibraryTests {
+    private static final Logger logger = LoggerFactory.getLogger(SystemLibraryTests.class);
+    private static final int INCLUDE_COUNT = 20;
+
+    private static String getIncludedLibrary(int index) {
+        return String.format("library Common%d version '1.0'\n" +
+                "define \"Values\": { 1, 2, 3, %d }\n" +
+                "define \"Total\": Sum(\"Values\") + Count(\"Values\")\n" +
+                "define \"Names\": { 'a', 'b' } union { 'c' }\n" +
+                "define \"Period\": Interval[@2020-01-01, @2020-12-31]\n" +
+                "define \"Contains\": Today() in \"Period\" and exists \"Names\"\n" +
+                "define function \"Scaled\"(value Decimal): value * %d.0\n", index, index, index);
+    }
+
+    private static String getMeasure() {
+        StringBuilder cql = new StringBuilder("library Measure version '1.0'\n");
+        for (int i = 0; i < INCLUDE_COUNT; i++) {
+            cql.append(String.format("include Common%d version '1.0' called C%d\n", i, i));
+        }
+        for (int i = 0; i < INCLUDE_COUNT; i++) {
+            cql.append(String.format("define \"Check%d\": C%d.\"Total\" > %d and C%d.\"Contains\" and C%d.\"Scaled\"(C%d.\"Total\") > 0\n", i, i, i, i, i, i));
+        }
+        return cql.toString();
+    }
+
+    private static LibraryManager createLibraryManager(ModelManager modelManager) {
+        LibraryManager libraryManager = new LibraryManager(modelManager);
+        libraryManager.getLibrarySourceLoader().registerProvider(libraryIdentifier -> {
+            if (libraryIdentifier.getId().startsWith("Common")) {
+                int index = Integer.parseInt(libraryIdentifier.getId().substring("Common".length()));
+                return new ByteArrayInputStream(getIncludedLibrary(index).getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+        return libraryManager;
+    }
+
+    @Test
+    public void testSharedSystemLibrary() {
+        ModelManager modelManager = new ModelManager();
+        TranslatedLibrary systemLibrary = modelManager.getSystemLibrary();
+        assertThat(modelManager.getSystemLibrary(), sameInstance(systemLibrary));
+
+        CqlTranslator translator = CqlTranslator.fromText(getMeasure(), modelManager, createLibraryManager(modelManager));
+        assertThat(translator.getErrors().size(), is(0));
+        assertThat(modelManager.getSystemLibrary(), sameInstance(systemLibrary));
+
+        // Generic operators instantiated by the translation (e.g. Exists<String>) are not registered in the shared library
+        SystemModel systemModel = (SystemModel)modelManager.resolveModel("System");
+        Operator existsString = new Operator("Exists", new Signature(new ListType(systemModel.getString())), systemModel.getBoolean());
+        assertThat(systemLibrary.contains(existsString), is(false));
+    }
+
+    @Test
+    public void testOverlay() {
+        ModelManager modelManager = new ModelManager();
+        SystemModel systemModel = (SystemModel)modelManager.resolveModel("System");
+        TranslatedLibrary systemLibrary = modelManager.getSystemLibrary();
+        TranslatedLibrary overlay = new TranslatedLibrary(systemLibrary);
+        assertThat(overlay.getIdentifier(), sameInstance(systemLibrary.getIdentifier()));
+        assertThat(overlay.getConversions(), sameInstance(systemLibrary.getConversions()));
+
+        Operator operator = new Operator("Exists", new Signature(new ListType(systemModel.getInteger())), systemModel.getBoolean());
+        overlay.getOperatorMap().addOperator(operator);
+        assertThat(overlay.contains(operator), is(true));
+        assertThat(systemLibrary.contains(operator), is(false));
+        assertThat(overlay.contains(new Operator("And", new Signature(systemModel.getBoolean(), systemModel.getBoolean()), systemModel.getBoolean())), is(true));
+    }
+
+    /**
+     * Reports the time to translate a measure with 20 included libraries, and the time it previously took to build the
+     * System library for each of the 21 translations.
+     */
+    @Test(groups = "benchmark")
+    public void testIncludePerformance() {
+        ModelManager modelManager = new ModelManager();
+        SystemModel systemModel = (SystemModel)modelManager.resolveModel("System");
+        String measure = getMeasure();
+
+        int iterations = 10;
+        long translationTime = 0;
+        long systemLibraryTime = 0;
+        // The first pass warms up the translator and is not measured
+        for (int i = 0; i <= iterations; i++) {
+            long start = System.nanoTime();
+            CqlTranslator translator = CqlTranslator.fromText(measure, modelManager, createLibraryManager(modelManager));
+            long elapsed = System.nanoTime() - start;
+            assertThat(translator.getErrors().size(), is(0));
+            assertThat(translator.getTranslatedLibraries().size(), is(INCLUDE_COUNT));
+
+            start = System.nanoTime();
+            for (int j = 0; j <= INCLUDE_COUNT; j++) {
+                SystemLibraryHelper.load(systemModel, new TypeBuilder(modelManager));
+            }
+            long systemLibraryElapsed = System.nanoTime() - start;
+
+            if (i > 0) {
+                translationTime += elapsed;
+                systemLibraryTime += systemLibraryElapsed;
+            }
+        }
+
+        logger.info("Translated a measure with {} includes in {} ms; building the System library for each library would add {} ms",
+                INCLUDE_COUNT, translationTime / iterations / 1000000, systemLibraryTime / iterations / 1000000);
+    }
+}
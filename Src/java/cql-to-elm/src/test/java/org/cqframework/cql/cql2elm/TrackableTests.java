@@ -0,0 +1,95 @@
+package org.cqframework.cql.cql2elm;
+
+import org.cqframework.cql.elm.tracking.TrackBack;
+import org.hl7.elm.r1.Library;
+import org.hl7.elm.r1.Literal;
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+
+import javax.xml.bind.JAXBException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class TrackableTests {
+    private static final Logger logger = LoggerFactory.getLogger(TrackableTests.class);
+
+    @Test
+    public void testTrackerIds() {
+        Literal literal = new Literal();
+        UUID trackerId = literal.getTrackerId();
+        assertThat(trackerId, notNullValue());
+        assertThat(literal.getTrackerId(), is(trackerId));
+
+        Set<UUID> trackerIds = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            trackerIds.add(new Literal().getTrackerId());
+        }
+        assertThat(trackerIds.size(), is(1000));
+        assertThat(trackerIds, not(hasItem(trackerId)));
+    }
+
+    @Test
+    public void testTrackbacks() {
+        Literal literal = new Literal();
+        assertThat(literal.getTrackbacks(), empty());
+        literal.getTrackbacks().add(new TrackBack(new VersionedIdentifier().withId("Test"), 1, 1, 1, 5));
+        assertThat(literal.getTrackbacks().size(), is(1));
+    }
+
+    private static long getAllocatedBytes() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (!(threadMXBean instanceof com.sun.management.ThreadMXBean)) {
+            throw new SkipException("Thread allocation measurement is not supported by this JVM");
+        }
+        return ((com.sun.management.ThreadMXBean)threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Reports the allocation per ELM node, and for reading a large ELM library (FHIRHelpers 4.0.1) from XML.
+     */
+    @Test(groups = "benchmark")
+    public void testAllocation() throws IOException, JAXBException {
+        int count = 100000;
+        Object[] nodes = new Object[count];
+        long nodeBytes = 0;
+        for (int i = 0; i < 3; i++) {
+            long start = getAllocatedBytes();
+            for (int j = 0; j < count; j++) {
+                nodes[j] = new Literal();
+            }
+            nodeBytes = (getAllocatedBytes() - start) / count;
+        }
+
+        ModelManager modelManager = new ModelManager();
+        LibraryManager libraryManager = new LibraryManager(modelManager);
+        libraryManager.getLibrarySourceLoader().registerProvider(new FhirLibrarySourceProvider());
+        CqlTranslator translator = CqlTranslator.fromStream(TrackableTests.class.getResourceAsStream("fhir/r401/TestFHIRHelpers.cql"), modelManager, libraryManager);
+        String xml = CqlTranslator.convertToXml(libraryManager.getTranslatedLibraries().get("FHIRHelpers").getLibrary());
+
+        long readBytes = 0;
+        for (int i = 0; i < 3; i++) {
+            long start = getAllocatedBytes();
+            Library library = ElmXmlLibraryReader.read(new StringReader(xml));
+            readBytes = getAllocatedBytes() - start;
+            assertThat(library.getStatements().getDef().size(), greaterThan(0));
+        }
+
+        logger.info("ELM node allocation: {} bytes; reading FHIRHelpers ELM ({} KB XML): {} KB",
+                nodeBytes, xml.length() / 1024, readBytes / 1024);
+        // A node carries no tracker id or trackback list until they are used
+        assertThat(nodeBytes, lessThan(100L));
+        assertThat(translator.getErrors().size(), is(0));
+        assertThat(nodes[count - 1], notNullValue());
+    }
+}
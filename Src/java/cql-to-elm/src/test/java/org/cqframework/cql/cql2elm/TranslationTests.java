@@ -6,8 +6,11 @@ import org.hl7.elm.r1.*;
 import org.testng.annotations.Test;
 
 import javax.xml.bind.JAXBException;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Scanner;
 
@@ -141,4 +144,21 @@ public class TranslationTests {
         As as = (As)operand;
         assertThat(as.getAsTypeSpecifier(), is(instanceOf(ChoiceTypeSpecifier.class)));
     }
+
+    @Test
+    public void testStreamingXml() throws IOException {
+        ModelManager modelManager = new ModelManager();
+        CqlTranslator translator = CqlTranslator.fromText("library Test\ndefine \"FormFeed\": 'a\\fb'\n", modelManager, new LibraryManager(modelManager));
+        String xml = translator.toXml();
+        assertThat(xml, containsString("a&#xc;b"));
+        assertThat(xml, not(containsString("\f")));
+
+        StringWriter writer = new StringWriter();
+        translator.toXml(writer);
+        assertThat(writer.toString(), is(xml));
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        translator.toXml(outputStream);
+        assertThat(new String(outputStream.toByteArray(), StandardCharsets.UTF_8), is(xml));
+    }
 }
@@ -0,0 +1,85 @@
+package org.cqframework.cql.cql2elm.model;
+
+import org.cqframework.cql.cql2elm.ModelManager;
+import org.hl7.cql.model.ChoiceType;
+import org.hl7.cql.model.DataType;
+import org.hl7.cql.model.ListType;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class ConversionMapTests {
+    private SystemModel systemModel;
+    private TranslatedLibrary systemLibrary;
+    private ConversionMap conversionMap;
+
+    @BeforeMethod
+    public void setup() {
+        ModelManager modelManager = new ModelManager();
+        systemModel = (SystemModel)modelManager.resolveModel("System");
+        systemLibrary = new TranslatedLibrary(modelManager.getSystemLibrary());
+        conversionMap = new ConversionMap();
+        for (Conversion conversion : systemLibrary.getConversions()) {
+            conversionMap.add(conversion);
+        }
+    }
+
+    private Conversion findConversion(DataType fromType, DataType toType) {
+        return conversionMap.findConversion(fromType, toType, true, false, systemLibrary.getOperatorMap());
+    }
+
+    @Test
+    public void testCachedConversion() {
+        Conversion conversion = findConversion(systemModel.getInteger(), systemModel.getDecimal());
+        assertThat(conversion, notNullValue());
+        assertThat(conversionMap.getConversionMissCount(), is(1L));
+        assertThat(findConversion(systemModel.getInteger(), systemModel.getDecimal()), sameInstance(conversion));
+        assertThat(conversionMap.getConversionHitCount(), is(1L));
+
+        // Conversions that are not found are cached as well
+        assertThat(findConversion(systemModel.getBoolean(), systemModel.getDecimal()), nullValue());
+        assertThat(findConversion(systemModel.getBoolean(), systemModel.getDecimal()), nullValue());
+        assertThat(conversionMap.getConversionHitCount(), is(2L));
+
+        // Explicit conversions are cached separately
+        Conversion explicitConversion = conversionMap.findConversion(systemModel.getInteger(), systemModel.getString(), false, false, systemLibrary.getOperatorMap());
+        assertThat(explicitConversion, notNullValue());
+        assertThat(findConversion(systemModel.getInteger(), systemModel.getString()), nullValue());
+    }
+
+    @Test
+    public void testNestedConversions() {
+        DataType choice = new ChoiceType(Arrays.asList(systemModel.getInteger(), systemModel.getString()));
+        Conversion conversion = findConversion(choice, systemModel.getDecimal());
+        assertThat(conversion, notNullValue());
+        assertThat(conversion.getConversion().getToType(), is(systemModel.getDecimal()));
+
+        // The conversion of the choice alternative was cached while searching for the choice conversion
+        long hits = conversionMap.getConversionHitCount();
+        findConversion(systemModel.getInteger(), systemModel.getDecimal());
+        assertThat(conversionMap.getConversionHitCount(), is(hits + 1));
+    }
+
+    @Test
+    public void testInvalidation() {
+        DataType integerList = new ListType(systemModel.getInteger());
+        conversionMap.disableListDemotion();
+        assertThat(findConversion(integerList, systemModel.getDecimal()), nullValue());
+
+        // Changing the promotion and demotion settings discards cached results
+        conversionMap.enableListDemotion();
+        Conversion conversion = findConversion(integerList, systemModel.getDecimal());
+        assertThat(conversion, notNullValue());
+        assertThat(conversion.isListDemotion(), is(true));
+
+        // As does adding a conversion
+        assertThat(findConversion(systemModel.getRatio(), systemModel.getInteger()), nullValue());
+        Operator ratioToInteger = new Operator("RatioToInteger", new Signature(systemModel.getRatio()), systemModel.getInteger());
+        conversionMap.add(new Conversion(ratioToInteger, true));
+        assertThat(findConversion(systemModel.getRatio(), systemModel.getInteger()).getOperator(), sameInstance(ratioToInteger));
+    }
+}
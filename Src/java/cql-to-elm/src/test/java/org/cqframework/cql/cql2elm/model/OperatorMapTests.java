@@ -0,0 +1,145 @@
+package org.cqframework.cql.cql2elm.model;
+
+import org.cqframework.cql.cql2elm.ModelManager;
+import org.cqframework.cql.cql2elm.TypeBuilder;
+import org.hl7.cql.model.DataType;
+import org.hl7.cql.model.ListType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class OperatorMapTests {
+    private static final Logger logger = LoggerFactory.getLogger(OperatorMapTests.class);
+    private SystemModel systemModel;
+    private TranslatedLibrary systemLibrary;
+    private ConversionMap conversionMap;
+
+    @BeforeMethod(alwaysRun = true)
+    public void setup() {
+        ModelManager modelManager = new ModelManager();
+        systemModel = (SystemModel)modelManager.resolveModel("System");
+        systemLibrary = SystemLibraryHelper.load(systemModel, new TypeBuilder(modelManager));
+        conversionMap = new ConversionMap();
+        for (Conversion conversion : systemLibrary.getConversions()) {
+            conversionMap.add(conversion);
+        }
+    }
+
+    private OperatorResolution resolve(String operatorName, DataType... signature) {
+        return systemLibrary.getOperatorMap().resolveOperator(new CallContext("System", operatorName, false, false, true, signature), conversionMap);
+    }
+
+    @Test
+    public void testCachedResolution() {
+        OperatorMap operatorMap = systemLibrary.getOperatorMap();
+        long hits = operatorMap.getResolutionHitCount();
+        long misses = operatorMap.getResolutionMissCount();
+
+        OperatorResolution first = resolve("Add", systemModel.getInteger(), systemModel.getDecimal());
+        OperatorResolution second = resolve("Add", systemModel.getInteger(), systemModel.getDecimal());
+        assertThat(operatorMap.getResolutionMissCount(), is(misses + 1));
+        assertThat(operatorMap.getResolutionHitCount(), is(hits + 1));
+
+        // Cached resolutions are returned as new instances with the same operator and conversions
+        assertThat(second, not(sameInstance(first)));
+        assertThat(second.getOperator(), sameInstance(first.getOperator()));
+        assertThat(second.getOperator().getSignature(), is(new Signature(systemModel.getDecimal(), systemModel.getDecimal())));
+        assertThat(second.hasConversions(), is(true));
+        assertThat(second.getConversions(), is(first.getConversions()));
+        assertThat(second.getScore(), is(first.getScore()));
+
+        second.setLibraryName("Other");
+        assertThat(resolve("Add", systemModel.getInteger(), systemModel.getDecimal()).getLibraryName(), nullValue());
+    }
+
+    @Test
+    public void testUnresolvedCallIsCached() {
+        OperatorMap operatorMap = systemLibrary.getOperatorMap();
+        CallContext callContext = new CallContext("System", "Add", false, false, false, systemModel.getBoolean(), systemModel.getBoolean());
+        assertThat(operatorMap.resolveOperator(callContext, conversionMap), nullValue());
+        long hits = operatorMap.getResolutionHitCount();
+        assertThat(operatorMap.resolveOperator(callContext, conversionMap), nullValue());
+        assertThat(operatorMap.getResolutionHitCount(), is(hits + 1));
+    }
+
+    @Test
+    public void testInvalidation() {
+        OperatorMap operatorMap = systemLibrary.getOperatorMap();
+        assertThat(resolve("Add", systemModel.getInteger(), systemModel.getDecimal()).getOperator().getSignature(),
+                is(new Signature(systemModel.getDecimal(), systemModel.getDecimal())));
+
+        // Adding an operator discards cached resolutions
+        long invalidations = operatorMap.getResolutionInvalidationCount();
+        operatorMap.addOperator(new Operator("Add", new Signature(systemModel.getInteger(), systemModel.getDecimal()), systemModel.getDecimal()));
+        assertThat(operatorMap.getResolutionInvalidationCount(), is(invalidations + 1));
+        assertThat(operatorMap.getCachedResolutionCount(), is(0));
+        assertThat(resolve("Add", systemModel.getInteger(), systemModel.getDecimal()).getOperator().getSignature(),
+                is(new Signature(systemModel.getInteger(), systemModel.getDecimal())));
+
+        // Instantiating a generic operator discards cached resolutions
+        invalidations = operatorMap.getResolutionInvalidationCount();
+        resolve("Exists", new ListType(systemModel.getString()));
+        assertThat(operatorMap.getResolutionInvalidationCount(), is(invalidations + 1));
+    }
+
+    @Test
+    public void testConversionMapChanges() {
+        OperatorMap operatorMap = systemLibrary.getOperatorMap();
+        CallContext callContext = new CallContext("System", "Sum", false, false, false, systemModel.getInteger());
+
+        conversionMap.disableListPromotion();
+        assertThat(operatorMap.resolveOperator(callContext, conversionMap), nullValue());
+
+        // The cached result is not reused once the conversion map allows list promotion
+        conversionMap.enableListPromotion();
+        OperatorResolution resolution = operatorMap.resolveOperator(callContext, conversionMap);
+        assertThat(resolution, notNullValue());
+        assertThat(resolution.getOperator().getSignature(), is(new Signature(new ListType(systemModel.getInteger()))));
+
+        // Nor is it reused for a different conversion map
+        ConversionMap otherConversionMap = new ConversionMap();
+        otherConversionMap.disableListPromotion();
+        assertThat(operatorMap.resolveOperator(callContext, otherConversionMap), nullValue());
+    }
+
+    /**
+     * Reports the cost of repeated resolution of common operators, as for the call sites of a large library.
+     */
+    @Test(groups = "benchmark")
+    public void testResolutionPerformance() {
+        DataType[][] signatures = {
+                { systemModel.getInteger(), systemModel.getInteger() },
+                { systemModel.getInteger(), systemModel.getDecimal() },
+                { systemModel.getDateTime(), systemModel.getDateTime() },
+                { systemModel.getCode(), systemModel.getConcept() },
+                { systemModel.getString(), systemModel.getString() }
+        };
+        String[] operatorNames = { "Equal", "Less", "Add" };
+
+        OperatorMap operatorMap = systemLibrary.getOperatorMap();
+        int iterations = 2000;
+        int resolved = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            for (String operatorName : operatorNames) {
+                for (DataType[] signature : signatures) {
+                    if (operatorMap.resolveOperator(new CallContext("System", operatorName, false, false, false, signature), conversionMap) != null) {
+                        resolved++;
+                    }
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        long hits = operatorMap.getResolutionHitCount();
+        long misses = operatorMap.getResolutionMissCount();
+        logger.info(String.format("Resolved %d calls in %d ms: %d hits, %d misses (%.1f%% hit rate)",
+                iterations * operatorNames.length * signatures.length, elapsed / 1000000, hits, misses, 100.0 * hits / (hits + misses)));
+        assertThat(resolved, greaterThan(0));
+        assertThat(hits, greaterThan(misses));
+    }
+}
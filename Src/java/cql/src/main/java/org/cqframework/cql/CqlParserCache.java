@@ -0,0 +1,164 @@
+package org.cqframework.cql;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.atn.ATN;
+import org.antlr.v4.runtime.atn.ParserATNSimulator;
+import org.antlr.v4.runtime.atn.PredictionContextCache;
+import org.antlr.v4.runtime.dfa.DFA;
+import org.cqframework.cql.gen.cqlLexer;
+import org.cqframework.cql.gen.cqlParser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Manages the prediction caches (DFA and prediction contexts) used to parse CQL.
+ *
+ * ANTLR parsers build their prediction DFA lazily as input is parsed, so parsing is slow until the DFA covers the
+ * constructs in use, and the DFA grows without bound as new input is seen. Libraries parsed with
+ * {@link CqlParserUtil#parseLibrary} share the caches managed here, which can be warmed up from a bundled corpus,
+ * measured, reset, and bounded to a maximum number of DFA states. Resetting replaces the caches, so parses already
+ * in progress complete with the caches they started with.
+ *
+ * The lexer DFA is the static cache of the generated lexer. It is bounded by the lexer grammar, so it is only
+ * measured and cleared on reset.
+ */
+public class CqlParserCache {
+    private static final String[] WARM_UP_CORPUS = {
+            "AggregateOperators.cql",
+            "ArithmeticOperators.cql",
+            "ChlamydiaScreening_CQM.cql",
+            "CMS146v2_FHIR.cql",
+            "CqlIntervalOperators.cql",
+            "CqlListOperators.cql",
+            "DateTimeOperators.cql",
+            "Query.cql",
+            "StringOperators.cql",
+            "TypeOperators.cql"
+    };
+
+    private static class Caches {
+        Caches(ATN atn) {
+            decisionToDFA = new DFA[atn.getNumberOfDecisions()];
+            for (int i = 0; i < decisionToDFA.length; i++) {
+                decisionToDFA[i] = new DFA(atn.getDecisionState(i), i);
+            }
+        }
+
+        final DFA[] decisionToDFA;
+        final PredictionContextCache contextCache = new PredictionContextCache();
+    }
+
+    private static final ATN parserATN = cqlParser._ATN;
+    private static volatile Caches caches = new Caches(parserATN);
+    private static volatile int maximumDfaStates;
+    private static final AtomicLong resetCount = new AtomicLong();
+
+    /**
+     * Configures the parser to predict using the shared caches, keeping its prediction mode.
+     */
+    static void configure(cqlParser parser) {
+        Caches current = caches;
+        ParserATNSimulator interpreter = new ParserATNSimulator(parser, parserATN, current.decisionToDFA, current.contextCache);
+        interpreter.setPredictionMode(parser.getInterpreter().getPredictionMode());
+        parser.setInterpreter(interpreter);
+    }
+
+    /**
+     * Resets the caches if they have grown beyond the maximum number of DFA states.
+     */
+    static void enforceMaximumDfaStates() {
+        int maximum = maximumDfaStates;
+        if (maximum > 0 && getParserDfaStateCount() > maximum) {
+            reset();
+        }
+    }
+
+    /**
+     * Warms up the caches by parsing the bundled corpus of CQL libraries.
+     */
+    public static void warmUp() {
+        for (String name : WARM_UP_CORPUS) {
+            try (InputStream is = CqlParserCache.class.getResourceAsStream("warmup/" + name)) {
+                if (is == null) {
+                    throw new IllegalArgumentException(String.format("Could not find warm-up library %s.", name));
+                }
+                parse(CharStreams.fromStream(is).toString());
+            }
+            catch (IOException e) {
+                throw new IllegalArgumentException(String.format("Could not read warm-up library %s.", name), e);
+            }
+        }
+    }
+
+    /**
+     * Warms up the caches by parsing the given CQL, e.g. libraries representative of those a service will translate.
+     */
+    public static void warmUp(String cql) {
+        parse(cql);
+    }
+
+    private static void parse(String cql) {
+        cqlLexer lexer = new cqlLexer(CharStreams.fromString(cql));
+        lexer.removeErrorListeners();
+        cqlParser parser = new cqlParser(new CommonTokenStream(lexer));
+        parser.removeErrorListeners();
+        CqlParserUtil.parseLibrary(parser);
+    }
+
+    /**
+     * Discards the parser prediction caches and clears the lexer DFA.
+     */
+    public static void reset() {
+        caches = new Caches(parserATN);
+        new cqlLexer(CharStreams.fromString("")).getInterpreter().clearDFA();
+        resetCount.incrementAndGet();
+    }
+
+    public static int getParserDfaStateCount() {
+        return getStateCount(caches.decisionToDFA);
+    }
+
+    public static int getLexerDfaStateCount() {
+        return getStateCount(new cqlLexer(CharStreams.fromString("")).getInterpreter().decisionToDFA);
+    }
+
+    private static int getStateCount(DFA[] decisionToDFA) {
+        int count = 0;
+        for (DFA dfa : decisionToDFA) {
+            count += dfa.states.size();
+        }
+        return count;
+    }
+
+    public static int getContextCacheSize() {
+        return caches.contextCache.size();
+    }
+
+    /**
+     * @return The number of times the caches have been reset, explicitly or because they exceeded the maximum
+     */
+    public static long getResetCount() {
+        return resetCount.get();
+    }
+
+    public static int getMaximumDfaStates() {
+        return maximumDfaStates;
+    }
+
+    /**
+     * Sets the maximum number of parser DFA states. When a parse leaves the caches larger than this, they are
+     * reset. The DFA state count is used as a proxy for the memory held by the caches.
+     *
+     * @param maximumDfaStates The maximum number of states, or 0 (the default) for no maximum
+     */
+    public static void setMaximumDfaStates(int maximumDfaStates) {
+        if (maximumDfaStates < 0) {
+            throw new IllegalArgumentException("maximumDfaStates must not be negative");
+        }
+
+        CqlParserCache.maximumDfaStates = maximumDfaStates;
+    }
+}
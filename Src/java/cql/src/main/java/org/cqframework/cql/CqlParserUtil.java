@@ -0,0 +1,108 @@
+package org.cqframework.cql;
+
+import org.antlr.v4.runtime.ANTLRErrorListener;
+import org.antlr.v4.runtime.ANTLRErrorStrategy;
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+import org.cqframework.cql.gen.cqlParser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class CqlParserUtil {
+
+    /**
+     * Parses a library using two-stage prediction. The parse is first attempted with SLL prediction, which is
+     * significantly faster than full LL prediction and succeeds for nearly all input. If SLL prediction fails (a
+     * syntax error or a construct that requires full context), the input is re-parsed with LL prediction and the
+     * parser's own error strategy.
+     *
+     * No errors are reported to the parser's error listeners during the SLL stage, so errors are reported exactly
+     * as a single LL parse would report them. Lexer errors are reported once, since the token stream buffers the
+     * tokens read during the first stage.
+     *
+     * The parser predicts using the caches managed by {@link CqlParserCache}.
+     *
+     * @param parser A parser positioned at the start of its token stream
+     * @return The library parse tree
+     */
+    public static cqlParser.LibraryContext parseLibrary(cqlParser parser) {
+        CqlParserCache.configure(parser);
+        try {
+            return parseTwoStage(parser);
+        }
+        finally {
+            CqlParserCache.enforceMaximumDfaStates();
+        }
+    }
+
+    /**
+     * Parses the statements in a range of the parser's token stream with SLL prediction, as when re-parsing the
+     * definitions of a library that have changed since it was last parsed. Nothing is reported to the parser's error
+     * listeners, so if the statements cannot be parsed this way the caller is expected to parse the whole library
+     * with {@link #parseLibrary(cqlParser)}, which reports the errors.
+     *
+     * @param parser A parser over a filled token stream
+     * @param startIndex The index of the first token of the range
+     * @param stopIndex The index of the token following the range, which must be the start of a statement or EOF
+     * @return The statements, or null if the range is not a sequence of complete statements that can be parsed with
+     * SLL prediction
+     */
+    public static List<cqlParser.StatementContext> parseStatements(cqlParser parser, int startIndex, int stopIndex) {
+        CqlParserCache.configure(parser);
+        List<ANTLRErrorListener> errorListeners = new ArrayList<>(parser.getErrorListeners());
+        ANTLRErrorStrategy errorHandler = parser.getErrorHandler();
+        PredictionMode predictionMode = parser.getInterpreter().getPredictionMode();
+
+        parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+        parser.removeErrorListeners();
+        parser.setErrorHandler(new BailErrorStrategy());
+        try {
+            parser.reset();
+            parser.getInputStream().seek(startIndex);
+            List<cqlParser.StatementContext> statements = new ArrayList<>();
+            while (parser.getCurrentToken().getTokenIndex() < stopIndex) {
+                statements.add(parser.statement());
+            }
+            return parser.getCurrentToken().getTokenIndex() == stopIndex ? statements : null;
+        }
+        catch (ParseCancellationException e) {
+            return null;
+        }
+        finally {
+            for (ANTLRErrorListener errorListener : errorListeners) {
+                parser.addErrorListener(errorListener);
+            }
+            parser.setErrorHandler(errorHandler);
+            parser.getInterpreter().setPredictionMode(predictionMode);
+            CqlParserCache.enforceMaximumDfaStates();
+        }
+    }
+
+    private static cqlParser.LibraryContext parseTwoStage(cqlParser parser) {
+        List<ANTLRErrorListener> errorListeners = new ArrayList<>(parser.getErrorListeners());
+        ANTLRErrorStrategy errorHandler = parser.getErrorHandler();
+        PredictionMode predictionMode = parser.getInterpreter().getPredictionMode();
+
+        parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+        parser.removeErrorListeners();
+        parser.setErrorHandler(new BailErrorStrategy());
+        try {
+            return parser.library();
+        }
+        catch (ParseCancellationException e) {
+            // Rewinds the token stream, which retains the tokens already read
+            parser.reset();
+        }
+        finally {
+            for (ANTLRErrorListener errorListener : errorListeners) {
+                parser.addErrorListener(errorListener);
+            }
+            parser.setErrorHandler(errorHandler);
+            parser.getInterpreter().setPredictionMode(predictionMode);
+        }
+
+        return parser.library();
+    }
+}
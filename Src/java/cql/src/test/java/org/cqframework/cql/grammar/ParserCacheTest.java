@@ -0,0 +1,87 @@
+package org.cqframework.cql.grammar;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.cqframework.cql.CqlParserCache;
+import org.cqframework.cql.CqlParserUtil;
+import org.cqframework.cql.gen.cqlLexer;
+import org.cqframework.cql.gen.cqlParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class ParserCacheTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(ParserCacheTest.class);
+    private static final String LIBRARY = "library Test\n" +
+            "define \"Ages\": [Interval[1, 10], Interval[5, 15]] A where A overlaps Interval[3, 8] return start of A\n" +
+            "define \"Total\": Sum({ 1, 2, 3 }) + Count({ 'a', 'b' })\n";
+
+    @AfterMethod(alwaysRun = true)
+    public void restore() {
+        CqlParserCache.setMaximumDfaStates(0);
+    }
+
+    private static long parse(String cql) {
+        cqlParser parser = new cqlParser(new CommonTokenStream(new cqlLexer(CharStreams.fromString(cql))));
+        long start = System.nanoTime();
+        CqlParserUtil.parseLibrary(parser);
+        return System.nanoTime() - start;
+    }
+
+    @Test
+    public void warmUpAndReset() {
+        CqlParserCache.reset();
+        assertEquals(CqlParserCache.getParserDfaStateCount(), 0);
+        assertEquals(CqlParserCache.getLexerDfaStateCount(), 0);
+
+        long resetCount = CqlParserCache.getResetCount();
+        CqlParserCache.warmUp();
+        assertTrue(CqlParserCache.getParserDfaStateCount() > 0);
+        assertTrue(CqlParserCache.getLexerDfaStateCount() > 0);
+        assertTrue(CqlParserCache.getContextCacheSize() > 0);
+
+        CqlParserCache.reset();
+        assertEquals(CqlParserCache.getParserDfaStateCount(), 0);
+        assertEquals(CqlParserCache.getContextCacheSize(), 0);
+        assertEquals(CqlParserCache.getResetCount(), resetCount + 1);
+    }
+
+    /**
+     * Reports the time to parse a library after a reset, and after a warm-up.
+     */
+    @Test(groups = "benchmark")
+    public void warmUpPerformance() {
+        CqlParserCache.reset();
+        long coldTime = parse(LIBRARY);
+
+        CqlParserCache.reset();
+        CqlParserCache.warmUp();
+        long warmTime = parse(LIBRARY);
+
+        logger.info("Parse after reset {} us, after warm-up {} us; warm-up built {} parser and {} lexer DFA states",
+                coldTime / 1000, warmTime / 1000, CqlParserCache.getParserDfaStateCount(), CqlParserCache.getLexerDfaStateCount());
+    }
+
+    @Test
+    public void maximumDfaStates() {
+        CqlParserCache.reset();
+        CqlParserCache.warmUp(LIBRARY);
+        int states = CqlParserCache.getParserDfaStateCount();
+        assertTrue(states > 0);
+
+        long resetCount = CqlParserCache.getResetCount();
+        CqlParserCache.setMaximumDfaStates(states);
+        CqlParserCache.warmUp(LIBRARY);
+        assertEquals(CqlParserCache.getResetCount(), resetCount);
+
+        // Parsing a different library grows the caches beyond the maximum, so they are reset
+        CqlParserCache.warmUp();
+        assertTrue(CqlParserCache.getResetCount() > resetCount);
+        assertTrue(CqlParserCache.getParserDfaStateCount() <= states);
+    }
+}
@@ -0,0 +1,109 @@
+package org.cqframework.cql.grammar;
+
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.cqframework.cql.CqlParserUtil;
+import org.cqframework.cql.gen.cqlLexer;
+import org.cqframework.cql.gen.cqlParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * Compares full LL parsing with two-stage (SLL, then LL) parsing over the Examples corpus. The two strategies must
+ * produce the same parse trees and syntax errors; timings for each are reported.
+ */
+public class ParserPerformanceTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(ParserPerformanceTest.class);
+
+    private static class ErrorCollector extends BaseErrorListener {
+        final List<String> errors = new ArrayList<>();
+
+        @Override
+        public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line, int charPositionInLine, String msg, RecognitionException e) {
+            errors.add(String.format("%d:%d %s", line, charPositionInLine, msg));
+        }
+    }
+
+    private static File[] getExamples() {
+        File examplesDirectory = new File(System.getProperty("cql.examples.dir", "../../../Examples"));
+        File[] examples = examplesDirectory.listFiles((dir, name) -> name.endsWith(".cql"));
+        if (examples == null || examples.length == 0) {
+            throw new SkipException(String.format("No examples found in %s", examplesDirectory.getAbsolutePath()));
+        }
+        return examples;
+    }
+
+    private static cqlParser createParser(File file, ErrorCollector errors) throws IOException {
+        cqlLexer lexer = new cqlLexer(CharStreams.fromFileName(file.getPath()));
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(errors);
+        cqlParser parser = new cqlParser(new CommonTokenStream(lexer));
+        parser.setBuildParseTree(true);
+        parser.removeErrorListeners();
+        parser.addErrorListener(errors);
+        return parser;
+    }
+
+    @Test
+    public void twoStageParsingMatchesLL() throws IOException {
+        for (File example : getExamples()) {
+            ErrorCollector llErrors = new ErrorCollector();
+            cqlParser llParser = createParser(example, llErrors);
+            llParser.getInterpreter().setPredictionMode(PredictionMode.LL);
+            ParseTree llTree = llParser.library();
+
+            ErrorCollector twoStageErrors = new ErrorCollector();
+            cqlParser twoStageParser = createParser(example, twoStageErrors);
+            ParseTree twoStageTree = CqlParserUtil.parseLibrary(twoStageParser);
+
+            assertEquals(twoStageTree.toStringTree(twoStageParser), llTree.toStringTree(llParser), example.getName());
+            assertEquals(twoStageErrors.errors, llErrors.errors, example.getName());
+        }
+    }
+
+    @Test(groups = "benchmark")
+    public void twoStageParsingPerformance() throws IOException {
+        File[] examples = getExamples();
+        long llTime = 0;
+        long twoStageTime = 0;
+        int iterations = 5;
+        // The first pass warms up the parser's DFA cache and is not measured
+        for (int i = 0; i <= iterations; i++) {
+            for (File example : examples) {
+                cqlParser parser = createParser(example, new ErrorCollector());
+                parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+                long start = System.nanoTime();
+                parser.library();
+                long llElapsed = System.nanoTime() - start;
+
+                parser = createParser(example, new ErrorCollector());
+                start = System.nanoTime();
+                CqlParserUtil.parseLibrary(parser);
+                long twoStageElapsed = System.nanoTime() - start;
+
+                if (i > 0) {
+                    llTime += llElapsed;
+                    twoStageTime += twoStageElapsed;
+                }
+            }
+        }
+
+        logger.info("Parsed {} examples {} times: LL {} ms, SLL then LL {} ms",
+                examples.length, iterations, llTime / 1000000, twoStageTime / 1000000);
+    }
+}
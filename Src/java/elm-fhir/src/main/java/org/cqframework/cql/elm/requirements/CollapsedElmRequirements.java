@@ -1,33 +1,30 @@
 package org.cqframework.cql.elm.requirements;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class CollapsedElmRequirements {
 
-    private List<ElmRequirement> uniqueRequirements = new ArrayList<ElmRequirement>();
+    // Keyed by equivalence, so that the equivalent of a requirement is found by its hash rather than by comparing it
+    // with each unique requirement
+    private Map<ComparableElmRequirement, ElmRequirement> uniqueRequirements = new LinkedHashMap<ComparableElmRequirement, ElmRequirement>();
     public Iterable<ElmRequirement> getUniqueRequirements() {
-        return uniqueRequirements;
+        return uniqueRequirements.values();
     }
 
     public void add(ElmRequirement requirement) {
-        ElmRequirement existing = getEquivalent(requirement);
+        ComparableElmRequirement key = new ComparableElmRequirement(requirement);
+        ElmRequirement existing = uniqueRequirements.remove(key);
         if (existing == null) {
-            uniqueRequirements.add(requirement);
+            uniqueRequirements.put(key, requirement);
         }
         else {
-            uniqueRequirements.remove(existing);
-            uniqueRequirements.add(ComparableElmRequirement.mergeRequirements(existing, requirement));
+            ElmRequirement merged = ComparableElmRequirement.mergeRequirements(existing, requirement);
+            uniqueRequirements.put(new ComparableElmRequirement(merged), merged);
         }
     }
 
     public ElmRequirement getEquivalent(ElmRequirement requirement) {
-        for (ElmRequirement existing : uniqueRequirements) {
-            if (ComparableElmRequirement.requirementsEquivalent(existing, requirement)) {
-                return existing;
-            }
-        }
-
-        return null;
+        return uniqueRequirements.get(new ComparableElmRequirement(requirement));
     }
 }
@@ -5,6 +5,7 @@ import org.hl7.elm.r1.*;
 import org.w3._1999.xhtml.P;
 
 import java.util.Iterator;
+import java.util.Objects;
 
 import static org.cqframework.cql.elm.evaluating.SimpleElmEvaluator.*;
 
@@ -24,13 +25,29 @@ public class ComparableElmRequirement {
 
     @Override
     public int hashCode() {
-        // Hashing only by the type/profile
+        // Hashing only by the type/profile and the properties and search parameters of the retrieve and its filters.
+        // Codes, date ranges, filter values, and the context and id of the retrieve are expressions compared by
+        // evaluation, so are not hashed
         if (requirement.getElement() instanceof Retrieve) {
             Retrieve retrieve = (Retrieve)this.requirement.getElement();
-            String typeUri = retrieve.getTemplateId() != null ? retrieve.getTemplateId() : (retrieve.getDataType() != null && retrieve.getDataType().getLocalPart() != null ? retrieve.getDataType().getLocalPart() : null);
-            if (typeUri != null) {
-                return typeUri.hashCode();
+            int hash = Objects.hash(retrieve.getDataType(), retrieve.getTemplateId(), retrieve.getContextProperty(),
+                    retrieve.getContextSearch(), retrieve.getCodeProperty(), retrieve.getCodeSearch(),
+                    retrieve.getCodeComparator(), retrieve.getValueSetProperty(), retrieve.getDateProperty(),
+                    retrieve.getDateLowProperty(), retrieve.getDateHighProperty(), retrieve.getDateSearch(),
+                    retrieve.getIdProperty(), retrieve.getIdSearch(), retrieve.getIncludedIn());
+            for (CodeFilterElement cfe : retrieve.getCodeFilter()) {
+                hash = 31 * hash + Objects.hash(cfe.getProperty(), cfe.getSearch(), cfe.getComparator(), cfe.getValueSetProperty());
             }
+            for (DateFilterElement dfe : retrieve.getDateFilter()) {
+                hash = 31 * hash + Objects.hash(dfe.getProperty(), dfe.getLowProperty(), dfe.getHighProperty(), dfe.getSearch());
+            }
+            for (OtherFilterElement ofe : retrieve.getOtherFilter()) {
+                hash = 31 * hash + Objects.hash(ofe.getProperty(), ofe.getSearch(), ofe.getComparator());
+            }
+            for (IncludeElement ie : retrieve.getInclude()) {
+                hash = 31 * hash + Objects.hash(ie.getRelatedDataType(), ie.getRelatedProperty(), ie.getRelatedSearch());
+            }
+            return hash;
         }
 
         return super.hashCode();
@@ -242,7 +259,7 @@ public class ComparableElmRequirement {
                 && includeElementsEqual(retrieve.getInclude(), otherRetrieve.getInclude());
     }
 
-    private static boolean hasInclude(Retrieve retrieve, IncludeElement includeElement) {
+    public static boolean hasInclude(Retrieve retrieve, IncludeElement includeElement) {
         for (IncludeElement e : retrieve.getInclude()) {
             if (includeElementsEqual(e, includeElement)) {
                 return true;
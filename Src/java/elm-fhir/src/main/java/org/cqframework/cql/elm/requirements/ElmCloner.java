@@ -48,6 +48,20 @@ public class ElmCloner {
         return clonedElm;
     }
 
+    /*
+    Copies a retrieve exactly, including the references to other retrieves that a clone leaves out, for a copy that
+    stands in for the retrieve rather than one inferred from it
+     */
+    public static Retrieve copy(Retrieve elm) {
+        Retrieve copiedElm = clone(elm);
+        copiedElm.setIncludedIn(elm.getIncludedIn());
+        for (int i = 0; i < elm.getInclude().size(); i++) {
+            copiedElm.getInclude().get(i).setIncludeFrom(elm.getInclude().get(i).getIncludeFrom());
+        }
+        copiedElm.getTrackbacks().addAll(elm.getTrackbacks());
+        return copiedElm;
+    }
+
     public static Property clone(Property elm) {
         Property clonedElm = new Property();
         cloneElement(elm, clonedElm);
@@ -84,6 +98,8 @@ public class ElmCloner {
         DateFilterElement clonedElm = new DateFilterElement();
         cloneElement(elm, clonedElm);
         clonedElm.setProperty(elm.getProperty());
+        clonedElm.setLowProperty(elm.getLowProperty());
+        clonedElm.setHighProperty(elm.getHighProperty());
         clonedElm.setSearch(elm.getSearch());
         clonedElm.setValue(clone(elm.getValue()));
         return clonedElm;
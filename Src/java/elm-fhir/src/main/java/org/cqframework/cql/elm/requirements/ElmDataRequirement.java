@@ -71,7 +71,10 @@ public class ElmDataRequirement extends ElmExpressionRequirement {
     private static ElmDataRequirement inferFrom(ElmDataRequirement requirement) {
         Retrieve inferredRetrieve = ElmCloner.clone(requirement.getRetrieve());
         ElmDataRequirement result = new ElmDataRequirement(requirement.libraryIdentifier, inferredRetrieve, requirement.getRetrieve());
-        result.propertySet = requirement.propertySet;
+        // The properties reported for the inferred requirement are not reported for the requirement it is inferred from
+        if (requirement.propertySet != null) {
+            result.propertySet = new LinkedHashSet<Property>(requirement.propertySet);
+        }
         return result;
     }
 
@@ -370,22 +373,27 @@ public class ElmDataRequirement extends ElmExpressionRequirement {
                 if (rightRetrieve.getLocalId() == null) {
                     rightRetrieve.setLocalId(context.generateLocalId());
                 }
+                // The include is only added once, however many times the requirements are applied
                 if (rightRequirement.getQuerySource() instanceof With) {
-                    leftRetrieve.getInclude().add(
-                            new IncludeElement()
-                                    .withIncludeFrom(rightRetrieve.getLocalId())
-                                    .withRelatedDataType(rightRetrieve.getDataType())
-                                    .withRelatedProperty(joinRequirement.getLeftProperty().getProperty().getPath())
-                                    .withIsReverse(false));
+                    IncludeElement includeElement = new IncludeElement()
+                            .withIncludeFrom(rightRetrieve.getLocalId())
+                            .withRelatedDataType(rightRetrieve.getDataType())
+                            .withRelatedProperty(joinRequirement.getLeftProperty().getProperty().getPath())
+                            .withIsReverse(false);
+                    if (!ComparableElmRequirement.hasInclude(leftRetrieve, includeElement)) {
+                        leftRetrieve.getInclude().add(includeElement);
+                    }
                     rightRetrieve.setIncludedIn(leftRetrieve.getLocalId());
                 }
                 else {
-                    rightRetrieve.getInclude().add(
-                            new IncludeElement()
-                                    .withIncludeFrom(leftRetrieve.getLocalId())
-                                    .withRelatedDataType(leftRetrieve.getDataType())
-                                    .withRelatedProperty(joinRequirement.getRightProperty().getProperty().getPath())
-                                    .withIsReverse(false));
+                    IncludeElement includeElement = new IncludeElement()
+                            .withIncludeFrom(leftRetrieve.getLocalId())
+                            .withRelatedDataType(leftRetrieve.getDataType())
+                            .withRelatedProperty(joinRequirement.getRightProperty().getProperty().getPath())
+                            .withIsReverse(false);
+                    if (!ComparableElmRequirement.hasInclude(rightRetrieve, includeElement)) {
+                        rightRetrieve.getInclude().add(includeElement);
+                    }
                     leftRetrieve.setIncludedIn(rightRetrieve.getLocalId());
                 }
             }
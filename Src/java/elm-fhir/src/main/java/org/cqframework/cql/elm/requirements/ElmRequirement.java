@@ -32,9 +32,11 @@ public class ElmRequirement {
         return requirement != null && requirement.getElement() == element;
     }
 
+    // Requirements are equal only if they are for the same element, so hash the element by identity rather than
+    // by value, which would traverse the element's entire tree
     @Override
     public int hashCode() {
-        return 47 + (39 * libraryIdentifier.hashCode()) + (53 * element.hashCode());
+        return 47 + (39 * libraryIdentifier.hashCode()) + (53 * System.identityHashCode(element));
     }
 
     @Override
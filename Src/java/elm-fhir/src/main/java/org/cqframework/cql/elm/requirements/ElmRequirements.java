@@ -4,9 +4,7 @@ import org.hl7.elm.r1.*;
 
 import java.util.*;
 import java.util.List;
-import java.util.stream.Collectors;
 
-import static java.util.stream.Collectors.toList;
 public class ElmRequirements extends ElmRequirement {
 
     private HashSet<ElmRequirement> requirements = new LinkedHashSet<ElmRequirement>();
@@ -14,6 +12,9 @@ public class ElmRequirements extends ElmRequirement {
         return requirements;
     }
 
+    // The requirements for each kind of definition, and for retrieves, in the order they were reported
+    private Map<Class<? extends Element>, List<ElmRequirement>> requirementsByKind = new HashMap<Class<? extends Element>, List<ElmRequirement>>();
+
     public ElmRequirements(VersionedIdentifier libraryIdentifier, Element element) {
         super(libraryIdentifier, element);
     }
@@ -26,49 +27,93 @@ public class ElmRequirements extends ElmRequirement {
         }
         else {
             if (requirement != null) {
-                requirements.add(requirement);
+                if (requirements.add(requirement)) {
+                    Class<? extends Element> kind = getKind(requirement.getElement());
+                    if (kind != null) {
+                        requirementsByKind.computeIfAbsent(kind, k -> new ArrayList<ElmRequirement>()).add(requirement);
+                    }
+                }
             }
         }
     }
 
+    private static Class<? extends Element> getKind(Element element) {
+        if (element instanceof UsingDef) {
+            return UsingDef.class;
+        }
+        if (element instanceof IncludeDef) {
+            return IncludeDef.class;
+        }
+        if (element instanceof CodeSystemDef) {
+            return CodeSystemDef.class;
+        }
+        if (element instanceof ValueSetDef) {
+            return ValueSetDef.class;
+        }
+        if (element instanceof CodeDef) {
+            return CodeDef.class;
+        }
+        if (element instanceof ConceptDef) {
+            return ConceptDef.class;
+        }
+        if (element instanceof ParameterDef) {
+            return ParameterDef.class;
+        }
+        if (element instanceof FunctionDef) {
+            return FunctionDef.class;
+        }
+        if (element instanceof ExpressionDef) {
+            return ExpressionDef.class;
+        }
+        if (element instanceof Retrieve) {
+            return Retrieve.class;
+        }
+        return null;
+    }
+
+    private Iterable<ElmRequirement> getRequirements(Class<? extends Element> kind) {
+        List<ElmRequirement> result = requirementsByKind.get(kind);
+        return result != null ? Collections.unmodifiableList(result) : Collections.<ElmRequirement>emptyList();
+    }
+
     public Iterable<ElmRequirement> getUsingDefs() {
-        return requirements.stream().filter(x -> x.getElement() instanceof UsingDef).collect(Collectors.toList());
+        return getRequirements(UsingDef.class);
     }
 
     public Iterable<ElmRequirement> getIncludeDefs() {
-        return requirements.stream().filter(x -> x.getElement() instanceof IncludeDef).collect(Collectors.toList());
+        return getRequirements(IncludeDef.class);
     }
 
     public Iterable<ElmRequirement> getCodeSystemDefs() {
-        return requirements.stream().filter(x -> x.getElement() instanceof CodeSystemDef).collect(Collectors.toList());
+        return getRequirements(CodeSystemDef.class);
     }
 
     public Iterable<ElmRequirement> getValueSetDefs() {
-        return requirements.stream().filter(x -> x.getElement() instanceof ValueSetDef).collect(Collectors.toList());
+        return getRequirements(ValueSetDef.class);
     }
 
     public Iterable<ElmRequirement> getCodeDefs() {
-        return requirements.stream().filter(x -> x.getElement() instanceof CodeDef).collect(Collectors.toList());
+        return getRequirements(CodeDef.class);
     }
 
     public Iterable<ElmRequirement> getConceptDefs() {
-        return requirements.stream().filter(x -> x.getElement() instanceof ConceptDef).collect(Collectors.toList());
+        return getRequirements(ConceptDef.class);
     }
 
     public Iterable<ElmRequirement> getParameterDefs() {
-        return requirements.stream().filter(x -> x.getElement() instanceof ParameterDef).collect(Collectors.toList());
+        return getRequirements(ParameterDef.class);
     }
 
     public Iterable<ElmRequirement> getExpressionDefs() {
-        return requirements.stream().filter(x -> x.getElement() instanceof ExpressionDef && !(x.getElement() instanceof FunctionDef)).collect(Collectors.toList());
+        return getRequirements(ExpressionDef.class);
     }
 
     public Iterable<ElmRequirement> getFunctionDefs() {
-        return requirements.stream().filter(x -> x.getElement() instanceof FunctionDef).collect(Collectors.toList());
+        return getRequirements(FunctionDef.class);
     }
 
     public Iterable<ElmRequirement> getRetrieves() {
-        return requirements.stream().filter(x -> x.getElement() instanceof Retrieve).collect(Collectors.toList());
+        return getRequirements(Retrieve.class);
     }
 
     /*
@@ -0,0 +1,82 @@
+package org.cqframework.cql.elm.requirements;
+
+import org.hl7.elm.r1.ExpressionDef;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Caches the requirements of the expression definitions visited by requirements analysis, so that the definitions of
+ * libraries shared between artifacts (such as SupplementalDataElements) are only analyzed once. A cache can be shared
+ * by any number of requirements contexts, including concurrently.
+ *
+ * Entries are keyed by the library, the name of the definition, and whether data requirements are analyzed, and are
+ * only used for the same instance of the definition they were recorded for, so a library that is translated or loaded
+ * again is analyzed again.
+ *
+ * The requirements in the cache are copies of the requirements that were recorded, and a context replays copies of
+ * them, so they are never shared with a context, which changes its requirements as it analyzes the expressions that
+ * refer to them.
+ */
+public class ElmRequirementsCache {
+
+    /*
+    An event recorded with the requirements of a definition, which reports them to a context when they are replayed
+     */
+    interface Event {
+        void replay(ElmRequirementsContext context, ElmRequirementsCopier copier);
+
+        /*
+        Returns the event with copies of the requirements it reports, if it reports any that can be changed
+         */
+        default Event copy(ElmRequirementsCopier copier) {
+            return this;
+        }
+    }
+
+    private static class Entry {
+        private final ExpressionDef expressionDef;
+        private final List<Event> events;
+
+        Entry(ExpressionDef expressionDef, List<Event> events) {
+            this.expressionDef = expressionDef;
+            this.events = events;
+        }
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    // Local ids generated by requirements analysis are unique across the contexts that share the cache, as the
+    // requirements replayed from the cache refer to the local ids generated when they were recorded
+    private final AtomicInteger nextLocalId = new AtomicInteger(10000);
+
+    public int size() {
+        return entries.size();
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    int nextLocalId() {
+        return nextLocalId.incrementAndGet();
+    }
+
+    /*
+    Returns the recorded requirements events for the given definition, or null if there are none
+     */
+    List<Event> get(String key, ExpressionDef expressionDef) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expressionDef == expressionDef) {
+            return entry.events;
+        }
+
+        return null;
+    }
+
+    void put(String key, ExpressionDef expressionDef, List<Event> events) {
+        entries.put(key, new Entry(expressionDef, events));
+    }
+}
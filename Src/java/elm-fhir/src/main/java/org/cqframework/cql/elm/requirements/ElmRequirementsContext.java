@@ -9,6 +9,7 @@ import org.hl7.elm.r1.*;
 import javax.xml.namespace.QName;
 import java.util.*;
 import java.util.List;
+import java.util.stream.Collectors;
 
 public class ElmRequirementsContext {
 
@@ -48,12 +49,23 @@ public class ElmRequirementsContext {
 
     private TypeBuilder typeBuilder;
 
+    private ElmRequirementsCache requirementsCache;
+    public ElmRequirementsCache getRequirementsCache() {
+        return requirementsCache;
+    }
+    public void setRequirementsCache(ElmRequirementsCache requirementsCache) {
+        this.requirementsCache = requirementsCache;
+    }
+
     // Arbitrary starting point for generated local Ids.
     // If the input ELM does not have local Ids, some of the optimization
     // outputs require references to be established between ELM nodes,
     // so local ids are generated if not present in those cases.
     private int nextLocalId = 10000;
     public String generateLocalId() {
+        if (requirementsCache != null) {
+            return String.format("G%d", requirementsCache.nextLocalId());
+        }
         nextLocalId++;
         return String.format("G%d", nextLocalId);
     }
@@ -73,8 +85,28 @@ public class ElmRequirementsContext {
         ElmExpressionDefContext expressionDefContext = expressionDefStack.pop();
         ExpressionDef ed = expressionDefContext.getExpressionDef();
         reportExpressionDef(ed);
-        this.reportedRequirements.put(ed, expressionDefContext.getReportedRequirements());
+        reportExpressionDefRequirements(ed, expressionDefContext.getReportedRequirements(), inferredRequirements);
+    }
+    private void reportExpressionDefRequirements(ExpressionDef ed, ElmRequirements reportedRequirements, ElmRequirement inferredRequirements) {
+        if (this.reportedRequirements.put(ed, reportedRequirements) == null) {
+            this.expressionDefs.add(ed);
+        }
         this.inferredRequirements.put(ed, inferredRequirements);
+        record(expressionDefRequirementsEvent(ed, reportedRequirements, inferredRequirements));
+    }
+    private static ElmRequirementsCache.Event expressionDefRequirementsEvent(ExpressionDef ed, ElmRequirements reportedRequirements,
+                                                                           ElmRequirement inferredRequirements) {
+        return new ElmRequirementsCache.Event() {
+            @Override
+            public void replay(ElmRequirementsContext context, ElmRequirementsCopier copier) {
+                context.reportExpressionDefRequirements(ed, copier.copy(reportedRequirements), copier.copy(inferredRequirements));
+            }
+
+            @Override
+            public ElmRequirementsCache.Event copy(ElmRequirementsCopier copier) {
+                return expressionDefRequirementsEvent(ed, copier.copy(reportedRequirements), copier.copy(inferredRequirements));
+            }
+        };
     }
     public ElmExpressionDefContext getCurrentExpressionDefContext() {
         if (expressionDefStack.empty()) {
@@ -86,15 +118,21 @@ public class ElmRequirementsContext {
         return !expressionDefStack.empty();
     }
 
+    /*
+    Expression defs are tracked by identity, as the ELM classes compare and hash by value, which traverses the entire
+    expression tree. The expression defs are listed in the order they were visited.
+     */
+    private List<ExpressionDef> expressionDefs = new ArrayList<ExpressionDef>();
+
     /*
     Reported requirements are collected during the traversal, reported at query boundaries, or at retrieves
     that are outside of a query scope.
     These are collected by the ElmExpressionDefContext as expression defs are visited, and reported to the context after
     the visit is complete
      */
-    private Map<ExpressionDef, ElmRequirements> reportedRequirements = new LinkedHashMap<ExpressionDef, ElmRequirements>();
+    private Map<ExpressionDef, ElmRequirements> reportedRequirements = new IdentityHashMap<ExpressionDef, ElmRequirements>();
     public Iterable<ElmRequirements> getReportedRequirements() {
-        return reportedRequirements.values();
+        return expressionDefs.stream().map(reportedRequirements::get).collect(Collectors.toList());
     }
     public ElmRequirements getReportedRequirements(ExpressionDef ed) {
         return reportedRequirements.get(ed);
@@ -104,9 +142,9 @@ public class ElmRequirementsContext {
     Inferred requirements are the result of the traversal, the computed/inferred data requirements for an expression.
     These are calculated by the visit and reported to the context here after the visit is complete
      */
-    private Map<ExpressionDef, ElmRequirement> inferredRequirements = new LinkedHashMap<ExpressionDef, ElmRequirement>();
+    private Map<ExpressionDef, ElmRequirement> inferredRequirements = new IdentityHashMap<ExpressionDef, ElmRequirement>();
     public Iterable<ElmRequirement> getInferredRequirements() {
-        return inferredRequirements.values();
+        return expressionDefs.stream().map(inferredRequirements::get).collect(Collectors.toList());
     }
     public ElmRequirement getInferredRequirements(ExpressionDef ed) {
         return inferredRequirements.get(ed);
@@ -138,9 +176,7 @@ public class ElmRequirementsContext {
         TranslatedLibrary targetLibrary = resolveLibrary(libraryIdentifier);
         if (localLibraryName != null) {
             IncludeDef includeDef = targetLibrary.resolveIncludeRef(localLibraryName);
-            if (!visited.contains(includeDef)) {
-                visitor.visitElement(includeDef, this);
-            }
+            visitDefinition(includeDef);
             targetLibrary = resolveLibraryFromIncludeDef(includeDef);
             enterLibrary(targetLibrary.getIdentifier());
         }
@@ -174,7 +210,87 @@ public class ElmRequirementsContext {
         return getCurrentExpressionDefContext().resolveLet(letName);
     }
 
-    private Set<Element> visited = new LinkedHashSet<Element>();
+    private Set<Element> visited = Collections.newSetFromMap(new IdentityHashMap<Element, Boolean>());
+
+    /*
+    While the requirements of a definition are being recorded for the cache, everything the visit reports to the
+    context is recorded as an event that reports it again when the requirements are replayed. Visits are nested,
+    so each event is recorded by every recording in progress.
+    The cache keeps copies of the requirements that were recorded, made when the recording is complete, and the events
+    replay copies of those. The copier pairs the requirements of this context with their copies in the cache, so that
+    recording requirements that were replayed puts the requirements they were replayed from in the cache.
+     */
+    private Stack<List<ElmRequirementsCache.Event>> recordings = new Stack<List<ElmRequirementsCache.Event>>();
+    private ElmRequirementsCopier copier = new ElmRequirementsCopier();
+    private void record(ElmRequirementsCache.Event event) {
+        for (List<ElmRequirementsCache.Event> recording : recordings) {
+            recording.add(event);
+        }
+    }
+
+    /*
+    Visits a definition in the current library, unless it has already been visited.
+    If a cache is in use, the requirements of expression definitions are replayed from the cache, or recorded to it if
+    they are not there. Function definitions are not cached, as their requirements are reported to the expression
+    that calls them. A definition that has already been visited is recorded as a reference to it, so that replaying
+    the definition that refers to it visits it as well.
+     */
+    private void visitDefinition(Element def) {
+        VersionedIdentifier libraryIdentifier = getCurrentLibraryIdentifier();
+        if (visited.contains(def)) {
+            record((context, copier) -> context.visitDefinition(libraryIdentifier, def));
+            return;
+        }
+
+        if (requirementsCache == null || !(def instanceof ExpressionDef) || def instanceof FunctionDef) {
+            visitor.visitElement(def, this);
+            return;
+        }
+
+        ExpressionDef ed = (ExpressionDef)def;
+        String key = getCacheKey(libraryIdentifier, ed);
+        List<ElmRequirementsCache.Event> events = requirementsCache.get(key, ed);
+        if (events != null) {
+            for (ElmRequirementsCache.Event event : events) {
+                event.replay(this, copier);
+            }
+            return;
+        }
+
+        // Data requirements for unbound property references are not shared with the rest of the context, as they
+        // would be shared between contexts through the cache
+        List<ElmRequirementsCache.Event> recording = new ArrayList<ElmRequirementsCache.Event>();
+        Map<QName, ElmDataRequirement> outerUnboundDataRequirements = unboundDataRequirements;
+        unboundDataRequirements = new LinkedHashMap<QName, ElmDataRequirement>();
+        recordings.push(recording);
+        try {
+            visitor.visitElement(ed, this);
+        }
+        finally {
+            recordings.pop();
+            unboundDataRequirements = outerUnboundDataRequirements;
+        }
+        List<ElmRequirementsCache.Event> copies = new ArrayList<ElmRequirementsCache.Event>();
+        for (ElmRequirementsCache.Event event : recording) {
+            copies.add(event.copy(copier));
+        }
+        requirementsCache.put(key, ed, copies);
+    }
+
+    private void visitDefinition(VersionedIdentifier libraryIdentifier, Element def) {
+        enterLibrary(libraryIdentifier);
+        try {
+            visitDefinition(def);
+        }
+        finally {
+            exitLibrary();
+        }
+    }
+
+    private String getCacheKey(VersionedIdentifier libraryIdentifier, ExpressionDef ed) {
+        return String.format("%s|%s|%s|%s|%b", libraryIdentifier.getSystem(), libraryIdentifier.getId(),
+                libraryIdentifier.getVersion(), ed.getName(), options != null && options.getAnalyzeDataRequirements());
+    }
 
     private ElmRequirements requirements;
     public ElmRequirements getRequirements() {
@@ -203,6 +319,7 @@ public class ElmRequirementsContext {
         if (isDefinition(requirement.getElement())) {
             visited.add(requirement.getElement());
             requirements.reportRequirement(requirement);
+            record((context, copier) -> context.reportRequirement(requirement));
         }
         else {
             if (expressionDefStack.empty()) {
@@ -264,9 +381,7 @@ public class ElmRequirementsContext {
         TranslatedLibrary targetLibrary = prepareLibraryVisit(getCurrentLibraryIdentifier(), codeRef.getLibraryName());
         try {
             CodeDef cd = targetLibrary.resolveCodeRef(codeRef.getName());
-            if (!visited.contains(cd)) {
-                visitor.visitElement(cd, this);
-            }
+            visitDefinition(cd);
         }
         finally {
             unprepareLibraryVisit(codeRef.getLibraryName());
@@ -277,9 +392,7 @@ public class ElmRequirementsContext {
         TranslatedLibrary targetLibrary = prepareLibraryVisit(getCurrentLibraryIdentifier(), codeSystemRef.getLibraryName());
         try {
             CodeSystemDef csd = targetLibrary.resolveCodeSystemRef(codeSystemRef.getName());
-            if (!visited.contains(csd)) {
-                visitor.visitElement(csd, this);
-            }
+            visitDefinition(csd);
         }
         finally {
             unprepareLibraryVisit(codeSystemRef.getLibraryName());
@@ -290,9 +403,7 @@ public class ElmRequirementsContext {
         TranslatedLibrary targetLibrary = prepareLibraryVisit(getCurrentLibraryIdentifier(), conceptRef.getLibraryName());
         try {
             ConceptDef cd = targetLibrary.resolveConceptRef(conceptRef.getName());
-            if (!visited.contains(cd)) {
-                visitor.visitElement(cd, this);
-            }
+            visitDefinition(cd);
         }
         finally {
             unprepareLibraryVisit(conceptRef.getLibraryName());
@@ -303,9 +414,7 @@ public class ElmRequirementsContext {
         TranslatedLibrary targetLibrary = prepareLibraryVisit(getCurrentLibraryIdentifier(), parameterRef.getLibraryName());
         try {
             ParameterDef pd = targetLibrary.resolveParameterRef(parameterRef.getName());
-            if (!visited.contains(pd)) {
-                visitor.visitElement(pd, this);
-            }
+            visitDefinition(pd);
         }
         finally {
             unprepareLibraryVisit(parameterRef.getLibraryName());
@@ -316,9 +425,7 @@ public class ElmRequirementsContext {
         TranslatedLibrary targetLibrary = prepareLibraryVisit(getCurrentLibraryIdentifier(), valueSetRef.getLibraryName());
         try {
             ValueSetDef vsd = targetLibrary.resolveValueSetRef(valueSetRef.getName());
-            if (!visited.contains(vsd)) {
-                visitor.visitElement(vsd, this);
-            }
+            visitDefinition(vsd);
         }
         finally {
             unprepareLibraryVisit(valueSetRef.getLibraryName());
@@ -329,10 +436,15 @@ public class ElmRequirementsContext {
         TranslatedLibrary targetLibrary = prepareLibraryVisit(getCurrentLibraryIdentifier(), expressionRef.getLibraryName());
         try {
             ExpressionDef ed = targetLibrary.resolveExpressionRef(expressionRef.getName());
-            if (!visited.contains(ed)) {
-                visitor.visitElement(ed, this);
-            }
+            visitDefinition(ed);
             ElmRequirement inferredRequirements = getInferredRequirements(ed);
+            // The inferred requirements may be added to by the referencing expression, so a copy is returned, and the
+            // requirements of the definition are the same however it is referenced, as when they are replayed
+            if (inferredRequirements instanceof ElmRequirements) {
+                ElmRequirements copy = new ElmRequirements(inferredRequirements.getLibraryIdentifier(), inferredRequirements.getElement());
+                copy.reportRequirement(inferredRequirements);
+                inferredRequirements = copy;
+            }
 
             // Report data requirements for this expression def to the current context (that are not already part of the inferred requirements
             ElmRequirements reportedRequirements = getReportedRequirements(ed);
@@ -378,9 +490,7 @@ public class ElmRequirementsContext {
 
             Iterable<FunctionDef> fds = targetLibrary.resolveFunctionRef(functionRef.getName(), signature);
             for (FunctionDef fd : fds) {
-                if (!visited.contains(fd)) {
-                    visitor.visitElement(fd, this);
-                }
+                visitDefinition(fd);
             }
         }
         finally {
@@ -388,6 +498,29 @@ public class ElmRequirementsContext {
         }
     }
 
+    /*
+    Requirements analysis adds the filters and includes it infers to the retrieves of data requirements, so the
+    retrieves of the library are annotated in place. When the requirements are shared with other contexts through a
+    cache, or other contexts may be analyzing the same libraries, the requirements of this context are instead for its
+    own copy of each retrieve of a library, rather than the retrieve itself, which other contexts may be analyzing, or
+    may have analyzed already
+     */
+    private boolean copyRetrieves;
+    public boolean getCopyRetrieves() {
+        return copyRetrieves;
+    }
+    public void setCopyRetrieves(boolean copyRetrieves) {
+        this.copyRetrieves = copyRetrieves;
+    }
+
+    private Map<Retrieve, Retrieve> retrieves = new IdentityHashMap<Retrieve, Retrieve>();
+    public Retrieve getRetrieve(Retrieve retrieve) {
+        if (!copyRetrieves && requirementsCache == null) {
+            return retrieve;
+        }
+        return retrieves.computeIfAbsent(retrieve, ElmCloner::copy);
+    }
+
     public void reportRetrieve(Retrieve retrieve) {
         // Report the retrieve as an overall data requirement
         reportRequirement(retrieve);
@@ -0,0 +1,135 @@
+package org.cqframework.cql.elm.requirements;
+
+import org.hl7.elm.r1.Property;
+import org.hl7.elm.r1.Retrieve;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Copies requirements, so that the requirements kept by a requirements cache are never shared with the contexts that
+ * record and replay them.
+ *
+ * A copier copies each requirement and retrieve once, and pairs it with its copy both ways, so that copying the copy
+ * gives back the original. Requirements that refer to the same requirement or retrieve still do so when copied, and as
+ * requirements are compared by the identity of their elements, the requirements a context replays from the cache
+ * compare equal however many cache entries they are replayed from.
+ *
+ * Requirements that are never changed once they are built, such as property and join requirements, are not copied.
+ */
+class ElmRequirementsCopier {
+
+    private final Map<Object, Object> copies = new IdentityHashMap<Object, Object>();
+
+    @SuppressWarnings("unchecked")
+    <T extends ElmRequirement> T copy(T requirement) {
+        if (requirement == null) {
+            return null;
+        }
+
+        Object result = copies.get(requirement);
+        if (result == null) {
+            result = copyRequirement(requirement);
+            if (result != requirement) {
+                copies.put(requirement, result);
+                copies.put(result, requirement);
+            }
+        }
+        return (T)result;
+    }
+
+    Retrieve copy(Retrieve retrieve) {
+        if (retrieve == null) {
+            return null;
+        }
+
+        Retrieve result = (Retrieve)copies.get(retrieve);
+        if (result == null) {
+            result = ElmCloner.copy(retrieve);
+            copies.put(retrieve, result);
+            copies.put(result, retrieve);
+        }
+        return result;
+    }
+
+    private ElmRequirement copyRequirement(ElmRequirement requirement) {
+        if (requirement instanceof ElmRequirements) {
+            ElmRequirements requirements = (ElmRequirements)requirement;
+            ElmRequirements result = new ElmRequirements(requirements.getLibraryIdentifier(), requirements.getElement());
+            for (ElmRequirement r : requirements.getRequirements()) {
+                result.reportRequirement(copy(r));
+            }
+            return result;
+        }
+
+        if (requirement instanceof ElmDataRequirement) {
+            ElmDataRequirement dataRequirement = (ElmDataRequirement)requirement;
+            ElmDataRequirement result = new ElmDataRequirement(dataRequirement.getLibraryIdentifier(),
+                    copy(dataRequirement.getRetrieve()), copy(dataRequirement.getInferredFrom()));
+            result.setQuerySource(dataRequirement.getQuerySource());
+            if (dataRequirement.getProperties() != null) {
+                for (Property property : dataRequirement.getProperties()) {
+                    result.addProperty(property);
+                }
+            }
+            for (ElmExpressionRequirement argument : dataRequirement.getConjunctiveRequirement().getArguments()) {
+                result.getConjunctiveRequirement().getArguments().add(copy(argument));
+            }
+            return result;
+        }
+
+        if (requirement instanceof ElmQueryRequirement) {
+            ElmQueryRequirement queryRequirement = (ElmQueryRequirement)requirement;
+            ElmQueryRequirement result = new ElmQueryRequirement(queryRequirement.getLibraryIdentifier(), queryRequirement.getQuery());
+            for (ElmDataRequirement dataRequirement : queryRequirement.getDataRequirements()) {
+                result.addDataRequirements(copy(dataRequirement));
+            }
+            return result;
+        }
+
+        if (requirement instanceof ElmConjunctiveRequirement) {
+            ElmConjunctiveRequirement conjunctiveRequirement = (ElmConjunctiveRequirement)requirement;
+            ElmConjunctiveRequirement result = new ElmConjunctiveRequirement(conjunctiveRequirement.getLibraryIdentifier(),
+                    conjunctiveRequirement.getExpression());
+            for (ElmExpressionRequirement argument : conjunctiveRequirement.getArguments()) {
+                result.getArguments().add(copy(argument));
+            }
+            return result;
+        }
+
+        if (requirement instanceof ElmDisjunctiveRequirement) {
+            ElmDisjunctiveRequirement disjunctiveRequirement = (ElmDisjunctiveRequirement)requirement;
+            ElmDisjunctiveRequirement result = new ElmDisjunctiveRequirement(disjunctiveRequirement.getLibraryIdentifier(),
+                    disjunctiveRequirement.getExpression());
+            for (ElmExpressionRequirement argument : disjunctiveRequirement.getArguments()) {
+                result.getArguments().add(copy(argument));
+            }
+            return result;
+        }
+
+        if (requirement instanceof ElmOperatorRequirement) {
+            ElmOperatorRequirement operatorRequirement = (ElmOperatorRequirement)requirement;
+            ElmOperatorRequirement result = new ElmOperatorRequirement(operatorRequirement.getLibraryIdentifier(),
+                    operatorRequirement.getExpression());
+            for (ElmRequirement r : operatorRequirement.getRequirements()) {
+                result.combine((ElmExpressionRequirement)copy(r));
+            }
+            return result;
+        }
+
+        if (requirement instanceof ElmConditionRequirement) {
+            ElmConditionRequirement conditionRequirement = (ElmConditionRequirement)requirement;
+            return new ElmConditionRequirement(conditionRequirement.getLibraryIdentifier(), conditionRequirement.getExpression(),
+                    conditionRequirement.getProperty(), copy(conditionRequirement.getComparand()));
+        }
+
+        if (requirement.getElement() instanceof Retrieve) {
+            Retrieve retrieve = copy((Retrieve)requirement.getElement());
+            return requirement instanceof ElmExpressionRequirement
+                    ? new ElmExpressionRequirement(requirement.getLibraryIdentifier(), retrieve)
+                    : new ElmRequirement(requirement.getLibraryIdentifier(), retrieve);
+        }
+
+        return requirement;
+    }
+}
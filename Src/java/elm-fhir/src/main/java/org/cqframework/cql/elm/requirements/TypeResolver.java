@@ -74,20 +74,19 @@ public class TypeResolver {
     }
 
     private DataType resolveTupleTypeSpecifier(TupleTypeSpecifier typeSpecifier) {
-        TupleType tupleType = new TupleType();
+        java.util.List<TupleTypeElement> elements = new ArrayList<>();
         for (TupleElementDefinition element : typeSpecifier.getElement()) {
-            TupleTypeElement tupleElement = new TupleTypeElement(element.getName(), resolveTypeSpecifier(element.getElementType()));
-            tupleType.addElement(tupleElement);
+            elements.add(new TupleTypeElement(element.getName(), resolveTypeSpecifier(element.getElementType())));
         }
-        return tupleType;
+        return TupleType.of(elements);
     }
 
     private DataType resolveIntervalTypeSpecifier(IntervalTypeSpecifier typeSpecifier) {
-        return new IntervalType(resolveTypeSpecifier(typeSpecifier.getPointType()));
+        return IntervalType.of(resolveTypeSpecifier(typeSpecifier.getPointType()));
     }
 
     private DataType resolveListTypeSpecifier(ListTypeSpecifier typeSpecifier) {
-        return new ListType(resolveTypeSpecifier(typeSpecifier.getElementType()));
+        return ListType.of(resolveTypeSpecifier(typeSpecifier.getElementType()));
     }
 
     private DataType resolveChoiceTypeSpecifier(ChoiceTypeSpecifier typeSpecifier) {
@@ -95,7 +94,7 @@ public class TypeResolver {
         for (TypeSpecifier choiceType : typeSpecifier.getChoice()) {
             choiceTypes.add(resolveTypeSpecifier(choiceType));
         }
-        return new ChoiceType(choiceTypes);
+        return ChoiceType.of(choiceTypes);
     }
 
     public DataType resolveTypeName(String modelName, String typeName) {
@@ -13,13 +13,13 @@ import org.hl7.elm.r1.*;
 import org.hl7.elm.r1.Element;
 import org.hl7.elm.r1.Expression;
 import org.hl7.elm.r1.Property;
-import org.hl7.fhir.r5.model.*;
+import org.hl7.fhir.exceptions.FHIRException;
 import org.hl7.fhir.r5.model.Library;
-import org.hl7.fhir.r5.model.Quantity;
 import org.hl7.fhir.utilities.validation.ValidationMessage;
 import org.cqframework.cql.elm.requirements.ElmDataRequirement;
 import org.cqframework.cql.elm.requirements.ElmRequirement;
 import org.cqframework.cql.elm.requirements.ElmRequirements;
+import org.cqframework.cql.elm.requirements.ElmRequirementsCache;
 import org.cqframework.cql.elm.requirements.ElmRequirementsContext;
 import org.cqframework.cql.elm.requirements.ElmRequirementsVisitor;
 
@@ -29,6 +29,9 @@ import java.math.BigDecimal;
 import java.util.*;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class DataRequirementsProcessor {
@@ -38,6 +41,23 @@ public class DataRequirementsProcessor {
         return this.validationMessages;
     }
 
+    private ElmRequirementsCache requirementsCache;
+    public ElmRequirementsCache getRequirementsCache() {
+        return this.requirementsCache;
+    }
+    /**
+     * Sets a cache of requirements shared with other gathers. Without a cache, the filters and includes inferred for
+     * the retrieves of the libraries are written to the retrieves themselves. With a cache, each gather infers them for
+     * its own copies of the retrieves, and the libraries are left as they are.
+     */
+    public void setRequirementsCache(ElmRequirementsCache requirementsCache) {
+        this.requirementsCache = requirementsCache;
+    }
+
+    // Whether the gather infers requirements for its own copies of the retrieves of the libraries, as other gathers
+    // may be analyzing them at the same time
+    private boolean copyRetrieves;
+
     public Library gatherDataRequirements(LibraryManager libraryManager, TranslatedLibrary translatedLibrary,
                                           CqlTranslatorOptions options, Set<String> expressions,
                                           boolean includeLogicDefinitions) {
@@ -47,6 +67,22 @@ public class DataRequirementsProcessor {
     public Library gatherDataRequirements(LibraryManager libraryManager, TranslatedLibrary translatedLibrary,
                                           CqlTranslatorOptions options, Set<String> expressions,
                                           boolean includeLogicDefinitions, boolean recursive) {
+        return gatherDataRequirements(libraryManager, translatedLibrary, options, expressions, includeLogicDefinitions,
+                recursive, new R5DataRequirementsSink());
+    }
+
+    /**
+     * Gathers the data requirements of a library, emitting the module definition library through the given sink, so
+     * that the library is built directly in the FHIR version of the sink, such as R4 using an
+     * {@link R4DataRequirementsSink}.
+     *
+     * @param sink A new sink, which builds the library that is returned
+     * @return The module definition library built by the sink
+     */
+    public <L> L gatherDataRequirements(LibraryManager libraryManager, TranslatedLibrary translatedLibrary,
+                                        CqlTranslatorOptions options, Set<String> expressions,
+                                        boolean includeLogicDefinitions, boolean recursive,
+                                        DataRequirementsSink<L, ?> sink) {
         if (libraryManager == null) {
             throw new IllegalArgumentException("libraryManager required");
         }
@@ -55,8 +91,14 @@ public class DataRequirementsProcessor {
             throw new IllegalArgumentException("translatedLibrary required");
         }
 
+        if (sink == null) {
+            throw new IllegalArgumentException("sink required");
+        }
+
         ElmRequirementsVisitor visitor = new ElmRequirementsVisitor();
         ElmRequirementsContext context = new ElmRequirementsContext(libraryManager, options, visitor);
+        context.setRequirementsCache(requirementsCache);
+        context.setCopyRetrieves(copyRetrieves);
 
         List<ExpressionDef> expressionDefs = null;
         if (expressions == null) {
@@ -140,100 +182,146 @@ public class DataRequirementsProcessor {
             requirements = requirements.collapse();
         }
 
-        return createLibrary(context, requirements, translatedLibrary.getIdentifier(), expressionDefs, includeLogicDefinitions);
+        return createLibrary(context, requirements, translatedLibrary.getIdentifier(), expressionDefs, includeLogicDefinitions, sink);
     }
 
-    private Library createLibrary(ElmRequirementsContext context, ElmRequirements requirements,
-            VersionedIdentifier libraryIdentifier, Iterable<ExpressionDef> expressionDefs, boolean includeLogicDefinitions) {
-        Library returnLibrary = new Library();
-        returnLibrary.setStatus(Enumerations.PublicationStatus.ACTIVE);
-        CodeableConcept libraryType = new CodeableConcept();
-        Coding typeCoding = new Coding().setCode("module-definition");
-        typeCoding.setSystem("http://terminology.hl7.org/CodeSystem/library-type");
-        libraryType.addCoding(typeCoding);
-        returnLibrary.setType(libraryType);
-        returnLibrary.setSubject(extractSubject(context));
-        returnLibrary.getExtension().addAll(extractDirectReferenceCodes(context, requirements));
-        returnLibrary.getRelatedArtifact().addAll(extractRelatedArtifacts(context, requirements));
-        returnLibrary.getDataRequirement().addAll(extractDataRequirements(context, requirements));
-        returnLibrary.getParameter().addAll(extractParameters(context, requirements, libraryIdentifier, expressionDefs));
-        if (includeLogicDefinitions) {
-            returnLibrary.getExtension().addAll(extractLogicDefinitions(context, requirements));
+    /**
+     * Gathers the data requirements of each of a batch of libraries, such as the primary libraries of a set of
+     * measures, on a fork-join pool. Each library is gathered by its own requirements context, as the sequential
+     * gather does, so the results are the same as gathering each library on its own, and the validation messages are
+     * added in the order of the libraries. Libraries shared by the batch are resolved through the library manager, so
+     * its cache and the requirements cache of this processor are shared by the gathers. The gathers only read the
+     * shared libraries, as each infers the filters and includes of its own copies of their retrieves, whether or not
+     * there is a requirements cache, and the requirements cache gives each its own copies of the requirements it
+     * replays.
+     *
+     * @param threads The parallelism of the pool
+     * @return The module definition library for each library, in the order of the libraries
+     */
+    public List<Library> gatherDataRequirements(LibraryManager libraryManager, List<TranslatedLibrary> translatedLibraries,
+                                                CqlTranslatorOptions options, boolean includeLogicDefinitions,
+                                                int threads) throws InterruptedException {
+        if (libraryManager == null) {
+            throw new IllegalArgumentException("libraryManager required");
         }
-        return returnLibrary;
 
+        if (translatedLibraries == null) {
+            throw new IllegalArgumentException("translatedLibraries required");
+        }
+
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+
+        List<DataRequirementsProcessor> processors = new ArrayList<DataRequirementsProcessor>();
+        List<ForkJoinTask<Library>> tasks = new ArrayList<ForkJoinTask<Library>>();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            for (TranslatedLibrary translatedLibrary : translatedLibraries) {
+                DataRequirementsProcessor processor = new DataRequirementsProcessor();
+                processor.setRequirementsCache(requirementsCache);
+                processor.copyRetrieves = true;
+                processors.add(processor);
+                tasks.add(pool.submit(() -> processor.gatherDataRequirements(libraryManager, translatedLibrary, options,
+                        null, includeLogicDefinitions)));
+            }
+
+            List<Library> results = new ArrayList<Library>();
+            for (int i = 0; i < tasks.size(); i++) {
+                try {
+                    results.add(tasks.get(i).get());
+                }
+                catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException)e.getCause();
+                    }
+                    if (e.getCause() instanceof Error) {
+                        throw (Error)e.getCause();
+                    }
+                    throw new RuntimeException(e.getCause());
+                }
+                validationMessages.addAll(processors.get(i).getValidationMessages());
+            }
+            return results;
+        }
+        finally {
+            pool.shutdownNow();
+        }
     }
 
-    private CodeableConcept extractSubject(ElmRequirementsContext context) {
+    private <L> L createLibrary(ElmRequirementsContext context, ElmRequirements requirements,
+            VersionedIdentifier libraryIdentifier, Iterable<ExpressionDef> expressionDefs, boolean includeLogicDefinitions,
+            DataRequirementsSink<L, ?> sink) {
+        sink.setModuleDefinition();
         // TODO: Determine context (defaults to Patient if not set, so not critical until we have a non-patient-context use case)
-        return null;
-    }
+        extractDirectReferenceCodes(context, requirements, sink);
+        extractRelatedArtifacts(context, requirements, sink);
+        extractDataRequirements(context, requirements, sink);
+        extractParameters(context, requirements, libraryIdentifier, expressionDefs, sink);
+        if (includeLogicDefinitions) {
+            extractLogicDefinitions(context, requirements, sink);
+        }
+        return sink.getLibrary();
 
-    private List<Extension> extractDirectReferenceCodes(ElmRequirementsContext context, ElmRequirements requirements) {
-        List<Extension> result = new ArrayList<>();
+    }
 
+    private void extractDirectReferenceCodes(ElmRequirementsContext context, ElmRequirements requirements,
+            DataRequirementsSink<?, ?> sink) {
         for (ElmRequirement def : requirements.getCodeDefs()) {
-            result.add(toDirectReferenceCode(context, def.getLibraryIdentifier(), (CodeDef)def.getElement()));
+            addDirectReferenceCode(context, def.getLibraryIdentifier(), (CodeDef)def.getElement(), sink);
         }
-
-        return result;
     }
 
-    private Extension toDirectReferenceCode(ElmRequirementsContext context, VersionedIdentifier libraryIdentifier, CodeDef def) {
-        Extension e = new Extension();
-        // TODO: Promote this extension to the base specification
-        e.setUrl("http://hl7.org/fhir/us/cqfmeasures/StructureDefinition/cqfm-directReferenceCode");
-        e.setValue(toCoding(context, libraryIdentifier, context.toCode(def)));
-        return e;
+    private void addDirectReferenceCode(ElmRequirementsContext context, VersionedIdentifier libraryIdentifier, CodeDef def,
+            DataRequirementsSink<?, ?> sink) {
+        Code code = context.toCode(def);
+        CodeSystemDef codeSystemDef = resolveCodeSystemDef(context, libraryIdentifier, code);
+        sink.addDirectReferenceCode(codeSystemDef.getId(), codeSystemDef.getVersion(), code.getCode(), code.getDisplay());
     }
 
-    private List<RelatedArtifact> extractRelatedArtifacts(ElmRequirementsContext context, ElmRequirements requirements) {
-        List<RelatedArtifact> result = new ArrayList<>();
-
+    private void extractRelatedArtifacts(ElmRequirementsContext context, ElmRequirements requirements,
+            DataRequirementsSink<?, ?> sink) {
         // Report model dependencies
         // URL for a model info is: [baseCanonical]/Library/[model-name]-ModelInfo
         for (ElmRequirement def : requirements.getUsingDefs()) {
             // System model info is an implicit dependency, do not report
             if (!((UsingDef)def.getElement()).getLocalIdentifier().equals("System")) {
-                result.add(toRelatedArtifact(def.getLibraryIdentifier(), (UsingDef)def.getElement()));
+                addRelatedArtifact(def.getLibraryIdentifier(), (UsingDef)def.getElement(), sink);
             }
         }
 
         // Report library dependencies
         for (ElmRequirement def : requirements.getIncludeDefs()) {
-            result.add(toRelatedArtifact(def.getLibraryIdentifier(), (IncludeDef)def.getElement()));
+            addRelatedArtifact(def.getLibraryIdentifier(), (IncludeDef)def.getElement(), sink);
         }
 
         // Report CodeSystem dependencies
         for (ElmRequirement def : requirements.getCodeSystemDefs()) {
-            result.add(toRelatedArtifact(def.getLibraryIdentifier(), (CodeSystemDef)def.getElement()));
+            addRelatedArtifact(def.getLibraryIdentifier(), (CodeSystemDef)def.getElement(), sink);
         }
 
         // Report ValueSet dependencies
         for (ElmRequirement def : requirements.getValueSetDefs()) {
-            result.add(toRelatedArtifact(def.getLibraryIdentifier(), (ValueSetDef)def.getElement()));
+            addRelatedArtifact(def.getLibraryIdentifier(), (ValueSetDef)def.getElement(), sink);
         }
-
-        return result;
     }
 
-    private boolean isEquivalentDefinition(ParameterDefinition existingPd, ParameterDefinition pd) {
+    private boolean isEquivalentDefinition(String existingType, String type) {
         // TODO: Consider cardinality
-        return pd.getType() == existingPd.getType();
+        return Objects.equals(existingType, type);
     }
 
-    private List<ParameterDefinition> extractParameters(ElmRequirementsContext context, ElmRequirements requirements,
-            VersionedIdentifier libraryIdentifier, Iterable<ExpressionDef> expressionDefs) {
-        List<ParameterDefinition> result = new ArrayList<>();
-
+    private void extractParameters(ElmRequirementsContext context, ElmRequirements requirements,
+            VersionedIdentifier libraryIdentifier, Iterable<ExpressionDef> expressionDefs, DataRequirementsSink<?, ?> sink) {
         // TODO: Support library qualified parameters
         // Until then, name clashes should result in a warning
-        Map<String, ParameterDefinition> pds = new HashMap<String, ParameterDefinition>();
+        Map<String, String> pds = new HashMap<String, String>();
         for (ElmRequirement def : requirements.getParameterDefs()) {
-            ParameterDefinition pd = toParameterDefinition(def.getLibraryIdentifier(), (ParameterDef)def.getElement());
+            ParameterDef pd = (ParameterDef)def.getElement();
+            AtomicBoolean isList = new AtomicBoolean(false);
+            String type = toFHIRParameterTypeCode(pd.getResultType(), pd.getName(), isList);
             if (pds.containsKey(pd.getName())) {
-                ParameterDefinition existingPd = pds.get(pd.getName());
-                if (!isEquivalentDefinition(existingPd, pd)) {
+                if (!isEquivalentDefinition(pds.get(pd.getName()), type)) {
                     // Issue a warning that the parameter has a duplicate name but an incompatible type
                     validationMessages.add(new ValidationMessage(ValidationMessage.Source.Publisher, ValidationMessage.IssueType.NOTSUPPORTED, "CQL Library Packaging",
                             String.format("Parameter declaration %s.%s is already defined in a different library with a different type. Parameter binding may result in errors during evaluation.",
@@ -241,19 +329,17 @@ public class DataRequirementsProcessor {
                 }
             }
             else {
-                pds.put(pd.getName(), pd);
-                result.add(pd);
+                pds.put(pd.getName(), type);
+                sink.addParameter(pd.getName(), false, isList.get() ? "*" : "1", type);
             }
         }
 
         for (ExpressionDef def : expressionDefs) {
             if (def != null && !(def instanceof FunctionDef) && (def.getAccessLevel() == null
                     || def.getAccessLevel() == AccessModifier.PUBLIC)) {
-                result.add(toOutputParameterDefinition(libraryIdentifier, def));
+                addOutputParameter(libraryIdentifier, def, sink);
             }
         }
-
-        return result;
     }
 
     private org.hl7.cql_annotations.r1.Annotation getAnnotation(Element e) {
@@ -292,47 +378,20 @@ public class DataRequirementsProcessor {
         }
     }
 
-    private List<Extension> extractLogicDefinitions(ElmRequirementsContext context, ElmRequirements requirements) {
-        List<Extension> result = new ArrayList<Extension>();
-
+    private void extractLogicDefinitions(ElmRequirementsContext context, ElmRequirements requirements,
+            DataRequirementsSink<?, ?> sink) {
         int sequence = 0;
         for (ElmRequirement req : requirements.getExpressionDefs()) {
             ExpressionDef def = (ExpressionDef)req.getElement();
             org.hl7.cql_annotations.r1.Annotation a = getAnnotation(def);
             if (a != null) {
-                result.add(toLogicDefinition(req, def, toNarrativeText(a), sequence++));
+                sink.addLogicDefinition(req.getLibraryIdentifier().getId(), def.getName(), toNarrativeText(a), sequence++);
             }
         }
-
-        return result;
     }
 
-    private StringType toString(String value) {
-        StringType result = new StringType();
-        result.setValue(value);
-        return result;
-    }
-
-    private IntegerType toInteger(int value) {
-        IntegerType result = new IntegerType();
-        result.setValue(value);
-        return result;
-    }
-
-    private Extension toLogicDefinition(ElmRequirement req, ExpressionDef def, String text, int sequence) {
-        Extension e = new Extension();
-        e.setUrl("http://hl7.org/fhir/us/cqfmeasures/StructureDefinition/cqfm-logicDefinition");
-        // TODO: Include the libraryUrl
-        e.addExtension(new Extension().setUrl("libraryName").setValue(toString(req.getLibraryIdentifier().getId())));
-        e.addExtension(new Extension().setUrl("name").setValue(toString(def.getName())));
-        e.addExtension(new Extension().setUrl("statement").setValue(toString(text)));
-        e.addExtension(new Extension().setUrl("displaySequence").setValue(toInteger(sequence)));
-        return e;
-    }
-
-    private List<DataRequirement> extractDataRequirements(ElmRequirementsContext context, ElmRequirements requirements) {
-        List<DataRequirement> result = new ArrayList<>();
-
+    private void extractDataRequirements(ElmRequirementsContext context, ElmRequirements requirements,
+            DataRequirementsSink<?, ?> sink) {
         Map<String, Retrieve> retrieveMap = new HashMap<String, Retrieve>();
         for (ElmRequirement retrieve : requirements.getRetrieves()) {
             if (retrieve.getElement().getLocalId() != null) {
@@ -342,20 +401,16 @@ public class DataRequirementsProcessor {
 
         for (ElmRequirement retrieve : requirements.getRetrieves()) {
             if (((Retrieve)retrieve.getElement()).getDataType() != null) {
-                result.add(toDataRequirement(context, retrieve.getLibraryIdentifier(), (Retrieve) retrieve.getElement(),
-                        retrieveMap, retrieve instanceof ElmDataRequirement ? ((ElmDataRequirement)retrieve).getProperties() : null));
+                addDataRequirement(context, retrieve.getLibraryIdentifier(), (Retrieve) retrieve.getElement(),
+                        retrieveMap, retrieve instanceof ElmDataRequirement ? ((ElmDataRequirement)retrieve).getProperties() : null, sink);
             }
         }
-
-        return result;
     }
 
-    private org.hl7.fhir.r5.model.RelatedArtifact toRelatedArtifact(VersionedIdentifier libraryIdentifier, UsingDef usingDef) {
-        return new org.hl7.fhir.r5.model.RelatedArtifact()
-                .setType(RelatedArtifact.RelatedArtifactType.DEPENDSON)
-                .setDisplay(usingDef.getLocalIdentifier() != null ? String.format("%s model information", usingDef.getLocalIdentifier()) : null) // Could potentially look for a well-known comment tag too, @description?
-                .setResource(getModelInfoReferenceUrl(usingDef.getUri(),
-                        usingDef.getLocalIdentifier(), usingDef.getVersion()));
+    private void addRelatedArtifact(VersionedIdentifier libraryIdentifier, UsingDef usingDef, DataRequirementsSink<?, ?> sink) {
+        sink.addRelatedArtifact(
+                usingDef.getLocalIdentifier() != null ? String.format("%s model information", usingDef.getLocalIdentifier()) : null, // Could potentially look for a well-known comment tag too, @description?
+                getModelInfoReferenceUrl(usingDef.getUri(), usingDef.getLocalIdentifier(), usingDef.getVersion()));
     }
 
     /*
@@ -379,11 +434,10 @@ public class DataRequirementsProcessor {
         return String.format("Library/%-ModelInfo%s", name, version != null ? ("|" + version) : "");
     }
 
-    private org.hl7.fhir.r5.model.RelatedArtifact toRelatedArtifact(VersionedIdentifier libraryIdentifier, IncludeDef includeDef) {
-        return new org.hl7.fhir.r5.model.RelatedArtifact()
-                .setType(org.hl7.fhir.r5.model.RelatedArtifact.RelatedArtifactType.DEPENDSON)
-                .setDisplay(includeDef.getLocalIdentifier() != null ? String.format("Library %s", includeDef.getLocalIdentifier()) : null) // Could potentially look for a well-known comment tag too, @description?
-                .setResource(getReferenceUrl(includeDef.getPath(), includeDef.getVersion()));
+    private void addRelatedArtifact(VersionedIdentifier libraryIdentifier, IncludeDef includeDef, DataRequirementsSink<?, ?> sink) {
+        sink.addRelatedArtifact(
+                includeDef.getLocalIdentifier() != null ? String.format("Library %s", includeDef.getLocalIdentifier()) : null, // Could potentially look for a well-known comment tag too, @description?
+                getReferenceUrl(includeDef.getPath(), includeDef.getVersion()));
     }
 
     private String getReferenceUrl(String path, String version) {
@@ -402,50 +456,26 @@ public class DataRequirementsProcessor {
         return String.format("Library/%s%s", path, version != null ? ("|" + version) : "");
     }
 
-    private org.hl7.fhir.r5.model.RelatedArtifact toRelatedArtifact(VersionedIdentifier libraryIdentifier, CodeSystemDef codeSystemDef) {
-        return new org.hl7.fhir.r5.model.RelatedArtifact()
-                .setType(org.hl7.fhir.r5.model.RelatedArtifact.RelatedArtifactType.DEPENDSON)
-                .setDisplay(String.format("Code system %s", codeSystemDef.getName()))
-                .setResource(toReference(codeSystemDef));
+    private void addRelatedArtifact(VersionedIdentifier libraryIdentifier, CodeSystemDef codeSystemDef, DataRequirementsSink<?, ?> sink) {
+        sink.addRelatedArtifact(String.format("Code system %s", codeSystemDef.getName()), toReference(codeSystemDef));
     }
 
-    private org.hl7.fhir.r5.model.RelatedArtifact toRelatedArtifact(VersionedIdentifier libraryIdentifier, ValueSetDef valueSetDef) {
-        return new org.hl7.fhir.r5.model.RelatedArtifact()
-                .setType(org.hl7.fhir.r5.model.RelatedArtifact.RelatedArtifactType.DEPENDSON)
-                .setDisplay(String.format("Value set %s", valueSetDef.getName()))
-                .setResource(toReference(valueSetDef));
-    }
-
-    private ParameterDefinition toParameterDefinition(VersionedIdentifier libraryIdentifier, ParameterDef def) {
-        AtomicBoolean isList = new AtomicBoolean(false);
-        Enumerations.FHIRAllTypes typeCode = Enumerations.FHIRAllTypes.fromCode(toFHIRParameterTypeCode(def.getResultType(), def.getName(), isList));
-
-        return new ParameterDefinition()
-                .setName(def.getName())
-                .setUse(Enumerations.OperationParameterUse.IN)
-                .setMin(0)
-                .setMax(isList.get() ? "*" : "1")
-                .setType(typeCode);
+    private void addRelatedArtifact(VersionedIdentifier libraryIdentifier, ValueSetDef valueSetDef, DataRequirementsSink<?, ?> sink) {
+        sink.addRelatedArtifact(String.format("Value set %s", valueSetDef.getName()), toReference(valueSetDef));
     }
 
-    private ParameterDefinition toOutputParameterDefinition(VersionedIdentifier libraryIdentifier, ExpressionDef def) {
+    private void addOutputParameter(VersionedIdentifier libraryIdentifier, ExpressionDef def, DataRequirementsSink<?, ?> sink) {
         AtomicBoolean isList = new AtomicBoolean(false);
-        Enumerations.FHIRAllTypes typeCode = null;
-        try{
-                typeCode = Enumerations.FHIRAllTypes.fromCode(
-                        toFHIRResultTypeCode(def.getResultType(), def.getName(), isList));
-        }catch(org.hl7.fhir.exceptions.FHIRException fhirException){
+        String typeCode = toFHIRResultTypeCode(def.getResultType(), def.getName(), isList);
+        try {
+            sink.addParameter(def.getName(), true, isList.get() ? "*" : "1", typeCode);
+        }
+        catch (FHIRException fhirException) {
             validationMessages.add(new ValidationMessage(ValidationMessage.Source.Publisher, ValidationMessage.IssueType.NOTSUPPORTED, "CQL Library Packaging",
                     String.format("Result type %s of library %s is not supported; implementations may not be able to use the result of this expression",
                             def.getResultType().toLabel(), libraryIdentifier.getId()), ValidationMessage.IssueSeverity.WARNING));
+            sink.addParameter(def.getName(), true, isList.get() ? "*" : "1", null);
         }
-
-        return new ParameterDefinition()
-                .setName(def.getName())
-                .setUse(Enumerations.OperationParameterUse.OUT)
-                .setMin(0)
-                .setMax(isList.get() ? "*" : "1")
-                .setType(typeCode);
     }
 
     private String toFHIRResultTypeCode(org.hl7.cql.model.DataType dataType, String defName, AtomicBoolean isList) {
@@ -550,38 +580,34 @@ public class DataRequirementsProcessor {
         return libraryIdentifier;
     }
 
-    private org.hl7.fhir.r5.model.DataRequirement.DataRequirementCodeFilterComponent toCodeFilterComponent(ElmRequirementsContext context, VersionedIdentifier libraryIdentifier, String property, Expression value) {
-        org.hl7.fhir.r5.model.DataRequirement.DataRequirementCodeFilterComponent cfc =
-                new org.hl7.fhir.r5.model.DataRequirement.DataRequirementCodeFilterComponent();
-
-        cfc.setPath(property);
+    private void addCodeFilter(ElmRequirementsContext context, VersionedIdentifier libraryIdentifier, String property,
+            Expression value, DataRequirementsSink<?, ?> sink) {
+        sink.addCodeFilter(property);
 
         // TODO: Support retrieval when the target is a CodeSystemRef
 
         if (value instanceof ValueSetRef) {
             ValueSetRef vsr = (ValueSetRef)value;
             VersionedIdentifier declaredLibraryIdentifier = getDeclaredLibraryIdentifier(vsr, libraryIdentifier);
-            cfc.setValueSet(toReference(context.resolveValueSetRef(declaredLibraryIdentifier, vsr)));
+            sink.setCodeFilterValueSet(toReference(context.resolveValueSetRef(declaredLibraryIdentifier, vsr)));
         }
 
         if (value instanceof org.hl7.elm.r1.ToList) {
             org.hl7.elm.r1.ToList toList = (org.hl7.elm.r1.ToList)value;
-            resolveCodeFilterCodes(context, libraryIdentifier, cfc, toList.getOperand());
+            resolveCodeFilterCodes(context, libraryIdentifier, toList.getOperand(), sink);
         }
 
         if (value instanceof org.hl7.elm.r1.List) {
             org.hl7.elm.r1.List codeList = (org.hl7.elm.r1.List)value;
             for (Expression e : codeList.getElement()) {
-                resolveCodeFilterCodes(context, libraryIdentifier, cfc, e);
+                resolveCodeFilterCodes(context, libraryIdentifier, e, sink);
             }
         }
 
         if (value instanceof org.hl7.elm.r1.Literal) {
             org.hl7.elm.r1.Literal literal = (org.hl7.elm.r1.Literal)value;
-            cfc.addCode().setCode(literal.getValue());
+            sink.addCodeFilterCode(null, null, literal.getValue(), null);
         }
-
-        return cfc;
     }
 
     // Can't believe I have to write this, there seriously isn't a String.format option for this!!!!
@@ -604,50 +630,47 @@ public class DataRequirementsProcessor {
 
     // Ugly to have to do this here, but cannot reuse engine evaluation logic without a major refactor
     // TODO: Consider refactoring to reuse engine evaluation logic here
-    private String toDateTimeString(DataType year, DataType month, DataType day, DataType hour, DataType minute, DataType second, DataType millisecond, DataType timezoneOffset) {
+    private String toDateTimeString(Integer year, Integer month, Integer day, Integer hour, Integer minute, Integer second, Integer millisecond, BigDecimal timezoneOffset) {
         if (year == null) {
             return null;
         }
 
         StringBuilder result = new StringBuilder();
-        if (year instanceof IntegerType) {
-            result.append(padZero(((IntegerType)year).getValue().toString(), 4));
-        }
-        if (month instanceof IntegerType) {
+        result.append(padZero(year.toString(), 4));
+        if (month != null) {
             result.append("-");
-            result.append(padZero(((IntegerType)month).getValue().toString(), 2));
+            result.append(padZero(month.toString(), 2));
         }
-        if (day instanceof IntegerType) {
+        if (day != null) {
             result.append("-");
-            result.append(padZero(((IntegerType)day).getValue().toString(), 2));
+            result.append(padZero(day.toString(), 2));
         }
-        if (hour instanceof IntegerType) {
+        if (hour != null) {
             result.append("T");
-            result.append(padZero(((IntegerType)hour).getValue().toString(), 2));
+            result.append(padZero(hour.toString(), 2));
         }
-        if (minute instanceof IntegerType) {
+        if (minute != null) {
             result.append(":");
-            result.append(padZero(((IntegerType)minute).getValue().toString(), 2));
+            result.append(padZero(minute.toString(), 2));
         }
-        if (second instanceof IntegerType) {
+        if (second != null) {
             result.append(":");
-            result.append(padZero(((IntegerType)second).getValue().toString(), 2));
+            result.append(padZero(second.toString(), 2));
         }
-        if (millisecond instanceof IntegerType) {
+        if (millisecond != null) {
             result.append(".");
-            result.append(padZero(((IntegerType)millisecond).getValue().toString(), 3));
+            result.append(padZero(millisecond.toString(), 3));
         }
-        if (timezoneOffset instanceof DecimalType) {
-            BigDecimal offset = ((DecimalType)timezoneOffset).getValue();
-            if (offset.intValue() >= 0) {
+        if (timezoneOffset != null) {
+            if (timezoneOffset.intValue() >= 0) {
                 result.append("+");
-                result.append(padZero(Integer.toString(offset.intValue()), 2));
+                result.append(padZero(Integer.toString(timezoneOffset.intValue()), 2));
             }
             else {
                 result.append("-");
-                result.append(padZero(Integer.toString(Math.abs(offset.intValue())), 2));
+                result.append(padZero(Integer.toString(Math.abs(timezoneOffset.intValue())), 2));
             }
-            int minutes = new BigDecimal("60").multiply(offset.remainder(BigDecimal.ONE)).intValue();
+            int minutes = new BigDecimal("60").multiply(timezoneOffset.remainder(BigDecimal.ONE)).intValue();
             result.append(":");
             result.append(padZero(Integer.toString(minutes), 2));
         }
@@ -655,144 +678,156 @@ public class DataRequirementsProcessor {
         return result.toString();
     }
 
-    private String toDateString(DataType year, DataType month, DataType day) {
+    private String toDateString(Integer year, Integer month, Integer day) {
         if (year == null) {
             return null;
         }
 
         StringBuilder result = new StringBuilder();
-        if (year instanceof IntegerType) {
-            result.append(padZero(((IntegerType)year).getValue().toString(), 4));
-        }
-        if (month instanceof IntegerType) {
+        result.append(padZero(year.toString(), 4));
+        if (month != null) {
             result.append("-");
-            result.append(padZero(((IntegerType)month).getValue().toString(), 2));
+            result.append(padZero(month.toString(), 2));
         }
-        if (day instanceof IntegerType) {
+        if (day != null) {
             result.append("-");
-            result.append(padZero(((IntegerType)day).getValue().toString(), 2));
+            result.append(padZero(day.toString(), 2));
         }
 
         return result.toString();
     }
 
-    private String toTimeString(DataType hour, DataType minute, DataType second, DataType millisecond) {
+    private String toTimeString(Integer hour, Integer minute, Integer second, Integer millisecond) {
         if (hour == null) {
             return null;
         }
 
         StringBuilder result = new StringBuilder();
-        if (hour instanceof IntegerType) {
-            result.append(padZero(((IntegerType)hour).getValue().toString(), 2));
-        }
-        if (minute instanceof IntegerType) {
+        result.append(padZero(hour.toString(), 2));
+        if (minute != null) {
             result.append(":");
-            result.append(padZero(((IntegerType)minute).getValue().toString(), 2));
+            result.append(padZero(minute.toString(), 2));
         }
-        if (second instanceof IntegerType) {
+        if (second != null) {
             result.append(":");
-            result.append(padZero(((IntegerType)second).getValue().toString(), 2));
+            result.append(padZero(second.toString(), 2));
         }
-        if (millisecond instanceof IntegerType) {
+        if (millisecond != null) {
             result.append(".");
-            result.append(padZero(((IntegerType)millisecond).getValue().toString(), 3));
+            result.append(padZero(millisecond.toString(), 3));
         }
 
         return result.toString();
     }
 
-    // TODO: Either handle conversions on a case-by-case, or implement conversion evaluation logic...
-    private DateTimeType toFhirDateTimeValue(ElmRequirementsContext context, Expression value) {
+    // The components of date and time selectors are literals, they are evaluated here rather than as FHIR values so
+    // that the string value can be built without depending on a FHIR version
+    private Integer toIntegerComponent(ElmRequirementsContext context, Expression value) {
         if (value == null) {
             return null;
         }
 
-        DataType result = toFhirValue(context, value);
-        if (result instanceof DateTimeType) {
-            return (DateTimeType)result;
+        if (value instanceof Literal && context.getTypeResolver().isIntegerType(value.getResultType())) {
+            return Integer.valueOf(((Literal)value).getValue());
         }
-        if (result instanceof DateType) {
-            return new DateTimeType(((DateType)result).getValueAsString());
+
+        throw new IllegalArgumentException(String.format("toIntegerComponent not implemented for %s", value.getClass().getSimpleName()));
+    }
+
+    private BigDecimal toDecimalComponent(ElmRequirementsContext context, Expression value) {
+        if (value == null) {
+            return null;
+        }
+
+        if (value instanceof Literal && context.getTypeResolver().isDecimalType(value.getResultType())) {
+            return new BigDecimal(((Literal)value).getValue());
+        }
+
+        throw new IllegalArgumentException(String.format("toDecimalComponent not implemented for %s", value.getClass().getSimpleName()));
+    }
+
+    // TODO: Either handle conversions on a case-by-case, or implement conversion evaluation logic...
+    private <V> V toFhirDateTimeValue(ElmRequirementsContext context, Expression value, DataRequirementsSink<?, V> sink) {
+        if (value == null) {
+            return null;
+        }
+
+        V result = sink.asDateTime(toFhirValue(context, value, sink));
+        if (result != null) {
+            return result;
         }
 
         throw new IllegalArgumentException("Could not convert expression to a DateTime value");
     }
 
-    private DataType toFhirValue(ElmRequirementsContext context, Expression value) {
+    private <V> V toFhirValue(ElmRequirementsContext context, Expression value, DataRequirementsSink<?, V> sink) {
         if (value == null) {
             return null;
         }
 
         if (value instanceof Interval) {
             // TODO: Handle lowclosed/highclosed
-            return new Period().setStartElement(toFhirDateTimeValue(context, ((Interval)value).getLow()))
-                    .setEndElement(toFhirDateTimeValue(context, ((Interval)value).getHigh()));
+            return sink.periodValue(toFhirDateTimeValue(context, ((Interval)value).getLow(), sink),
+                    toFhirDateTimeValue(context, ((Interval)value).getHigh(), sink));
         }
         else if (value instanceof Literal) {
             if (context.getTypeResolver().isDateTimeType(value.getResultType())) {
-                return new DateTimeType(((Literal)value).getValue());
+                return sink.dateTimeValue(((Literal)value).getValue());
             }
             else if (context.getTypeResolver().isDateType(value.getResultType())) {
-                return new DateType(((Literal)value).getValue());
+                return sink.dateValue(((Literal)value).getValue());
             }
             else if (context.getTypeResolver().isIntegerType(value.getResultType())) {
-                return new IntegerType(((Literal)value).getValue());
+                return sink.integerValue(((Literal)value).getValue());
             }
             else if (context.getTypeResolver().isDecimalType(value.getResultType())) {
-                return new DecimalType(((Literal)value).getValue());
+                return sink.decimalValue(((Literal)value).getValue());
             }
             else if (context.getTypeResolver().isStringType(value.getResultType())) {
-                return new StringType(((Literal)value).getValue());
+                return sink.stringValue(((Literal)value).getValue());
             }
         }
         else if (value instanceof DateTime) {
             DateTime dateTime = (DateTime)value;
-            return new DateTimeType(toDateTimeString(
-                    toFhirValue(context, dateTime.getYear()),
-                    toFhirValue(context, dateTime.getMonth()),
-                    toFhirValue(context, dateTime.getDay()),
-                    toFhirValue(context, dateTime.getHour()),
-                    toFhirValue(context, dateTime.getMinute()),
-                    toFhirValue(context, dateTime.getSecond()),
-                    toFhirValue(context, dateTime.getMillisecond()),
-                    toFhirValue(context, dateTime.getTimezoneOffset())));
+            return sink.dateTimeValue(toDateTimeString(
+                    toIntegerComponent(context, dateTime.getYear()),
+                    toIntegerComponent(context, dateTime.getMonth()),
+                    toIntegerComponent(context, dateTime.getDay()),
+                    toIntegerComponent(context, dateTime.getHour()),
+                    toIntegerComponent(context, dateTime.getMinute()),
+                    toIntegerComponent(context, dateTime.getSecond()),
+                    toIntegerComponent(context, dateTime.getMillisecond()),
+                    toDecimalComponent(context, dateTime.getTimezoneOffset())));
         }
         else if (value instanceof org.hl7.elm.r1.Date) {
             org.hl7.elm.r1.Date date = (org.hl7.elm.r1.Date)value;
-            return new DateType(toDateString(
-                    toFhirValue(context, date.getYear()),
-                    toFhirValue(context, date.getMonth()),
-                    toFhirValue(context, date.getDay())
+            return sink.dateValue(toDateString(
+                    toIntegerComponent(context, date.getYear()),
+                    toIntegerComponent(context, date.getMonth()),
+                    toIntegerComponent(context, date.getDay())
             ));
         }
         else if (value instanceof Start) {
-            DataType operand = toFhirValue(context, ((Start)value).getOperand());
+            V operand = toFhirValue(context, ((Start)value).getOperand(), sink);
             if (operand != null) {
-                Period period = (Period)operand;
-                return period.getStartElement();
+                return sink.getPeriodStart(operand);
             }
         }
         else if (value instanceof End) {
-            DataType operand = toFhirValue(context, ((End)value).getOperand());
+            V operand = toFhirValue(context, ((End)value).getOperand(), sink);
             if (operand != null) {
-                Period period = (Period)operand;
-                return period.getEndElement();
+                return sink.getPeriodEnd(operand);
             }
 
         }
         else if (value instanceof ParameterRef) {
             if (context.getTypeResolver().isIntervalType(value.getResultType())) {
-                Extension e = toExpression(context, (ParameterRef)value);
                 org.hl7.cql.model.DataType pointType = ((IntervalType)value.getResultType()).getPointType();
                 if (context.getTypeResolver().isDateTimeType(pointType) || context.getTypeResolver().isDateType(pointType)) {
-                    Period period = new Period();
-                    period.addExtension(e);
-                    return period;
+                    return sink.expressionValue("Period", toExpression(context, (ParameterRef)value));
                 }
                 else if (context.getTypeResolver().isQuantityType(pointType) || context.getTypeResolver().isIntegerType(pointType) || context.getTypeResolver().isDecimalType(pointType)) {
-                    Range range = new Range();
-                    range.addExtension(e);
-                    return range;
+                    return sink.expressionValue("Range", toExpression(context, (ParameterRef)value));
                 }
                 else {
                     throw new IllegalArgumentException(String.format("toFhirValue not implemented for interval of %s", pointType.toString()));
@@ -800,50 +835,31 @@ public class DataRequirementsProcessor {
             }
             // Boolean, Integer, Decimal, String, Quantity, Date, DateTime, Time, Coding, CodeableConcept
             else if (context.getTypeResolver().isBooleanType(value.getResultType())) {
-                BooleanType result = new BooleanType();
-                result.addExtension(toExpression(context, (ParameterRef)value));
-                return result;
+                return sink.expressionValue("boolean", toExpression(context, (ParameterRef)value));
             }
             else if (context.getTypeResolver().isIntegerType(value.getResultType())) {
-                IntegerType result = new IntegerType();
-                result.addExtension(toExpression(context, (ParameterRef)value));
-                return result;
+                return sink.expressionValue("integer", toExpression(context, (ParameterRef)value));
             }
             else if (context.getTypeResolver().isDecimalType(value.getResultType())) {
-                DecimalType result = new DecimalType();
-                result.addExtension(toExpression(context, (ParameterRef)value));
-                return result;
+                return sink.expressionValue("decimal", toExpression(context, (ParameterRef)value));
             }
             else if (context.getTypeResolver().isQuantityType(value.getResultType())) {
-                Quantity result = new Quantity();
-                result.addExtension(toExpression(context, (ParameterRef)value));
-                return result;
+                return sink.expressionValue("Quantity", toExpression(context, (ParameterRef)value));
             }
             else if (context.getTypeResolver().isCodeType(value.getResultType())) {
-                Coding result = new Coding();
-                result.addExtension(toExpression(context, (ParameterRef)value));
-                return result;
-
+                return sink.expressionValue("Coding", toExpression(context, (ParameterRef)value));
             }
             else if (context.getTypeResolver().isConceptType(value.getResultType())) {
-                CodeableConcept result = new CodeableConcept();
-                result.addExtension(toExpression(context, (ParameterRef)value));
-                return result;
+                return sink.expressionValue("CodeableConcept", toExpression(context, (ParameterRef)value));
             }
             else if (context.getTypeResolver().isDateType(value.getResultType())) {
-                DateType result = new DateType();
-                result.addExtension(toExpression(context, (ParameterRef)value));
-                return result;
+                return sink.expressionValue("date", toExpression(context, (ParameterRef)value));
             }
             else if (context.getTypeResolver().isDateTimeType(value.getResultType())) {
-                DateTimeType result = new DateTimeType();
-                result.addExtension(toExpression(context, (ParameterRef)value));
-                return result;
+                return sink.expressionValue("dateTime", toExpression(context, (ParameterRef)value));
             }
             else if (context.getTypeResolver().isTimeType(value.getResultType())) {
-                TimeType result = new TimeType();
-                result.addExtension(toExpression(context, (ParameterRef)value));
-                return result;
+                return sink.expressionValue("time", toExpression(context, (ParameterRef)value));
             }
             else {
                 throw new IllegalArgumentException(String.format("toFhirValue not implemented for parameter of type %s", value.getResultType().toString()));
@@ -852,29 +868,26 @@ public class DataRequirementsProcessor {
         throw new IllegalArgumentException(String.format("toFhirValue not implemented for %s", value.getClass().getSimpleName()));
     }
 
-    private org.hl7.fhir.r5.model.Extension toExpression(ElmRequirementsContext context, ParameterRef parameterRef) {
+    private String toExpression(ElmRequirementsContext context, ParameterRef parameterRef) {
         String expression = parameterRef.getName();
         if (parameterRef.getLibraryName() != null && !parameterRef.getLibraryName().equals(context.getCurrentLibraryIdentifier().getId())) {
             expression = String.format("\"%s\".\"%s\"", parameterRef.getLibraryName(), parameterRef.getName());
         }
-        return new Extension().setUrl("http://hl7.org/fhir/StructureDefinition/cqf-expression").setValue(new org.hl7.fhir.r5.model.Expression().setLanguage("text/cql-identifier").setExpression(expression));
+        return expression;
     }
 
-    private org.hl7.fhir.r5.model.DataRequirement.DataRequirementDateFilterComponent toDateFilterComponent(ElmRequirementsContext context, VersionedIdentifier libraryIdentifier, String property, Expression value) {
-        org.hl7.fhir.r5.model.DataRequirement.DataRequirementDateFilterComponent dfc =
-                new org.hl7.fhir.r5.model.DataRequirement.DataRequirementDateFilterComponent();
-
-        dfc.setPath(property);
-
+    private <V> void addDateFilter(ElmRequirementsContext context, VersionedIdentifier libraryIdentifier, String property,
+            Expression value, DataRequirementsSink<?, V> sink) {
+        V fhirValue;
         context.enterLibrary(libraryIdentifier);
         try {
-            dfc.setValue(toFhirValue(context, value));
+            fhirValue = toFhirValue(context, value, sink);
         }
         finally {
             context.exitLibrary();
         }
 
-        return dfc;
+        sink.addDateFilter(property, fhirValue);
     }
 
     /**
@@ -889,13 +902,13 @@ public class DataRequirementsProcessor {
         return path;
     }
 
-    private org.hl7.fhir.r5.model.DataRequirement toDataRequirement(ElmRequirementsContext context,
-            VersionedIdentifier libraryIdentifier, Retrieve retrieve, Map<String, Retrieve> retrieveMap, Iterable<Property> properties) {
-        org.hl7.fhir.r5.model.DataRequirement dr = new org.hl7.fhir.r5.model.DataRequirement();
+    private void addDataRequirement(ElmRequirementsContext context, VersionedIdentifier libraryIdentifier, Retrieve retrieve,
+            Map<String, Retrieve> retrieveMap, Iterable<Property> properties, DataRequirementsSink<?, ?> sink) {
+        sink.addDataRequirement();
         try {
-            dr.setType(org.hl7.fhir.r5.model.Enumerations.FHIRAllTypes.fromCode(retrieve.getDataType().getLocalPart()));
+            sink.setDataRequirementType(retrieve.getDataType().getLocalPart());
         }
-        catch(org.hl7.fhir.exceptions.FHIRException fhirException) {
+        catch(FHIRException fhirException) {
             validationMessages.add(new ValidationMessage(ValidationMessage.Source.Publisher, ValidationMessage.IssueType.NOTSUPPORTED, "CQL Library Packaging",
                     String.format("Result type %s of library %s is not supported; implementations may not be able to use the result of this expression",
                             retrieve.getDataType().getLocalPart(), libraryIdentifier.getId()), ValidationMessage.IssueSeverity.WARNING));
@@ -905,14 +918,14 @@ public class DataRequirementsProcessor {
         if (retrieve.getLocalId() != null && retrieve.getInclude() != null && retrieve.getInclude().size() > 0) {
             for (IncludeElement ie : retrieve.getInclude()) {
                 if (ie.getIncludeFrom() != null) {
-                    dr.setId(retrieve.getLocalId());
+                    sink.setDataRequirementId(retrieve.getLocalId());
                 }
             }
         }
 
         // Set profile if specified
         if (retrieve.getTemplateId() != null) {
-            dr.setProfile(Collections.singletonList(new org.hl7.fhir.r5.model.CanonicalType(retrieve.getTemplateId())));
+            sink.addDataRequirementProfile(retrieve.getTemplateId());
         }
 
         // collect must supports
@@ -920,24 +933,24 @@ public class DataRequirementsProcessor {
 
         // Set code path if specified
         if (retrieve.getCodeProperty() != null) {
-            dr.getCodeFilter().add(toCodeFilterComponent(context, libraryIdentifier, retrieve.getCodeProperty(), retrieve.getCodes()));
+            addCodeFilter(context, libraryIdentifier, retrieve.getCodeProperty(), retrieve.getCodes(), sink);
             ps.add(retrieve.getCodeProperty());
         }
 
         // Add any additional code filters
         for (CodeFilterElement cfe : retrieve.getCodeFilter()) {
-            dr.getCodeFilter().add(toCodeFilterComponent(context, libraryIdentifier, cfe.getProperty(), cfe.getValue()));
+            addCodeFilter(context, libraryIdentifier, cfe.getProperty(), cfe.getValue(), sink);
         }
 
         // Set date path if specified
         if (retrieve.getDateProperty() != null) {
-            dr.getDateFilter().add(toDateFilterComponent(context, libraryIdentifier, retrieve.getDateProperty(), retrieve.getDateRange()));
+            addDateFilter(context, libraryIdentifier, retrieve.getDateProperty(), retrieve.getDateRange(), sink);
             ps.add(retrieve.getDateProperty());
         }
 
         // Add any additional date filters
         for (DateFilterElement dfe : retrieve.getDateFilter()) {
-            dr.getDateFilter().add(toDateFilterComponent(context, libraryIdentifier, dfe.getProperty(), dfe.getValue()));
+            addDateFilter(context, libraryIdentifier, dfe.getProperty(), dfe.getValue(), sink);
         }
 
         // TODO: Add any other filters (use the cqfm-valueFilter extension until the content infrastructure IG is available)
@@ -956,10 +969,7 @@ public class DataRequirementsProcessor {
                 }
             }
             if (relatedRetrieve != null && includeElement != null) {
-                Extension relatedRequirement = new Extension().setUrl("http://hl7.org/fhir/us/cqfmeasures/StructureDefinition/cqfm-relatedRequirement");
-                relatedRequirement.addExtension("targetId", new StringType(retrieve.getIncludedIn()));
-                relatedRequirement.addExtension("targetProperty", new StringType(stripReference(includeElement.getRelatedProperty())));
-                dr.addExtension(relatedRequirement);
+                sink.addRelatedRequirement(retrieve.getIncludedIn(), stripReference(includeElement.getRelatedProperty()));
             }
         }
 
@@ -972,68 +982,52 @@ public class DataRequirementsProcessor {
             }
         }
         for (String s : ps) {
-            dr.addMustSupport(s);
+            sink.addMustSupport(s);
         }
-
-        return dr;
     }
 
     private void resolveCodeFilterCodes(ElmRequirementsContext context, VersionedIdentifier libraryIdentifier,
-                                        org.hl7.fhir.r5.model.DataRequirement.DataRequirementCodeFilterComponent cfc,
-                                        Expression e) {
+                                        Expression e, DataRequirementsSink<?, ?> sink) {
         if (e instanceof org.hl7.elm.r1.CodeRef) {
             CodeRef cr = (CodeRef)e;
             VersionedIdentifier declaredLibraryIdentifier = getDeclaredLibraryIdentifier(cr, libraryIdentifier);
-            cfc.addCode(toCoding(context, libraryIdentifier, context.toCode(context.resolveCodeRef(declaredLibraryIdentifier, cr))));
+            addCodeFilterCode(context, libraryIdentifier, context.toCode(context.resolveCodeRef(declaredLibraryIdentifier, cr)), sink);
         }
 
         if (e instanceof org.hl7.elm.r1.Code) {
-            cfc.addCode(toCoding(context, libraryIdentifier, (org.hl7.elm.r1.Code)e));
+            addCodeFilterCode(context, libraryIdentifier, (org.hl7.elm.r1.Code)e, sink);
         }
 
         if (e instanceof org.hl7.elm.r1.ConceptRef) {
             ConceptRef cr = (ConceptRef)e;
             VersionedIdentifier declaredLibraryIdentifier = getDeclaredLibraryIdentifier(cr, libraryIdentifier);
-            org.hl7.fhir.r5.model.CodeableConcept c = toCodeableConcept(context, libraryIdentifier,
-                    context.toConcept(libraryIdentifier, context.resolveConceptRef(declaredLibraryIdentifier, cr)));
-            for (org.hl7.fhir.r5.model.Coding code : c.getCoding()) {
-                cfc.addCode(code);
+            Concept c = context.toConcept(libraryIdentifier, context.resolveConceptRef(declaredLibraryIdentifier, cr));
+            for (Code code : c.getCode()) {
+                addCodeFilterCode(context, libraryIdentifier, code, sink);
             }
         }
 
         if (e instanceof org.hl7.elm.r1.Concept) {
-            org.hl7.fhir.r5.model.CodeableConcept c = toCodeableConcept(context, libraryIdentifier, (org.hl7.elm.r1.Concept)e);
-            for (org.hl7.fhir.r5.model.Coding code : c.getCoding()) {
-                cfc.addCode(code);
+            for (Code code : ((org.hl7.elm.r1.Concept)e).getCode()) {
+                addCodeFilterCode(context, libraryIdentifier, code, sink);
             }
         }
 
         if (e instanceof org.hl7.elm.r1.Literal) {
             org.hl7.elm.r1.Literal literal = (org.hl7.elm.r1.Literal)e;
-            cfc.addCode().setCode(literal.getValue());
+            sink.addCodeFilterCode(null, null, literal.getValue(), null);
         }
     }
 
-    private org.hl7.fhir.r5.model.Coding toCoding(ElmRequirementsContext context, VersionedIdentifier libraryIdentifier, Code code) {
-        VersionedIdentifier declaredLibraryIdentifier = getDeclaredLibraryIdentifier(code.getSystem(), libraryIdentifier);
-        CodeSystemDef codeSystemDef = context.resolveCodeSystemRef(declaredLibraryIdentifier, code.getSystem());
-        org.hl7.fhir.r5.model.Coding coding = new org.hl7.fhir.r5.model.Coding();
-        coding.setCode(code.getCode());
-        coding.setDisplay(code.getDisplay());
-        coding.setSystem(codeSystemDef.getId());
-        coding.setVersion(codeSystemDef.getVersion());
-        return coding;
+    private void addCodeFilterCode(ElmRequirementsContext context, VersionedIdentifier libraryIdentifier, Code code,
+            DataRequirementsSink<?, ?> sink) {
+        CodeSystemDef codeSystemDef = resolveCodeSystemDef(context, libraryIdentifier, code);
+        sink.addCodeFilterCode(codeSystemDef.getId(), codeSystemDef.getVersion(), code.getCode(), code.getDisplay());
     }
 
-    private org.hl7.fhir.r5.model.CodeableConcept toCodeableConcept(ElmRequirementsContext context,
-                                                                    VersionedIdentifier libraryIdentifier,
-                                                                    Concept concept) {
-        org.hl7.fhir.r5.model.CodeableConcept codeableConcept = new org.hl7.fhir.r5.model.CodeableConcept();
-        codeableConcept.setText(concept.getDisplay());
-        for (Code code : concept.getCode()) {
-            codeableConcept.addCoding(toCoding(context, libraryIdentifier, code));
-        }
-        return codeableConcept;
+    private CodeSystemDef resolveCodeSystemDef(ElmRequirementsContext context, VersionedIdentifier libraryIdentifier, Code code) {
+        VersionedIdentifier declaredLibraryIdentifier = getDeclaredLibraryIdentifier(code.getSystem(), libraryIdentifier);
+        return context.resolveCodeSystemRef(declaredLibraryIdentifier, code.getSystem());
     }
 
     private String toReference(CodeSystemDef codeSystemDef) {
@@ -0,0 +1,95 @@
+package org.cqframework.cql.elm.requirements.fhir;
+
+/**
+ * Receives the content of a module definition library as the {@link DataRequirementsProcessor} emits it, and builds the
+ * library in the model of a particular FHIR version. A sink builds a single library, so each gather needs a new sink.
+ *
+ * Data requirements are emitted one at a time: the filters, related requirement and must supports that follow
+ * {@link #addDataRequirement()} belong to that data requirement, and the codes and value set that follow
+ * {@link #addCodeFilter(String)} belong to that code filter.
+ *
+ * @param <L> The type of the library built by the sink
+ * @param <V> The type of the values of date filters
+ */
+public interface DataRequirementsSink<L, V> {
+
+    /**
+     * @return The library built by the sink
+     */
+    L getLibrary();
+
+    /**
+     * Marks the library as an active module definition
+     */
+    void setModuleDefinition();
+
+    void addDirectReferenceCode(String system, String version, String code, String display);
+
+    /**
+     * Adds a depends-on related artifact
+     */
+    void addRelatedArtifact(String display, String resource);
+
+    /**
+     * Adds a parameter with a minimum cardinality of zero
+     *
+     * @param type The FHIR type code of the parameter, or null if the type is not known
+     * @throws org.hl7.fhir.exceptions.FHIRException if the type is not a type of the FHIR version, in which case no
+     * parameter is added
+     */
+    void addParameter(String name, boolean output, String max, String type);
+
+    void addLogicDefinition(String libraryName, String name, String statement, int displaySequence);
+
+    void addDataRequirement();
+
+    /**
+     * @throws org.hl7.fhir.exceptions.FHIRException if the type is not a type of the FHIR version
+     */
+    void setDataRequirementType(String type);
+
+    void setDataRequirementId(String id);
+
+    void addDataRequirementProfile(String profile);
+
+    void addCodeFilter(String path);
+
+    void setCodeFilterValueSet(String valueSet);
+
+    void addCodeFilterCode(String system, String version, String code, String display);
+
+    void addDateFilter(String path, V value);
+
+    void addRelatedRequirement(String targetId, String targetProperty);
+
+    void addMustSupport(String path);
+
+    V dateTimeValue(String value);
+
+    V dateValue(String value);
+
+    V integerValue(String value);
+
+    V decimalValue(String value);
+
+    V stringValue(String value);
+
+    V periodValue(V start, V end);
+
+    /**
+     * @return The value as a dateTime if it is a date or dateTime value, otherwise null
+     */
+    V asDateTime(V value);
+
+    V getPeriodStart(V period);
+
+    V getPeriodEnd(V period);
+
+    /**
+     * Returns a value of the given FHIR type that is given by a CQL expression, rather than a literal
+     *
+     * @param type The FHIR type code of the value
+     * @param expression The CQL identifier of the expression
+     */
+    V expressionValue(String type, String expression);
+}
@@ -0,0 +1,206 @@
+package org.cqframework.cql.elm.requirements.fhir;
+
+import org.hl7.fhir.r5.model.*;
+
+/**
+ * Builds a FHIR R5 module definition library
+ */
+public class R5DataRequirementsSink implements DataRequirementsSink<Library, DataType> {
+
+    private Library library = new Library();
+    private DataRequirement dataRequirement;
+    private DataRequirement.DataRequirementCodeFilterComponent codeFilter;
+
+    @Override
+    public Library getLibrary() {
+        return library;
+    }
+
+    @Override
+    public void setModuleDefinition() {
+        library.setStatus(Enumerations.PublicationStatus.ACTIVE);
+        CodeableConcept libraryType = new CodeableConcept();
+        Coding typeCoding = new Coding().setCode("module-definition");
+        typeCoding.setSystem("http://terminology.hl7.org/CodeSystem/library-type");
+        libraryType.addCoding(typeCoding);
+        library.setType(libraryType);
+    }
+
+    @Override
+    public void addDirectReferenceCode(String system, String version, String code, String display) {
+        Extension e = new Extension();
+        // TODO: Promote this extension to the base specification
+        e.setUrl("http://hl7.org/fhir/us/cqfmeasures/StructureDefinition/cqfm-directReferenceCode");
+        e.setValue(toCoding(system, version, code, display));
+        library.addExtension(e);
+    }
+
+    @Override
+    public void addRelatedArtifact(String display, String resource) {
+        library.addRelatedArtifact(new RelatedArtifact()
+                .setType(RelatedArtifact.RelatedArtifactType.DEPENDSON)
+                .setDisplay(display)
+                .setResource(resource));
+    }
+
+    @Override
+    public void addParameter(String name, boolean output, String max, String type) {
+        Enumerations.FHIRAllTypes typeCode = Enumerations.FHIRAllTypes.fromCode(type);
+        library.addParameter(new ParameterDefinition()
+                .setName(name)
+                .setUse(output ? Enumerations.OperationParameterUse.OUT : Enumerations.OperationParameterUse.IN)
+                .setMin(0)
+                .setMax(max)
+                .setType(typeCode));
+    }
+
+    @Override
+    public void addLogicDefinition(String libraryName, String name, String statement, int displaySequence) {
+        Extension e = new Extension();
+        e.setUrl("http://hl7.org/fhir/us/cqfmeasures/StructureDefinition/cqfm-logicDefinition");
+        // TODO: Include the libraryUrl
+        e.addExtension(new Extension().setUrl("libraryName").setValue(new StringType(libraryName)));
+        e.addExtension(new Extension().setUrl("name").setValue(new StringType(name)));
+        e.addExtension(new Extension().setUrl("statement").setValue(new StringType(statement)));
+        e.addExtension(new Extension().setUrl("displaySequence").setValue(new IntegerType(displaySequence)));
+        library.addExtension(e);
+    }
+
+    @Override
+    public void addDataRequirement() {
+        dataRequirement = library.addDataRequirement();
+        codeFilter = null;
+    }
+
+    @Override
+    public void setDataRequirementType(String type) {
+        dataRequirement.setType(Enumerations.FHIRAllTypes.fromCode(type));
+    }
+
+    @Override
+    public void setDataRequirementId(String id) {
+        dataRequirement.setId(id);
+    }
+
+    @Override
+    public void addDataRequirementProfile(String profile) {
+        dataRequirement.addProfile(profile);
+    }
+
+    @Override
+    public void addCodeFilter(String path) {
+        codeFilter = dataRequirement.addCodeFilter().setPath(path);
+    }
+
+    @Override
+    public void setCodeFilterValueSet(String valueSet) {
+        codeFilter.setValueSet(valueSet);
+    }
+
+    @Override
+    public void addCodeFilterCode(String system, String version, String code, String display) {
+        codeFilter.addCode(toCoding(system, version, code, display));
+    }
+
+    @Override
+    public void addDateFilter(String path, DataType value) {
+        dataRequirement.addDateFilter().setPath(path).setValue(value);
+    }
+
+    @Override
+    public void addRelatedRequirement(String targetId, String targetProperty) {
+        Extension relatedRequirement = new Extension().setUrl("http://hl7.org/fhir/us/cqfmeasures/StructureDefinition/cqfm-relatedRequirement");
+        relatedRequirement.addExtension("targetId", new StringType(targetId));
+        relatedRequirement.addExtension("targetProperty", new StringType(targetProperty));
+        dataRequirement.addExtension(relatedRequirement);
+    }
+
+    @Override
+    public void addMustSupport(String path) {
+        dataRequirement.addMustSupport(path);
+    }
+
+    @Override
+    public DataType dateTimeValue(String value) {
+        return new DateTimeType(value);
+    }
+
+    @Override
+    public DataType dateValue(String value) {
+        return new DateType(value);
+    }
+
+    @Override
+    public DataType integerValue(String value) {
+        return new IntegerType(value);
+    }
+
+    @Override
+    public DataType decimalValue(String value) {
+        return new DecimalType(value);
+    }
+
+    @Override
+    public DataType stringValue(String value) {
+        return new StringType(value);
+    }
+
+    @Override
+    public DataType periodValue(DataType start, DataType end) {
+        // TODO: Handle lowclosed/highclosed
+        return new Period().setStartElement((DateTimeType)start).setEndElement((DateTimeType)end);
+    }
+
+    @Override
+    public DataType asDateTime(DataType value) {
+        if (value instanceof DateTimeType) {
+            return value;
+        }
+        if (value instanceof DateType) {
+            return new DateTimeType(((DateType)value).getValueAsString());
+        }
+        return null;
+    }
+
+    @Override
+    public DataType getPeriodStart(DataType period) {
+        return ((Period)period).getStartElement();
+    }
+
+    @Override
+    public DataType getPeriodEnd(DataType period) {
+        return ((Period)period).getEndElement();
+    }
+
+    @Override
+    public DataType expressionValue(String type, String expression) {
+        DataType result;
+        switch (type) {
+            case "Period": result = new Period(); break;
+            case "Range": result = new Range(); break;
+            case "boolean": result = new BooleanType(); break;
+            case "integer": result = new IntegerType(); break;
+            case "decimal": result = new DecimalType(); break;
+            case "Quantity": result = new Quantity(); break;
+            case "Coding": result = new Coding(); break;
+            case "CodeableConcept": result = new CodeableConcept(); break;
+            case "date": result = new DateType(); break;
+            case "dateTime": result = new DateTimeType(); break;
+            case "time": result = new TimeType(); break;
+            default: throw new IllegalArgumentException(String.format("Expression values of type %s are not supported", type));
+        }
+
+        result.addExtension(new Extension().setUrl("http://hl7.org/fhir/StructureDefinition/cqf-expression")
+                .setValue(new Expression().setLanguage("text/cql-identifier").setExpression(expression)));
+        return result;
+    }
+
+    private Coding toCoding(String system, String version, String code, String display) {
+        Coding coding = new Coding();
+        coding.setCode(code);
+        coding.setDisplay(display);
+        coding.setSystem(system);
+        coding.setVersion(version);
+        return coding;
+    }
+}
@@ -3,6 +3,10 @@ package org.cqframework.cql.elm.requirements.fhir;
 import ca.uhn.fhir.context.FhirContext;
 import org.cqframework.cql.cql2elm.*;
 import org.cqframework.cql.cql2elm.model.TranslatedLibrary;
+import org.cqframework.cql.elm.requirements.CollapsedElmRequirements;
+import org.cqframework.cql.elm.requirements.ElmDataRequirement;
+import org.cqframework.cql.elm.requirements.ElmRequirement;
+import org.cqframework.cql.elm.requirements.ElmRequirementsCache;
 import org.fhir.ucum.UcumEssenceService;
 import org.fhir.ucum.UcumException;
 import org.fhir.ucum.UcumService;
@@ -10,10 +14,12 @@ import org.hl7.elm.r1.*;
 import ca.uhn.fhir.parser.IParser;
 import org.hl7.elm.r1.Library;
 import org.hl7.fhir.DataRequirementCodeFilter;
+import org.hl7.fhir.convertors.factory.VersionConvertorFactory_40_50;
 import org.hl7.fhir.r5.model.*;
 import org.testng.annotations.Test;
 import org.cqframework.cql.elm.requirements.fhir.DataRequirementsProcessor;
 
+import javax.xml.namespace.QName;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Paths;
@@ -1440,6 +1446,270 @@ public class DataRequirementsProcessorTest {
         //outputModuleDefinitionLibrary(moduleDefinitionLibrary);
     }
 
+    private static String getLargeLibrary(int definitionCount) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("library Large version '1.0'\n");
+        sb.append("using FHIR version '4.0.1'\n");
+        sb.append("include FHIRHelpers version '4.0.1'\n");
+        for (int i = 0; i < 10; i++) {
+            sb.append(String.format("valueset \"Value Set %d\": 'http://example.org/fhir/ValueSet/%d'\n", i, i));
+        }
+        sb.append("context Patient\n");
+        for (int i = 0; i < definitionCount; i++) {
+            sb.append(String.format("define \"Definition %d\":\n", i));
+            sb.append(String.format("  [Encounter: \"Value Set %d\"] E\n", i % 10));
+            sb.append(String.format("    where E.status = 'finished' and E.class.code = 'C%d'\n", i));
+            sb.append("      and E.period.start during Interval[@2020-01-01T00:00:00.0, @2021-01-01T00:00:00.0)\n");
+            if (i > 0) {
+                sb.append(String.format("      and exists (\"Definition %d\")\n", i - 1));
+            }
+            if (i > 1) {
+                sb.append(String.format("      and exists (\"Definition %d\")\n", i / 2));
+            }
+        }
+        return sb.toString();
+    }
+
+    private void assertEqualModuleDefinitionLibraries(org.hl7.fhir.r5.model.Library actual, org.hl7.fhir.r5.model.Library expected) {
+        actual.setDate(null);
+        expected.setDate(null);
+        IParser parser = getFhirContext().newJsonParser();
+        assertEquals(parser.encodeResourceToString(actual), parser.encodeResourceToString(expected));
+    }
+
+    @Test
+    public void TestRequirementsCache() throws IOException {
+        CqlTranslatorOptions translatorOptions = getTranslatorOptions();
+        CqlTranslator translator = setupDataRequirementsAnalysis("CMS104/DischargedonAntithromboticTherapyFHIR.cql", translatorOptions);
+        TranslatedLibrary measure = translator.getTranslatedLibrary();
+        TranslatedLibrary tjc = libraryManager.resolveLibrary(new VersionedIdentifier().withId("TJCOverallFHIR").withVersion("1.4.000"),
+                translatorOptions, new ArrayList<CqlTranslatorException>());
+
+        DataRequirementsProcessor processor = new DataRequirementsProcessor();
+        org.hl7.fhir.r5.model.Library expectedMeasure = processor.gatherDataRequirements(libraryManager, measure, translatorOptions, null, true);
+        org.hl7.fhir.r5.model.Library expectedTjc = processor.gatherDataRequirements(libraryManager, tjc, translatorOptions, null, true);
+
+        ElmRequirementsCache cache = new ElmRequirementsCache();
+        processor.setRequirementsCache(cache);
+        assertEqualModuleDefinitionLibraries(processor.gatherDataRequirements(libraryManager, measure, translatorOptions, null, true), expectedMeasure);
+        int size = cache.size();
+        assertTrue(size > 0);
+
+        // The definitions of the measure's libraries are replayed from the cache
+        assertEqualModuleDefinitionLibraries(processor.gatherDataRequirements(libraryManager, measure, translatorOptions, null, true), expectedMeasure);
+        assertEqualModuleDefinitionLibraries(processor.gatherDataRequirements(libraryManager, tjc, translatorOptions, null, true), expectedTjc);
+        assertEquals(cache.size(), size);
+    }
+
+    @Test
+    public void TestRequirementsCacheSharedByMeasures() throws IOException {
+        CqlTranslatorOptions translatorOptions = getTranslatorOptions();
+
+        // The measures share their libraries through the cache, so each measure replays the definitions the other
+        // recorded, and is gathered again after the other has replayed the definitions it recorded
+        List<TranslatedLibrary> measures = setupSharedMeasures(translatorOptions);
+        DataRequirementsProcessor processor = new DataRequirementsProcessor();
+        processor.setRequirementsCache(new ElmRequirementsCache());
+        List<org.hl7.fhir.r5.model.Library> actual = new ArrayList<org.hl7.fhir.r5.model.Library>();
+        for (int i = 0; i < 2 * measures.size(); i++) {
+            actual.add(processor.gatherDataRequirements(libraryManager, measures.get(i % measures.size()), translatorOptions, null, true));
+        }
+
+        // Without a cache, the filters inferred for the retrieves of the shared libraries are written to the retrieves,
+        // so each measure is gathered on its own libraries
+        for (int i = 0; i < actual.size(); i++) {
+            TranslatedLibrary measure = setupSharedMeasures(translatorOptions).get(i % measures.size());
+            assertEqualModuleDefinitionLibraries(actual.get(i),
+                    new DataRequirementsProcessor().gatherDataRequirements(libraryManager, measure, translatorOptions, null, true));
+        }
+    }
+
+    private List<TranslatedLibrary> setupSharedMeasures(CqlTranslatorOptions translatorOptions) throws IOException {
+        CqlTranslator translator = setupDataRequirementsAnalysis("CompositeMeasures/cql/BCSComponent.cql", translatorOptions);
+        List<TranslatedLibrary> measures = new ArrayList<TranslatedLibrary>();
+        measures.add(translator.getTranslatedLibrary());
+        measures.add(libraryManager.resolveLibrary(new VersionedIdentifier().withId("CCSComponent").withVersion("0.0.001"),
+                translatorOptions, new ArrayList<CqlTranslatorException>()));
+        return measures;
+    }
+
+    @Test
+    public void TestParallelDataRequirements() throws IOException, InterruptedException {
+        CqlTranslatorOptions translatorOptions = getTranslatorOptions();
+
+        // Each batch is gathered on libraries no gather has analyzed yet, as set up by a new library manager, so that
+        // the gathers of the batch are the first to analyze them. Each library is gathered twice, so that libraries
+        // are analyzed concurrently by more than one gather.
+        List<List<org.hl7.fhir.r5.model.Library>> actuals = new ArrayList<List<org.hl7.fhir.r5.model.Library>>();
+        for (ElmRequirementsCache cache : Arrays.asList(null, new ElmRequirementsCache())) {
+            List<TranslatedLibrary> libraries = setupParallelDataRequirements(translatorOptions);
+            List<TranslatedLibrary> batch = new ArrayList<TranslatedLibrary>(libraries);
+            batch.addAll(libraries);
+            DataRequirementsProcessor processor = new DataRequirementsProcessor();
+            processor.setRequirementsCache(cache);
+            List<org.hl7.fhir.r5.model.Library> actual = processor.gatherDataRequirements(libraryManager, batch, translatorOptions, true, 4);
+            assertEquals(actual.size(), batch.size());
+            actuals.add(actual);
+        }
+
+        // Without a cache, the filters inferred for the retrieves of the shared libraries are written to the retrieves,
+        // so each library is gathered on its own libraries
+        List<TranslatedLibrary> libraries = setupParallelDataRequirements(translatorOptions);
+        List<org.hl7.fhir.r5.model.Library> expected = new ArrayList<org.hl7.fhir.r5.model.Library>();
+        for (int i = 0; i < libraries.size(); i++) {
+            TranslatedLibrary library = i == 0 ? libraries.get(i) : setupParallelDataRequirements(translatorOptions).get(i);
+            expected.add(new DataRequirementsProcessor().gatherDataRequirements(libraryManager, library, translatorOptions, null, true));
+        }
+
+        for (List<org.hl7.fhir.r5.model.Library> actual : actuals) {
+            for (int i = 0; i < actual.size(); i++) {
+                assertEqualModuleDefinitionLibraries(actual.get(i), expected.get(i % libraries.size()));
+            }
+        }
+    }
+
+    private List<TranslatedLibrary> setupParallelDataRequirements(CqlTranslatorOptions translatorOptions) throws IOException {
+        // The component measures of a composite measure share most of their libraries
+        CqlTranslator translator = setupDataRequirementsAnalysis("CompositeMeasures/cql/BCSComponent.cql", translatorOptions);
+        List<TranslatedLibrary> libraries = new ArrayList<TranslatedLibrary>();
+        libraries.add(translator.getTranslatedLibrary());
+        for (String component : Arrays.asList("CCSComponent", "PVSComponent", "TSCComponent")) {
+            libraries.add(libraryManager.resolveLibrary(new VersionedIdentifier().withId(component).withVersion("0.0.001"),
+                    translatorOptions, new ArrayList<CqlTranslatorException>()));
+        }
+        libraries.add(libraryManager.resolveLibrary(new VersionedIdentifier().withId("HospiceFHIR4").withVersion("2.0.000"),
+                translatorOptions, new ArrayList<CqlTranslatorException>()));
+        return libraries;
+    }
+
+    @Test
+    public void TestR4DataRequirements() throws IOException {
+        CqlTranslatorOptions translatorOptions = getTranslatorOptions();
+        CqlTranslator translator = setupDataRequirementsAnalysis("CMS104/DischargedonAntithromboticTherapyFHIR.cql", translatorOptions);
+        TranslatedLibrary measure = translator.getTranslatedLibrary();
+        IParser parser = FhirContext.forR4Cached().newJsonParser();
+
+        // The R4 library is the same as converting the R5 library
+        org.hl7.fhir.r4.model.Library converted = (org.hl7.fhir.r4.model.Library)VersionConvertorFactory_40_50.convertResource(
+                new DataRequirementsProcessor().gatherDataRequirements(libraryManager, measure, translatorOptions, null, true));
+        org.hl7.fhir.r4.model.Library direct = new DataRequirementsProcessor().gatherDataRequirements(libraryManager, measure,
+                translatorOptions, null, true, true, new R4DataRequirementsSink());
+        assertTrue(direct.getDataRequirement().size() > 0);
+        assertEquals(parser.encodeResourceToString(direct), parser.encodeResourceToString(converted));
+    }
+
+    /**
+     * Reports the time to gather the data requirements of a measure as R5, as R4 by converting the R5 library, and as
+     * R4 directly. Each round runs the three in a random order, after warm-up rounds that are not measured, so that
+     * neither warm-up nor order favors one of them.
+     */
+    @Test(groups = "benchmark")
+    public void TestR4DataRequirementsPerformance() throws IOException {
+        CqlTranslatorOptions translatorOptions = getTranslatorOptions();
+        CqlTranslator translator = setupDataRequirementsAnalysis("CMS104/DischargedonAntithromboticTherapyFHIR.cql", translatorOptions);
+        TranslatedLibrary measure = translator.getTranslatedLibrary();
+
+        Map<String, Runnable> gathers = new LinkedHashMap<String, Runnable>();
+        gathers.put("R5", () -> new DataRequirementsProcessor().gatherDataRequirements(libraryManager, measure,
+                translatorOptions, null, true));
+        gathers.put("R4 by conversion", () -> VersionConvertorFactory_40_50.convertResource(
+                new DataRequirementsProcessor().gatherDataRequirements(libraryManager, measure, translatorOptions, null, true)));
+        gathers.put("R4 directly", () -> new DataRequirementsProcessor().gatherDataRequirements(libraryManager, measure,
+                translatorOptions, null, true, true, new R4DataRequirementsSink()));
+
+        int warmUpRounds = 20;
+        int rounds = 50;
+        Map<String, Long> elapsed = new HashMap<String, Long>();
+        List<String> order = new ArrayList<String>(gathers.keySet());
+        Random random = new Random();
+        for (int i = 0; i < warmUpRounds + rounds; i++) {
+            Collections.shuffle(order, random);
+            for (String name : order) {
+                long start = System.nanoTime();
+                gathers.get(name).run();
+                if (i >= warmUpRounds) {
+                    elapsed.merge(name, System.nanoTime() - start, Long::sum);
+                }
+            }
+        }
+
+        for (String name : gathers.keySet()) {
+            logger.info("Gathered the data requirements of {} as {} in {} us on average", measure.getIdentifier().getId(),
+                    name, elapsed.get(name) / rounds / 1000);
+        }
+    }
+
+    @Test
+    public void TestCollapsedRequirements() {
+        VersionedIdentifier libraryIdentifier = new VersionedIdentifier().withId("Test");
+        QName encounter = new QName("http://hl7.org/fhir", "Encounter");
+        QName condition = new QName("http://hl7.org/fhir", "Condition");
+        CollapsedElmRequirements collapsed = new CollapsedElmRequirements();
+        collapsed.add(new ElmDataRequirement(libraryIdentifier, new Retrieve().withDataType(encounter).withCodeProperty("type")));
+        collapsed.add(new ElmDataRequirement(libraryIdentifier, new Retrieve().withDataType(condition)));
+        collapsed.add(new ElmDataRequirement(libraryIdentifier, new Retrieve().withDataType(encounter).withCodeProperty("class")));
+        collapsed.add(new ElmDataRequirement(libraryIdentifier, new Retrieve().withDataType(encounter).withCodeProperty("type")));
+
+        // Merging a requirement into an equivalent one moves the merged requirement to the end
+        List<ElmRequirement> unique = new ArrayList<ElmRequirement>();
+        collapsed.getUniqueRequirements().forEach(unique::add);
+        assertEquals(unique.size(), 3);
+        assertEquals(((Retrieve)unique.get(0).getElement()).getDataType(), condition);
+        assertEquals(((Retrieve)unique.get(1).getElement()).getCodeProperty(), "class");
+        assertEquals(((Retrieve)unique.get(2).getElement()).getCodeProperty(), "type");
+        assertNotNull(collapsed.getEquivalent(new ElmDataRequirement(libraryIdentifier, new Retrieve().withDataType(condition))));
+        assertNull(collapsed.getEquivalent(new ElmDataRequirement(libraryIdentifier, new Retrieve().withDataType(condition).withCodeProperty("code"))));
+    }
+
+    @Test
+    public void TestCollapsedRequirementsWithExpressions() {
+        VersionedIdentifier libraryIdentifier = new VersionedIdentifier().withId("Test");
+        QName encounter = new QName("http://hl7.org/fhir", "Encounter");
+        QName string = new QName("urn:hl7-org:elm-types:r1", "String");
+        CollapsedElmRequirements collapsed = new CollapsedElmRequirements();
+        collapsed.add(new ElmDataRequirement(libraryIdentifier, new Retrieve().withDataType(encounter)
+                .withContext(new Literal().withLocalId("1").withValueType(string).withValue("123"))
+                .withId(new Literal().withLocalId("2").withValueType(string).withValue("456"))));
+        collapsed.add(new ElmDataRequirement(libraryIdentifier, new Retrieve().withDataType(encounter)
+                .withContext(new Literal().withLocalId("3").withValueType(string).withValue("123"))
+                .withId(new Literal().withLocalId("4").withValueType(string).withValue("456"))));
+
+        // The context and id are equal by evaluation, though their elements are not equal
+        List<ElmRequirement> unique = new ArrayList<ElmRequirement>();
+        collapsed.getUniqueRequirements().forEach(unique::add);
+        assertEquals(unique.size(), 1);
+    }
+
+    /**
+     * Reports the time to gather the data requirements of a library of 300 definitions, each referring to two others.
+     */
+    @Test(groups = "benchmark")
+    public void TestLargeLibraryDataRequirements() {
+        int definitionCount = 300;
+        reset();
+        modelManager = new ModelManager();
+        libraryManager = new LibraryManager(modelManager);
+        libraryManager.getLibrarySourceLoader().registerProvider(new FhirLibrarySourceProvider());
+        CqlTranslatorOptions translatorOptions = getTranslatorOptions();
+        translatorOptions.setCollapseDataRequirements(true);
+        translatorOptions.setAnalyzeDataRequirements(true);
+        CqlTranslator translator = CqlTranslator.fromText(getLargeLibrary(definitionCount), modelManager, libraryManager,
+                null, translatorOptions);
+        assertTrue(translator.getErrors().isEmpty());
+        libraryManager.cacheLibrary(translator.getTranslatedLibrary());
+
+        // Requirements analysis visits each definition once however many definitions refer to it
+        getModuleDefinitionLibrary(translator, translatorOptions);
+        long start = System.nanoTime();
+        org.hl7.fhir.r5.model.Library moduleDefinitionLibrary = getModuleDefinitionLibrary(translator, translatorOptions);
+        long elapsed = System.nanoTime() - start;
+        logger.info("Gathered the data requirements of {} definitions in {} ms", definitionCount, elapsed / 1000000);
+
+        Iterable<DataRequirement> encounterRequirements = getDataRequirementsForType(
+                moduleDefinitionLibrary.getDataRequirement(), Enumerations.FHIRAllTypes.ENCOUNTER);
+        assertTrue(encounterRequirements.iterator().hasNext());
+    }
+
     private static void setup(String relativePath) {
         modelManager = new ModelManager();
         libraryManager = new LibraryManager(modelManager);
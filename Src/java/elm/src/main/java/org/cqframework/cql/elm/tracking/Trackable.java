@@ -9,28 +9,45 @@ import javax.xml.bind.annotation.XmlTransient;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 @JsonTypeInfo(use = JsonTypeInfo.Id.NAME, include = JsonTypeInfo.As.PROPERTY, property = "type")
 public class Trackable {
-    private final UUID trackerId;
-    private final List<TrackBack> trackbacks;
+    // Tracker ids are a random per-JVM prefix and a sequence number, rather than random UUIDs, which draw on a
+    // shared SecureRandom. The id is assigned on first use, since most nodes are never asked for it.
+    private static final long TRACKER_ID_PREFIX = UUID.randomUUID().getMostSignificantBits();
+    private static final AtomicLong trackerIdSequence = new AtomicLong();
+
+    private volatile UUID trackerId;
+    private List<TrackBack> trackbacks;
 
     private DataType resultType;
 
     public Trackable() {
-        this.trackerId = UUID.randomUUID();
-        this.trackbacks = new ArrayList<>();
     }
 
     @XmlTransient
     @JsonIgnore
     public UUID getTrackerId() {
-        return trackerId;
+        UUID id = trackerId;
+        if (id == null) {
+            synchronized (this) {
+                id = trackerId;
+                if (id == null) {
+                    id = new UUID(TRACKER_ID_PREFIX, trackerIdSequence.incrementAndGet());
+                    trackerId = id;
+                }
+            }
+        }
+        return id;
     }
 
     @XmlTransient
     @JsonIgnore
     public List<TrackBack> getTrackbacks() {
+        if (trackbacks == null) {
+            trackbacks = new ArrayList<>();
+        }
         return trackbacks;
     }
 
@@ -14,6 +14,19 @@ public class ChoiceType extends DataType {
         for (DataType type : types) {
             addType(type);
         }
+
+        int result = 13;
+        for (int i = 0; i < this.types.size(); i++) {
+            result += (37 * (this.types.get(i) != null ? this.types.get(i).hashCode() : 0));
+        }
+        this.hashCode = result;
+    }
+
+    /**
+     * Returns the canonical choice type of the given types.
+     */
+    public static ChoiceType of(Iterable<DataType> types) {
+        return TypeInterner.internChoiceType(new ChoiceType(types));
     }
 
     private ArrayList<DataType> types = new ArrayList<>();
@@ -33,18 +46,19 @@ public class ChoiceType extends DataType {
         }
     }
 
+    private final int hashCode;
+
     @Override
     public int hashCode() {
-        int result = 13;
-        for (int i = 0; i < types.size(); i++) {
-            result += (37 * types.get(i).hashCode());
-        }
-
-        return result;
+        return hashCode;
     }
 
     @Override
     public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+
         if (o instanceof ChoiceType) {
             ChoiceType that = (ChoiceType)o;
 
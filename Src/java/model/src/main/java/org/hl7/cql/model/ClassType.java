@@ -226,22 +226,54 @@ public class ClassType extends DataType implements NamedType {
     }
 
     private List<ClassTypeElement> elements = new ArrayList<ClassTypeElement>();
-    private List<ClassTypeElement> sortedElements = null;
-    private LinkedHashMap<String, ClassTypeElement> baseElementMap = null;
+    // Lazily computed caches are volatile and fully built before being published, as resolved types may be
+    // shared across threads (e.g. models cached and shared between model managers)
+    private volatile List<ClassTypeElement> sortedElements = null;
+    private volatile LinkedHashMap<String, ClassTypeElement> baseElementMap = null;
+    private volatile Map<String, ClassTypeElement> elementIndex = null;
 
     public List<ClassTypeElement> getElements() {
         return elements;
     }
 
+    /**
+     * Returns the element with the given name, declared by this type or inherited from a base type, or null if there
+     * is no such element. Elements declared by a type hide elements of the same name declared by its base types.
+     */
+    public ClassTypeElement getElement(String name) {
+        return getElementIndex().get(name);
+    }
+
+    private Map<String, ClassTypeElement> getElementIndex() {
+        Map<String, ClassTypeElement> result = elementIndex;
+        if (result == null) {
+            result = new HashMap<>();
+            // Walk the base types directly rather than using the base element map, which is computed while the model
+            // is being built, and so may not reflect elements added to base types later in the build
+            DataType type = this;
+            while (type instanceof ClassType) {
+                for (ClassTypeElement element : ((ClassType)type).elements) {
+                    result.putIfAbsent(element.getName(), element);
+                }
+                type = type.getBaseType();
+            }
+            elementIndex = result;
+        }
+
+        return result;
+    }
+
     private LinkedHashMap<String, ClassTypeElement> getBaseElementMap() {
-        if (baseElementMap == null) {
-            baseElementMap = new LinkedHashMap<>();
+        LinkedHashMap<String, ClassTypeElement> result = baseElementMap;
+        if (result == null) {
+            result = new LinkedHashMap<>();
             if (getBaseType() instanceof ClassType) {
-                ((ClassType)getBaseType()).gatherElements(baseElementMap);
+                ((ClassType)getBaseType()).gatherElements(result);
             }
+            baseElementMap = result;
         }
 
-        return baseElementMap;
+        return result;
     }
 
     private void gatherElements(LinkedHashMap<String, ClassTypeElement> elementMap) {
@@ -304,6 +336,7 @@ public class ClassType extends DataType implements NamedType {
     {
         internalAddElement(element);
         sortedElements = null;
+        elementIndex = null;
         tupleType = null;
     }
 
@@ -313,16 +346,19 @@ public class ClassType extends DataType implements NamedType {
         }
 
         sortedElements = null;
+        elementIndex = null;
         tupleType = null;
     }
 
     private List<ClassTypeElement> getSortedElements() {
-        if (sortedElements == null) {
-            sortedElements = new ArrayList<>(elements);
-            Collections.sort(sortedElements, (left, right) -> left.getName().compareTo(right.getName()));
+        List<ClassTypeElement> result = sortedElements;
+        if (result == null) {
+            result = new ArrayList<>(elements);
+            Collections.sort(result, (left, right) -> left.getName().compareTo(right.getName()));
+            sortedElements = result;
         }
 
-        return sortedElements;
+        return result;
     }
 
     @Override
@@ -350,13 +386,15 @@ public class ClassType extends DataType implements NamedType {
         return this.label == null ? this.name : this.label;
     }
 
-    private TupleType tupleType;
+    private volatile TupleType tupleType;
     public TupleType getTupleType() {
-        if (tupleType == null) {
-            tupleType = buildTupleType();
+        TupleType result = tupleType;
+        if (result == null) {
+            result = buildTupleType();
+            tupleType = result;
         }
 
-        return tupleType;
+        return result;
     }
 
     private void addTupleElements(ClassType classType, LinkedHashMap<String, TupleTypeElement> elements) {
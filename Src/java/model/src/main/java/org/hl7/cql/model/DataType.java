@@ -1,5 +1,8 @@
 package org.hl7.cql.model;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 public abstract class DataType {
     public DataType() {
         this(null);
@@ -13,6 +16,23 @@ public abstract class DataType {
         return baseType;
     }
 
+    // Canonical types composed from this type, maintained by the TypeInterner
+    private volatile Map<Object, TypeInterner.CanonicalReference> derivedTypes;
+    Map<Object, TypeInterner.CanonicalReference> getDerivedTypes() {
+        Map<Object, TypeInterner.CanonicalReference> result = derivedTypes;
+        if (result == null) {
+            synchronized (this) {
+                result = derivedTypes;
+                if (result == null) {
+                    result = new ConcurrentHashMap<>();
+                    derivedTypes = result;
+                }
+            }
+        }
+
+        return result;
+    }
+
     public String toLabel() {
         return toString();
     }
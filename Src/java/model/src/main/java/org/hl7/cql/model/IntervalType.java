@@ -11,19 +11,37 @@ public class IntervalType extends DataType {
         }
 
         this.pointType = pointType;
+        this.hashCode = 53 * pointType.hashCode();
+    }
+
+    /**
+     * Returns the canonical interval type with the given point type.
+     */
+    public static IntervalType of(DataType pointType) {
+        if (pointType == null) {
+            throw new IllegalArgumentException("pointType");
+        }
+
+        return TypeInterner.internIntervalType(pointType);
     }
 
     public DataType getPointType() {
         return this.pointType;
     }
 
+    private final int hashCode;
+
     @Override
     public int hashCode() {
-        return 53 * pointType.hashCode();
+        return hashCode;
     }
 
     @Override
     public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+
         if (o instanceof IntervalType) {
             IntervalType that = (IntervalType)o;
             return this.pointType.equals(that.pointType);
@@ -95,6 +113,6 @@ public class IntervalType extends DataType {
 
     @Override
     public DataType instantiate(InstantiationContext context) {
-        return new IntervalType(pointType.instantiate(context));
+        return IntervalType.of(pointType.instantiate(context));
     }
 }
@@ -11,19 +11,37 @@ public class ListType extends DataType {
         }
 
         this.elementType = elementType;
+        this.hashCode = 67 * elementType.hashCode();
+    }
+
+    /**
+     * Returns the canonical list type with the given element type.
+     */
+    public static ListType of(DataType elementType) {
+        if (elementType == null) {
+            throw new IllegalArgumentException("elementType");
+        }
+
+        return TypeInterner.internListType(elementType);
     }
 
     public DataType getElementType() {
         return this.elementType;
     }
 
+    private final int hashCode;
+
     @Override
     public int hashCode() {
-        return 67 * elementType.hashCode();
+        return hashCode;
     }
 
     @Override
     public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+
         if (o instanceof ListType) {
             ListType that = (ListType)o;
             return this.elementType.equals(that.elementType);
@@ -95,6 +113,6 @@ public class ListType extends DataType {
 
     @Override
     public DataType instantiate(InstantiationContext context) {
-        return new ListType(elementType.instantiate(context));
+        return ListType.of(elementType.instantiate(context));
     }
 }
@@ -4,7 +4,8 @@ import java.util.*;
 
 public class TupleType extends DataType {
     private List<TupleTypeElement> elements = new ArrayList<TupleTypeElement>();
-    private List<TupleTypeElement> sortedElements = null;
+    private volatile List<TupleTypeElement> sortedElements = null;
+    private volatile Map<String, TupleTypeElement> elementIndex = null;
 
     public TupleType(Collection<TupleTypeElement> elements) {
         super();
@@ -18,6 +19,13 @@ public class TupleType extends DataType {
         this(null);
     }
 
+    /**
+     * Returns the canonical tuple type with the given elements. The returned type is shared, and must not be modified.
+     */
+    public static TupleType of(Collection<TupleTypeElement> elements) {
+        return TypeInterner.internTupleType(new TupleType(elements));
+    }
+
     public Iterable<TupleTypeElement> getElements() {
         return elements;
     }
@@ -26,20 +34,40 @@ public class TupleType extends DataType {
     {
         this.elements.add(element);
         sortedElements = null;
+        elementIndex = null;
     }
 
     public void addElements(Collection<TupleTypeElement> elements) {
         this.elements.addAll(elements);
         sortedElements = null;
+        elementIndex = null;
+    }
+
+    /**
+     * Returns the element with the given name, or null if there is no such element.
+     */
+    public TupleTypeElement getElement(String name) {
+        Map<String, TupleTypeElement> result = elementIndex;
+        if (result == null) {
+            result = new HashMap<>();
+            for (TupleTypeElement element : elements) {
+                result.putIfAbsent(element.getName(), element);
+            }
+            elementIndex = result;
+        }
+
+        return result.get(name);
     }
 
     private List<TupleTypeElement> getSortedElements() {
-        if (sortedElements == null) {
-            sortedElements = new ArrayList<>(elements);
-            Collections.sort(sortedElements, (left, right) -> left.getName().compareTo(right.getName()));
+        List<TupleTypeElement> result = sortedElements;
+        if (result == null) {
+            result = new ArrayList<>(elements);
+            Collections.sort(result, (left, right) -> left.getName().compareTo(right.getName()));
+            sortedElements = result;
         }
 
-        return sortedElements;
+        return result;
     }
 
     @Override
@@ -54,6 +82,10 @@ public class TupleType extends DataType {
 
     @Override
     public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+
         if (o instanceof TupleType) {
             TupleType that = (TupleType)o;
 
@@ -190,11 +222,11 @@ public class TupleType extends DataType {
             return this;
         }
 
-        TupleType result = new TupleType();
+        List<TupleTypeElement> result = new ArrayList<>();
         for (int i = 0; i < elements.size(); i++) {
-            result.addElement(new TupleTypeElement(elements.get(i).getName(), elements.get(i).getType().instantiate(context)));
+            result.add(new TupleTypeElement(elements.get(i).getName(), elements.get(i).getType().instantiate(context)));
         }
 
-        return result;
+        return TupleType.of(result);
     }
 }
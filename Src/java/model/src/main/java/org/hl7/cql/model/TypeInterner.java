@@ -0,0 +1,159 @@
+package org.hl7.cql.model;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Canonicalizes (hash-conses) list, interval, choice and tuple types, so that types built from the same component
+ * type instances are the same instance, and compare equal by reference.
+ *
+ * Canonical types are keyed by the identity of their component types, rather than by equality, because types from
+ * different models may be equal by name. They are stored on the first of their component types, and are only weakly
+ * referenced from it, because model types may be shared for the life of the process through a model cache, while
+ * most tuple and choice types are built by a single translation. A canonical type that is no longer used elsewhere is
+ * reclaimed, and its entry is removed by a later interning.
+ */
+final class TypeInterner {
+    private TypeInterner() {
+    }
+
+    private static final Object LIST_KEY = new Object();
+    private static final Object INTERVAL_KEY = new Object();
+
+    private static final ReferenceQueue<DataType> staleReferences = new ReferenceQueue<>();
+
+    static final class CanonicalReference extends WeakReference<DataType> {
+        CanonicalReference(DataType type, Map<Object, CanonicalReference> owner, Object key) {
+            super(type, staleReferences);
+            this.owner = owner;
+            this.key = key;
+        }
+
+        final Map<Object, CanonicalReference> owner;
+        final Object key;
+    }
+
+    static void expungeStaleEntries() {
+        for (Reference<? extends DataType> reference = staleReferences.poll(); reference != null;
+                reference = staleReferences.poll()) {
+            CanonicalReference canonicalReference = (CanonicalReference)reference;
+            canonicalReference.owner.remove(canonicalReference.key, canonicalReference);
+        }
+    }
+
+    private static DataType intern(DataType componentType, Object key, Supplier<DataType> typeSupplier) {
+        expungeStaleEntries();
+        Map<Object, CanonicalReference> derivedTypes = componentType.getDerivedTypes();
+        DataType type = null;
+        while (true) {
+            CanonicalReference reference = derivedTypes.get(key);
+            DataType existing = reference != null ? reference.get() : null;
+            if (existing != null) {
+                return existing;
+            }
+
+            if (type == null) {
+                type = typeSupplier.get();
+            }
+
+            CanonicalReference newReference = new CanonicalReference(type, derivedTypes, key);
+            if (reference == null ? derivedTypes.putIfAbsent(key, newReference) == null
+                    : derivedTypes.replace(key, reference, newReference)) {
+                return type;
+            }
+        }
+    }
+
+    private static final class CompositeKey {
+        CompositeKey(boolean isTuple, List<String> names, List<DataType> types) {
+            this.isTuple = isTuple;
+            this.names = names;
+            this.types = types;
+
+            int result = isTuple ? 1 : 0;
+            result = 31 * result + (names != null ? names.hashCode() : 0);
+            for (DataType type : types) {
+                result = 31 * result + System.identityHashCode(type);
+            }
+            this.hashCode = result;
+        }
+
+        final boolean isTuple;
+        final List<String> names;
+        final List<DataType> types;
+        final int hashCode;
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof CompositeKey) {
+                CompositeKey that = (CompositeKey)o;
+                if (this.isTuple != that.isTuple || this.types.size() != that.types.size()
+                        || (this.names == null ? that.names != null : !this.names.equals(that.names))) {
+                    return false;
+                }
+
+                for (int i = 0; i < types.size(); i++) {
+                    if (this.types.get(i) != that.types.get(i)) {
+                        return false;
+                    }
+                }
+
+                return true;
+            }
+
+            return false;
+        }
+    }
+
+    static ListType internListType(DataType elementType) {
+        return (ListType)intern(elementType, LIST_KEY, () -> new ListType(elementType));
+    }
+
+    static IntervalType internIntervalType(DataType pointType) {
+        return (IntervalType)intern(pointType, INTERVAL_KEY, () -> new IntervalType(pointType));
+    }
+
+    static ChoiceType internChoiceType(ChoiceType choiceType) {
+        List<DataType> types = new ArrayList<>();
+        for (DataType type : choiceType.getTypes()) {
+            types.add(type);
+        }
+
+        if (types.isEmpty() || types.get(0) == null) {
+            return choiceType;
+        }
+
+        CompositeKey key = new CompositeKey(false, null, types.subList(1, types.size()));
+        return (ChoiceType)intern(types.get(0), key, () -> choiceType);
+    }
+
+    static TupleType internTupleType(TupleType tupleType) {
+        List<String> names = new ArrayList<>();
+        List<DataType> types = new ArrayList<>();
+        for (TupleTypeElement element : tupleType.getElements()) {
+            // One-based elements are rare enough that they are not worth distinguishing in the key
+            if (element.isOneBased()) {
+                return tupleType;
+            }
+            names.add(element.getName());
+            types.add(element.getType());
+        }
+
+        if (types.isEmpty()) {
+            return tupleType;
+        }
+
+        CompositeKey key = new CompositeKey(true, names, types.subList(1, types.size()));
+        return (TupleType)intern(types.get(0), key, () -> tupleType);
+    }
+}
@@ -0,0 +1,62 @@
+package org.hl7.elm_modelinfo.r1.serializing;
+
+import org.hl7.elm_modelinfo.r1.ModelInfo;
+
+import javax.xml.bind.JAXB;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Build-time tool that writes a binary snapshot alongside every model info in a resource directory.
+ *
+ * Usage: ModelInfoSnapshotGenerator &lt;resource directory&gt; &lt;output directory&gt;
+ *
+ * Each model info resource (an XML file with "modelinfo" in its name) is written to the same relative path in the
+ * output directory, with the .xml extension replaced by {@link #SNAPSHOT_EXTENSION}.
+ */
+public class ModelInfoSnapshotGenerator {
+    public static final String SNAPSHOT_EXTENSION = ".snapshot";
+
+    public static String getSnapshotPath(String modelInfoPath) {
+        if (modelInfoPath.endsWith(".xml")) {
+            return modelInfoPath.substring(0, modelInfoPath.length() - ".xml".length()) + SNAPSHOT_EXTENSION;
+        }
+
+        return modelInfoPath + SNAPSHOT_EXTENSION;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: ModelInfoSnapshotGenerator <resource directory> <output directory>");
+            System.exit(1);
+        }
+
+        File inputDirectory = new File(args[0]);
+        File outputDirectory = new File(args[1]);
+        if (!inputDirectory.isDirectory()) {
+            throw new IllegalArgumentException(String.format("%s is not a directory", inputDirectory));
+        }
+
+        generate(inputDirectory, outputDirectory);
+    }
+
+    private static void generate(File inputDirectory, File outputDirectory) throws IOException {
+        File[] files = inputDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            if (file.isDirectory()) {
+                generate(file, new File(outputDirectory, file.getName()));
+            }
+            else if (file.getName().endsWith(".xml") && file.getName().contains("modelinfo")) {
+                ModelInfo modelInfo = JAXB.unmarshal(file, ModelInfo.class);
+                outputDirectory.mkdirs();
+                File outputFile = new File(outputDirectory, getSnapshotPath(file.getName()));
+                ModelInfoSnapshotWriter.write(modelInfo, outputFile);
+                System.out.println(String.format("Wrote model info snapshot %s", outputFile.getPath()));
+            }
+        }
+    }
+}
@@ -0,0 +1,385 @@
+package org.hl7.elm_modelinfo.r1.serializing;
+
+import org.hl7.elm_modelinfo.r1.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Reads a ModelInfo from the compact binary snapshot format written by {@link ModelInfoSnapshotWriter}.
+ */
+public class ModelInfoSnapshotReader {
+    static final int MAGIC = 0x434D4953; // CMIS
+    static final int FORMAT_VERSION = 1;
+
+    static final int SIMPLE_TYPE_INFO = 1;
+    static final int CLASS_INFO = 2;
+    static final int PROFILE_INFO = 3;
+    static final int INTERVAL_TYPE_INFO = 4;
+    static final int LIST_TYPE_INFO = 5;
+    static final int TUPLE_TYPE_INFO = 6;
+    static final int CHOICE_TYPE_INFO = 7;
+
+    static final int NULL_TYPE_SPECIFIER = 0;
+    static final int NAMED_TYPE_SPECIFIER = 1;
+    static final int INTERVAL_TYPE_SPECIFIER = 2;
+    static final int LIST_TYPE_SPECIFIER = 3;
+    static final int TUPLE_TYPE_SPECIFIER = 4;
+    static final int CHOICE_TYPE_SPECIFIER = 5;
+    static final int PARAMETER_TYPE_SPECIFIER = 6;
+    static final int BOUND_PARAMETER_TYPE_SPECIFIER = 7;
+
+    private final DataInputStream in;
+    private String[] strings;
+
+    private ModelInfoSnapshotReader(InputStream inputStream) {
+        this.in = new DataInputStream(inputStream instanceof BufferedInputStream ? inputStream : new BufferedInputStream(inputStream));
+    }
+
+    public static ModelInfo read(InputStream inputStream) throws IOException {
+        if (inputStream == null) {
+            throw new IllegalArgumentException("inputStream is null");
+        }
+
+        return new ModelInfoSnapshotReader(inputStream).readModelInfo();
+    }
+
+    public static ModelInfo read(File file) throws IOException {
+        try (InputStream inputStream = new FileInputStream(file)) {
+            return read(inputStream);
+        }
+    }
+
+    private ModelInfo readModelInfo() throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Input is not a model info snapshot");
+        }
+
+        int formatVersion = in.readInt();
+        if (formatVersion != FORMAT_VERSION) {
+            throw new IOException(String.format("Unsupported model info snapshot format version %d", formatVersion));
+        }
+
+        strings = new String[readVarInt() + 1];
+        for (int i = 1; i < strings.length; i++) {
+            byte[] bytes = new byte[readVarInt()];
+            in.readFully(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        ModelInfo modelInfo = new ModelInfo()
+                .withName(readString())
+                .withVersion(readString())
+                .withUrl(readString())
+                .withTargetUrl(readString())
+                .withTargetVersion(readString())
+                .withSchemaLocation(readString())
+                .withTargetQualifier(readString())
+                .withPatientClassName(readString())
+                .withPatientClassIdentifier(readString())
+                .withPatientBirthDatePropertyName(readString())
+                .withCaseSensitive(readBoolean())
+                .withStrictRetrieveTyping(readBoolean())
+                .withDefaultContext(readString());
+
+        List<ModelSpecifier> requiredModelInfo = modelInfo.getRequiredModelInfo();
+        for (int i = readVarInt(); i > 0; i--) {
+            requiredModelInfo.add(new ModelSpecifier()
+                    .withUrl(readString())
+                    .withName(readString())
+                    .withVersion(readString()));
+        }
+
+        List<TypeInfo> typeInfos = modelInfo.getTypeInfo();
+        for (int i = readVarInt(); i > 0; i--) {
+            typeInfos.add(readTypeInfo());
+        }
+
+        List<ConversionInfo> conversionInfos = modelInfo.getConversionInfo();
+        for (int i = readVarInt(); i > 0; i--) {
+            conversionInfos.add(new ConversionInfo()
+                    .withFromTypeSpecifier(readTypeSpecifier())
+                    .withToTypeSpecifier(readTypeSpecifier())
+                    .withFunctionName(readString())
+                    .withFromType(readString())
+                    .withToType(readString()));
+        }
+
+        List<ContextInfo> contextInfos = modelInfo.getContextInfo();
+        for (int i = readVarInt(); i > 0; i--) {
+            contextInfos.add(new ContextInfo()
+                    .withContextType((NamedTypeSpecifier)readTypeSpecifier())
+                    .withName(readString())
+                    .withKeyElement(readString())
+                    .withBirthDateElement(readString()));
+        }
+
+        return modelInfo;
+    }
+
+    private TypeInfo readTypeInfo() throws IOException {
+        int category = in.readByte();
+        TypeSpecifier baseTypeSpecifier = readTypeSpecifier();
+        String baseType = readString();
+        switch (category) {
+            case SIMPLE_TYPE_INFO:
+                return new SimpleTypeInfo()
+                        .withBaseTypeSpecifier(baseTypeSpecifier)
+                        .withBaseType(baseType)
+                        .withNamespace(readString())
+                        .withName(readString())
+                        .withTarget(readString());
+
+            case CLASS_INFO:
+                return readClassInfo(new ClassInfo(), baseTypeSpecifier, baseType);
+
+            case PROFILE_INFO:
+                return readClassInfo(new ProfileInfo(), baseTypeSpecifier, baseType);
+
+            case INTERVAL_TYPE_INFO:
+                return new IntervalTypeInfo()
+                        .withBaseTypeSpecifier(baseTypeSpecifier)
+                        .withBaseType(baseType)
+                        .withPointTypeSpecifier(readTypeSpecifier())
+                        .withPointType(readString());
+
+            case LIST_TYPE_INFO:
+                return new ListTypeInfo()
+                        .withBaseTypeSpecifier(baseTypeSpecifier)
+                        .withBaseType(baseType)
+                        .withElementTypeSpecifier(readTypeSpecifier())
+                        .withElementType(readString());
+
+            case TUPLE_TYPE_INFO: {
+                TupleTypeInfo tupleTypeInfo = new TupleTypeInfo();
+                tupleTypeInfo.setBaseTypeSpecifier(baseTypeSpecifier);
+                tupleTypeInfo.setBaseType(baseType);
+                for (int i = readVarInt(); i > 0; i--) {
+                    tupleTypeInfo.getElement().add(new TupleTypeInfoElement()
+                            .withTypeSpecifier(readTypeSpecifier())
+                            .withElementTypeSpecifier(readTypeSpecifier())
+                            .withName(readString())
+                            .withType(readString())
+                            .withElementType(readString())
+                            .withProhibited(readBoolean())
+                            .withOneBased(readBoolean()));
+                }
+                return tupleTypeInfo;
+            }
+
+            case CHOICE_TYPE_INFO: {
+                ChoiceTypeInfo choiceTypeInfo = new ChoiceTypeInfo();
+                choiceTypeInfo.setBaseTypeSpecifier(baseTypeSpecifier);
+                choiceTypeInfo.setBaseType(baseType);
+                readTypeSpecifiers(choiceTypeInfo.getType());
+                readTypeSpecifiers(choiceTypeInfo.getChoice());
+                return choiceTypeInfo;
+            }
+
+            default:
+                throw new IOException(String.format("Unknown type info category %d", category));
+        }
+    }
+
+    private ClassInfo readClassInfo(ClassInfo classInfo, TypeSpecifier baseTypeSpecifier, String baseType) throws IOException {
+        classInfo.setBaseTypeSpecifier(baseTypeSpecifier);
+        classInfo.setBaseType(baseType);
+        classInfo.setNamespace(readString());
+        classInfo.setName(readString());
+        classInfo.setIdentifier(readString());
+        classInfo.setLabel(readString());
+        classInfo.setDescription(readString());
+        classInfo.setDefinition(readString());
+        classInfo.setComment(readString());
+        classInfo.setTarget(readString());
+        classInfo.setRetrievable(readBoolean());
+        classInfo.setPrimaryCodePath(readString());
+        classInfo.setPrimaryValueSetPath(readString());
+
+        for (int i = readVarInt(); i > 0; i--) {
+            classInfo.getParameter().add(new TypeParameterInfo()
+                    .withTypeSpecifier(readTypeSpecifier())
+                    .withName(readString())
+                    .withConstraint(readString())
+                    .withConstraintType(readString()));
+        }
+
+        for (int i = readVarInt(); i > 0; i--) {
+            ClassInfoElement element = new ClassInfoElement()
+                    .withTypeSpecifier(readTypeSpecifier())
+                    .withElementTypeSpecifier(readTypeSpecifier())
+                    .withBinding(readBinding());
+            readConstraints(element.getConstraint());
+            classInfo.getElement().add(element
+                    .withName(readString())
+                    .withType(readString())
+                    .withElementType(readString())
+                    .withProhibited(readBoolean())
+                    .withOneBased(readBoolean())
+                    .withTarget(readString())
+                    .withLabel(readString())
+                    .withDescription(readString())
+                    .withDefinition(readString())
+                    .withComment(readString())
+                    .withMin(readInteger())
+                    .withMax(readString())
+                    .withMustSupport(readBoolean()));
+        }
+
+        readRelationships(classInfo.getContextRelationship());
+        readRelationships(classInfo.getTargetContextRelationship());
+
+        for (int i = readVarInt(); i > 0; i--) {
+            classInfo.getSearch().add(new SearchInfo()
+                    .withTypeSpecifier(readTypeSpecifier())
+                    .withName(readString())
+                    .withPath(readString())
+                    .withType(readString())
+                    .withLabel(readString())
+                    .withDescription(readString())
+                    .withDefinition(readString())
+                    .withComment(readString()));
+        }
+
+        readExpressions(classInfo.getInferenceExpression());
+        readConstraints(classInfo.getConstraint());
+
+        return classInfo;
+    }
+
+    private BindingInfo readBinding() throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+
+        BindingInfo binding = new BindingInfo()
+                .withName(readString())
+                .withDescription(readString());
+        String strength = readString();
+        return binding
+                .withStrength(strength == null ? null : BindingStrength.fromValue(strength))
+                .withValueSet(readString());
+    }
+
+    private void readConstraints(List<ConstraintInfo> constraints) throws IOException {
+        for (int i = readVarInt(); i > 0; i--) {
+            ConstraintInfo constraint = new ConstraintInfo();
+            readExpressions(constraint.getExpression());
+            constraints.add(constraint
+                    .withName(readString())
+                    .withSeverity(readString())
+                    .withDescription(readString())
+                    .withMessage(readString()));
+        }
+    }
+
+    private void readExpressions(List<ExpressionInfo> expressions) throws IOException {
+        for (int i = readVarInt(); i > 0; i--) {
+            expressions.add(new ExpressionInfo()
+                    .withLanguage(readString())
+                    .withExpression(readString()));
+        }
+    }
+
+    private void readRelationships(List<RelationshipInfo> relationships) throws IOException {
+        for (int i = readVarInt(); i > 0; i--) {
+            relationships.add(new RelationshipInfo()
+                    .withContext(readString())
+                    .withRelatedKeyElement(readString()));
+        }
+    }
+
+    private void readTypeSpecifiers(List<TypeSpecifier> typeSpecifiers) throws IOException {
+        for (int i = readVarInt(); i > 0; i--) {
+            typeSpecifiers.add(readTypeSpecifier());
+        }
+    }
+
+    private TypeSpecifier readTypeSpecifier() throws IOException {
+        int category = in.readByte();
+        switch (category) {
+            case NULL_TYPE_SPECIFIER:
+                return null;
+
+            case NAMED_TYPE_SPECIFIER:
+                return new NamedTypeSpecifier()
+                        .withModelName(readString())
+                        .withNamespace(readString())
+                        .withName(readString());
+
+            case INTERVAL_TYPE_SPECIFIER:
+                return new IntervalTypeSpecifier()
+                        .withPointTypeSpecifier(readTypeSpecifier())
+                        .withPointType(readString());
+
+            case LIST_TYPE_SPECIFIER:
+                return new ListTypeSpecifier()
+                        .withElementTypeSpecifier(readTypeSpecifier())
+                        .withElementType(readString());
+
+            case TUPLE_TYPE_SPECIFIER: {
+                TupleTypeSpecifier tupleTypeSpecifier = new TupleTypeSpecifier();
+                for (int i = readVarInt(); i > 0; i--) {
+                    tupleTypeSpecifier.getElement().add(new TupleTypeSpecifierElement()
+                            .withElementType(readTypeSpecifier())
+                            .withName(readString()));
+                }
+                return tupleTypeSpecifier;
+            }
+
+            case CHOICE_TYPE_SPECIFIER: {
+                ChoiceTypeSpecifier choiceTypeSpecifier = new ChoiceTypeSpecifier();
+                readTypeSpecifiers(choiceTypeSpecifier.getChoice());
+                return choiceTypeSpecifier;
+            }
+
+            case PARAMETER_TYPE_SPECIFIER:
+                return new ParameterTypeSpecifier()
+                        .withParameterName(readString());
+
+            case BOUND_PARAMETER_TYPE_SPECIFIER:
+                return new BoundParameterTypeSpecifier()
+                        .withElementTypeSpecifier(readTypeSpecifier())
+                        .withParameterName(readString())
+                        .withBoundType(readString());
+
+            default:
+                throw new IOException(String.format("Unknown type specifier category %d", category));
+        }
+    }
+
+    private String readString() throws IOException {
+        int index = readVarInt();
+        if (index < 0 || index >= strings.length) {
+            throw new IOException(String.format("Invalid string index %d", index));
+        }
+
+        return strings[index];
+    }
+
+    private Boolean readBoolean() throws IOException {
+        switch (in.readByte()) {
+            case 0: return null;
+            case 1: return false;
+            default: return true;
+        }
+    }
+
+    private Integer readInteger() throws IOException {
+        return in.readBoolean() ? in.readInt() : null;
+    }
+
+    private int readVarInt() throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        return value;
+    }
+}
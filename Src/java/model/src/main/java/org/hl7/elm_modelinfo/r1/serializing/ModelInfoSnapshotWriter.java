@@ -0,0 +1,358 @@
+package org.hl7.elm_modelinfo.r1.serializing;
+
+import org.hl7.elm_modelinfo.r1.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a ModelInfo in the compact binary snapshot format read by {@link ModelInfoSnapshotReader}.
+ *
+ * The snapshot consists of a header, a table of interned strings, and the model info content with every string
+ * written as an index into the string table. Loading a snapshot avoids the XML parsing and JAXB binding cost of
+ * loading a model info from XML, which dominates model load time for large models such as FHIR.
+ */
+public class ModelInfoSnapshotWriter {
+    private final Map<String, Integer> strings = new LinkedHashMap<>();
+    private DataOutputStream out;
+
+    public static void write(ModelInfo modelInfo, OutputStream outputStream) throws IOException {
+        new ModelInfoSnapshotWriter().writeModelInfo(modelInfo, outputStream);
+    }
+
+    public static void write(ModelInfo modelInfo, File file) throws IOException {
+        try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file))) {
+            write(modelInfo, outputStream);
+        }
+    }
+
+    private void writeModelInfo(ModelInfo modelInfo, OutputStream outputStream) throws IOException {
+        if (modelInfo == null) {
+            throw new IllegalArgumentException("modelInfo is null");
+        }
+
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        out = new DataOutputStream(content);
+        writeContent(modelInfo);
+        out.flush();
+
+        DataOutputStream header = new DataOutputStream(outputStream);
+        header.writeInt(ModelInfoSnapshotReader.MAGIC);
+        header.writeInt(ModelInfoSnapshotReader.FORMAT_VERSION);
+        writeVarInt(header, strings.size());
+        for (String s : strings.keySet()) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(header, bytes.length);
+            header.write(bytes);
+        }
+        content.writeTo(header);
+        header.flush();
+    }
+
+    private void writeContent(ModelInfo modelInfo) throws IOException {
+        writeString(modelInfo.getName());
+        writeString(modelInfo.getVersion());
+        writeString(modelInfo.getUrl());
+        writeString(modelInfo.getTargetUrl());
+        writeString(modelInfo.getTargetVersion());
+        writeString(modelInfo.getSchemaLocation());
+        writeString(modelInfo.getTargetQualifier());
+        writeString(modelInfo.getPatientClassName());
+        writeString(modelInfo.getPatientClassIdentifier());
+        writeString(modelInfo.getPatientBirthDatePropertyName());
+        writeBoolean(modelInfo.isCaseSensitive());
+        writeBoolean(modelInfo.isStrictRetrieveTyping());
+        writeString(modelInfo.getDefaultContext());
+
+        writeCount(modelInfo.getRequiredModelInfo());
+        for (ModelSpecifier ms : modelInfo.getRequiredModelInfo()) {
+            writeString(ms.getUrl());
+            writeString(ms.getName());
+            writeString(ms.getVersion());
+        }
+
+        writeCount(modelInfo.getTypeInfo());
+        for (TypeInfo t : modelInfo.getTypeInfo()) {
+            writeTypeInfo(t);
+        }
+
+        writeCount(modelInfo.getConversionInfo());
+        for (ConversionInfo c : modelInfo.getConversionInfo()) {
+            writeTypeSpecifier(c.getFromTypeSpecifier());
+            writeTypeSpecifier(c.getToTypeSpecifier());
+            writeString(c.getFunctionName());
+            writeString(c.getFromType());
+            writeString(c.getToType());
+        }
+
+        writeCount(modelInfo.getContextInfo());
+        for (ContextInfo c : modelInfo.getContextInfo()) {
+            writeTypeSpecifier(c.getContextType());
+            writeString(c.getName());
+            writeString(c.getKeyElement());
+            writeString(c.getBirthDateElement());
+        }
+    }
+
+    private void writeTypeInfo(TypeInfo t) throws IOException {
+        if (t instanceof SimpleTypeInfo) {
+            SimpleTypeInfo sti = (SimpleTypeInfo)t;
+            out.writeByte(ModelInfoSnapshotReader.SIMPLE_TYPE_INFO);
+            writeTypeInfoBase(t);
+            writeString(sti.getNamespace());
+            writeString(sti.getName());
+            writeString(sti.getTarget());
+        }
+        else if (t instanceof ClassInfo) {
+            out.writeByte(t instanceof ProfileInfo ? ModelInfoSnapshotReader.PROFILE_INFO : ModelInfoSnapshotReader.CLASS_INFO);
+            writeTypeInfoBase(t);
+            writeClassInfo((ClassInfo)t);
+        }
+        else if (t instanceof IntervalTypeInfo) {
+            IntervalTypeInfo iti = (IntervalTypeInfo)t;
+            out.writeByte(ModelInfoSnapshotReader.INTERVAL_TYPE_INFO);
+            writeTypeInfoBase(t);
+            writeTypeSpecifier(iti.getPointTypeSpecifier());
+            writeString(iti.getPointType());
+        }
+        else if (t instanceof ListTypeInfo) {
+            ListTypeInfo lti = (ListTypeInfo)t;
+            out.writeByte(ModelInfoSnapshotReader.LIST_TYPE_INFO);
+            writeTypeInfoBase(t);
+            writeTypeSpecifier(lti.getElementTypeSpecifier());
+            writeString(lti.getElementType());
+        }
+        else if (t instanceof TupleTypeInfo) {
+            TupleTypeInfo tti = (TupleTypeInfo)t;
+            out.writeByte(ModelInfoSnapshotReader.TUPLE_TYPE_INFO);
+            writeTypeInfoBase(t);
+            writeCount(tti.getElement());
+            for (TupleTypeInfoElement e : tti.getElement()) {
+                writeTypeSpecifier(e.getTypeSpecifier());
+                writeTypeSpecifier(e.getElementTypeSpecifier());
+                writeString(e.getName());
+                writeString(e.getType());
+                writeString(e.getElementType());
+                writeBoolean(e.isProhibited());
+                writeBoolean(e.isOneBased());
+            }
+        }
+        else if (t instanceof ChoiceTypeInfo) {
+            ChoiceTypeInfo cti = (ChoiceTypeInfo)t;
+            out.writeByte(ModelInfoSnapshotReader.CHOICE_TYPE_INFO);
+            writeTypeInfoBase(t);
+            writeTypeSpecifiers(cti.getType());
+            writeTypeSpecifiers(cti.getChoice());
+        }
+        else {
+            throw new IllegalArgumentException(String.format("Unknown type info category %s", t == null ? "null" : t.getClass().getName()));
+        }
+    }
+
+    private void writeTypeInfoBase(TypeInfo t) throws IOException {
+        writeTypeSpecifier(t.getBaseTypeSpecifier());
+        writeString(t.getBaseType());
+    }
+
+    private void writeClassInfo(ClassInfo ci) throws IOException {
+        writeString(ci.getNamespace());
+        writeString(ci.getName());
+        writeString(ci.getIdentifier());
+        writeString(ci.getLabel());
+        writeString(ci.getDescription());
+        writeString(ci.getDefinition());
+        writeString(ci.getComment());
+        writeString(ci.getTarget());
+        // An explicit retrievable="false" is the schema default, so it is written as an absent attribute
+        writeBoolean(ci.isRetrievable() ? Boolean.TRUE : null);
+        writeString(ci.getPrimaryCodePath());
+        writeString(ci.getPrimaryValueSetPath());
+
+        writeCount(ci.getParameter());
+        for (TypeParameterInfo p : ci.getParameter()) {
+            writeTypeSpecifier(p.getTypeSpecifier());
+            writeString(p.getName());
+            writeString(p.getConstraint());
+            writeString(p.getConstraintType());
+        }
+
+        writeCount(ci.getElement());
+        for (ClassInfoElement e : ci.getElement()) {
+            writeTypeSpecifier(e.getTypeSpecifier());
+            writeTypeSpecifier(e.getElementTypeSpecifier());
+            writeBinding(e.getBinding());
+            writeConstraints(e.getConstraint());
+            writeString(e.getName());
+            writeString(e.getType());
+            writeString(e.getElementType());
+            writeBoolean(e.isProhibited());
+            writeBoolean(e.isOneBased());
+            writeString(e.getTarget());
+            writeString(e.getLabel());
+            writeString(e.getDescription());
+            writeString(e.getDefinition());
+            writeString(e.getComment());
+            writeInteger(e.getMin());
+            writeString(e.getMax());
+            writeBoolean(e.isMustSupport());
+        }
+
+        writeRelationships(ci.getContextRelationship());
+        writeRelationships(ci.getTargetContextRelationship());
+
+        writeCount(ci.getSearch());
+        for (SearchInfo s : ci.getSearch()) {
+            writeTypeSpecifier(s.getTypeSpecifier());
+            writeString(s.getName());
+            writeString(s.getPath());
+            writeString(s.getType());
+            writeString(s.getLabel());
+            writeString(s.getDescription());
+            writeString(s.getDefinition());
+            writeString(s.getComment());
+        }
+
+        writeExpressions(ci.getInferenceExpression());
+        writeConstraints(ci.getConstraint());
+    }
+
+    private void writeBinding(BindingInfo binding) throws IOException {
+        if (binding == null) {
+            out.writeBoolean(false);
+            return;
+        }
+
+        out.writeBoolean(true);
+        writeString(binding.getName());
+        writeString(binding.getDescription());
+        writeString(binding.getStrength() == null ? null : binding.getStrength().value());
+        writeString(binding.getValueSet());
+    }
+
+    private void writeConstraints(List<ConstraintInfo> constraints) throws IOException {
+        writeCount(constraints);
+        for (ConstraintInfo c : constraints) {
+            writeExpressions(c.getExpression());
+            writeString(c.getName());
+            writeString(c.getSeverity());
+            writeString(c.getDescription());
+            writeString(c.getMessage());
+        }
+    }
+
+    private void writeExpressions(List<ExpressionInfo> expressions) throws IOException {
+        writeCount(expressions);
+        for (ExpressionInfo e : expressions) {
+            writeString(e.getLanguage());
+            writeString(e.getExpression());
+        }
+    }
+
+    private void writeRelationships(List<RelationshipInfo> relationships) throws IOException {
+        writeCount(relationships);
+        for (RelationshipInfo r : relationships) {
+            writeString(r.getContext());
+            writeString(r.getRelatedKeyElement());
+        }
+    }
+
+    private void writeTypeSpecifiers(List<TypeSpecifier> typeSpecifiers) throws IOException {
+        writeCount(typeSpecifiers);
+        for (TypeSpecifier ts : typeSpecifiers) {
+            writeTypeSpecifier(ts);
+        }
+    }
+
+    private void writeTypeSpecifier(TypeSpecifier typeSpecifier) throws IOException {
+        if (typeSpecifier == null) {
+            out.writeByte(ModelInfoSnapshotReader.NULL_TYPE_SPECIFIER);
+        }
+        else if (typeSpecifier instanceof NamedTypeSpecifier) {
+            NamedTypeSpecifier nts = (NamedTypeSpecifier)typeSpecifier;
+            out.writeByte(ModelInfoSnapshotReader.NAMED_TYPE_SPECIFIER);
+            writeString(nts.getModelName());
+            writeString(nts.getNamespace());
+            writeString(nts.getName());
+        }
+        else if (typeSpecifier instanceof IntervalTypeSpecifier) {
+            IntervalTypeSpecifier its = (IntervalTypeSpecifier)typeSpecifier;
+            out.writeByte(ModelInfoSnapshotReader.INTERVAL_TYPE_SPECIFIER);
+            writeTypeSpecifier(its.getPointTypeSpecifier());
+            writeString(its.getPointType());
+        }
+        else if (typeSpecifier instanceof ListTypeSpecifier) {
+            ListTypeSpecifier lts = (ListTypeSpecifier)typeSpecifier;
+            out.writeByte(ModelInfoSnapshotReader.LIST_TYPE_SPECIFIER);
+            writeTypeSpecifier(lts.getElementTypeSpecifier());
+            writeString(lts.getElementType());
+        }
+        else if (typeSpecifier instanceof TupleTypeSpecifier) {
+            TupleTypeSpecifier tts = (TupleTypeSpecifier)typeSpecifier;
+            out.writeByte(ModelInfoSnapshotReader.TUPLE_TYPE_SPECIFIER);
+            writeCount(tts.getElement());
+            for (TupleTypeSpecifierElement e : tts.getElement()) {
+                writeTypeSpecifier(e.getElementType());
+                writeString(e.getName());
+            }
+        }
+        else if (typeSpecifier instanceof ChoiceTypeSpecifier) {
+            out.writeByte(ModelInfoSnapshotReader.CHOICE_TYPE_SPECIFIER);
+            writeTypeSpecifiers(((ChoiceTypeSpecifier)typeSpecifier).getChoice());
+        }
+        else if (typeSpecifier instanceof ParameterTypeSpecifier) {
+            out.writeByte(ModelInfoSnapshotReader.PARAMETER_TYPE_SPECIFIER);
+            writeString(((ParameterTypeSpecifier)typeSpecifier).getParameterName());
+        }
+        else if (typeSpecifier instanceof BoundParameterTypeSpecifier) {
+            BoundParameterTypeSpecifier bpts = (BoundParameterTypeSpecifier)typeSpecifier;
+            out.writeByte(ModelInfoSnapshotReader.BOUND_PARAMETER_TYPE_SPECIFIER);
+            writeTypeSpecifier(bpts.getElementTypeSpecifier());
+            writeString(bpts.getParameterName());
+            writeString(bpts.getBoundType());
+        }
+        else {
+            throw new IllegalArgumentException(String.format("Unknown type specifier category %s", typeSpecifier.getClass().getName()));
+        }
+    }
+
+    private void writeCount(List<?> list) throws IOException {
+        writeVarInt(out, list.size());
+    }
+
+    private void writeString(String s) throws IOException {
+        if (s == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+
+        Integer index = strings.get(s);
+        if (index == null) {
+            index = strings.size() + 1;
+            strings.put(s, index);
+        }
+
+        writeVarInt(out, index);
+    }
+
+    private void writeBoolean(Boolean b) throws IOException {
+        out.writeByte(b == null ? 0 : b ? 2 : 1);
+    }
+
+    private void writeInteger(Integer i) throws IOException {
+        out.writeBoolean(i != null);
+        if (i != null) {
+            out.writeInt(i);
+        }
+    }
+
+    private static void writeVarInt(DataOutputStream stream, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            stream.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        stream.writeByte(value);
+    }
+}
@@ -0,0 +1,45 @@
+package org.hl7.cql.model;
+
+import org.testng.annotations.Test;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+public class ClassTypeTests {
+
+    @Test
+    public void testGetElement() {
+        SimpleType string = new SimpleType("String");
+        SimpleType integer = new SimpleType("Integer");
+        ClassType base = new ClassType("Base", null, Arrays.asList(
+                new ClassTypeElement("id", string),
+                new ClassTypeElement("value", string)));
+        ClassType derived = new ClassType("Derived", base, Arrays.asList(
+                new ClassTypeElement("value", string, true, false, null),
+                new ClassTypeElement("count", integer)));
+
+        assertSame(base.getElements().get(0), derived.getElement("id"));
+        assertSame(derived.getElements().get(0), derived.getElement("value"));
+        assertTrue(derived.getElement("value").isProhibited());
+        assertSame(derived.getElements().get(1), derived.getElement("count"));
+        assertNull(derived.getElement("missing"));
+        assertNull(base.getElement("count"));
+
+        // Adding an element rebuilds the index
+        derived.addElement(new ClassTypeElement("name", string));
+        assertSame(derived.getElements().get(2), derived.getElement("name"));
+    }
+
+    @Test
+    public void testTupleGetElement() {
+        TupleTypeElement id = new TupleTypeElement("id", new SimpleType("String"));
+        TupleType tupleType = new TupleType(Arrays.asList(id));
+        assertSame(id, tupleType.getElement("id"));
+        assertNull(tupleType.getElement("value"));
+
+        TupleTypeElement value = new TupleTypeElement("value", new SimpleType("Integer"));
+        tupleType.addElement(value);
+        assertSame(value, tupleType.getElement("value"));
+    }
+}
@@ -0,0 +1,73 @@
+package org.hl7.cql.model;
+
+import org.testng.annotations.Test;
+
+import static org.junit.Assert.*;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+
+public class TypeInternerTests {
+
+    @Test
+    public void testListAndIntervalTypes() {
+        SimpleType integer = new SimpleType("Integer");
+        assertSame(ListType.of(integer), ListType.of(integer));
+        assertSame(IntervalType.of(integer), IntervalType.of(integer));
+        assertSame(ListType.of(IntervalType.of(integer)), ListType.of(IntervalType.of(integer)));
+        assertNotSame(ListType.of(integer), ListType.of(ListType.of(integer)));
+
+        // Types that are equal but distinct, such as types from different models, are not shared
+        SimpleType otherInteger = new SimpleType("Integer");
+        assertEquals(ListType.of(integer), ListType.of(otherInteger));
+        assertNotSame(ListType.of(integer), ListType.of(otherInteger));
+        assertSame(otherInteger, ListType.of(otherInteger).getElementType());
+    }
+
+    @Test
+    public void testChoiceTypes() {
+        SimpleType integer = new SimpleType("Integer");
+        SimpleType string = new SimpleType("String");
+        ChoiceType choice = ChoiceType.of(Arrays.asList(integer, string));
+        assertSame(choice, ChoiceType.of(Arrays.asList(integer, string)));
+        assertNotSame(choice, ChoiceType.of(Arrays.asList(string, integer)));
+        assertNotSame(choice, ChoiceType.of(Arrays.asList(integer)));
+
+        // Nested choices are expanded before the type is interned
+        assertSame(choice, ChoiceType.of(Arrays.asList(choice)));
+    }
+
+    @Test
+    public void testTupleTypes() {
+        SimpleType integer = new SimpleType("Integer");
+        SimpleType string = new SimpleType("String");
+        TupleType tuple = TupleType.of(Arrays.asList(new TupleTypeElement("id", string), new TupleTypeElement("count", integer)));
+        assertSame(tuple, TupleType.of(Arrays.asList(new TupleTypeElement("id", string), new TupleTypeElement("count", integer))));
+        assertNotSame(tuple, TupleType.of(Arrays.asList(new TupleTypeElement("id", string), new TupleTypeElement("total", integer))));
+        assertNotSame(tuple, TupleType.of(Arrays.asList(new TupleTypeElement("id", string))));
+
+        // Instantiation of a tuple type with no generic elements yields the canonical type
+        assertSame(tuple, tuple.instantiate(null));
+    }
+
+    @Test
+    public void testUnusedCanonicalTypesAreReclaimed() throws InterruptedException {
+        // The component type stands for a type of a cached model, which outlives the types built from it
+        SimpleType integer = new SimpleType("Integer");
+        SimpleType string = new SimpleType("String");
+        WeakReference<TupleType> tuple = new WeakReference<>(
+                TupleType.of(Arrays.asList(new TupleTypeElement("id", integer), new TupleTypeElement("name", string))));
+        WeakReference<ListType> list = new WeakReference<>(ListType.of(integer));
+        assertEquals(2, integer.getDerivedTypes().size());
+
+        for (int i = 0; i < 50 && !integer.getDerivedTypes().isEmpty(); i++) {
+            System.gc();
+            Thread.sleep(10);
+            TypeInterner.expungeStaleEntries();
+        }
+
+        assertNull(tuple.get());
+        assertNull(list.get());
+        assertTrue(integer.getDerivedTypes().isEmpty());
+    }
+}
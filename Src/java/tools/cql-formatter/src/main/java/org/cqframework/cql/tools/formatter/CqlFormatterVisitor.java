@@ -2,6 +2,7 @@ package org.cqframework.cql.tools.formatter;
 
 import org.antlr.v4.runtime.*;
 import org.antlr.v4.runtime.tree.*;
+import org.cqframework.cql.CqlParserUtil;
 import org.cqframework.cql.gen.cqlBaseVisitor;
 import org.cqframework.cql.gen.cqlLexer;
 import org.cqframework.cql.gen.cqlParser;
@@ -31,7 +32,7 @@ public class CqlFormatterVisitor extends cqlBaseVisitor<Object> {
         cqlParser parser = new cqlParser(tokens);
         parser.addErrorListener(new SyntaxErrorListener());
         parser.setBuildParseTree(true);
-        ParserRuleContext tree = parser.library();
+        ParserRuleContext tree = CqlParserUtil.parseLibrary(parser);
 
         if (((SyntaxErrorListener) parser.getErrorListeners().get(1)).errors.size() > 0) {
             return new FormatResult(((SyntaxErrorListener) parser.getErrorListeners().get(1)).errors, in.toString());
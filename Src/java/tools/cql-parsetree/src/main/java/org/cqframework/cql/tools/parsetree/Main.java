@@ -5,6 +5,7 @@ import org.antlr.v4.runtime.CharStreams;
 import org.antlr.v4.runtime.CommonTokenStream;
 import org.antlr.v4.runtime.ParserRuleContext;
 import org.antlr.v4.gui.Trees;
+import org.cqframework.cql.CqlParserUtil;
 import org.cqframework.cql.gen.cqlLexer;
 import org.cqframework.cql.gen.cqlParser;
 
@@ -31,7 +32,7 @@ public class Main {
         tokens.fill();
         cqlParser parser = new cqlParser(tokens);
         parser.setBuildParseTree(true);
-        ParserRuleContext tree = parser.library();
+        ParserRuleContext tree = CqlParserUtil.parseLibrary(parser);
         Trees.inspect(tree, parser);
     }
 }